@@ -65,4 +65,14 @@ public class MemoryUsageMonitor extends Thread {
                 rt.freeMemory() / 1048576.0, (rt.totalMemory() - rt.freeMemory()) / 1048576.0));
     }
 
+    /**
+     * Fraction of the max heap currently in use, between 0 and 1. Includes the garbage not yet collected.
+     *
+     * @return Heap usage
+     */
+    public static double getHeapUsage() {
+        Runtime rt = Runtime.getRuntime();
+        return (rt.totalMemory() - rt.freeMemory()) / (double) rt.maxMemory();
+    }
+
 }
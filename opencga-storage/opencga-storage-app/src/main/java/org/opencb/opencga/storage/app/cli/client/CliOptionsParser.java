@@ -438,6 +438,10 @@ public class CliOptionsParser extends OptionsParser {
         @Parameter(names = {"--of", "--output-format"}, description = "Output format: vcf, vcf.gz, json or json.gz", required = false, arity = 1)
         public String outputFormat = "vcf";
 
+        @Parameter(names = {"--export-threads"}, description = "Number of threads to export a VCF in parallel. Output files in vcf.gz "
+                + "format are written in BGZF, with a tabix index", required = false, arity = 1)
+        public int exportThreads = 1;
+
     }
 
     @Parameters(commandNames = {"query-grpc"}, commandDescription = "Search over indexed variants")
@@ -470,6 +474,14 @@ public class CliOptionsParser extends OptionsParser {
         @Parameter(names = {"--overwrite-annotations"}, description = "Overwrite annotations in variants already present")
         public boolean overwriteAnnotations = false;
 
+        @Parameter(names = {"--direct-load"}, description = "Load the annotations into the DB while they are created, without any "
+                + "intermediate file. Ignored with --create or --load")
+        public boolean directLoad = false;
+
+        @Parameter(names = {"--incremental"}, description = "Annotate only variants without annotation or annotated with a different "
+                + "annotator version. Progress is checkpointed in the database, so an interrupted run can be resumed")
+        public boolean incremental = false;
+
         @Deprecated
         @Parameter(names = {"--annotator-config"}, description = "Path to the file with the configuration of the annotator")
         public String annotatorConfig;
@@ -538,6 +550,21 @@ public class CliOptionsParser extends OptionsParser {
         @Parameter(names = {"--concurrency"}, description = "Number of threads to run in parallel", required = false, arity = 1)
         public int concurrency = 1;
 
+        @Parameter(names = {"--synthetic"}, description = "Load a synthetic file with the given number of variants and samples. "
+                + "Used if no file is provided with --load. e.g. 10000:100", required = false, arity = 1)
+        public String synthetic;
+
+        @Parameter(names = {"--annotate"}, description = "Annotate the loaded variants, measuring the annotation time", required = false)
+        public boolean annotate = false;
+
+        @Parameter(names = {"-o", "--outdir"}, description = "Output directory for the intermediate files and the JSON results",
+                required = false, arity = 1)
+        public String outdir;
+
+        @DynamicParameter(names = {"--load-option"}, description = "Storage engine option to compare, with all the values to test. "
+                + "e.g. --load-option load.batch.size=100,1000. All the combinations will be executed")
+        public Map<String, String> loadOptions = new HashMap<>();
+
     }
 
     @Parameters(commandNames = {"stats-variants"}, commandDescription = "Create and load stats into a database.")
@@ -561,6 +588,10 @@ public class CliOptionsParser extends OptionsParser {
                 " correct")
         public boolean updateStats = false;
 
+        @Parameter(names = {"--incremental"}, description = "Update the stats of already calculated cohorts reading only the new samples." +
+                " Assumes that existing stats are correct")
+        public boolean incremental = false;
+
         @Parameter(names = {"-s", "--study-id"}, description = "Unique ID for the study where the file is classified", required = true,
                 arity = 1)
         public int studyId;
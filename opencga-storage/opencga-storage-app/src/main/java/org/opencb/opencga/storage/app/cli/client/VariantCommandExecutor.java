@@ -47,6 +47,7 @@ import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotationManager;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotator;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
+import org.opencb.opencga.storage.core.variant.io.ParallelVariantVcfExporter;
 import org.opencb.opencga.storage.core.variant.io.VariantVcfExporter;
 import org.opencb.opencga.storage.core.variant.stats.VariantStatisticsManager;
 import org.opencb.opencga.storage.server.grpc.GenericServiceModel;
@@ -244,6 +245,14 @@ public class VariantCommandExecutor extends CommandExecutor {
 
         Query query = VariantQueryCommandUtils.parseQuery(queryVariantsCommandOptions, studyNames);
         QueryOptions options = VariantQueryCommandUtils.parseQueryOptions(queryVariantsCommandOptions);
+
+        if (queryVariantsCommandOptions.exportThreads > 1 && !queryVariantsCommandOptions.count
+                && StringUtils.isEmpty(queryVariantsCommandOptions.rank) && StringUtils.isEmpty(queryVariantsCommandOptions.groupBy)
+                && StringUtils.startsWith(queryVariantsCommandOptions.outputFormat, "vcf")) {
+            exportVcfParallel(variantDBAdaptor, query, options, queryVariantsCommandOptions);
+            return;
+        }
+
         OutputStream outputStream = VariantQueryCommandUtils.getOutputStream(queryVariantsCommandOptions);
 
         if (queryVariantsCommandOptions.count) {
@@ -298,6 +307,38 @@ public class VariantCommandExecutor extends CommandExecutor {
         outputStream.close();
     }
 
+    private void exportVcfParallel(VariantDBAdaptor variantDBAdaptor, Query query, QueryOptions options,
+                                   CliOptionsParser.QueryVariantsCommandOptions queryVariantsCommandOptions) throws Exception {
+        StudyConfigurationManager studyConfigurationManager = variantDBAdaptor.getStudyConfigurationManager();
+        QueryResult<StudyConfiguration> studyConfigurationResult = studyConfigurationManager.getStudyConfiguration(
+                query.getAsStringList(RETURNED_STUDIES.key()).get(0), null);
+        if (studyConfigurationResult.getResult().isEmpty()) {
+            logger.warn("no study found named " + query.getAsStringList(RETURNED_STUDIES.key()).get(0));
+            return;
+        }
+        if (query.containsKey(RETURNED_SAMPLES.key())) {
+            options.put(RETURNED_SAMPLES.key(), query.get(RETURNED_SAMPLES.key()));
+        }
+        if (queryVariantsCommandOptions.annotations != null) {
+            options.add("annotations", queryVariantsCommandOptions.annotations);
+        }
+
+        ParallelVariantVcfExporter exporter = new ParallelVariantVcfExporter(variantDBAdaptor, studyConfigurationResult.first(),
+                options, queryVariantsCommandOptions.exportThreads);
+        if (StringUtils.isEmpty(queryVariantsCommandOptions.output) || queryVariantsCommandOptions.outputFormat.equals("vcf")) {
+            try (OutputStream outputStream = VariantQueryCommandUtils.getOutputStream(queryVariantsCommandOptions)) {
+                exporter.export(query, outputStream);
+            }
+        } else {
+            // BGZF output, indexed with tabix
+            String output = queryVariantsCommandOptions.output;
+            if (!output.endsWith(".gz")) {
+                output += ".gz";
+            }
+            exporter.export(query, Paths.get(output));
+        }
+    }
+
     private void queryGrpc() throws Exception {
         CliOptionsParser.QueryGrpCVariantsCommandOptions queryGrpcCommandOptions = variantCommandOptions.queryGrpCVariantsCommandOptions;
 
@@ -436,6 +477,25 @@ public class VariantCommandExecutor extends CommandExecutor {
             doLoad = true;
         }
 
+        if (doCreate && doLoad && (annotateVariantsCommandOptions.directLoad || annotateVariantsCommandOptions.incremental)) {
+            QueryOptions options = new QueryOptions(VariantAnnotationManager.OUT_DIR, outDir.toString())
+                    .append(VariantAnnotationManager.DIRECT_LOAD, annotateVariantsCommandOptions.directLoad)
+                    .append(VariantAnnotationManager.INCREMENTAL, annotateVariantsCommandOptions.incremental)
+                    .append(VariantAnnotationManager.OVERWRITE_ANNOTATIONS, annotateVariantsCommandOptions.overwriteAnnotations);
+            if (annotateVariantsCommandOptions.fileName != null) {
+                options.put(VariantAnnotationManager.FILE_NAME, annotateVariantsCommandOptions.fileName);
+            }
+            if (annotateVariantsCommandOptions.incremental) {
+                // Incremental annotation decides which variants have to be annotated
+                query.remove(VariantDBAdaptor.VariantQueryParams.ANNOTATION_EXISTS.key());
+            }
+            long start = System.currentTimeMillis();
+            logger.info("Starting annotation creation and load");
+            variantAnnotationManager.annotate(query, options);
+            logger.info("Finished annotation creation and load {}ms", System.currentTimeMillis() - start);
+            return;
+        }
+
         URI annotationFile = null;
         if (doCreate) {
             long start = System.currentTimeMillis();
@@ -468,6 +528,7 @@ public class VariantCommandExecutor extends CommandExecutor {
         }
         options.put(VariantStorageManager.Options.OVERWRITE_STATS.key(), statsVariantsCommandOptions.overwriteStats);
         options.put(VariantStorageManager.Options.UPDATE_STATS.key(), statsVariantsCommandOptions.updateStats);
+        options.put(VariantStorageManager.Options.STATS_INCREMENTAL.key(), statsVariantsCommandOptions.incremental);
         if (statsVariantsCommandOptions.fileId != 0) {
             options.put(VariantStorageManager.Options.FILE_ID.key(), statsVariantsCommandOptions.fileId);
         }
@@ -627,6 +688,32 @@ public class VariantCommandExecutor extends CommandExecutor {
             configuration.getBenchmark().setConcurrency(benchmarkCommandOptions.concurrency);
         }
 
+        if (benchmarkCommandOptions.load != null && !benchmarkCommandOptions.load.isEmpty()) {
+            configuration.getBenchmark().setLoad(true);
+            configuration.getBenchmark().setInput(benchmarkCommandOptions.load);
+        } else if (benchmarkCommandOptions.synthetic != null && !benchmarkCommandOptions.synthetic.isEmpty()) {
+            String[] split = benchmarkCommandOptions.synthetic.split(":");
+            configuration.getBenchmark().setLoad(true);
+            configuration.getBenchmark().setSyntheticVariants(Integer.parseInt(split[0]));
+            if (split.length > 1) {
+                configuration.getBenchmark().setSyntheticSamples(Integer.parseInt(split[1]));
+            }
+        }
+
+        if (benchmarkCommandOptions.annotate) {
+            configuration.getBenchmark().setAnnotate(true);
+        }
+
+        if (benchmarkCommandOptions.outdir != null && !benchmarkCommandOptions.outdir.isEmpty()) {
+            configuration.getBenchmark().setOutdir(benchmarkCommandOptions.outdir);
+        }
+
+        if (!benchmarkCommandOptions.loadOptions.isEmpty()) {
+            Map<String, List<Object>> loadOptions = new LinkedHashMap<>();
+            benchmarkCommandOptions.loadOptions.forEach((key, values) -> loadOptions.put(key, Arrays.asList(values.split(","))));
+            configuration.getBenchmark().setLoadOptions(loadOptions);
+        }
+
         logger.debug("Benchmark configuration: {}", configuration.getBenchmark());
 
         // validate
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmarks;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import org.apache.commons.lang3.tuple.Pair;
+import org.opencb.biodata.formats.variant.vcf4.FullVcfCodec;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantNormalizer;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.biodata.tools.variant.converter.VariantContextToVariantConverter;
+import org.opencb.opencga.storage.core.benchmark.SyntheticVcfGenerator;
+import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.variant.VariantStorageETL;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Shared fixtures for the benchmarks. Reads the synthetic VCF files generated by {@link SyntheticVcfGenerator},
+ * generating them on the fly if the build step was skipped.
+ */
+public final class BenchmarkFixtures {
+
+    public static final String FIXTURES_DIR_PROPERTY = "opencga.benchmark.fixtures";
+    public static final String DEFAULT_FIXTURES_DIR = "target/benchmark-fixtures";
+    /**
+     * Number of variants of every fixture. Fixed, as it is the {@link org.openjdk.jmh.annotations.OperationsPerInvocation}
+     * of the benchmarks iterating over all the variants.
+     */
+    public static final int NUM_VARIANTS = 5000;
+
+    public static final int STUDY_ID = 1;
+    public static final int FILE_ID = 1;
+    public static final String STUDY_NAME = "benchmark";
+
+    private BenchmarkFixtures() {
+    }
+
+    public static Path getVcf(int numSamples) {
+        Path dir = Paths.get(System.getProperty(FIXTURES_DIR_PROPERTY, DEFAULT_FIXTURES_DIR));
+        Path vcf = SyntheticVcfGenerator.getFixturePath(dir, numSamples);
+        if (!Files.exists(vcf)) {
+            try {
+                Files.createDirectories(dir);
+                new SyntheticVcfGenerator().generate(vcf, NUM_VARIANTS, numSamples);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return vcf;
+    }
+
+    /**
+     * Read all the data lines of the fixture, skipping the header.
+     *
+     * @param numSamples Number of samples of the fixture
+     * @return List of VCF lines
+     * @throws IllegalStateException if the fixture does not have {@link #NUM_VARIANTS} variants
+     */
+    public static List<String> readLines(int numSamples) {
+        Path vcf = getVcf(numSamples);
+        List<String> lines;
+        try (Stream<String> stream = Files.lines(vcf)) {
+            lines = stream
+                    .filter(line -> !line.startsWith("#"))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (lines.size() != NUM_VARIANTS) {
+            throw new IllegalStateException("Fixture " + vcf + " has " + lines.size() + " variants instead of " + NUM_VARIANTS
+                    + ". Remove it to generate it again.");
+        }
+        return lines;
+    }
+
+    public static VariantSource getVariantSource(int numSamples) throws StorageManagerException {
+        Path vcf = getVcf(numSamples);
+        VariantSource source = new VariantSource(vcf.getFileName().toString(), String.valueOf(FILE_ID),
+                String.valueOf(STUDY_ID), STUDY_NAME);
+        return VariantStorageManager.readVariantSource(vcf, source);
+    }
+
+    public static Pair<VCFHeader, VCFHeaderVersion> getHeader(int numSamples) throws StorageManagerException {
+        return VariantStorageETL.readHtsHeader(getVcf(numSamples));
+    }
+
+    /**
+     * Read and normalize all the variants of the fixture, the same way as the transform step does.
+     *
+     * @param numSamples Number of samples of the fixture
+     * @return List of normalized variants
+     * @throws StorageManagerException if the header can not be read
+     */
+    public static List<Variant> readVariants(int numSamples) throws StorageManagerException {
+        VariantSource source = getVariantSource(numSamples);
+        Pair<VCFHeader, VCFHeaderVersion> header = getHeader(numSamples);
+        FullVcfCodec codec = new FullVcfCodec();
+        codec.setVCFHeader(header.getKey(), header.getValue());
+        VariantContextToVariantConverter converter =
+                new VariantContextToVariantConverter(source.getStudyId(), source.getFileId(), source.getSamples());
+        VariantNormalizer normalizer = new VariantNormalizer();
+
+        List<String> lines = readLines(numSamples);
+        List<VariantContext> variantContexts = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            variantContexts.add(codec.decode(line));
+        }
+        return normalizer.apply(converter.apply(variantContexts));
+    }
+
+    /**
+     * Build a StudyConfiguration with one indexed file containing all the samples of the fixture.
+     *
+     * @param numSamples Number of samples of the fixture
+     * @return StudyConfiguration
+     * @throws StorageManagerException if the header can not be read
+     */
+    public static StudyConfiguration getStudyConfiguration(int numSamples) throws StorageManagerException {
+        VariantSource source = getVariantSource(numSamples);
+        StudyConfiguration studyConfiguration = new StudyConfiguration(STUDY_ID, STUDY_NAME, FILE_ID, source.getFileName());
+        studyConfiguration.getIndexedFiles().add(FILE_ID);
+        LinkedHashSet<Integer> sampleIds = new LinkedHashSet<>();
+        for (String sample : source.getSamples()) {
+            int sampleId = studyConfiguration.getSampleIds().size();
+            studyConfiguration.getSampleIds().put(sample, sampleId);
+            sampleIds.add(sampleId);
+        }
+        studyConfiguration.getSamplesInFiles().put(FILE_ID, sampleIds);
+        studyConfiguration.getAttributes().put(VariantStorageManager.Options.EXTRA_GENOTYPE_FIELDS.key(),
+                Collections.singletonList("DP"));
+        studyConfiguration.getAttributes().put(MongoDBVariantStorageManager.MongoDBVariantOptions.DEFAULT_GENOTYPE.key(), "0/0");
+        return studyConfiguration;
+    }
+
+}
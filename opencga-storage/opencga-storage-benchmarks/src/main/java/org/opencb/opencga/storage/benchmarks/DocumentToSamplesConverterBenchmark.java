@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmarks;
+
+import org.bson.Document;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToSamplesConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToStudyVariantEntryConverter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of the genotypes and sample data of a study from and to the MongoDB document model.
+ * The "returnedSamples" parameter limits the number of samples to decode, as a query with a sample projection does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DocumentToSamplesConverterBenchmark {
+
+    @Param({"10", "100", "1000"})
+    protected int numSamples;
+
+    @Param({"all", "1"})
+    protected String returnedSamples;
+
+    private List<StudyEntry> studies;
+    private List<Document> documents;
+    private DocumentToSamplesConverter converter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws StorageManagerException {
+        StudyConfiguration studyConfiguration = BenchmarkFixtures.getStudyConfiguration(numSamples);
+        converter = new DocumentToSamplesConverter(studyConfiguration);
+        DocumentToStudyVariantEntryConverter studyEntryConverter = new DocumentToStudyVariantEntryConverter(false, converter);
+
+        List<Variant> variants = BenchmarkFixtures.readVariants(numSamples);
+        studies = new ArrayList<>(variants.size());
+        documents = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            StudyEntry study = variant.getStudies().get(0);
+            studies.add(study);
+            documents.add(studyEntryConverter.convertToStorageType(study));
+        }
+        if (!returnedSamples.equals("all")) {
+            List<String> samples = new ArrayList<>(studyConfiguration.getSampleIds().keySet());
+            converter.setReturnedSamples(samples.subList(0, Integer.parseInt(returnedSamples)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.NUM_VARIANTS)
+    public void convertToStorageType(Blackhole blackhole) {
+        for (StudyEntry study : studies) {
+            blackhole.consume(converter.convertToStorageType(study, BenchmarkFixtures.STUDY_ID, BenchmarkFixtures.FILE_ID,
+                    new Document()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.NUM_VARIANTS)
+    public void convertToDataModelType(Blackhole blackhole) {
+        for (Document document : documents) {
+            blackhole.consume(converter.convertToDataModelType(document, BenchmarkFixtures.STUDY_ID));
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmarks;
+
+import org.bson.Document;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToSamplesConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToStudyVariantEntryConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantStatsConverter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of whole variants from and to the MongoDB document model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DocumentToVariantConverterBenchmark {
+
+    @Param({"10", "100", "1000"})
+    protected int numSamples;
+
+    private List<Variant> variants;
+    private List<Document> documents;
+    private DocumentToVariantConverter converter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws StorageManagerException {
+        StudyConfiguration studyConfiguration = BenchmarkFixtures.getStudyConfiguration(numSamples);
+        converter = new DocumentToVariantConverter(
+                new DocumentToStudyVariantEntryConverter(false, new DocumentToSamplesConverter(studyConfiguration)),
+                new DocumentToVariantStatsConverter());
+        variants = BenchmarkFixtures.readVariants(numSamples);
+        documents = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            documents.add(converter.convertToStorageType(variant));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.NUM_VARIANTS)
+    public void convertToStorageType(Blackhole blackhole) {
+        for (Variant variant : variants) {
+            blackhole.consume(converter.convertToStorageType(variant));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.NUM_VARIANTS)
+    public void convertToDataModelType(Blackhole blackhole) {
+        for (Document document : documents) {
+            blackhole.consume(converter.convertToDataModelType(document));
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmarks;
+
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.variant.stats.VariantStatisticsCalculator;
+import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the statistics calculation for one cohort with all the samples, and for several smaller cohorts, with and
+ * without the bitset based calculator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class VariantStatisticsCalculatorBenchmark {
+
+    @Param({"10", "100", "1000"})
+    protected int numSamples;
+
+    @Param({"1", "5"})
+    protected int numCohorts;
+
+    @Param({"true", "false"})
+    protected boolean bitSetStats;
+
+    private List<Variant> variants;
+    private Map<String, Set<String>> cohorts;
+    private VariantStatisticsCalculator calculator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws StorageManagerException {
+        StudyConfiguration studyConfiguration = BenchmarkFixtures.getStudyConfiguration(numSamples);
+        variants = BenchmarkFixtures.readVariants(numSamples);
+        calculator = new VariantStatisticsCalculator(true, bitSetStats);
+
+        List<String> samples = new ArrayList<>(studyConfiguration.getSampleIds().keySet());
+        if (numCohorts == 1) {
+            cohorts = Collections.singletonMap(StudyEntry.DEFAULT_COHORT, new HashSet<>(samples));
+        } else {
+            cohorts = new HashMap<>();
+            for (int i = 0; i < samples.size(); i++) {
+                cohorts.computeIfAbsent("C" + (i % numCohorts), key -> new HashSet<>()).add(samples.get(i));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.NUM_VARIANTS)
+    public List<VariantStatsWrapper> calculateBatch() {
+        return calculator.calculateBatch(variants, String.valueOf(BenchmarkFixtures.STUDY_ID),
+                String.valueOf(BenchmarkFixtures.FILE_ID), cohorts);
+    }
+
+}
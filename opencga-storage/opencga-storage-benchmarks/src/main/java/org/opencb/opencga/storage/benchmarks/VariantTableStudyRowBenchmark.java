@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmarks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.opencb.opencga.storage.hadoop.variant.index.VariantTableHelper;
+import org.opencb.opencga.storage.hadoop.variant.index.VariantTableStudyRow;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the creation of {@link VariantTableStudyRow} from variants and the generation of the HBase Put.
+ * No connection to HBase is required.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class VariantTableStudyRowBenchmark {
+
+    @Param({"10", "100", "1000"})
+    protected int numSamples;
+
+    private List<Variant> variants;
+    private List<VariantTableStudyRow> rows;
+    private Map<String, Integer> sampleIds;
+    private VariantTableHelper helper;
+
+    @Setup(Level.Trial)
+    public void setUp() throws StorageManagerException {
+        StudyConfiguration studyConfiguration = BenchmarkFixtures.getStudyConfiguration(numSamples);
+        sampleIds = studyConfiguration.getSampleIds();
+        variants = BenchmarkFixtures.readVariants(numSamples);
+
+        Configuration conf = new Configuration(false);
+        GenomeHelper.setStudyId(conf, BenchmarkFixtures.STUDY_ID);
+        helper = new VariantTableHelper(conf, "benchmark_archive", "benchmark_variants", null);
+
+        rows = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            rows.add(new VariantTableStudyRow(variant, BenchmarkFixtures.STUDY_ID, sampleIds));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.NUM_VARIANTS)
+    public void createRow(Blackhole blackhole) {
+        for (Variant variant : variants) {
+            blackhole.consume(new VariantTableStudyRow(variant, BenchmarkFixtures.STUDY_ID, sampleIds));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.NUM_VARIANTS)
+    public void createPut(Blackhole blackhole) {
+        long ts = System.currentTimeMillis();
+        for (VariantTableStudyRow row : rows) {
+            blackhole.consume(row.createPut(helper, ts));
+        }
+    }
+
+}
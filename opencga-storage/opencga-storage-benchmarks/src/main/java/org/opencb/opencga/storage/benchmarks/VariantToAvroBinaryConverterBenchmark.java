@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmarks;
+
+import org.bson.types.Binary;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
+import org.opencb.opencga.storage.mongodb.variant.converters.stage.VariantToAvroBinaryConverter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Avro binary encoding used to write variants into the MongoDB stage collection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class VariantToAvroBinaryConverterBenchmark {
+
+    @Param({"10", "100", "1000"})
+    protected int numSamples;
+
+    private List<Variant> variants;
+    private List<Binary> binaries;
+    private VariantToAvroBinaryConverter converter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws StorageManagerException {
+        converter = new VariantToAvroBinaryConverter();
+        variants = BenchmarkFixtures.readVariants(numSamples);
+        binaries = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            binaries.add(converter.convertToStorageType(variant));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.NUM_VARIANTS)
+    public void encode(Blackhole blackhole) {
+        for (Variant variant : variants) {
+            blackhole.consume(converter.convertToStorageType(variant));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.NUM_VARIANTS)
+    public void decode(Blackhole blackhole) {
+        for (Binary binary : binaries) {
+            blackhole.consume(converter.convertToDataModelType(binary));
+        }
+    }
+
+}
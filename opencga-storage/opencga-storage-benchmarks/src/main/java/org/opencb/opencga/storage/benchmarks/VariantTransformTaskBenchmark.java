@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmarks;
+
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import org.apache.commons.lang3.tuple.Pair;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.biodata.tools.variant.stats.VariantGlobalStatsCalculator;
+import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
+import org.opencb.opencga.storage.core.variant.transform.VariantAvroTransformTask;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the transformation of VCF lines into Avro encoded variants done by {@link VariantAvroTransformTask}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class VariantTransformTaskBenchmark {
+
+    @Param({"10", "100", "1000"})
+    protected int numSamples;
+
+    @Param({"true", "false"})
+    protected boolean generateReferenceBlocks;
+
+    private List<String> lines;
+    private VariantAvroTransformTask task;
+    private Path metaFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws StorageManagerException, IOException {
+        lines = BenchmarkFixtures.readLines(numSamples);
+        VariantSource source = BenchmarkFixtures.getVariantSource(numSamples);
+        Pair<VCFHeader, VCFHeaderVersion> header = BenchmarkFixtures.getHeader(numSamples);
+        metaFile = Files.createTempFile("benchmark", ".file.json.gz");
+        task = new VariantAvroTransformTask(header.getKey(), header.getValue(), source, metaFile,
+                new VariantGlobalStatsCalculator(source), false, generateReferenceBlocks);
+        task.pre();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(metaFile);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.NUM_VARIANTS)
+    public List<ByteBuffer> transform() {
+        return task.apply(lines);
+    }
+
+}
@@ -16,10 +16,20 @@
 
 package org.opencb.opencga.storage.core.benchmark;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.opencga.storage.core.config.BenchmarkConfiguration;
 import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -28,6 +38,7 @@ import java.util.concurrent.ExecutionException;
 public class BenchmarkManager {
 
     private StorageConfiguration storageConfiguration;
+    private final Logger logger = LoggerFactory.getLogger(BenchmarkManager.class);
 
     public BenchmarkManager(StorageConfiguration storageConfiguration) {
         this.storageConfiguration = storageConfiguration;
@@ -36,13 +47,127 @@ public class BenchmarkManager {
     public BenchmarkStats variantBenchmark() throws ClassNotFoundException, StorageManagerException, InstantiationException,
             IllegalAccessException, ExecutionException, InterruptedException {
 
+        if (storageConfiguration.getBenchmark().isLoad()) {
+            List<ObjectMap> results = variantIngestionBenchmark();
+            writeResults(results);
+            return (BenchmarkStats) results.get(results.size() - 1).get("stats");
+        }
+
         BenchmarkRunner benchmarkRunner = new VariantBenchmarkRunner(storageConfiguration);
         BenchmarkStats benchmarkStats = benchmarkRunner.query(storageConfiguration.getBenchmark().getNumRepetitions(),
                 new HashSet<>(storageConfiguration.getBenchmark().getQueries()));
 
+        writeResults(Collections.singletonList(buildResult(storageConfiguration.getBenchmark().getStorageEngine(),
+                new ObjectMap(), storageConfiguration.getBenchmark().getDatabaseName(), benchmarkStats)));
         return benchmarkStats;
     }
 
+    /**
+     * Load the same input file once per storage engine and combination of load options, and run the benchmark queries
+     * over each loaded database.
+     *
+     * Storage engines are read as a comma separated list from {@link BenchmarkConfiguration#getStorageEngine()}.
+     * If there is more than one run, each one is loaded in a new database named {@code <databaseName>_<run>}.
+     *
+     * @return One result for each run, with the storage engine, the options and the stats.
+     * @throws ClassNotFoundException   if the storage engine can not be created
+     * @throws StorageManagerException  if any stage fails
+     * @throws InstantiationException   if the storage engine can not be created
+     * @throws IllegalAccessException   if the storage engine can not be created
+     * @throws ExecutionException       if any query fails
+     * @throws InterruptedException     if the benchmark is interrupted
+     */
+    public List<ObjectMap> variantIngestionBenchmark() throws ClassNotFoundException, StorageManagerException, InstantiationException,
+            IllegalAccessException, ExecutionException, InterruptedException {
+        BenchmarkConfiguration benchmark = storageConfiguration.getBenchmark();
+        String databaseName = benchmark.getDatabaseName();
+        List<String> storageEngines = Arrays.asList(benchmark.getStorageEngine().split(","));
+        List<ObjectMap> optionsCombinations = combineOptions(benchmark.getLoadOptions());
+        boolean multipleRuns = storageEngines.size() * optionsCombinations.size() > 1;
+
+        List<ObjectMap> results = new ArrayList<>();
+        int run = 0;
+        try {
+            for (String storageEngine : storageEngines) {
+                ObjectMap engineOptions = storageConfiguration.getStorageEngine(storageEngine).getVariant().getOptions();
+                ObjectMap originalOptions = new ObjectMap(engineOptions);
+                for (ObjectMap options : optionsCombinations) {
+                    String runDatabaseName = multipleRuns ? databaseName + "_" + run : databaseName;
+                    benchmark.setDatabaseName(runDatabaseName);
+                    engineOptions.putAll(options);
+                    engineOptions.put(VariantStorageManager.Options.DB_NAME.key(), runDatabaseName);
+
+                    logger.info("Benchmark run {}: storageEngine = {}, database = {}, options = {}",
+                            run, storageEngine, runDatabaseName, options);
+                    VariantBenchmarkRunner runner = new VariantBenchmarkRunner(storageEngine, storageConfiguration);
+                    runner.insert();
+                    BenchmarkStats stats = runner.query(benchmark.getNumRepetitions(), new HashSet<>(benchmark.getQueries()));
+                    results.add(buildResult(storageEngine, options, runDatabaseName, stats));
+
+                    engineOptions.clear();
+                    engineOptions.putAll(originalOptions);
+                    run++;
+                }
+            }
+        } finally {
+            benchmark.setDatabaseName(databaseName);
+        }
+        return results;
+    }
+
+    /**
+     * Build all the possible combinations of the given options.
+     *
+     * @param options Map from option key to the list of values to test
+     * @return List of combinations. Contains one empty ObjectMap if there are no options.
+     */
+    static List<ObjectMap> combineOptions(Map<String, List<Object>> options) {
+        List<ObjectMap> combinations = new ArrayList<>();
+        combinations.add(new ObjectMap());
+        if (options == null) {
+            return combinations;
+        }
+        for (Map.Entry<String, List<Object>> entry : options.entrySet()) {
+            if (entry.getValue() == null || entry.getValue().isEmpty()) {
+                continue;
+            }
+            List<ObjectMap> newCombinations = new ArrayList<>(combinations.size() * entry.getValue().size());
+            for (ObjectMap combination : combinations) {
+                for (Object value : entry.getValue()) {
+                    newCombinations.add(new ObjectMap(combination).append(entry.getKey(), value));
+                }
+            }
+            combinations = newCombinations;
+        }
+        return combinations;
+    }
+
+    private ObjectMap buildResult(String storageEngine, ObjectMap options, String databaseName, BenchmarkStats stats) {
+        return new ObjectMap()
+                .append("storageEngine", storageEngine)
+                .append("databaseName", databaseName)
+                .append("options", options)
+                .append("stats", stats);
+    }
+
+    private void writeResults(List<ObjectMap> results) throws StorageManagerException {
+        Path outdir = Paths.get(storageConfiguration.getBenchmark().getOutdir());
+        Path file = outdir.resolve("benchmark." + System.currentTimeMillis() + ".json");
+        List<ObjectMap> serializableResults = new ArrayList<>(results.size());
+        for (ObjectMap result : results) {
+            ObjectMap serializableResult = new ObjectMap(result);
+            serializableResult.put("stats", ((BenchmarkStats) result.get("stats")).toObjectMap());
+            serializableResults.add(serializableResult);
+        }
+        try {
+            Files.createDirectories(outdir);
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), serializableResults);
+        } catch (IOException e) {
+            throw new StorageManagerException("Unable to write benchmark results to " + file, e);
+        }
+        logger.info("Benchmark results written to {}", file);
+    }
+
     //Load data if user provide the loading option with file path
     private void loadDataToHBase(String filePath) {
         //TODO : If user wants to load the data to HBase and then benchmarking
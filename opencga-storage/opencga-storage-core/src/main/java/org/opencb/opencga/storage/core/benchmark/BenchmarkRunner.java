@@ -17,6 +17,7 @@
 package org.opencb.opencga.storage.core.benchmark;
 
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
+import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.slf4j.Logger;
 
@@ -39,9 +40,9 @@ public abstract class BenchmarkRunner {
     }
 
 
-    public abstract BenchmarkStats convert();
+    public abstract BenchmarkStats convert() throws StorageManagerException;
 
-    public abstract BenchmarkStats insert();
+    public abstract BenchmarkStats insert() throws StorageManagerException;
 
     public abstract BenchmarkStats query() throws ExecutionException, InterruptedException;
 
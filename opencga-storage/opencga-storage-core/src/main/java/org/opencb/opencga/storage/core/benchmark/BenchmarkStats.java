@@ -16,7 +16,10 @@
 
 package org.opencb.opencga.storage.core.benchmark;
 
+import org.opencb.commons.datastore.core.ObjectMap;
+
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,12 +29,24 @@ import java.util.Map;
  */
 public class BenchmarkStats {
 
+    public static final String VARIANTS = "variants";
+    public static final String BYTES = "bytes";
+    public static final String TIME_MILLIS = "timeMillis";
+    public static final String VARIANTS_PER_SECOND = "variantsPerSecond";
+    public static final String MB_PER_SECOND = "mbPerSecond";
+
     private Map<String, List<Integer>> counters;
     private Map<String, List<Double>> std;
+    // Latency of each single operation, in nanoseconds
+    private Map<String, List<Long>> latencies;
+    // Throughput of each ingestion stage
+    private Map<String, ObjectMap> stages;
 
     public BenchmarkStats() {
         counters = new LinkedHashMap<>();
         std = new LinkedHashMap<>();
+        latencies = new LinkedHashMap<>();
+        stages = new LinkedHashMap<>();
     }
 
     public void addExecutionTime(String counter, int executionTime) {
@@ -48,6 +63,59 @@ public class BenchmarkStats {
         std.get(counter).add(executionTime);
     }
 
+    public synchronized void addLatency(String counter, long latencyNanos) {
+        latencies.computeIfAbsent(counter, key -> new ArrayList<>()).add(latencyNanos);
+    }
+
+    /**
+     * Register the execution of an ingestion stage, like transform, load or annotation.
+     * Stages are not single operations, so their time is not added to the latencies.
+     *
+     * @param stage         Stage name
+     * @param numVariants   Number of variants processed by the stage
+     * @param numBytes      Size of the stage input
+     * @param timeMillis    Wall clock time of the stage
+     */
+    public void addStage(String stage, long numVariants, long numBytes, long timeMillis) {
+        double seconds = Math.max(timeMillis, 1) / 1000d;
+        stages.put(stage, new ObjectMap()
+                .append(VARIANTS, numVariants)
+                .append(BYTES, numBytes)
+                .append(TIME_MILLIS, timeMillis)
+                .append(VARIANTS_PER_SECOND, round(numVariants / seconds))
+                .append(MB_PER_SECOND, round(numBytes / seconds / 1024d / 1024d)));
+    }
+
+    /**
+     * Get the value below which the given percentage of the latencies of a counter fall, using the nearest-rank method.
+     *
+     * @param counter    Counter name
+     * @param percentile Percentile, between 0 and 100
+     * @return Latency in nanoseconds. -1 if there are no values for this counter.
+     */
+    public synchronized long percentile(String counter, double percentile) {
+        List<Long> values = latencies.get(counter);
+        if (values == null || values.isEmpty()) {
+            return -1;
+        }
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100d * sorted.size());
+        return sorted.get(Math.min(Math.max(rank, 1), sorted.size()) - 1);
+    }
+
+    /**
+     * Same as {@link #percentile}, in milliseconds.
+     *
+     * @param counter    Counter name
+     * @param percentile Percentile, between 0 and 100
+     * @return Latency in milliseconds. -1 if there are no values for this counter.
+     */
+    public double percentileMillis(String counter, double percentile) {
+        long nanos = percentile(counter, percentile);
+        return nanos < 0 ? -1 : round(nanos / 1e6);
+    }
+
     public double avg(String counter) {
         if (counter != null && counters.get(counter) != null) {
             List<Integer> integers = counters.get(counter);
@@ -77,6 +145,45 @@ public class BenchmarkStats {
         return stdDevRoundOff; //Math.sqrt(variance(counter));
     }
 
+    private static double round(double value) {
+        return Math.round(value * 1000d) / 1000d;
+    }
+
+    public Map<String, ObjectMap> getStages() {
+        return stages;
+    }
+
+    /**
+     * Summary of all the counters, latencies and stages, to be serialized as JSON.
+     *
+     * @return ObjectMap with the summary.
+     */
+    public synchronized ObjectMap toObjectMap() {
+        ObjectMap counterStats = new ObjectMap();
+        for (String key : counters.keySet()) {
+            counterStats.put(key, new ObjectMap()
+                    .append("values", counters.get(key))
+                    .append("avg", avg(key))
+                    .append("variance", variance(key))
+                    .append("std", standardDeviation(key)));
+        }
+        ObjectMap latencyStats = new ObjectMap();
+        for (Map.Entry<String, List<Long>> entry : latencies.entrySet()) {
+            String key = entry.getKey();
+            latencyStats.put(key, new ObjectMap()
+                    .append("count", entry.getValue().size())
+                    .append("min", percentileMillis(key, 0))
+                    .append("p50", percentileMillis(key, 50))
+                    .append("p95", percentileMillis(key, 95))
+                    .append("p99", percentileMillis(key, 99))
+                    .append("max", percentileMillis(key, 100)));
+        }
+        return new ObjectMap()
+                .append("counters", counterStats)
+                .append("latencies", latencyStats)
+                .append("stages", stages);
+    }
+
 //    private static final String ANSI_BLACK = "\u001B[30m";
 //    private static final String ANSI_WHITE = "\u001B[37m";
 //    private static final String ANSI_RESET = "\u001B[0m";
@@ -102,6 +209,23 @@ public class BenchmarkStats {
             System.out.print(ANSI_GREEN + "Variance: " + ANSI_CYAN + variance(key) + ", ");
             System.out.print(ANSI_GREEN + "Standard Deviation: " + ANSI_CYAN + standardDeviation(key));
             System.out.println();
+            printLatencies(key);
+        }
+        for (Map.Entry<String, ObjectMap> entry : stages.entrySet()) {
+            System.out.print(ANSI_GREEN + "Stage: " + ANSI_CYAN + entry.getKey() + ", ");
+            System.out.print(ANSI_GREEN + "Time (ms): " + ANSI_CYAN + entry.getValue().getLong(TIME_MILLIS) + ", ");
+            System.out.print(ANSI_GREEN + "Variants/s: " + ANSI_CYAN + entry.getValue().getDouble(VARIANTS_PER_SECOND) + ", ");
+            System.out.print(ANSI_GREEN + "MB/s: " + ANSI_CYAN + entry.getValue().getDouble(MB_PER_SECOND));
+            System.out.println();
+        }
+    }
+
+    private void printLatencies(String key) {
+        if (latencies.containsKey(key)) {
+            System.out.print(ANSI_GREEN + "Latency (ms) p50: " + ANSI_CYAN + percentileMillis(key, 50) + ", ");
+            System.out.print(ANSI_GREEN + "p95: " + ANSI_CYAN + percentileMillis(key, 95) + ", ");
+            System.out.print(ANSI_GREEN + "p99: " + ANSI_CYAN + percentileMillis(key, 99));
+            System.out.println();
         }
     }
 
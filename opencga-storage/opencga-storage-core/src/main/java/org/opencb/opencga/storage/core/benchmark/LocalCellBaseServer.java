@@ -0,0 +1,281 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.benchmark;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.opencga.storage.core.variant.io.avro.VariantAnnotationJsonDataReader;
+import org.opencb.opencga.storage.core.variant.io.json.VariantAnnotationMixin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Embedded stand-in for the CellBase variant annotation web service, to test and benchmark the annotation without network.
+ *
+ * Answers any request to {@code .../genomic/variant/<variants>/annotation}, taking the variants from the path or from the
+ * body of a POST request. The annotations are read from a fixture file with one json {@link VariantAnnotation} per line,
+ * as written by the VariantAnnotationJsonDataWriter. Variants missing in the fixture get an empty annotation.
+ * A fixed latency and a ratio of failed requests can be configured to simulate a remote server.
+ */
+public class LocalCellBaseServer {
+
+    private final Map<String, VariantAnnotation> annotations = new HashMap<>();
+    private final long latencyMillis;
+    private final double errorRate;
+    private final Random random = new Random(SyntheticVcfGenerator.SEED);
+    private final ObjectMapper objectMapper;
+    private final AtomicLong numRequests = new AtomicLong();
+    private final AtomicLong numVariants = new AtomicLong();
+    private final AtomicLong numErrors = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private final Logger logger = LoggerFactory.getLogger(LocalCellBaseServer.class);
+
+    public LocalCellBaseServer(Path fixture, long latencyMillis, double errorRate) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        objectMapper = new ObjectMapper();
+        objectMapper.addMixIn(VariantAnnotation.class, VariantAnnotationMixin.class);
+        objectMapper.configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true);
+        if (fixture != null) {
+            loadFixture(fixture);
+        }
+    }
+
+    private void loadFixture(Path fixture) throws IOException {
+        InputStream inputStream = Files.newInputStream(fixture);
+        if (fixture.toString().endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        VariantAnnotationJsonDataReader reader = new VariantAnnotationJsonDataReader(inputStream);
+        reader.open();
+        List<VariantAnnotation> batch = reader.read(1000);
+        while (!batch.isEmpty()) {
+            for (VariantAnnotation annotation : batch) {
+                annotations.put(buildKey(annotation.getChromosome(), annotation.getStart(), annotation.getReference(),
+                        annotation.getAlternate()), annotation);
+            }
+            batch = reader.read(1000);
+        }
+        reader.close();
+        logger.info("Loaded {} annotations from {}", annotations.size(), fixture);
+    }
+
+    /**
+     * Start the server.
+     *
+     * @param port       Port to listen. Use 0 to pick any free port.
+     * @param numThreads Number of threads serving requests
+     * @return Base URI of the server
+     * @throws IOException if the server can not be started
+     */
+    public URI start(int port, int numThreads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        executor = Executors.newFixedThreadPool(numThreads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        URI uri = getUri();
+        logger.info("Local CellBase server listening at {}", uri);
+        return uri;
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    public URI getUri() {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + "/cellbase/");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        numRequests.incrementAndGet();
+        try {
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            if (errorRate > 0 && nextDouble() < errorRate) {
+                numErrors.incrementAndGet();
+                send(exchange, 500, "{\"error\":\"Simulated error\"}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            List<String> ids = parseVariants(exchange);
+            if (ids == null) {
+                send(exchange, 404, "{\"error\":\"Unknown resource\"}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            numVariants.addAndGet(ids.size());
+            send(exchange, 200, objectMapper.writeValueAsBytes(buildResponse(ids)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, new byte[0]);
+        } catch (RuntimeException e) {
+            logger.error("Error serving " + exchange.getRequestURI(), e);
+            send(exchange, 500, ("{\"error\":\"" + e.getMessage() + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    private List<String> parseVariants(HttpExchange exchange) throws IOException {
+        String[] split = exchange.getRequestURI().getPath().split("/");
+        int variantIdx = -1;
+        for (int i = 0; i < split.length - 1; i++) {
+            if (split[i].equals("genomic") && split[i + 1].equals("variant")) {
+                variantIdx = i + 1;
+            }
+        }
+        if (variantIdx < 0) {
+            return null;
+        }
+        List<String> ids = new ArrayList<>();
+        if (variantIdx + 1 < split.length && split[variantIdx + 1].contains(":")) {
+            Collections.addAll(ids, URLDecoder.decode(split[variantIdx + 1], "UTF-8").split(","));
+        } else {
+            String body = readBody(exchange.getRequestBody());
+            for (String param : body.split("&")) {
+                String value = param.contains("=") ? param.substring(param.indexOf('=') + 1) : param;
+                value = URLDecoder.decode(value, "UTF-8").trim();
+                if (value.contains(":")) {
+                    Collections.addAll(ids, value.split(","));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static String readBody(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, read);
+        }
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private Map<String, Object> buildResponse(List<String> ids) {
+        List<Map<String, Object>> queryResults = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Variant variant = new Variant(id.trim());
+            VariantAnnotation annotation = annotations.get(buildKey(variant.getChromosome(), variant.getStart(),
+                    variant.getReference(), variant.getAlternate()));
+            if (annotation == null) {
+                annotation = new VariantAnnotation();
+                annotation.setChromosome(variant.getChromosome());
+                annotation.setStart(variant.getStart());
+                annotation.setReference(variant.getReference());
+                annotation.setAlternate(variant.getAlternate());
+            }
+            Map<String, Object> queryResult = new LinkedHashMap<>();
+            queryResult.put("id", id);
+            queryResult.put("dbTime", 0);
+            queryResult.put("numResults", 1);
+            queryResult.put("numTotalResults", 1);
+            queryResult.put("warningMsg", "");
+            queryResult.put("errorMsg", "");
+            queryResult.put("resultType", VariantAnnotation.class.getName());
+            queryResult.put("result", Collections.singletonList(annotation));
+            queryResults.add(queryResult);
+        }
+        Map<String, Object> queryResponse = new LinkedHashMap<>();
+        queryResponse.put("apiVersion", "local");
+        queryResponse.put("time", 0);
+        queryResponse.put("warning", "");
+        queryResponse.put("error", "");
+        queryResponse.put("queryOptions", Collections.emptyMap());
+        queryResponse.put("response", queryResults);
+        return queryResponse;
+    }
+
+    private static void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static String buildKey(String chromosome, int start, String reference, String alternate) {
+        return chromosome + ':' + start + ':' + reference + ':' + alternate;
+    }
+
+    public long getNumRequests() {
+        return numRequests.get();
+    }
+
+    public long getNumVariants() {
+        return numVariants.get();
+    }
+
+    public long getNumErrors() {
+        return numErrors.get();
+    }
+
+    public int getNumAnnotations() {
+        return annotations.size();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: " + LocalCellBaseServer.class.getSimpleName()
+                    + " <port> [<fixture.json[.gz]>] [<latencyMillis>] [<errorRate>]");
+            System.exit(1);
+        }
+        int port = Integer.parseInt(args[0]);
+        Path fixture = args.length > 1 ? Paths.get(args[1]) : null;
+        long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        double errorRate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        LocalCellBaseServer server = new LocalCellBaseServer(fixture, latencyMillis, errorRate);
+        server.start(port, Runtime.getRuntime().availableProcessors() * 2);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    }
+}
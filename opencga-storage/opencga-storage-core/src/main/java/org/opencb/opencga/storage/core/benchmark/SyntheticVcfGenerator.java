@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates deterministic synthetic VCF files to be used as benchmark fixtures.
+ *
+ * Files are named {@code synthetic.<numSamples>.vcf}. The same seed is always used, so two builds generate exactly
+ * the same fixtures and benchmark results are comparable between commits.
+ */
+public class SyntheticVcfGenerator {
+
+    public static final long SEED = 1234567890L;
+    public static final String FILE_PREFIX = "synthetic.";
+    public static final String FILE_SUFFIX = ".vcf";
+
+    private static final String[] BASES = {"A", "C", "G", "T"};
+    private static final String[] GENOTYPES = {"0/0", "0/0", "0/0", "0/1", "0/1", "1/1", "./.", "0|1"};
+    private static final String[] CHROMOSOMES = {"1", "2", "3", "X"};
+
+    private final Random random = new Random(SEED);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: " + SyntheticVcfGenerator.class.getSimpleName()
+                    + " <outDir> <numVariants> <numSamples>[,<numSamples>...]");
+            System.exit(1);
+        }
+        Path outDir = Paths.get(args[0]);
+        int numVariants = Integer.parseInt(args[1]);
+        Files.createDirectories(outDir);
+        for (String numSamples : args[2].split(",")) {
+            Path file = getFixturePath(outDir, Integer.parseInt(numSamples));
+            if (!Files.exists(file)) {
+                new SyntheticVcfGenerator().generate(file, numVariants, Integer.parseInt(numSamples));
+            }
+        }
+    }
+
+    public static Path getFixturePath(Path outDir, int numSamples) {
+        return outDir.resolve(FILE_PREFIX + numSamples + FILE_SUFFIX);
+    }
+
+    public void generate(Path file, int numVariants, int numSamples) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("##fileformat=VCFv4.1\n");
+            writer.write("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Total Depth\">\n");
+            writer.write("##INFO=<ID=AF,Number=A,Type=Float,Description=\"Allele Frequency\">\n");
+            writer.write("##FILTER=<ID=LowQual,Description=\"Low quality\">\n");
+            writer.write("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+            writer.write("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Read Depth\">\n");
+            writer.write("##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype Quality\">\n");
+            for (String chromosome : CHROMOSOMES) {
+                writer.write("##contig=<ID=" + chromosome + ">\n");
+            }
+            StringBuilder sb = new StringBuilder("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+            for (int i = 0; i < numSamples; i++) {
+                sb.append("\tS").append(i);
+            }
+            writer.write(sb.append('\n').toString());
+
+            int variantsPerChromosome = Math.max(1, numVariants / CHROMOSOMES.length);
+            int written = 0;
+            for (String chromosome : CHROMOSOMES) {
+                int position = 10000;
+                for (int i = 0; i < variantsPerChromosome && written < numVariants; i++, written++) {
+                    position += 1 + random.nextInt(200);
+                    writer.write(buildLine(sb, chromosome, position, numSamples));
+                }
+            }
+        }
+    }
+
+    private String buildLine(StringBuilder sb, String chromosome, int position, int numSamples) {
+        sb.setLength(0);
+        String reference = BASES[random.nextInt(BASES.length)];
+        String alternate;
+        int type = random.nextInt(10);
+        if (type == 0) {
+            // Insertion
+            alternate = reference + BASES[random.nextInt(BASES.length)];
+        } else if (type == 1) {
+            // Deletion
+            alternate = reference;
+            reference = reference + BASES[random.nextInt(BASES.length)];
+        } else {
+            do {
+                alternate = BASES[random.nextInt(BASES.length)];
+            } while (alternate.equals(reference));
+        }
+        sb.append(chromosome).append('\t')
+                .append(position).append('\t')
+                .append('.').append('\t')
+                .append(reference).append('\t')
+                .append(alternate).append('\t')
+                .append(random.nextInt(1000)).append('\t')
+                .append(random.nextInt(20) == 0 ? "LowQual" : "PASS").append('\t')
+                .append("DP=").append(random.nextInt(numSamples * 30 + 1)).append(";AF=").append(random.nextInt(100) / 100.0)
+                .append('\t')
+                .append("GT:DP:GQ");
+        for (int i = 0; i < numSamples; i++) {
+            sb.append('\t').append(GENOTYPES[random.nextInt(GENOTYPES.length)])
+                    .append(':').append(random.nextInt(60))
+                    .append(':').append(random.nextInt(99));
+        }
+        return sb.append('\n').toString();
+    }
+
+}
@@ -16,28 +16,51 @@
 
 package org.opencb.opencga.storage.core.benchmark;
 
+import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
-import org.opencb.commons.datastore.core.QueryResult;
+import org.opencb.opencga.storage.core.StorageETLResult;
 import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
 import org.opencb.opencga.storage.core.StorageManagerFactory;
+import org.opencb.opencga.storage.core.config.BenchmarkConfiguration;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.variant.VariantStorageManager;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotationManager;
+import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Created by imedina on 16/06/15.
  */
 public class VariantBenchmarkRunner extends BenchmarkRunner {
 
+    public static final String TRANSFORM = "transform";
+    public static final String LOAD = "load";
+    public static final String ANNOTATION = "annotation";
+
     private String[] queryType;
     private String queryParams;
     private BenchmarkStats benchmarkStats;
 
+    private VariantStorageManager variantStorageManager;
+    private Path input;
+    private long numVariants;
+    private URI transformedFile;
+
     public VariantBenchmarkRunner(StorageConfiguration storageConfiguration) throws IllegalAccessException, ClassNotFoundException,
             InstantiationException, StorageManagerException {
         this(storageConfiguration.getDefaultStorageEngineId(), storageConfiguration);
@@ -54,19 +77,148 @@ public class VariantBenchmarkRunner extends BenchmarkRunner {
     private void init(String storageEngine)
             throws IllegalAccessException, InstantiationException, ClassNotFoundException, StorageManagerException {
         StorageManagerFactory storageManagerFactory = new StorageManagerFactory(storageConfiguration);
-        VariantStorageManager variantStorageManager = storageManagerFactory.getVariantStorageManager(storageEngine);
+        variantStorageManager = storageManagerFactory.getVariantStorageManager(storageEngine);
         variantDBAdaptor = variantStorageManager.getDBAdaptor(storageConfiguration.getBenchmark().getDatabaseName());
     }
 
 
+    /**
+     * Transform the benchmark input file. If no input file is provided, a synthetic one will be generated.
+     *
+     * @return Stats of the transform stage
+     * @throws StorageManagerException if the transformation fails
+     */
     @Override
-    public BenchmarkStats convert() {
-        return null;
+    public BenchmarkStats convert() throws StorageManagerException {
+        benchmarkStats = new BenchmarkStats();
+        transform();
+        return benchmarkStats;
     }
 
+    /**
+     * Load the benchmark input file, and annotate the loaded variants if required.
+     * The file will be transformed first if {@link #convert()} was not called before.
+     *
+     * @return Stats of all the executed stages
+     * @throws StorageManagerException if any stage fails
+     */
     @Override
-    public BenchmarkStats insert() {
-        return null;
+    public BenchmarkStats insert() throws StorageManagerException {
+        BenchmarkConfiguration benchmark = storageConfiguration.getBenchmark();
+        if (transformedFile == null) {
+            benchmarkStats = new BenchmarkStats();
+            transform();
+        }
+
+        Map<String, Object> previousOptions = overrideOptions();
+        StorageETLResult result;
+        try {
+            result = variantStorageManager.index(Collections.singletonList(transformedFile), getOutdir().toUri(),
+                    false, false, true).get(0);
+        } finally {
+            restoreOptions(previousOptions);
+        }
+        benchmarkStats.addStage(LOAD, numVariants, Paths.get(transformedFile).toFile().length(), result.getLoadTimeMillis());
+
+        if (benchmark.isAnnotate()) {
+            long start = System.currentTimeMillis();
+            try {
+                VariantAnnotationManager annotationManager = new VariantAnnotationManager(
+                        VariantAnnotationManager.buildVariantAnnotator(storageConfiguration, storageEngine), variantDBAdaptor);
+                annotationManager.annotate(new Query(), new QueryOptions(VariantAnnotationManager.OUT_DIR, getOutdir().toString()));
+            } catch (VariantAnnotatorException | IOException e) {
+                throw new StorageManagerException("Error annotating variants", e);
+            }
+            benchmarkStats.addStage(ANNOTATION, numVariants, 0, System.currentTimeMillis() - start);
+        }
+        return benchmarkStats;
+    }
+
+    private void transform() throws StorageManagerException {
+        input = getInput();
+        numVariants = countVariants(input);
+        Map<String, Object> previousOptions = overrideOptions();
+        StorageETLResult result;
+        try {
+            result = variantStorageManager.index(Collections.singletonList(input.toUri()), getOutdir().toUri(),
+                    false, true, false).get(0);
+        } finally {
+            restoreOptions(previousOptions);
+        }
+        transformedFile = result.getPostTransformResult();
+        benchmarkStats.addStage(TRANSFORM, numVariants, input.toFile().length(), result.getTransformTimeMillis());
+    }
+
+    /**
+     * Set the benchmark database, without annotation nor stats, in the options of the storage engine.
+     *
+     * @return Previous values of the modified options, to be restored with {@link #restoreOptions}
+     */
+    private Map<String, Object> overrideOptions() {
+        ObjectMap options = variantStorageManager.getOptions();
+        ObjectMap overrides = new ObjectMap()
+                .append(VariantStorageManager.Options.DB_NAME.key(), storageConfiguration.getBenchmark().getDatabaseName())
+                .append(VariantStorageManager.Options.ANNOTATE.key(), false)
+                .append(VariantStorageManager.Options.CALCULATE_STATS.key(), false);
+        Map<String, Object> previousOptions = new HashMap<>();
+        for (String key : overrides.keySet()) {
+            previousOptions.put(key, options.get(key));
+        }
+        options.putAll(overrides);
+        return previousOptions;
+    }
+
+    private void restoreOptions(Map<String, Object> previousOptions) {
+        ObjectMap options = variantStorageManager.getOptions();
+        previousOptions.forEach((key, value) -> {
+            if (value == null) {
+                options.remove(key);
+            } else {
+                options.put(key, value);
+            }
+        });
+    }
+
+    private Path getOutdir() throws StorageManagerException {
+        Path outdir = Paths.get(storageConfiguration.getBenchmark().getOutdir());
+        try {
+            Files.createDirectories(outdir);
+        } catch (IOException e) {
+            throw new StorageManagerException("Unable to create benchmark outdir " + outdir, e);
+        }
+        return outdir;
+    }
+
+    private Path getInput() throws StorageManagerException {
+        BenchmarkConfiguration benchmark = storageConfiguration.getBenchmark();
+        if (benchmark.getInput() != null && !benchmark.getInput().isEmpty()) {
+            return Paths.get(benchmark.getInput());
+        }
+        Path synthetic = SyntheticVcfGenerator.getFixturePath(getOutdir(), benchmark.getSyntheticSamples());
+        if (!synthetic.toFile().exists()) {
+            logger.info("Generating synthetic file {} with {} variants", synthetic, benchmark.getSyntheticVariants());
+            try {
+                new SyntheticVcfGenerator().generate(synthetic, benchmark.getSyntheticVariants(), benchmark.getSyntheticSamples());
+            } catch (IOException e) {
+                throw new StorageManagerException("Unable to generate synthetic file " + synthetic, e);
+            }
+        }
+        return synthetic;
+    }
+
+    private static long countVariants(Path vcf) throws StorageManagerException {
+        try (InputStream is = vcf.toString().endsWith(".gz")
+                ? new GZIPInputStream(Files.newInputStream(vcf))
+                : Files.newInputStream(vcf);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
+            return reader.lines().filter(line -> !line.startsWith("#") && !line.isEmpty()).count();
+        } catch (IOException e) {
+            throw new StorageManagerException("Unable to read file " + vcf, e);
+        }
+    }
+
+    public BenchmarkStats getBenchmarkStats() {
+        return benchmarkStats;
     }
 
     @Override
@@ -78,7 +230,9 @@ public class VariantBenchmarkRunner extends BenchmarkRunner {
     public BenchmarkStats query(int numRepetitions, Set<String> benchmarkTests) throws ExecutionException, InterruptedException {
 //        int executionTime = 0;
 
-        benchmarkStats = new BenchmarkStats();
+        if (benchmarkStats == null) {
+            benchmarkStats = new BenchmarkStats();
+        }
         for (int i = 0; i < numRepetitions; i++) {
             Iterator<String> iterator = benchmarkTests.iterator();
             while (iterator.hasNext()) {
@@ -157,17 +311,27 @@ public class VariantBenchmarkRunner extends BenchmarkRunner {
 //        System.out.println("concurrency :: " + concurrency);
         ExecutorService executorService = Executors.newFixedThreadPool(10);
         List<Future<T>> futureList = new ArrayList<>(10);
+        AtomicLong totalNanos = new AtomicLong();
         for (int i = 0; i < concurrency; i++) {
-            futureList.add(executorService.submit(task));
+            futureList.add(executorService.submit(() -> {
+                // Measured around the call, as the QueryResult dbTime has only millisecond resolution
+                long start = System.nanoTime();
+                T result = task.call();
+                long latency = System.nanoTime() - start;
+                benchmarkStats.addLatency(test, latency);
+                totalNanos.addAndGet(latency);
+                return result;
+            }));
         }
 
-        int totalTime = 0;
         for (Future<T> queryResultFuture : futureList) {
-            totalTime += ((QueryResult) queryResultFuture.get()).getDbTime();
-//            System.out.println("queryResultFuture.get().getDbTime() = " + queryResultFuture.get().getDbTime());
+            queryResultFuture.get();
 //            System.out.println("queryResultFuture.get().getResult().size() = " + queryResultFuture.get().getResult().get(0));
         }
 
+        executorService.shutdown();
+        int totalTime = (int) TimeUnit.NANOSECONDS.toMillis(totalNanos.get());
+
         benchmarkStats.addExecutionTime(test, totalTime);
         benchmarkStats.addStdDeviation(test, totalTime);
 
@@ -16,7 +16,9 @@
 
 package org.opencb.opencga.storage.core.config;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by imedina on 08/10/15.
@@ -33,6 +35,19 @@ public class BenchmarkConfiguration {
     private DatabaseCredentials database;
     private int concurrency;
 
+    /**
+     * Ingestion benchmark. VCF file to load. If empty, a synthetic file will be generated.
+     */
+    private String input;
+    private int syntheticVariants = 10000;
+    private int syntheticSamples = 100;
+    private boolean annotate;
+    private String outdir = "/tmp/opencga-benchmark";
+    /**
+     * Storage engine options to compare, like "load.batch.size" or "load.threads". All the combinations will be executed.
+     */
+    private Map<String, List<Object>> loadOptions = Collections.emptyMap();
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("BenchmarkConfiguration{");
@@ -44,6 +59,12 @@ public class BenchmarkConfiguration {
         sb.append(", table='").append(table).append('\'');
         sb.append(", database=").append(database);
         sb.append(", concurrency=").append(concurrency);
+        sb.append(", input='").append(input).append('\'');
+        sb.append(", syntheticVariants=").append(syntheticVariants);
+        sb.append(", syntheticSamples=").append(syntheticSamples);
+        sb.append(", annotate=").append(annotate);
+        sb.append(", outdir='").append(outdir).append('\'');
+        sb.append(", loadOptions=").append(loadOptions);
         sb.append('}');
         return sb.toString();
     }
@@ -111,4 +132,52 @@ public class BenchmarkConfiguration {
     public void setConcurrency(int concurrency) {
         this.concurrency = concurrency;
     }
+
+    public String getInput() {
+        return input;
+    }
+
+    public void setInput(String input) {
+        this.input = input;
+    }
+
+    public int getSyntheticVariants() {
+        return syntheticVariants;
+    }
+
+    public void setSyntheticVariants(int syntheticVariants) {
+        this.syntheticVariants = syntheticVariants;
+    }
+
+    public int getSyntheticSamples() {
+        return syntheticSamples;
+    }
+
+    public void setSyntheticSamples(int syntheticSamples) {
+        this.syntheticSamples = syntheticSamples;
+    }
+
+    public boolean isAnnotate() {
+        return annotate;
+    }
+
+    public void setAnnotate(boolean annotate) {
+        this.annotate = annotate;
+    }
+
+    public String getOutdir() {
+        return outdir;
+    }
+
+    public void setOutdir(String outdir) {
+        this.outdir = outdir;
+    }
+
+    public Map<String, List<Object>> getLoadOptions() {
+        return loadOptions;
+    }
+
+    public void setLoadOptions(Map<String, List<Object>> loadOptions) {
+        this.loadOptions = loadOptions;
+    }
 }
@@ -1,5 +1,6 @@
 package org.opencb.opencga.storage.core.metadata;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -9,7 +10,8 @@ import java.util.TreeMap;
  * Batch file operation information.
  *
  * Information about some operation with a set of files
- * Includes the list of processed files, the timestamp used for the HBase Puts and the current status.
+ * Includes the list of processed files, the timestamp used for the HBase Puts, the current status,
+ * and the status of each partition, if the operation is executed by partitions.
  *
  *  Created on 11/03/16
  *
@@ -28,6 +30,8 @@ public class BatchFileOperation {
     private List<Integer> fileIds;
     private long timestamp;
     private final TreeMap<Date, Status> status = new TreeMap<>(Date::compareTo);
+    /** Current status of each partition of the operation. e.g. Each chromosome merged independently. */
+    private final TreeMap<String, Status> partitions = new TreeMap<>();
 
     public BatchFileOperation() {
     }
@@ -44,6 +48,17 @@ public class BatchFileOperation {
         this.timestamp = timestamp;
     }
 
+    /**
+     * Deep copy of other BatchFileOperation.
+     *
+     * @param other BatchFileOperation to copy
+     */
+    public BatchFileOperation(BatchFileOperation other) {
+        this(other.operationName, other.fileIds == null ? null : new ArrayList<>(other.fileIds), other.timestamp);
+        this.status.putAll(other.status);
+        this.partitions.putAll(other.partitions);
+    }
+
     public Status currentStatus() {
         return status.isEmpty() ? null : status.lastEntry().getValue();
     }
@@ -88,6 +103,19 @@ public class BatchFileOperation {
         return this;
     }
 
+    public TreeMap<String, Status> getPartitions() {
+        return partitions;
+    }
+
+    public Status getPartitionStatus(String partition) {
+        return partitions.get(partition);
+    }
+
+    public BatchFileOperation setPartitionStatus(String partition, Status status) {
+        partitions.put(partition, status);
+        return this;
+    }
+
     @Override
     public String toString() {
         return "BatchFileOperation{"
@@ -95,6 +123,7 @@ public class BatchFileOperation {
                 + ", fileIds=" + fileIds
                 + ", timestamp=" + timestamp
                 + ", status=" + status
+                + ", partitions=" + partitions
                 + '}';
     }
 }
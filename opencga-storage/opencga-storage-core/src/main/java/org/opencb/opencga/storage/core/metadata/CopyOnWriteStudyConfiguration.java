@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.metadata;
+
+import com.google.common.collect.BiMap;
+import org.opencb.commons.datastore.core.ObjectMap;
+
+import java.util.*;
+
+/**
+ * StudyConfiguration sharing the collections with a read only snapshot.
+ *
+ * Each mutable collection is copied the first time that its getter is called, as the caller may modify it.
+ * Collections replaced with a setter are never copied. The snapshot is never modified.
+ */
+public final class CopyOnWriteStudyConfiguration extends StudyConfiguration {
+
+    private enum Field {
+        FILE_IDS, SAMPLE_IDS, COHORT_IDS, COHORTS, INDEXED_FILES, HEADERS, SAMPLES_IN_FILES,
+        CALCULATED_STATS, INVALID_STATS, BATCHES, ATTRIBUTES
+    }
+
+    private final EnumSet<Field> copied = EnumSet.noneOf(Field.class);
+
+    public CopyOnWriteStudyConfiguration(StudyConfiguration snapshot) {
+        shallowCopy(snapshot);
+    }
+
+    private boolean firstAccess(Field field) {
+        return copied.add(field);
+    }
+
+    @Override
+    public void copy(StudyConfiguration other) {
+        super.copy(other);
+        copied.addAll(EnumSet.allOf(Field.class));
+    }
+
+    @Override
+    public BiMap<String, Integer> getFileIds() {
+        if (firstAccess(Field.FILE_IDS) && super.getFileIds() != null) {
+            super.setFileIds(super.getFileIds());
+        }
+        return super.getFileIds();
+    }
+
+    @Override
+    public void setFileIds(Map<String, Integer> fileIds) {
+        copied.add(Field.FILE_IDS);
+        super.setFileIds(fileIds);
+    }
+
+    @Override
+    public BiMap<String, Integer> getSampleIds() {
+        if (firstAccess(Field.SAMPLE_IDS) && super.getSampleIds() != null) {
+            super.setSampleIds(super.getSampleIds());
+        }
+        return super.getSampleIds();
+    }
+
+    @Override
+    public void setSampleIds(Map<String, Integer> sampleIds) {
+        copied.add(Field.SAMPLE_IDS);
+        super.setSampleIds(sampleIds);
+    }
+
+    @Override
+    public BiMap<String, Integer> getCohortIds() {
+        if (firstAccess(Field.COHORT_IDS) && super.getCohortIds() != null) {
+            super.setCohortIds(super.getCohortIds());
+        }
+        return super.getCohortIds();
+    }
+
+    @Override
+    public void setCohortIds(Map<String, Integer> cohortIds) {
+        copied.add(Field.COHORT_IDS);
+        super.setCohortIds(cohortIds);
+    }
+
+    @Override
+    public Map<Integer, Set<Integer>> getCohorts() {
+        if (firstAccess(Field.COHORTS) && super.getCohorts() != null) {
+            Map<Integer, Set<Integer>> cohorts = new HashMap<>();
+            super.getCohorts().forEach((cohortId, samples) ->
+                    cohorts.put(cohortId, samples == null ? null : new LinkedHashSet<>(samples)));
+            super.setCohorts(cohorts);
+        }
+        return super.getCohorts();
+    }
+
+    @Override
+    public void setCohorts(Map<Integer, Set<Integer>> cohorts) {
+        copied.add(Field.COHORTS);
+        super.setCohorts(cohorts);
+    }
+
+    @Override
+    public LinkedHashSet<Integer> getIndexedFiles() {
+        if (firstAccess(Field.INDEXED_FILES) && super.getIndexedFiles() != null) {
+            super.setIndexedFiles(new LinkedHashSet<>(super.getIndexedFiles()));
+        }
+        return super.getIndexedFiles();
+    }
+
+    @Override
+    public void setIndexedFiles(LinkedHashSet<Integer> indexedFiles) {
+        copied.add(Field.INDEXED_FILES);
+        super.setIndexedFiles(indexedFiles);
+    }
+
+    @Override
+    public Map<Integer, String> getHeaders() {
+        if (firstAccess(Field.HEADERS) && super.getHeaders() != null) {
+            super.setHeaders(new HashMap<>(super.getHeaders()));
+        }
+        return super.getHeaders();
+    }
+
+    @Override
+    public void setHeaders(Map<Integer, String> headers) {
+        copied.add(Field.HEADERS);
+        super.setHeaders(headers);
+    }
+
+    @Override
+    public Map<Integer, LinkedHashSet<Integer>> getSamplesInFiles() {
+        if (firstAccess(Field.SAMPLES_IN_FILES) && super.getSamplesInFiles() != null) {
+            Map<Integer, LinkedHashSet<Integer>> samplesInFiles = new LinkedHashMap<>();
+            super.getSamplesInFiles().forEach((fileId, samples) ->
+                    samplesInFiles.put(fileId, samples == null ? null : new LinkedHashSet<>(samples)));
+            super.setSamplesInFiles(samplesInFiles);
+        }
+        return super.getSamplesInFiles();
+    }
+
+    @Override
+    public void setSamplesInFiles(Map<Integer, LinkedHashSet<Integer>> samplesInFiles) {
+        copied.add(Field.SAMPLES_IN_FILES);
+        super.setSamplesInFiles(samplesInFiles);
+    }
+
+    @Override
+    public Set<Integer> getCalculatedStats() {
+        if (firstAccess(Field.CALCULATED_STATS) && super.getCalculatedStats() != null) {
+            super.setCalculatedStats(new LinkedHashSet<>(super.getCalculatedStats()));
+        }
+        return super.getCalculatedStats();
+    }
+
+    @Override
+    public void setCalculatedStats(Set<Integer> calculatedStats) {
+        copied.add(Field.CALCULATED_STATS);
+        super.setCalculatedStats(calculatedStats);
+    }
+
+    @Override
+    public Set<Integer> getInvalidStats() {
+        if (firstAccess(Field.INVALID_STATS) && super.getInvalidStats() != null) {
+            super.setInvalidStats(new LinkedHashSet<>(super.getInvalidStats()));
+        }
+        return super.getInvalidStats();
+    }
+
+    @Override
+    public void setInvalidStats(Set<Integer> invalidStats) {
+        copied.add(Field.INVALID_STATS);
+        super.setInvalidStats(invalidStats);
+    }
+
+    @Override
+    public List<BatchFileOperation> getBatches() {
+        if (firstAccess(Field.BATCHES) && super.getBatches() != null) {
+            // The operations are modified in place, e.g. adding a new status
+            super.setBatches(copyBatches(super.getBatches()));
+        }
+        return super.getBatches();
+    }
+
+    @Override
+    public StudyConfiguration setBatches(List<BatchFileOperation> batches) {
+        copied.add(Field.BATCHES);
+        return super.setBatches(batches);
+    }
+
+    @Override
+    public ObjectMap getAttributes() {
+        if (firstAccess(Field.ATTRIBUTES) && super.getAttributes() != null) {
+            super.setAttributes(new ObjectMap(super.getAttributes()));
+        }
+        return super.getAttributes();
+    }
+
+    @Override
+    public void setAttributes(ObjectMap attributes) {
+        copied.add(Field.ATTRIBUTES);
+        super.setAttributes(attributes);
+    }
+}
@@ -77,11 +77,44 @@ public class StudyConfiguration {
         this.samplesInFiles = new HashMap<>(other.samplesInFiles);
         this.calculatedStats = new LinkedHashSet<>(other.calculatedStats);
         this.invalidStats = new LinkedHashSet<>(other.invalidStats);
-        this.batches = other.batches;
+        this.batches = copyBatches(other.batches);
         this.aggregation = other.aggregation;
         this.attributes = new ObjectMap(other.attributes);
     }
 
+    /**
+     * Copy all the fields from other StudyConfiguration, sharing the collections instead of copying them.
+     *
+     * @param other StudyConfiguration to share the fields with
+     */
+    protected void shallowCopy(StudyConfiguration other) {
+        this.studyId = other.studyId;
+        this.studyName = other.studyName;
+        this.fileIds = other.fileIds;
+        this.sampleIds = other.sampleIds;
+        this.cohortIds = other.cohortIds;
+        this.cohorts = other.cohorts;
+        this.indexedFiles = other.indexedFiles;
+        this.headers = other.headers;
+        this.samplesInFiles = other.samplesInFiles;
+        this.calculatedStats = other.calculatedStats;
+        this.invalidStats = other.invalidStats;
+        this.batches = other.batches;
+        this.aggregation = other.aggregation;
+        this.attributes = other.attributes;
+    }
+
+    static List<BatchFileOperation> copyBatches(List<BatchFileOperation> batches) {
+        if (batches == null) {
+            return null;
+        }
+        List<BatchFileOperation> copy = new LinkedList<>();
+        for (BatchFileOperation batch : batches) {
+            copy.add(new BatchFileOperation(batch));
+        }
+        return copy;
+    }
+
     public StudyConfiguration newInstance() {
         return new StudyConfiguration(this);
     }
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.runner;
+
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.run.ParallelTaskRunner;
+import org.opencb.opencga.core.common.MemoryUsageMonitor;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Adaptive batch sizing and memory-aware backpressure for a pipeline executed with a {@link ParallelTaskRunner}.
+ *
+ * The ParallelTaskRunner asks the reader for batches with a fixed number of records. The wrapped reader ignores that
+ * size and reads batches sized to keep the estimated in-memory bytes of a batch below a target, and the time to
+ * process a batch close to a target latency. The batch size shrinks while the heap usage is above a limit, and the
+ * reader stops producing new batches while the heap is nearly full, until the batches in flight are processed.
+ *
+ * The queue capacity is derived from the heap available and the target bytes per batch, so the same configuration
+ * can be used for files with a few samples and for files with thousands of samples.
+ */
+public class AdaptiveBatchController {
+
+    /** Weight of the last batch in the moving averages. */
+    private static final double ALPHA = 0.3;
+    private static final long THROTTLE_SLEEP_MILLIS = 100;
+    private static final long MAX_THROTTLE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetBatchBytes;
+    private final long targetLatencyNanos;
+    private final double maxHeapUsage;
+    private final double criticalHeapUsage;
+    private final DoubleSupplier heapUsage;
+    private final LongSupplier maxHeap;
+
+    private volatile int batchSize;
+    private double bytesPerRecord = -1;
+    private double nanosPerRecord = -1;
+    private final AtomicInteger batchesInFlight = new AtomicInteger();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong shrinks = new AtomicLong();
+
+    protected static Logger logger = LoggerFactory.getLogger(AdaptiveBatchController.class);
+
+    /**
+     * Create an AdaptiveBatchController using the heap usage reported by the {@link MemoryUsageMonitor}, and the max heap
+     * of the {@link Runtime}.
+     *
+     * @param initialBatchSize      Size of the first batch, before having any estimation
+     * @param maxBatchSize          Max number of records per batch
+     * @param targetBatchBytes      Target estimated bytes per batch
+     * @param targetLatencyMillis   Target milliseconds to process a batch
+     * @param maxHeapUsage          Heap usage, between 0 and 1, above which the batches shrink
+     */
+    public AdaptiveBatchController(int initialBatchSize, int maxBatchSize, long targetBatchBytes, long targetLatencyMillis,
+                                   double maxHeapUsage) {
+        this(initialBatchSize, maxBatchSize, targetBatchBytes, targetLatencyMillis, maxHeapUsage, MemoryUsageMonitor::getHeapUsage,
+                Runtime.getRuntime()::maxMemory);
+    }
+
+    AdaptiveBatchController(int initialBatchSize, int maxBatchSize, long targetBatchBytes, long targetLatencyMillis,
+                            double maxHeapUsage, DoubleSupplier heapUsage, LongSupplier maxHeap) {
+        this.minBatchSize = 1;
+        this.maxBatchSize = Math.max(minBatchSize, maxBatchSize);
+        this.targetBatchBytes = targetBatchBytes;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.maxHeapUsage = maxHeapUsage;
+        this.criticalHeapUsage = maxHeapUsage + (1 - maxHeapUsage) / 2;
+        this.heapUsage = heapUsage;
+        this.maxHeap = maxHeap;
+        this.batchSize = Math.max(minBatchSize, Math.min(initialBatchSize, this.maxBatchSize));
+    }
+
+    /**
+     * Build an AdaptiveBatchController from the options.
+     *
+     * @param options   Options
+     * @param batchSize Static batch size, used as initial batch size
+     * @return          AdaptiveBatchController, or null if the adaptive mode is not enabled
+     */
+    public static AdaptiveBatchController build(ObjectMap options, int batchSize) {
+        if (!options.getBoolean(Options.ADAPTIVE_BATCH.key(), Options.ADAPTIVE_BATCH.defaultValue())) {
+            return null;
+        }
+        return new AdaptiveBatchController(batchSize,
+                options.getInt(Options.ADAPTIVE_BATCH_MAX_SIZE.key(), Options.ADAPTIVE_BATCH_MAX_SIZE.defaultValue()),
+                options.getLong(Options.ADAPTIVE_BATCH_BYTES.key(), Options.ADAPTIVE_BATCH_BYTES.<Long>defaultValue()),
+                options.getLong(Options.ADAPTIVE_BATCH_LATENCY.key(), Options.ADAPTIVE_BATCH_LATENCY.<Long>defaultValue()),
+                options.getDouble(Options.ADAPTIVE_MAX_HEAP_USAGE.key(), Options.ADAPTIVE_MAX_HEAP_USAGE.defaultValue()));
+    }
+
+    /**
+     * Queue capacity, in batches, for the ParallelTaskRunner. Each queue may hold up to this number of batches, and each
+     * task one more, so the batches in memory are bounded to fit in the heap available below the max heap usage.
+     *
+     * @param numTasks  Number of tasks of the ParallelTaskRunner
+     * @return          Capacity of the queues
+     */
+    public int getCapacity(int numTasks) {
+        long available = (long) (maxHeap.getAsLong() * Math.max(0, maxHeapUsage - heapUsage.getAsDouble()));
+        long batches = available / Math.max(1, targetBatchBytes);
+        return (int) Math.max(1, Math.min(numTasks * 4, (batches - numTasks) / 2));
+    }
+
+    /**
+     * Wrap the reader of the pipeline. The wrapped reader ignores the requested batch size.
+     *
+     * @param reader        Reader to control
+     * @param sizeEstimator Estimated in-memory bytes of each record, including the objects derived from it in the pipeline
+     * @param <T>           Read type
+     * @return              Controlled reader
+     */
+    public <T> DataReader<T> wrapReader(DataReader<T> reader, ToLongFunction<T> sizeEstimator) {
+        return new DataReader<T>() {
+            @Override
+            public boolean open() {
+                return reader.open();
+            }
+
+            @Override
+            public boolean close() {
+                return reader.close();
+            }
+
+            @Override
+            public boolean pre() {
+                return reader.pre();
+            }
+
+            @Override
+            public boolean post() {
+                return reader.post();
+            }
+
+            @Override
+            public List<T> read() {
+                return reader.read();
+            }
+
+            @Override
+            public List<T> read(int ignored) {
+                awaitHeap();
+                List<T> batch = reader.read(batchSize);
+                if (batch != null && !batch.isEmpty()) {
+                    long bytes = 0;
+                    for (T t : batch) {
+                        bytes += sizeEstimator.applyAsLong(t);
+                    }
+                    batchesInFlight.incrementAndGet();
+                    updateBytes(bytes, batch.size());
+                }
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * Wrap the task supplier of the pipeline.
+     *
+     * @param taskSupplier  Supplier of the tasks to control
+     * @param <I>           Input type
+     * @param <O>           Output type
+     * @return              Supplier of controlled tasks
+     */
+    public <I, O> Supplier<ParallelTaskRunner.Task<I, O>> wrapTasks(Supplier<? extends ParallelTaskRunner.Task<I, O>> taskSupplier) {
+        return () -> wrapTask(taskSupplier.get());
+    }
+
+    /**
+     * Wrap one task of the pipeline. The latency of the task is the feedback to size the next batches.
+     *
+     * @param task  Task to control
+     * @param <I>   Input type
+     * @param <O>   Output type
+     * @return      Controlled task
+     */
+    public <I, O> ParallelTaskRunner.Task<I, O> wrapTask(ParallelTaskRunner.Task<I, O> task) {
+        return new ParallelTaskRunner.Task<I, O>() {
+            @Override
+            public void pre() {
+                task.pre();
+            }
+
+            @Override
+            public List<O> apply(List<I> batch) {
+                long start = System.nanoTime();
+                try {
+                    return task.apply(batch);
+                } finally {
+                    if (!batch.isEmpty()) {
+                        batchesInFlight.decrementAndGet();
+                        updateLatency(System.nanoTime() - start, batch.size());
+                    }
+                }
+            }
+
+            @Override
+            public List<O> drain() {
+                return task.drain();
+            }
+
+            @Override
+            public void post() {
+                task.post();
+            }
+        };
+    }
+
+    /**
+     * Wait while the heap is nearly full and there are batches in flight that, once processed, will release memory.
+     */
+    private void awaitHeap() {
+        long start = System.currentTimeMillis();
+        long waited = 0;
+        while (heapUsage.getAsDouble() > criticalHeapUsage && batchesInFlight.get() > 0 && waited < MAX_THROTTLE_MILLIS) {
+            try {
+                Thread.sleep(THROTTLE_SLEEP_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            waited = System.currentTimeMillis() - start;
+        }
+        if (waited > 0) {
+            throttled.addAndGet(waited);
+            logger.debug("Reader throttled {}ms by heap usage", waited);
+        }
+    }
+
+    private synchronized void updateBytes(long bytes, int records) {
+        bytesPerRecord = average(bytesPerRecord, bytes / (double) records);
+        adjust();
+    }
+
+    private synchronized void updateLatency(long nanos, int records) {
+        nanosPerRecord = average(nanosPerRecord, nanos / (double) records);
+    }
+
+    private static double average(double average, double value) {
+        return average < 0 ? value : ALPHA * value + (1 - ALPHA) * average;
+    }
+
+    /**
+     * Adjust the size of the next batch. Called once per batch read.
+     */
+    private void adjust() {
+        double size = maxBatchSize;
+        if (bytesPerRecord > 0) {
+            size = Math.min(size, targetBatchBytes / bytesPerRecord);
+        }
+        if (nanosPerRecord > 0) {
+            size = Math.min(size, targetLatencyNanos / nanosPerRecord);
+        }
+        // Grow smoothly, at most doubling the batch size each time
+        size = Math.min(size, batchSize * 2.0);
+        if (heapUsage.getAsDouble() > maxHeapUsage) {
+            size = Math.min(size, batchSize / 2.0);
+            shrinks.incrementAndGet();
+        }
+        int newBatchSize = (int) Math.max(minBatchSize, size);
+        if (newBatchSize != batchSize) {
+            logger.debug("Batch size {} -> {}", batchSize, newBatchSize);
+            batchSize = newBatchSize;
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public synchronized double getBytesPerRecord() {
+        return bytesPerRecord;
+    }
+
+    public synchronized double getMillisPerRecord() {
+        return nanosPerRecord < 0 ? -1 : nanosPerRecord / 1e6;
+    }
+
+    public long getThrottledMillis() {
+        return throttled.get();
+    }
+
+    public ObjectMap toObjectMap() {
+        return new ObjectMap()
+                .append("batchSize", getBatchSize())
+                .append("bytesPerRecord", getBytesPerRecord())
+                .append("millisPerRecord", getMillisPerRecord())
+                .append("heapShrinks", shrinks.get())
+                .append("throttledMillis", getThrottledMillis());
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveBatchController{"
+                + "batchSize=" + batchSize
+                + ", targetBatchBytes=" + targetBatchBytes
+                + ", targetLatencyMillis=" + TimeUnit.NANOSECONDS.toMillis(targetLatencyNanos)
+                + ", maxHeapUsage=" + maxHeapUsage
+                + '}';
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.runner;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * InputStream decompressing BGZF files using several threads.
+ *
+ * BGZF files are a concatenation of independent gzip blocks of up to 64KB, where the size of each block is written in the
+ * header. The compressed blocks are read sequentially and inflated in parallel, while the output keeps the original order.
+ */
+public class ParallelBgzfInputStream extends InputStream {
+
+    private static final int GZIP_ID1 = 31;
+    private static final int GZIP_ID2 = 139;
+    private static final int GZIP_CM_DEFLATE = 8;
+    private static final int GZIP_FLG_FEXTRA = 4;
+    private static final int GZIP_HEADER_LENGTH = 12;
+    private static final int BGZF_SI1 = 66;
+    private static final int BGZF_SI2 = 67;
+    private static final int BGZF_SLEN = 2;
+    private static final int GZIP_FOOTER_LENGTH = 8;
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final InputStream in;
+    private final ExecutorService executorService;
+    private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+    private final int maxPendingBlocks;
+    private byte[] currentBlock = EMPTY;
+    private int currentBlockPosition = 0;
+    private boolean endOfInput = false;
+
+    public ParallelBgzfInputStream(InputStream in, int numThreads) {
+        this.in = new BufferedInputStream(in, 1 << 16);
+        this.maxPendingBlocks = numThreads * 8;
+        this.executorService = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "bgzf-inflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks if the file starts with a BGZF block header.
+     *
+     * @param path File to check
+     * @return If the file is BGZF
+     * @throws IOException If the file can not be read
+     */
+    public static boolean isBgzf(Path path) throws IOException {
+        byte[] header = new byte[GZIP_HEADER_LENGTH + 4];
+        try (InputStream is = Files.newInputStream(path)) {
+            if (readFully(is, header, 0, header.length) != header.length) {
+                return false;
+            }
+        }
+        return (header[0] & 0xFF) == GZIP_ID1
+                && (header[1] & 0xFF) == GZIP_ID2
+                && (header[2] & 0xFF) == GZIP_CM_DEFLATE
+                && (header[3] & GZIP_FLG_FEXTRA) != 0
+                && header[12] == BGZF_SI1
+                && header[13] == BGZF_SI2
+                && readUnsignedShort(header, 14) == BGZF_SLEN;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+        return currentBlock[currentBlockPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        int read = Math.min(len, currentBlock.length - currentBlockPosition);
+        System.arraycopy(currentBlock, currentBlockPosition, b, off, read);
+        currentBlockPosition += read;
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return currentBlock.length - currentBlockPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+        pendingBlocks.clear();
+        in.close();
+    }
+
+    /**
+     * Moves to the next non empty block if the current one is exhausted.
+     *
+     * @return If there is any data left
+     * @throws IOException If the data is not valid BGZF
+     */
+    private boolean nextBlock() throws IOException {
+        while (currentBlockPosition >= currentBlock.length) {
+            submitBlocks();
+            Future<byte[]> future = pendingBlocks.poll();
+            if (future == null) {
+                return false;
+            }
+            try {
+                currentBlock = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while decompressing BGZF block");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            currentBlockPosition = 0;
+        }
+        return true;
+    }
+
+    private void submitBlocks() throws IOException {
+        while (!endOfInput && pendingBlocks.size() < maxPendingBlocks) {
+            byte[] block = readCompressedBlock();
+            if (block == null) {
+                endOfInput = true;
+            } else {
+                pendingBlocks.add(executorService.submit(() -> inflate(block)));
+            }
+        }
+    }
+
+    /**
+     * Reads the next compressed block, without the gzip header.
+     *
+     * @return Compressed data followed by the gzip footer (CRC32 and ISIZE), or null if there are no more blocks
+     * @throws IOException If the block header is not valid
+     */
+    private byte[] readCompressedBlock() throws IOException {
+        byte[] header = new byte[GZIP_HEADER_LENGTH];
+        int read = readFully(in, header, 0, header.length);
+        if (read == 0) {
+            return null;
+        } else if (read != header.length
+                || (header[0] & 0xFF) != GZIP_ID1
+                || (header[1] & 0xFF) != GZIP_ID2
+                || (header[3] & GZIP_FLG_FEXTRA) == 0) {
+            throw new IOException("Invalid BGZF block header");
+        }
+        int extraLength = readUnsignedShort(header, 10);
+        byte[] extra = new byte[extraLength];
+        if (readFully(in, extra, 0, extraLength) != extraLength) {
+            throw new EOFException("Unexpected end of BGZF block header");
+        }
+        int blockSize = -1;
+        for (int i = 0; i + 4 <= extraLength; i += 4 + readUnsignedShort(extra, i + 2)) {
+            if (extra[i] == BGZF_SI1 && extra[i + 1] == BGZF_SI2 && readUnsignedShort(extra, i + 2) == BGZF_SLEN) {
+                blockSize = readUnsignedShort(extra, i + 4) + 1;
+                break;
+            }
+        }
+        if (blockSize < 0) {
+            throw new IOException("Missing BGZF block size");
+        }
+        int remaining = blockSize - GZIP_HEADER_LENGTH - extraLength;
+        if (remaining < GZIP_FOOTER_LENGTH) {
+            throw new IOException("Invalid BGZF block size " + blockSize);
+        }
+        byte[] block = new byte[remaining];
+        if (readFully(in, block, 0, remaining) != remaining) {
+            throw new EOFException("Unexpected end of BGZF block");
+        }
+        return block;
+    }
+
+    private static byte[] inflate(byte[] block) throws IOException {
+        int dataLength = block.length - GZIP_FOOTER_LENGTH;
+        long expectedCrc = readUnsignedInt(block, dataLength);
+        int uncompressedSize = (int) readUnsignedInt(block, dataLength + 4);
+        if (uncompressedSize == 0) {
+            return EMPTY;
+        }
+        byte[] uncompressed = new byte[uncompressedSize];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(block, 0, dataLength);
+        try {
+            int inflated = 0;
+            while (inflated < uncompressedSize && !inflater.finished()) {
+                int n = inflater.inflate(uncompressed, inflated, uncompressedSize - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != uncompressedSize) {
+                throw new IOException("Corrupted BGZF block. Expected " + uncompressedSize + " bytes, got " + inflated);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted BGZF block", e);
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(uncompressed, 0, uncompressedSize);
+        if (crc32.getValue() != expectedCrc) {
+            throw new IOException("Corrupted BGZF block. CRC32 mismatch");
+        }
+        return uncompressed;
+    }
+
+    private static int readFully(InputStream is, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int n = is.read(buffer, offset + total, length - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static int readUnsignedShort(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+    }
+
+    private static long readUnsignedInt(byte[] buffer, int offset) {
+        return ((long) readUnsignedShort(buffer, offset)) | ((long) readUnsignedShort(buffer, offset + 2) << 16);
+    }
+}
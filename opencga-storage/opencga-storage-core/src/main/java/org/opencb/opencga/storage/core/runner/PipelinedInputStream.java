@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.runner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * InputStream reading the wrapped stream in a background thread.
+ *
+ * Used to decouple the decompression of a plain gzip file, which can not be parallelized, from the thread consuming the data.
+ */
+public class PipelinedInputStream extends InputStream {
+
+    private static final byte[] EOF = new byte[0];
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final InputStream in;
+    private final BlockingQueue<byte[]> chunks;
+    private final Thread thread;
+    private volatile Throwable exception;
+    private byte[] currentChunk = new byte[0];
+    private int currentChunkPosition = 0;
+    private boolean endOfInput = false;
+
+    public PipelinedInputStream(InputStream in) {
+        this(in, DEFAULT_CHUNK_SIZE, DEFAULT_CAPACITY);
+    }
+
+    public PipelinedInputStream(InputStream in, int chunkSize, int capacity) {
+        this.in = in;
+        this.chunks = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(() -> {
+            try {
+                while (true) {
+                    byte[] chunk = new byte[chunkSize];
+                    int read = 0;
+                    while (read < chunkSize) {
+                        int n = in.read(chunk, read, chunkSize - read);
+                        if (n < 0) {
+                            break;
+                        }
+                        read += n;
+                    }
+                    if (read > 0) {
+                        chunks.put(read == chunkSize ? chunk : Arrays.copyOf(chunk, read));
+                    }
+                    if (read < chunkSize) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Closed by the consumer
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                exception = e;
+            } finally {
+                // Always mark the end of the input, so the consumer never blocks waiting for more chunks
+                try {
+                    chunks.put(EOF);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "pipelined-input");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        return currentChunk[currentChunkPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int read = Math.min(len, currentChunk.length - currentChunkPosition);
+        System.arraycopy(currentChunk, currentChunkPosition, b, off, read);
+        currentChunkPosition += read;
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return currentChunk.length - currentChunkPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        in.close();
+    }
+
+    private boolean nextChunk() throws IOException {
+        while (currentChunkPosition >= currentChunk.length) {
+            if (endOfInput) {
+                checkException();
+                return false;
+            }
+            byte[] chunk;
+            try {
+                chunk = chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading");
+            }
+            if (chunk == EOF) {
+                endOfInput = true;
+                checkException();
+                return false;
+            }
+            currentChunk = chunk;
+            currentChunkPosition = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Rethrow in the consumer thread the failure of the background reader.
+     */
+    private void checkException() throws IOException {
+        Throwable e = exception;
+        if (e == null) {
+            return;
+        } else if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        } else {
+            throw new IOException(e);
+        }
+    }
+}
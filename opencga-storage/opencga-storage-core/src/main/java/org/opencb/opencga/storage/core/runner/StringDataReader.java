@@ -17,13 +17,14 @@
 package org.opencb.opencga.storage.core.runner;
 
 import org.opencb.commons.io.DataReader;
+import org.opencb.opencga.storage.core.utils.CompressionCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xerial.snappy.SnappyInputStream;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -40,12 +41,27 @@ public class StringDataReader implements DataReader<String> {
 
     protected BufferedReader reader;
     protected final Path path;
+    protected final int decompressThreads;
     protected long readLines = 0L;
 
     protected static Logger logger = LoggerFactory.getLogger(StringDataReader.class);
 
     public StringDataReader(Path path) {
+        this(path, 1);
+    }
+
+    /**
+     * Creates a reader that decompresses gzipped files with several threads.
+     *
+     * BGZF files are decompressed block by block in parallel. Other gzip files, which can not be split, are decompressed
+     * in a background thread.
+     *
+     * @param path              Input file
+     * @param decompressThreads Number of threads to decompress the file. If 1, decompress in the reading thread.
+     */
+    public StringDataReader(Path path, int decompressThreads) {
         this.path = path;
+        this.decompressThreads = decompressThreads;
     }
 
     @Override
@@ -53,11 +69,21 @@ public class StringDataReader implements DataReader<String> {
         try {
             String fileName = path.toFile().getName();
             if (fileName.endsWith(".gz")) {
-                logger.info("Gzip input compress");
-                this.reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(path.toFile()))));
-            } else if (fileName.endsWith(".snappy") || fileName.endsWith(".snz")) {
-                logger.info("Snappy input compress");
-                this.reader = new BufferedReader(new InputStreamReader(new SnappyInputStream(new FileInputStream(path.toFile()))));
+                InputStream inputStream = new FileInputStream(path.toFile());
+                if (decompressThreads > 1 && ParallelBgzfInputStream.isBgzf(path)) {
+                    logger.info("BGZF input compress. Decompress using {} threads", decompressThreads);
+                    inputStream = new ParallelBgzfInputStream(inputStream, decompressThreads);
+                } else if (decompressThreads > 1) {
+                    logger.info("Gzip input compress. Decompress in background");
+                    inputStream = new PipelinedInputStream(new GZIPInputStream(inputStream, 1 << 16));
+                } else {
+                    logger.info("Gzip input compress");
+                    inputStream = new GZIPInputStream(inputStream);
+                }
+                this.reader = new BufferedReader(new InputStreamReader(inputStream), 1 << 16);
+            } else if (CompressionCodec.fromFileName(fileName) != CompressionCodec.NONE) {
+                logger.info("{} input compress", CompressionCodec.fromFileName(fileName));
+                this.reader = new BufferedReader(new InputStreamReader(CompressionCodec.newInputStream(path)), 1 << 16);
             } else {
                 logger.info("Plain input compress");
                 this.reader = Files.newBufferedReader(path, Charset.defaultCharset());
@@ -17,16 +17,15 @@
 package org.opencb.opencga.storage.core.runner;
 
 import org.opencb.commons.io.DataWriter;
+import org.opencb.opencga.storage.core.utils.CompressionCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xerial.snappy.SnappyOutputStream;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by jacobo on 25/02/15.
@@ -64,17 +63,13 @@ public class StringDataWriter implements DataWriter<String> {
     @Override
     public boolean open() {
         try {
-            String fileName = path.toFile().getName();
-            if (fileName.endsWith(".gz")) {
-                logger.info("Gzip output compress");
-                os = new GZIPOutputStream(new FileOutputStream(path.toAbsolutePath().toString()));
-            } else if (fileName.endsWith(".snappy") || fileName.endsWith(".snz")) {
-                logger.info("Snappy output compress");
-                os = new SnappyOutputStream(new FileOutputStream(path.toAbsolutePath().toString()));
-            } else {
+            CompressionCodec codec = CompressionCodec.fromFileName(path.toFile().getName());
+            if (codec == CompressionCodec.NONE) {
                 logger.info("Plain output");
-                os = new FileOutputStream(path.toAbsolutePath().toString());
+            } else {
+                logger.info("{} output compress", codec);
             }
+            os = codec.compress(new FileOutputStream(path.toAbsolutePath().toString()));
         } catch (IOException e) {
             e.printStackTrace();
             return false;
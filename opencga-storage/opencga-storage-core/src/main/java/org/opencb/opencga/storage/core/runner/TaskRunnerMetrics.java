@@ -0,0 +1,545 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.opencga.storage.core.runner;
+
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+import org.opencb.commons.run.ParallelTaskRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Live metrics of a pipeline executed with a {@link ParallelTaskRunner}.
+ *
+ * The reader, the tasks and the writer are wrapped to measure the records processed, the time that each stage is busy,
+ * the time that is blocked waiting for other stages, and the latency of the tasks per batch. The ParallelTaskRunner
+ * queues are not accessible, so its occupancy is estimated as the batches produced by a stage and not yet taken by
+ * the next one.
+ *
+ * A reader that is blocked most of the time indicates that the tasks or the writer are the bottleneck. A writer that is
+ * blocked most of the time indicates that the reader or the tasks are the bottleneck.
+ *
+ * The metrics are reported periodically to the log, exposed through JMX while the pipeline is running, and can be
+ * added to the {@link org.opencb.opencga.storage.core.StorageETLResult} with {@link #toObjectMap()}.
+ */
+public class TaskRunnerMetrics implements TaskRunnerMetricsMBean {
+
+    public static final String JMX_DOMAIN = "org.opencb.opencga.storage";
+
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final String name;
+    private final AtomicLong readRecords = new AtomicLong();
+    private final AtomicLong readBatches = new AtomicLong();
+    private final AtomicLong readerBusy = new AtomicLong();
+    private final AtomicLong readerBlocked = new AtomicLong();
+    private final AtomicLong taskInputRecords = new AtomicLong();
+    private final AtomicLong taskOutputRecords = new AtomicLong();
+    private final AtomicLong taskStartedBatches = new AtomicLong();
+    private final AtomicLong taskOutputBatches = new AtomicLong();
+    private final AtomicLong taskWaiting = new AtomicLong();
+    private final AtomicLong writtenRecords = new AtomicLong();
+    private final AtomicLong writtenBatches = new AtomicLong();
+    private final AtomicLong writerBusy = new AtomicLong();
+    private final AtomicLong writerBlocked = new AtomicLong();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    private volatile boolean hasWriter = false;
+
+    private volatile long start = -1;
+    private volatile long end = -1;
+    private ScheduledExecutorService reporter;
+    private ObjectName objectName;
+
+    protected static Logger logger = LoggerFactory.getLogger(TaskRunnerMetrics.class);
+
+    public TaskRunnerMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Wrap the reader of the pipeline.
+     *
+     * @param reader    Reader to measure
+     * @param <T>       Read type
+     * @return          Measured reader
+     */
+    public <T> DataReader<T> wrapReader(DataReader<T> reader) {
+        return new DataReader<T>() {
+            private long lastRead = -1;
+
+            @Override
+            public boolean open() {
+                return reader.open();
+            }
+
+            @Override
+            public boolean close() {
+                return reader.close();
+            }
+
+            @Override
+            public boolean pre() {
+                return reader.pre();
+            }
+
+            @Override
+            public boolean post() {
+                return reader.post();
+            }
+
+            @Override
+            public List<T> read() {
+                return read(1);
+            }
+
+            @Override
+            public List<T> read(int batchSize) {
+                long startRead = System.nanoTime();
+                if (lastRead > 0) {
+                    readerBlocked.addAndGet(startRead - lastRead);
+                }
+                List<T> batch = reader.read(batchSize);
+                lastRead = System.nanoTime();
+                readerBusy.addAndGet(lastRead - startRead);
+                if (batch != null && !batch.isEmpty()) {
+                    readRecords.addAndGet(batch.size());
+                    readBatches.incrementAndGet();
+                }
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * Wrap the tasks of the pipeline. Each task is executed by one thread.
+     *
+     * @param taskSupplier  Supplier of the tasks to measure
+     * @param <I>           Input type
+     * @param <O>           Output type
+     * @return              Supplier of measured tasks
+     */
+    public <I, O> Supplier<ParallelTaskRunner.Task<I, O>> wrapTasks(Supplier<? extends ParallelTaskRunner.Task<I, O>> taskSupplier) {
+        return () -> wrapTask(taskSupplier.get());
+    }
+
+    /**
+     * Wrap one task of the pipeline. The same task may be shared by many threads.
+     *
+     * @param task  Task to measure
+     * @param <I>   Input type
+     * @param <O>   Output type
+     * @return      Measured task
+     */
+    public <I, O> ParallelTaskRunner.Task<I, O> wrapTask(ParallelTaskRunner.Task<I, O> task) {
+        return new ParallelTaskRunner.Task<I, O>() {
+            private final ThreadLocal<long[]> lastApply = ThreadLocal.withInitial(() -> new long[]{-1});
+
+            @Override
+            public void pre() {
+                task.pre();
+            }
+
+            @Override
+            public List<O> apply(List<I> batch) {
+                long startApply = System.nanoTime();
+                long[] last = lastApply.get();
+                if (last[0] > 0) {
+                    taskWaiting.addAndGet(startApply - last[0]);
+                }
+                taskStartedBatches.incrementAndGet();
+                taskInputRecords.addAndGet(batch.size());
+                List<O> result = task.apply(batch);
+                last[0] = System.nanoTime();
+                batchLatency.add(last[0] - startApply);
+                countOutput(result);
+                return result;
+            }
+
+            @Override
+            public List<O> drain() {
+                List<O> result = task.drain();
+                countOutput(result);
+                return result;
+            }
+
+            @Override
+            public void post() {
+                task.post();
+            }
+        };
+    }
+
+    private <O> void countOutput(List<O> result) {
+        if (result != null && !result.isEmpty()) {
+            taskOutputRecords.addAndGet(result.size());
+            taskOutputBatches.incrementAndGet();
+        }
+    }
+
+    /**
+     * Wrap the writer of the pipeline.
+     *
+     * @param writer    Writer to measure. May be null
+     * @param <T>       Write type
+     * @return          Measured writer, or null
+     */
+    public <T> DataWriter<T> wrapWriter(DataWriter<T> writer) {
+        if (writer == null) {
+            return null;
+        }
+        hasWriter = true;
+        return new DataWriter<T>() {
+            private long lastWrite = -1;
+
+            @Override
+            public boolean open() {
+                return writer.open();
+            }
+
+            @Override
+            public boolean close() {
+                return writer.close();
+            }
+
+            @Override
+            public boolean pre() {
+                return writer.pre();
+            }
+
+            @Override
+            public boolean post() {
+                return writer.post();
+            }
+
+            @Override
+            public boolean write(T elem) {
+                return writer.write(elem);
+            }
+
+            @Override
+            public boolean write(List<T> batch) {
+                long startWrite = System.nanoTime();
+                if (lastWrite > 0) {
+                    writerBlocked.addAndGet(startWrite - lastWrite);
+                }
+                boolean result = writer.write(batch);
+                lastWrite = System.nanoTime();
+                writerBusy.addAndGet(lastWrite - startWrite);
+                if (batch != null && !batch.isEmpty()) {
+                    writtenRecords.addAndGet(batch.size());
+                    writtenBatches.incrementAndGet();
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Start measuring. Registers the metrics in JMX and reports them periodically to the log.
+     *
+     * @param reportInterval    Seconds between reports. Non positive to disable
+     * @return  this
+     */
+    public TaskRunnerMetrics start(long reportInterval) {
+        start = System.nanoTime();
+        end = -1;
+        registerMBean();
+        if (reportInterval > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "metrics-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> logger.info(toString()), reportInterval, reportInterval, TimeUnit.SECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Stop measuring. Stops the reports, unregisters from JMX and logs the final metrics.
+     *
+     * @return  this
+     */
+    public TaskRunnerMetrics stop() {
+        if (end < 0) {
+            end = System.nanoTime();
+        }
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        unregisterMBean();
+        logger.info(toString());
+        return this;
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(JMX_DOMAIN + ":type=TaskRunner,name=" + ObjectName.quote(name)
+                    + ",id=" + INSTANCES.incrementAndGet());
+            server.registerMBean(this, objectName);
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Unable to register " + name + " metrics in JMX", e);
+            objectName = null;
+        }
+    }
+
+    private void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.warn("Unable to unregister " + name + " metrics from JMX", e);
+            }
+            objectName = null;
+        }
+    }
+
+    public ObjectMap toObjectMap() {
+        return new ObjectMap()
+                .append("elapsedMillis", getElapsedMillis())
+                .append("readRecords", getReadRecords())
+                .append("writtenRecords", getWrittenRecords())
+                .append("readRecordsPerSecond", getReadRecordsPerSecond())
+                .append("writtenRecordsPerSecond", getWrittenRecordsPerSecond())
+                .append("readerBusyMillis", getReaderBusyMillis())
+                .append("readerBlockedMillis", getReaderBlockedMillis())
+                .append("taskBusyMillis", getTaskBusyMillis())
+                .append("taskWaitingMillis", getTaskWaitingMillis())
+                .append("writerBusyMillis", getWriterBusyMillis())
+                .append("writerBlockedMillis", getWriterBlockedMillis())
+                .append("batches", getBatches())
+                .append("batchLatencyMeanMillis", getBatchLatencyMeanMillis())
+                .append("batchLatencyP50Millis", getBatchLatencyP50Millis())
+                .append("batchLatencyP95Millis", getBatchLatencyP95Millis())
+                .append("batchLatencyP99Millis", getBatchLatencyP99Millis())
+                .append("batchLatencyMaxMillis", getBatchLatencyMaxMillis());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d read (%.0f/s), %d written (%.0f/s), reader blocked %d ms, writer blocked %d ms, "
+                        + "queues [%d, %d], batch latency p50 %.1f ms, p95 %.1f ms, p99 %.1f ms",
+                name, getReadRecords(), getReadRecordsPerSecond(), getWrittenRecords(), getWrittenRecordsPerSecond(),
+                getReaderBlockedMillis(), getWriterBlockedMillis(), getReadQueueSize(), getWriteQueueSize(),
+                getBatchLatencyP50Millis(), getBatchLatencyP95Millis(), getBatchLatencyP99Millis());
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        if (start < 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis((end < 0 ? System.nanoTime() : end) - start);
+    }
+
+    @Override
+    public long getReadRecords() {
+        return readRecords.get();
+    }
+
+    /**
+     * Records written by the writer, or produced by the tasks if there is no writer.
+     *
+     * @return Number of records
+     */
+    @Override
+    public long getWrittenRecords() {
+        return hasWriter ? writtenRecords.get() : taskOutputRecords.get();
+    }
+
+    @Override
+    public double getReadRecordsPerSecond() {
+        return perSecond(getReadRecords());
+    }
+
+    @Override
+    public double getWrittenRecordsPerSecond() {
+        return perSecond(getWrittenRecords());
+    }
+
+    private double perSecond(long records) {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : records * 1000.0 / elapsed;
+    }
+
+    @Override
+    public long getReaderBusyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(readerBusy.get());
+    }
+
+    @Override
+    public long getReaderBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(readerBlocked.get());
+    }
+
+    /**
+     * Total time executing tasks, adding all the threads.
+     *
+     * @return Time in milliseconds
+     */
+    @Override
+    public long getTaskBusyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(batchLatency.getSum());
+    }
+
+    /**
+     * Total time between tasks, adding all the threads. Includes waiting for input batches, and waiting to publish the output.
+     *
+     * @return Time in milliseconds
+     */
+    @Override
+    public long getTaskWaitingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(taskWaiting.get());
+    }
+
+    @Override
+    public long getWriterBusyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(writerBusy.get());
+    }
+
+    @Override
+    public long getWriterBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(writerBlocked.get());
+    }
+
+    @Override
+    public long getReadQueueSize() {
+        return Math.max(0, readBatches.get() - taskStartedBatches.get());
+    }
+
+    @Override
+    public long getWriteQueueSize() {
+        return hasWriter ? Math.max(0, taskOutputBatches.get() - writtenBatches.get()) : 0;
+    }
+
+    @Override
+    public long getBatches() {
+        return batchLatency.getCount();
+    }
+
+    @Override
+    public double getBatchLatencyMeanMillis() {
+        long count = batchLatency.getCount();
+        return count == 0 ? 0 : batchLatency.getSum() / 1e6 / count;
+    }
+
+    @Override
+    public double getBatchLatencyP50Millis() {
+        return batchLatency.getPercentile(0.50) / 1e6;
+    }
+
+    @Override
+    public double getBatchLatencyP95Millis() {
+        return batchLatency.getPercentile(0.95) / 1e6;
+    }
+
+    @Override
+    public double getBatchLatencyP99Millis() {
+        return batchLatency.getPercentile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getBatchLatencyMaxMillis() {
+        return batchLatency.getMax() / 1e6;
+    }
+
+    /**
+     * Lock-free histogram of latencies, with buckets of exponential size. Each bucket covers a range of latencies
+     * [2^(i/4), 2^((i+1)/4)) nanoseconds, so the percentiles have an error below 19%.
+     */
+    static class LatencyHistogram {
+        private static final int SUB_BUCKETS = 4;
+        private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void add(long nanos) {
+            long value = Math.max(1, nanos);
+            buckets.incrementAndGet(bucket(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        static int bucket(long value) {
+            return Math.min(BUCKETS - 1, (int) Math.floor(Math.log(value) / Math.log(2) * SUB_BUCKETS));
+        }
+
+        static double upperBound(int bucket) {
+            return Math.pow(2, (bucket + 1) / (double) SUB_BUCKETS);
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getSum() {
+            return sum.get();
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Estimate the percentile as the upper bound of the bucket that contains it, limited by the max value.
+         *
+         * @param percentile    Percentile, between 0 and 1
+         * @return  Latency in nanoseconds
+         */
+        double getPercentile(double percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * percentile);
+            long accumulated = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                accumulated += buckets.get(i);
+                if (accumulated >= target) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.opencga.storage.core.runner;
+
+/**
+ * JMX view of a {@link TaskRunnerMetrics}.
+ */
+public interface TaskRunnerMetricsMBean {
+
+    String getName();
+
+    long getElapsedMillis();
+
+    long getReadRecords();
+
+    long getWrittenRecords();
+
+    double getReadRecordsPerSecond();
+
+    double getWrittenRecordsPerSecond();
+
+    long getReaderBusyMillis();
+
+    long getReaderBlockedMillis();
+
+    long getTaskBusyMillis();
+
+    long getTaskWaitingMillis();
+
+    long getWriterBusyMillis();
+
+    long getWriterBlockedMillis();
+
+    long getReadQueueSize();
+
+    long getWriteQueueSize();
+
+    long getBatches();
+
+    double getBatchLatencyMeanMillis();
+
+    double getBatchLatencyP50Millis();
+
+    double getBatchLatencyP95Millis();
+
+    double getBatchLatencyP99Millis();
+
+    double getBatchLatencyMaxMillis();
+
+}
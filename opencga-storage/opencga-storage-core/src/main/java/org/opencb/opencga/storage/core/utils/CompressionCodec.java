@@ -0,0 +1,353 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.utils;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Factory;
+import org.opencb.commons.utils.CompressionUtils;
+import org.xerial.snappy.Snappy;
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression codecs for the files and binaries generated by the storage engines.
+ *
+ * Files are identified by their extension. Compressed binaries (i.e. stage documents or extra genotype fields) start
+ * with a one byte codec tag, so they can be read without knowing which codec was used to write them.
+ * Gzip binaries are written without tag, as plain zlib data, to keep compatibility with already loaded data.
+ */
+public enum CompressionCodec {
+
+    NONE("", (byte) 0x04) {
+        @Override
+        public OutputStream compress(OutputStream os) {
+            return os;
+        }
+
+        @Override
+        public InputStream decompress(InputStream is) {
+            return is;
+        }
+
+        @Override
+        protected byte[] compressData(byte[] data) {
+            return data;
+        }
+
+        @Override
+        protected byte[] decompressData(byte[] data, int offset) {
+            return copyOfRange(data, offset, data.length);
+        }
+    },
+    GZIP(".gz", (byte) 0x78) {
+        @Override
+        public OutputStream compress(OutputStream os) throws IOException {
+            return new GZIPOutputStream(os, BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decompress(InputStream is) throws IOException {
+            return new GZIPInputStream(is, BUFFER_SIZE);
+        }
+
+        @Override
+        protected byte[] compressData(byte[] data) throws IOException {
+            return CompressionUtils.compress(data);
+        }
+
+        @Override
+        protected byte[] decompressData(byte[] data, int offset) throws IOException, DataFormatException {
+            return CompressionUtils.decompress(copyOfRange(data, offset, data.length));
+        }
+    },
+    SNAPPY(".snappy", (byte) 0x01) {
+        @Override
+        public OutputStream compress(OutputStream os) {
+            return new SnappyOutputStream(os, BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decompress(InputStream is) throws IOException {
+            return new SnappyInputStream(is);
+        }
+
+        @Override
+        protected byte[] compressData(byte[] data) throws IOException {
+            return Snappy.compress(data);
+        }
+
+        @Override
+        protected byte[] decompressData(byte[] data, int offset) throws IOException {
+            byte[] uncompressed = new byte[Snappy.uncompressedLength(data, offset, data.length - offset)];
+            Snappy.uncompress(data, offset, data.length - offset, uncompressed, 0);
+            return uncompressed;
+        }
+    },
+    LZ4(".lz4", (byte) 0x02) {
+        @Override
+        public OutputStream compress(OutputStream os) {
+            return new LZ4BlockOutputStream(os, BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decompress(InputStream is) {
+            return new LZ4BlockInputStream(is);
+        }
+
+        @Override
+        protected byte[] compressData(byte[] data) {
+            byte[] compressed = LZ4Factory.fastestInstance().fastCompressor().compress(data);
+            return withLength(data.length, compressed);
+        }
+
+        @Override
+        protected byte[] decompressData(byte[] data, int offset) {
+            int length = readLength(data, offset);
+            if (length == 0) {
+                return new byte[0];
+            }
+            return LZ4Factory.fastestInstance().fastDecompressor().decompress(data, offset + 4, length);
+        }
+    },
+    ZSTD(".zst", (byte) 0x03) {
+        @Override
+        public OutputStream compress(OutputStream os) throws IOException {
+            return new ZstdOutputStream(os, ZSTD_LEVEL);
+        }
+
+        @Override
+        public InputStream decompress(InputStream is) throws IOException {
+            return new ZstdInputStream(is);
+        }
+
+        @Override
+        protected byte[] compressData(byte[] data) {
+            return withLength(data.length, Zstd.compress(data, ZSTD_LEVEL));
+        }
+
+        @Override
+        protected byte[] decompressData(byte[] data, int offset) throws IOException {
+            int length = readLength(data, offset);
+            if (length == 0) {
+                return new byte[0];
+            }
+            byte[] uncompressed = Zstd.decompress(copyOfRange(data, offset + 4, data.length), length);
+            if (uncompressed.length != length) {
+                throw new IOException("Corrupted zstd data. Expected " + length + " bytes, got " + uncompressed.length);
+            }
+            return uncompressed;
+        }
+    };
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int ZSTD_LEVEL = 1;
+
+    private final String extension;
+    private final byte tag;
+
+    CompressionCodec(String extension, byte tag) {
+        this.extension = extension;
+        this.tag = tag;
+    }
+
+    /**
+     * Wraps an OutputStream to compress the written data.
+     *
+     * @param os    OutputStream to wrap
+     * @return      Compressed OutputStream
+     * @throws IOException if the stream can not be created
+     */
+    public abstract OutputStream compress(OutputStream os) throws IOException;
+
+    /**
+     * Wraps an InputStream to decompress the read data.
+     *
+     * @param is    InputStream to wrap
+     * @return      Decompressed InputStream
+     * @throws IOException if the stream can not be created
+     */
+    public abstract InputStream decompress(InputStream is) throws IOException;
+
+    protected abstract byte[] compressData(byte[] data) throws IOException;
+
+    protected abstract byte[] decompressData(byte[] data, int offset) throws IOException, DataFormatException;
+
+    /**
+     * Compress a binary. The result can be decompressed with {@link #decompress(byte[])}, without specifying the codec.
+     *
+     * @param data  Data to compress
+     * @return      Compressed data
+     * @throws IOException if there is any error compressing
+     */
+    public byte[] compress(byte[] data) throws IOException {
+        if (this == GZIP) {
+            return compressData(data);
+        }
+        byte[] compressed = compressData(data);
+        byte[] tagged = new byte[compressed.length + 1];
+        tagged[0] = tag;
+        System.arraycopy(compressed, 0, tagged, 1, compressed.length);
+        return tagged;
+    }
+
+    /**
+     * Decompress a binary compressed with any codec.
+     *
+     * @param data  Data to decompress
+     * @return      Decompressed data
+     * @throws IOException          if there is any error decompressing
+     * @throws DataFormatException  if the data is not compressed
+     */
+    public static byte[] decompress(byte[] data) throws IOException, DataFormatException {
+        CompressionCodec codec = detect(data);
+        return codec.decompressData(data, codec == GZIP ? 0 : 1);
+    }
+
+    /**
+     * Detect the codec used to compress a binary.
+     * Data without a known codec tag is considered gzip (zlib) compressed, as it was written by previous versions.
+     *
+     * @param data  Compressed data
+     * @return      Codec used to compress the data
+     */
+    public static CompressionCodec detect(byte[] data) {
+        if (data.length > 0) {
+            for (CompressionCodec codec : values()) {
+                if (codec != GZIP && codec.tag == data[0]) {
+                    return codec;
+                }
+            }
+        }
+        return GZIP;
+    }
+
+    /**
+     * Get the codec from its name. Accepts the names used by the option {@code compressMethod}.
+     *
+     * @param name  Codec name or extension. i.e. "gzip", "gz", "snappy", "snz", "lz4", "zstd", "zst". Empty or null for NONE
+     * @return      Codec
+     * @throws IllegalArgumentException if the codec is unknown
+     */
+    public static CompressionCodec fromName(String name) {
+        if (name == null) {
+            return NONE;
+        }
+        switch (name.toLowerCase()) {
+            case "":
+            case "none":
+                return NONE;
+            case "gzip":
+            case "gz":
+                return GZIP;
+            case "snappy":
+            case "snz":
+                return SNAPPY;
+            case "lz4":
+                return LZ4;
+            case "zstd":
+            case "zst":
+                return ZSTD;
+            default:
+                throw new IllegalArgumentException("Unknown compression method " + name);
+        }
+    }
+
+    /**
+     * Get the codec of a file from its extension.
+     *
+     * @param fileName  File name
+     * @return          Codec of the file, or NONE if the extension is not a known codec
+     */
+    public static CompressionCodec fromFileName(String fileName) {
+        if (fileName.endsWith(".gz")) {
+            return GZIP;
+        } else if (fileName.endsWith(".snappy") || fileName.endsWith(".snz")) {
+            return SNAPPY;
+        } else if (fileName.endsWith(".lz4")) {
+            return LZ4;
+        } else if (fileName.endsWith(".zst")) {
+            return ZSTD;
+        } else {
+            return NONE;
+        }
+    }
+
+    /**
+     * Open a file for reading, decompressing it depending on the file extension.
+     *
+     * @param path  File to read
+     * @return      Decompressed InputStream
+     * @throws IOException if the file can not be opened
+     */
+    public static InputStream newInputStream(Path path) throws IOException {
+        return fromFileName(path.getFileName().toString()).decompress(new FileInputStream(path.toFile()));
+    }
+
+    /**
+     * Open a file for writing, compressing it depending on the file extension.
+     *
+     * @param path  File to write
+     * @return      Compressed OutputStream
+     * @throws IOException if the file can not be created
+     */
+    public static OutputStream newOutputStream(Path path) throws IOException {
+        return fromFileName(path.getFileName().toString()).compress(new FileOutputStream(path.toFile()));
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    private static byte[] withLength(int length, byte[] compressed) {
+        byte[] result = new byte[compressed.length + 4];
+        result[0] = (byte) (length >>> 24);
+        result[1] = (byte) (length >>> 16);
+        result[2] = (byte) (length >>> 8);
+        result[3] = (byte) length;
+        System.arraycopy(compressed, 0, result, 4, compressed.length);
+        return result;
+    }
+
+    private static int readLength(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24
+                | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8
+                | data[offset + 3] & 0xFF;
+    }
+
+    private static byte[] copyOfRange(byte[] data, int from, int to) {
+        if (from == 0 && to == data.length) {
+            return data;
+        }
+        return Arrays.copyOfRange(data, from, to);
+    }
+}
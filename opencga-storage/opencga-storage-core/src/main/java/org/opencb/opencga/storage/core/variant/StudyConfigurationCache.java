@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant;
+
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe cache of {@link StudyConfiguration} used by the {@link StudyConfigurationManager}.
+ *
+ * Each entry holds a snapshot of the StudyConfiguration, versioned with its timeStamp. Snapshots are never
+ * modified once they are in the cache. New versions replace the whole entry, so concurrent readers always
+ * see a consistent object. An entry can be invalidated, forcing the next read to check the timeStamp
+ * against the database, even if the caller accepts cached values. Names and aliases pointing to a study are
+ * removed when the study is renamed or invalidated. The version of the cache changes every time that a new version of
+ * any study is cached.
+ */
+public class StudyConfigurationCache {
+
+    private final ConcurrentMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> studyIds = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    public static final class Entry {
+        private final StudyConfiguration snapshot;
+        private final long timeStamp;
+        private final boolean valid;
+
+        private Entry(StudyConfiguration snapshot, boolean valid) {
+            this.snapshot = snapshot;
+            this.timeStamp = getTimeStamp(snapshot);
+            this.valid = valid;
+        }
+
+        public StudyConfiguration getSnapshot() {
+            return snapshot;
+        }
+
+        public long getTimeStamp() {
+            return timeStamp;
+        }
+
+        public boolean isValid() {
+            return valid;
+        }
+    }
+
+    public Entry get(int studyId) {
+        return entries.get(studyId);
+    }
+
+    public Entry get(String studyName) {
+        Integer studyId = studyIds.get(studyName);
+        if (studyId == null) {
+            return null;
+        }
+        Entry entry = entries.get(studyId);
+        if (entry == null) {
+            studyIds.remove(studyName, studyId);
+        }
+        return entry;
+    }
+
+    /**
+     * Put a new snapshot in the cache, only if it is not older than the current one.
+     * The cache takes the ownership of the given object, that must not be modified after this call.
+     *
+     * @param snapshot  StudyConfiguration to cache
+     * @param alias     Extra name to find this study, if different from the study name. May be null
+     * @return          The snapshot in the cache after the operation
+     */
+    public StudyConfiguration put(StudyConfiguration snapshot, String alias) {
+        int studyId = snapshot.getStudyId();
+        Entry oldEntry = entries.get(studyId);
+        Entry entry = entries.merge(studyId, new Entry(snapshot, true),
+                (currentEntry, newEntry) -> newEntry.getTimeStamp() >= currentEntry.getTimeStamp() ? newEntry : currentEntry);
+        if (oldEntry == null || oldEntry.getTimeStamp() != entry.getTimeStamp()) {
+            version.incrementAndGet();
+        }
+        String studyName = entry.getSnapshot().getStudyName();
+        if (oldEntry != null && !Objects.equals(oldEntry.getSnapshot().getStudyName(), studyName)) {
+            // Study renamed. Forget the old name
+            removeNames(studyId, studyName);
+        }
+        studyIds.put(studyName, studyId);
+        if (alias != null && !alias.equals(studyName)) {
+            studyIds.put(alias, studyId);
+        }
+        return entry.getSnapshot();
+    }
+
+    /**
+     * Mark the entry as valid after checking against the database that there are no changes.
+     *
+     * @param entry Checked entry
+     */
+    public void validate(Entry entry) {
+        if (!entry.isValid()) {
+            entries.replace(entry.getSnapshot().getStudyId(), entry, new Entry(entry.getSnapshot(), true));
+        }
+    }
+
+    /**
+     * Force the next read of this study to check the timeStamp against the database.
+     * The aliases of the study are removed, as they may refer now to a different study.
+     *
+     * @param studyId Study to invalidate
+     */
+    public void invalidate(int studyId) {
+        Entry entry = entries.computeIfPresent(studyId, (key, e) -> e.isValid() ? new Entry(e.getSnapshot(), false) : e);
+        if (entry == null) {
+            removeNames(studyId, null);
+        } else {
+            removeNames(studyId, entry.getSnapshot().getStudyName());
+        }
+    }
+
+    public void invalidateAll() {
+        entries.replaceAll((key, entry) -> entry.isValid() ? new Entry(entry.getSnapshot(), false) : entry);
+        studyIds.entrySet().removeIf(name -> {
+            Entry entry = entries.get(name.getValue());
+            return entry == null || !name.getKey().equals(entry.getSnapshot().getStudyName());
+        });
+    }
+
+    public void clear() {
+        entries.clear();
+        studyIds.clear();
+        version.incrementAndGet();
+    }
+
+    /**
+     * Cheap version stamp of the cached studies. Changes every time that a new version of any study is put in the cache.
+     *
+     * @return Current version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Remove all the names pointing to a study.
+     *
+     * @param studyId   Study id
+     * @param studyName Name to keep. May be null
+     */
+    private void removeNames(int studyId, String studyName) {
+        studyIds.entrySet().removeIf(name -> name.getValue() == studyId && !name.getKey().equals(studyName));
+    }
+
+    private static long getTimeStamp(StudyConfiguration studyConfiguration) {
+        Long timeStamp = studyConfiguration.getTimeStamp();
+        return timeStamp == null ? 0 : timeStamp;
+    }
+}
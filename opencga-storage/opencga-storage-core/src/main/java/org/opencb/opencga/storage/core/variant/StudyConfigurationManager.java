@@ -19,6 +19,7 @@ package org.opencb.opencga.storage.core.variant;
 import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
+import org.opencb.opencga.storage.core.metadata.CopyOnWriteStudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
 import org.slf4j.Logger;
@@ -37,8 +38,7 @@ public abstract class StudyConfigurationManager implements AutoCloseable {
     public static final String READ_ONLY = "ro";
     protected static Logger logger = LoggerFactory.getLogger(StudyConfigurationManager.class);
 
-    private final Map<String, StudyConfiguration> stringStudyConfigurationMap = new HashMap<>();
-    private final Map<Integer, StudyConfiguration> intStudyConfigurationMap = new HashMap<>();
+    private final StudyConfigurationCache cache = new StudyConfigurationCache();
 
     public interface LockCloseable extends AutoCloseable {
         @Override
@@ -67,6 +67,7 @@ public abstract class StudyConfigurationManager implements AutoCloseable {
 
     public long lockStudy(int studyId, long lockDuration, long timeout) throws InterruptedException, TimeoutException {
         logger.warn("Ignoring lock");
+        invalidateCache(studyId);
         return 0;
     }
 
@@ -80,21 +81,15 @@ public abstract class StudyConfigurationManager implements AutoCloseable {
         QueryResult<StudyConfiguration> result;
         final boolean cached = options != null && options.getBoolean(CACHED, false);
         final boolean readOnly = options != null && options.getBoolean(READ_ONLY, false);
-        if (stringStudyConfigurationMap.containsKey(studyName)) {
-            if (cached) {
-                StudyConfiguration studyConfiguration = stringStudyConfigurationMap.get(studyName);
-                if (!readOnly) {
-                    studyConfiguration = studyConfiguration.newInstance();
-                }
-                return new QueryResult<>(studyConfiguration.getStudyName(), 0, 1, 1, "", "", Collections.singletonList(studyConfiguration));
+        StudyConfigurationCache.Entry entry = cache.get(studyName);
+        if (entry != null) {
+            if (cached && entry.isValid()) {
+                return buildCachedResult(studyName, entry, readOnly);
             }
-            result = internalGetStudyConfiguration(studyName, stringStudyConfigurationMap.get(studyName).getTimeStamp(), options);
+            result = internalGetStudyConfiguration(studyName, entry.getTimeStamp(), options);
             if (result.getNumTotalResults() == 0) { //No changes. Return old value
-                StudyConfiguration studyConfiguration = stringStudyConfigurationMap.get(studyName);
-                if (!readOnly) {
-                    studyConfiguration = studyConfiguration.newInstance();
-                }
-                return new QueryResult<>(studyName, 0, 1, 1, "", "", Collections.singletonList(studyConfiguration));
+                cache.validate(entry);
+                return buildCachedResult(studyName, entry, readOnly);
             }
         } else {
             result = internalGetStudyConfiguration(studyName, null, options);
@@ -102,14 +97,8 @@ public abstract class StudyConfigurationManager implements AutoCloseable {
 
         StudyConfiguration studyConfiguration = result.first();
         if (studyConfiguration != null) {
-            intStudyConfigurationMap.put(studyConfiguration.getStudyId(), studyConfiguration);
-            stringStudyConfigurationMap.put(studyConfiguration.getStudyName(), studyConfiguration);
-            if (studyName != null && !studyName.equals(studyConfiguration.getStudyName())) {
-                stringStudyConfigurationMap.put(studyName, studyConfiguration);
-            }
-            if (!readOnly) {
-                result.setResult(Collections.singletonList(studyConfiguration.newInstance()));
-            }
+            StudyConfiguration snapshot = cache.put(studyConfiguration, studyName);
+            result.setResult(Collections.singletonList(readOnly ? snapshot : new CopyOnWriteStudyConfiguration(snapshot)));
         }
         return result;
 
@@ -119,21 +108,15 @@ public abstract class StudyConfigurationManager implements AutoCloseable {
         QueryResult<StudyConfiguration> result;
         final boolean cached = options != null && options.getBoolean(CACHED, false);
         final boolean readOnly = options != null && options.getBoolean(READ_ONLY, false);
-        if (intStudyConfigurationMap.containsKey(studyId)) {
-            if (cached) {
-                StudyConfiguration studyConfiguration = intStudyConfigurationMap.get(studyId);
-                if (!readOnly) {
-                    studyConfiguration = studyConfiguration.newInstance();
-                }
-                return new QueryResult<>(studyConfiguration.getStudyName(), 0, 1, 1, "", "", Collections.singletonList(studyConfiguration));
+        StudyConfigurationCache.Entry entry = cache.get(studyId);
+        if (entry != null) {
+            if (cached && entry.isValid()) {
+                return buildCachedResult(entry.getSnapshot().getStudyName(), entry, readOnly);
             }
-            result = internalGetStudyConfiguration(studyId, intStudyConfigurationMap.get(studyId).getTimeStamp(), options);
+            result = internalGetStudyConfiguration(studyId, entry.getTimeStamp(), options);
             if (result.getNumTotalResults() == 0) { //No changes. Return old value
-                StudyConfiguration studyConfiguration = intStudyConfigurationMap.get(studyId);
-                if (!readOnly) {
-                    studyConfiguration = studyConfiguration.newInstance();
-                }
-                return new QueryResult<>(studyConfiguration.getStudyName(), 0, 1, 1, "", "", Collections.singletonList(studyConfiguration));
+                cache.validate(entry);
+                return buildCachedResult(entry.getSnapshot().getStudyName(), entry, readOnly);
             }
         } else {
             result = internalGetStudyConfiguration(studyId, null, options);
@@ -141,16 +124,60 @@ public abstract class StudyConfigurationManager implements AutoCloseable {
 
         StudyConfiguration studyConfiguration = result.first();
         if (studyConfiguration != null) {
-            intStudyConfigurationMap.put(studyConfiguration.getStudyId(), studyConfiguration);
-            stringStudyConfigurationMap.put(studyConfiguration.getStudyName(), studyConfiguration);
-            if (!readOnly) {
-                result.setResult(Collections.singletonList(studyConfiguration.newInstance()));
-            }
+            StudyConfiguration snapshot = cache.put(studyConfiguration, null);
+            result.setResult(Collections.singletonList(readOnly ? snapshot : new CopyOnWriteStudyConfiguration(snapshot)));
         }
         return result;
 
     }
 
+    /**
+     * Read only results share the cached snapshot, that must not be modified. Otherwise, a {@link CopyOnWriteStudyConfiguration}
+     * is returned, that copies only the collections accessed by the caller.
+     */
+    private QueryResult<StudyConfiguration> buildCachedResult(String id, StudyConfigurationCache.Entry entry, boolean readOnly) {
+        StudyConfiguration studyConfiguration = readOnly ? entry.getSnapshot() : new CopyOnWriteStudyConfiguration(entry.getSnapshot());
+        return new QueryResult<>(id, 0, 1, 1, "", "", Collections.singletonList(studyConfiguration));
+    }
+
+    /**
+     * Get the name of a study from the cache, without querying the database.
+     *
+     * @param studyId Study id
+     * @return Study name, or null if the study is not in the cache.
+     */
+    protected String getCachedStudyName(int studyId) {
+        StudyConfigurationCache.Entry entry = cache.get(studyId);
+        return entry == null ? null : entry.getSnapshot().getStudyName();
+    }
+
+    /**
+     * Force the next read of the study to check for changes in the database. Should be called by the implementations
+     * every time that the study is modified or locked by someone else.
+     *
+     * @param studyId Study id
+     */
+    protected void invalidateCache(int studyId) {
+        cache.invalidate(studyId);
+    }
+
+    /**
+     * Remove all the cached StudyConfigurations.
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * Version of the StudyConfigurations known by this manager. Changes every time that a new version of any study is read
+     * from or written to the database through this manager, without querying the database.
+     *
+     * @return Current version
+     */
+    public long getCacheVersion() {
+        return cache.getVersion();
+    }
+
     public List<String> getStudyNames(QueryOptions options) {
         return new ArrayList<>(getStudies(options).keySet());
     }
@@ -165,8 +192,10 @@ public abstract class StudyConfigurationManager implements AutoCloseable {
 
     public final QueryResult updateStudyConfiguration(StudyConfiguration studyConfiguration, QueryOptions options) {
         studyConfiguration.setTimeStamp(System.currentTimeMillis());
-        stringStudyConfigurationMap.put(studyConfiguration.getStudyName(), studyConfiguration);
-        intStudyConfigurationMap.put(studyConfiguration.getStudyId(), studyConfiguration);
+        // Copy on write. The caller may continue modifying its own instance.
+        StudyConfiguration snapshot = studyConfiguration.newInstance();
+        snapshot.setTimeStamp(studyConfiguration.getTimeStamp());
+        cache.put(snapshot, null);
         return internalUpdateStudyConfiguration(studyConfiguration, options);
     }
 
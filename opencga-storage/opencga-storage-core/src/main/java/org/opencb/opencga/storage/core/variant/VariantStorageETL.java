@@ -21,6 +21,7 @@ import org.opencb.biodata.tools.variant.tasks.VariantRunner;
 import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.io.DataReader;
 import org.opencb.commons.io.DataWriter;
 import org.opencb.commons.run.ParallelTaskRunner;
 import org.opencb.commons.run.Task;
@@ -30,8 +31,11 @@ import org.opencb.opencga.storage.core.StorageETL;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.runner.AdaptiveBatchController;
 import org.opencb.opencga.storage.core.runner.StringDataReader;
 import org.opencb.opencga.storage.core.runner.StringDataWriter;
+import org.opencb.opencga.storage.core.runner.TaskRunnerMetrics;
+import org.opencb.opencga.storage.core.utils.CompressionCodec;
 import org.opencb.opencga.storage.core.variant.VariantStorageManager.Options;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotationManager;
@@ -67,6 +71,7 @@ public abstract class VariantStorageETL implements StorageETL {
     protected final VariantDBAdaptor dbAdaptor;
     protected final VariantReaderUtils variantReaderUtils;
     protected final Logger logger;
+    protected final ObjectMap transformStats = new ObjectMap();
 
     public VariantStorageETL(StorageConfiguration configuration, String storageEngineId, Logger logger, VariantDBAdaptor dbAdaptor,
                              VariantReaderUtils variantReaderUtils) {
@@ -202,6 +207,7 @@ public abstract class VariantStorageETL implements StorageETL {
         boolean includeSrc = false;
         String format = options.getString(Options.TRANSFORM_FORMAT.key(), Options.TRANSFORM_FORMAT.defaultValue());
         String parser = options.getString("transform.parser", "htsjdk");
+        boolean lazyParser = options.getBoolean(Options.TRANSFORM_LAZY_PARSER.key(), Options.TRANSFORM_LAZY_PARSER.defaultValue());
 
         VariantSource source = buildVariantSource(input, options);
         String fileName = source.getFileName();
@@ -213,14 +219,27 @@ public abstract class VariantStorageETL implements StorageETL {
         String extension = "";
         int numTasks = options.getInt(Options.TRANSFORM_THREADS.key(), Options.TRANSFORM_THREADS.defaultValue());
         int capacity = options.getInt("blockingQueueCapacity", numTasks * 2);
-
-        if (compression.equalsIgnoreCase("gzip") || compression.equalsIgnoreCase("gz")) {
-            extension = ".gz";
-        } else if (compression.equalsIgnoreCase("snappy") || compression.equalsIgnoreCase("snz")) {
-            extension = ".snappy";
-        } else if (!compression.isEmpty()) {
-            throw new IllegalArgumentException("Unknown compression method " + compression);
+        boolean sorted = options.getBoolean(Options.TRANSFORM_SORTED.key(), Options.TRANSFORM_SORTED.defaultValue());
+        long metricsReportInterval = options.getLong(Options.METRICS_REPORT_INTERVAL.key(),
+                Options.METRICS_REPORT_INTERVAL.<Integer>defaultValue());
+        TaskRunnerMetrics metrics = new TaskRunnerMetrics("transform " + fileName);
+        AdaptiveBatchController adaptiveBatch = AdaptiveBatchController.build(options, batchSize);
+        if (adaptiveBatch != null && !options.containsKey("blockingQueueCapacity")) {
+            capacity = adaptiveBatch.getCapacity(numTasks);
+            logger.info("Adaptive batch size. Queue capacity: {}, {}", capacity, adaptiveBatch);
+        }
+        int decompressThreads = options.getInt(Options.TRANSFORM_DECOMPRESS_THREADS.key(),
+                Options.TRANSFORM_DECOMPRESS_THREADS.defaultValue());
+
+        CompressionCodec compressionCodec = CompressionCodec.fromName(compression);
+        if (format.equals("avro") && (compressionCodec == CompressionCodec.LZ4 || compressionCodec == CompressionCodec.ZSTD)) {
+            // Avro files record the codec in the file header. Avro does not support lz4 nor zstd, so use snappy instead,
+            // and name the files after it.
+            logger.warn("Avro does not support {} compression. Using snappy instead", compressionCodec);
+            compressionCodec = CompressionCodec.SNAPPY;
+            compression = "snappy";
         }
+        extension = compressionCodec.getExtension();
 
         // TODO Create a utility to determine which extensions are variants files
         final VariantVcfFactory factory = createVariantVcfFactory(source, fileName);
@@ -274,7 +293,7 @@ public abstract class VariantStorageETL implements StorageETL {
             source = VariantStorageManager.readVariantSource(input, source);
 
             //Reader
-            StringDataReader dataReader = new StringDataReader(input);
+            StringDataReader dataReader = new StringDataReader(input, decompressThreads);
 
             //Writer
             DataWriter<ByteBuffer> dataWriter;
@@ -294,7 +313,7 @@ public abstract class VariantStorageETL implements StorageETL {
                 Pair<VCFHeader, VCFHeaderVersion> header = readHtsHeader(input);
                 VariantGlobalStatsCalculator statsCalculator = new VariantGlobalStatsCalculator(source);
                 taskSupplier = () -> new VariantAvroTransformTask(header.getKey(), header.getValue(), finalSource, finalOutputMetaFile,
-                        statsCalculator, includeSrc, generateReferenceBlocks);
+                        statsCalculator, includeSrc, generateReferenceBlocks).setLazyParsing(lazyParser);
             } else {
                 logger.info("Using Biodata to read variants.");
                 final VariantSource finalSource = source;
@@ -307,22 +326,33 @@ public abstract class VariantStorageETL implements StorageETL {
 
             ParallelTaskRunner<String, ByteBuffer> ptr;
             try {
+                DataReader<String> reader = dataReader;
+                if (adaptiveBatch != null) {
+                    reader = adaptiveBatch.wrapReader(dataReader, VariantStorageETL::estimateVcfLineSize);
+                    taskSupplier = adaptiveBatch.wrapTasks(taskSupplier);
+                }
                 ptr = new ParallelTaskRunner<>(
-                        dataReader,
-                        taskSupplier,
-                        dataWriter,
-                        new ParallelTaskRunner.Config(numTasks, batchSize, capacity, false)
+                        metrics.wrapReader(reader),
+                        metrics.wrapTasks(taskSupplier),
+                        metrics.wrapWriter(dataWriter),
+                        new ParallelTaskRunner.Config(numTasks, batchSize, capacity, sorted)
                 );
             } catch (Exception e) {
                 throw new StorageManagerException("Error while creating ParallelTaskRunner", e);
             }
             logger.info("Multi thread transform... [1 reading, {} transforming, 1 writing]", numTasks);
             start = System.currentTimeMillis();
+            metrics.start(metricsReportInterval);
             try {
                 ptr.run();
             } catch (ExecutionException e) {
                 e.printStackTrace();
                 throw new StorageManagerException("Error while executing TransformVariants in ParallelTaskRunner", e);
+            } finally {
+                transformStats.append("metrics", metrics.stop().toObjectMap());
+                if (adaptiveBatch != null) {
+                    transformStats.append("adaptiveBatch", adaptiveBatch.toObjectMap());
+                }
             }
             end = System.currentTimeMillis();
         } else if (format.equals("json")) {
@@ -330,7 +360,7 @@ public abstract class VariantStorageETL implements StorageETL {
             source = VariantStorageManager.readVariantSource(input, source);
 
             //Reader
-            StringDataReader dataReader = new StringDataReader(input);
+            StringDataReader dataReader = new StringDataReader(input, decompressThreads);
 
             //Writers
             StringDataWriter dataWriter = new StringDataWriter(outputVariantsFile, true);
@@ -345,7 +375,7 @@ public abstract class VariantStorageETL implements StorageETL {
                 Pair<VCFHeader, VCFHeaderVersion> header = readHtsHeader(input);
                 VariantGlobalStatsCalculator statsCalculator = new VariantGlobalStatsCalculator(finalSource);
                 taskSupplier = () -> new VariantJsonTransformTask(header.getKey(), header.getValue(), finalSource,
-                        finalOutputFileJsonFile, statsCalculator, includeSrc, generateReferenceBlocks);
+                        finalOutputFileJsonFile, statsCalculator, includeSrc, generateReferenceBlocks).setLazyParsing(lazyParser);
             } else {
                 logger.info("Using Biodata to read variants.");
                 final Path finalOutputMetaFile = output.resolve(fileName + ".file.json" + extension);   //TODO: Write META in avro too
@@ -356,11 +386,16 @@ public abstract class VariantStorageETL implements StorageETL {
             logger.info("Generating output file {}", outputVariantsFile);
 
             try {
+                DataReader<String> reader = dataReader;
+                if (adaptiveBatch != null) {
+                    reader = adaptiveBatch.wrapReader(dataReader, VariantStorageETL::estimateVcfLineSize);
+                    taskSupplier = adaptiveBatch.wrapTasks(taskSupplier);
+                }
                 ptr = new ParallelTaskRunner<>(
-                        dataReader,
-                        taskSupplier,
-                        dataWriter,
-                        new ParallelTaskRunner.Config(numTasks, batchSize, capacity, false)
+                        metrics.wrapReader(reader),
+                        metrics.wrapTasks(taskSupplier),
+                        metrics.wrapWriter(dataWriter),
+                        new ParallelTaskRunner.Config(numTasks, batchSize, capacity, sorted)
                 );
             } catch (Exception e) {
                 throw new StorageManagerException("Error while creating ParallelTaskRunner", e);
@@ -368,11 +403,17 @@ public abstract class VariantStorageETL implements StorageETL {
 
             logger.info("Multi thread transform... [1 reading, {} transforming, 1 writing]", numTasks);
             start = System.currentTimeMillis();
+            metrics.start(metricsReportInterval);
             try {
                 ptr.run();
             } catch (ExecutionException e) {
                 e.printStackTrace();
                 throw new StorageManagerException("Error while executing TransformVariants in ParallelTaskRunner", e);
+            } finally {
+                transformStats.append("metrics", metrics.stop().toObjectMap());
+                if (adaptiveBatch != null) {
+                    transformStats.append("adaptiveBatch", adaptiveBatch.toObjectMap());
+                }
             }
             end = System.currentTimeMillis();
         } else if (format.equals("proto")) {
@@ -391,6 +432,38 @@ public abstract class VariantStorageETL implements StorageETL {
         return outputUri.resolve(outputVariantsFile.getFileName().toString());
     }
 
+    @Override
+    public ObjectMap getTransformStats() {
+        return transformStats;
+    }
+
+    /**
+     * Estimated in-memory bytes of a VCF line while it is transformed. The line uses 2 bytes per char, and the
+     * parsed variant and its serialized form are a few times bigger.
+     *
+     * @param line  VCF line
+     * @return      Estimated bytes
+     */
+    protected static long estimateVcfLineSize(String line) {
+        return 64 + 10L * line.length();
+    }
+
+    /**
+     * Estimated in-memory bytes of a parsed variant, dominated by the sample data of wide files.
+     *
+     * @param variant   Variant
+     * @return          Estimated bytes
+     */
+    protected static long estimateVariantSize(Variant variant) {
+        long size = 512;
+        for (StudyEntry studyEntry : variant.getStudies()) {
+            for (List<String> sampleData : studyEntry.getSamplesData()) {
+                size += 32 + 48L * sampleData.size();
+            }
+        }
+        return size;
+    }
+
     protected VariantVcfFactory createVariantVcfFactory(VariantSource source, String fileName) throws StorageManagerException {
         VariantVcfFactory factory;
         if (fileName.endsWith(".vcf") || fileName.endsWith(".vcf.gz") || fileName.endsWith(".vcf.snappy")) {
@@ -560,6 +633,12 @@ public abstract class VariantStorageETL implements StorageETL {
                 }
                 studyConfiguration.getAttributes().put(Options.EXTRA_GENOTYPE_FIELDS_TYPE.key(), extraFieldsType);
             }
+            // The codec can change between files, as the compressed fields are self describing. Validate and keep the last one
+            if (options.containsKey(Options.EXTRA_GENOTYPE_FIELDS_COMPRESS_METHOD.key())) {
+                String compressMethod = options.getString(Options.EXTRA_GENOTYPE_FIELDS_COMPRESS_METHOD.key());
+                CompressionCodec.fromName(compressMethod);
+                studyConfiguration.getAttributes().put(Options.EXTRA_GENOTYPE_FIELDS_COMPRESS_METHOD.key(), compressMethod);
+            }
         }
     }
 
@@ -745,7 +824,8 @@ public abstract class VariantStorageETL implements StorageETL {
 
             QueryOptions annotationOptions = new QueryOptions();
             Query annotationQuery = new Query();
-            if (!options.getBoolean(VariantAnnotationManager.OVERWRITE_ANNOTATIONS, false)) {
+            boolean incremental = options.getBoolean(VariantAnnotationManager.INCREMENTAL, false);
+            if (!incremental && !options.getBoolean(VariantAnnotationManager.OVERWRITE_ANNOTATIONS, false)) {
                 annotationQuery.put(VariantDBAdaptor.VariantQueryParams.ANNOTATION_EXISTS.key(), false);
             }
             annotationQuery.put(VariantDBAdaptor.VariantQueryParams.STUDIES.key(),
@@ -755,6 +835,10 @@ public abstract class VariantStorageETL implements StorageETL {
 
             annotationOptions.add(VariantAnnotationManager.OUT_DIR, output.getPath());
             annotationOptions.add(VariantAnnotationManager.FILE_NAME, dbName + "." + TimeUtils.getTime());
+            annotationOptions.add(VariantAnnotationManager.DIRECT_LOAD, options.getBoolean(VariantAnnotationManager.DIRECT_LOAD, false));
+            annotationOptions.add(VariantAnnotationManager.INCREMENTAL, incremental);
+            annotationOptions.add(VariantAnnotationManager.OVERWRITE_ANNOTATIONS,
+                    options.getBoolean(VariantAnnotationManager.OVERWRITE_ANNOTATIONS, false));
             try {
                 variantAnnotationManager.annotate(annotationQuery, annotationOptions);
             } catch (IOException e) {
@@ -784,7 +868,13 @@ public abstract class VariantStorageETL implements StorageETL {
                     Integer defaultCohortId = studyConfiguration.getCohortIds().get(defaultCohortName);
                     if (studyConfiguration.getCalculatedStats().contains(defaultCohortId)) { //Check if "defaultCohort" is calculated
                         //Check if the samples number are different
-                        if (!indexedSamples.values().equals(studyConfiguration.getCohorts().get(defaultCohortId))) {
+                        Set<Integer> calculatedSamples = studyConfiguration.getCohorts().get(defaultCohortId);
+                        if (!indexedSamples.values().equals(calculatedSamples)
+                                && statsOptions.getBoolean(Options.STATS_INCREMENTAL.key(), Options.STATS_INCREMENTAL.defaultValue())
+                                && indexedSamples.values().containsAll(calculatedSamples)) {
+                            logger.debug("Cohort \"{}\":{} was already calculated. Add the new samples to the stats.",
+                                    defaultCohortName, defaultCohortId);
+                        } else if (!indexedSamples.values().equals(calculatedSamples)) {
                             logger.debug("Cohort \"{}\":{} was already calculated. Invalidating stats to recalculate.",
                                     defaultCohortName, defaultCohortId);
                             studyConfiguration.getCalculatedStats().remove(defaultCohortId);
@@ -22,11 +22,15 @@ import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.opencga.storage.core.StorageManager;
 import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
+import org.opencb.opencga.storage.core.variant.adaptors.CachedVariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryResultCache;
 import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by imedina on 13/08/14.
@@ -40,6 +44,7 @@ public abstract class VariantStorageManager extends StorageManager<VariantDBAdap
         EXTRA_GENOTYPE_FIELDS("include.extra-fields", ""),  //Include other sample information (like DP, GQ, ...)
         EXTRA_GENOTYPE_FIELDS_TYPE("include.extra-fields-format", ""),  //Other sample information format (String, Integer, Float)
         EXTRA_GENOTYPE_FIELDS_COMPRESS("extra-fields.compress", true),    //Compress with gzip other sample information
+        EXTRA_GENOTYPE_FIELDS_COMPRESS_METHOD("extra-fields.compress.method", "gzip"),  //Codec to compress other sample information
 //        @Deprecated
 //        INCLUDE_SRC("include.src", false),                  //Include original source file on the transformed file and the final db
 //        COMPRESS_GENOTYPES ("compressGenotypes", true),    //Stores sample information as compressed genotypes
@@ -65,14 +70,30 @@ public abstract class VariantStorageManager extends StorageManager<VariantDBAdap
         TRANSFORM_BATCH_SIZE("transform.batch.size", 200),
         TRANSFORM_THREADS("transform.threads", 4),
         TRANSFORM_FORMAT("transform.format", "avro"),
+        TRANSFORM_DECOMPRESS_THREADS("transform.decompress.threads", 2), //Threads to decompress the input. BGZF in parallel
+        TRANSFORM_LAZY_PARSER("transform.parser.lazy", false),           //Tokenize the sample columns without htsjdk Genotypes
+        TRANSFORM_SORTED("transform.sorted", false),                     //Keep the order of the input file in the transformed file
         LOAD_BATCH_SIZE("load.batch.size", 100),
         LOAD_THREADS("load.threads", 6),
         MERGE_BATCH_SIZE("merge.batch.size", 10),          //Number of files to merge directly from first to second table
+        ADAPTIVE_BATCH("adaptive.batch", false),           //Size the transform and load batches by estimated bytes, latency and heap usage
+        ADAPTIVE_BATCH_MAX_SIZE("adaptive.batch.max.size", 10000),  //Max records per batch in adaptive mode
+        ADAPTIVE_BATCH_BYTES("adaptive.batch.bytes", 16L * 1024 * 1024), //Target estimated in-memory bytes per batch
+        ADAPTIVE_BATCH_LATENCY("adaptive.batch.latency", 1000L),    //Target milliseconds to process a batch
+        ADAPTIVE_MAX_HEAP_USAGE("adaptive.heap.max", 0.8),          //Heap usage above which the batches shrink
 
         CALCULATE_STATS("calculateStats", false),          //Calculate stats on the postLoad step
         OVERWRITE_STATS("overwriteStats", false),          //Overwrite stats already present
         UPDATE_STATS("updateStats", false),                //Calculate missing stats
-        ANNOTATE("annotate", false);
+        STATS_BITSET("stats.bitset", true),                //Calculate the stats of all the cohorts at once using sample bitsets
+        STATS_INCREMENTAL("stats.incremental", false),     //Update calculated cohorts adding only the genotypes of the new samples
+        STATS_FORMAT("stats.format", "avro"),              //Intermediate stats file format: avro (binary, deflate blocks) or json
+        ANNOTATE("annotate", false),
+
+        METRICS_REPORT_INTERVAL("metrics.report.interval", 60),  //Seconds between reports of the pipeline metrics. 0 to disable
+
+        QUERY_CACHE_SIZE("query.cache.size", 0),           //Max number of cached count, groupBy and rank results. 0 to disable
+        QUERY_CACHE_TTL("query.cache.ttl", 300);           //Time to live in seconds of the cached query results
 
         private final String key;
         private final Object value;
@@ -95,6 +116,8 @@ public abstract class VariantStorageManager extends StorageManager<VariantDBAdap
 
 //    protected static Logger logger;
 
+    private final Map<String, VariantQueryResultCache> queryResultCaches = new ConcurrentHashMap<>();
+
     public VariantStorageManager() {
         logger = LoggerFactory.getLogger(VariantStorageManager.class);
     }
@@ -135,6 +158,24 @@ public abstract class VariantStorageManager extends StorageManager<VariantDBAdap
         return configuration.getStorageEngine(storageEngineId).getVariant().getOptions();
     }
 
+    /**
+     * Get a VariantDBAdaptor that caches the results of the aggregation queries, if enabled with
+     * {@link Options#QUERY_CACHE_SIZE}. The cache is shared by all the adaptors over the same database, and its
+     * statistics are exposed through JMX.
+     *
+     * @param dbName Database name
+     * @return A VariantDBAdaptor, maybe cached
+     * @throws StorageManagerException If the VariantDBAdaptor can not be created
+     */
+    public VariantDBAdaptor getCachedDBAdaptor(String dbName) throws StorageManagerException {
+        VariantDBAdaptor dbAdaptor = getDBAdaptor(dbName);
+        VariantQueryResultCache cache = queryResultCaches.computeIfAbsent(String.valueOf(dbName), key -> {
+            VariantQueryResultCache newCache = VariantQueryResultCache.build(getOptions());
+            return newCache == null ? null : newCache.registerMBean(key);
+        });
+        return cache == null ? dbAdaptor : new CachedVariantDBAdaptor(dbAdaptor, cache);
+    }
+
     public VariantReaderUtils getVariantReaderUtils() {
         return new VariantReaderUtils();
     }
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.opencga.storage.core.variant.adaptors;
+
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.cellbase.client.rest.CellBaseClient;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+import org.opencb.commons.io.DataWriter;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.variant.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryResultCache.key;
+
+/**
+ * VariantDBAdaptor decorator that caches the results of the aggregation queries: count, distinct, groupBy, rank and
+ * getFrequency. Any other method is delegated to the wrapped adaptor.
+ *
+ * Results are keyed by the normalized Query and QueryOptions, and stored in a {@link VariantQueryResultCache} bounded
+ * by size and time to live, that can be shared by many adaptors over the same database. All the entries are invalidated
+ * when any StudyConfiguration changes (new file indexed, stats calculated, ...) or when a write method is called through
+ * this adaptor. Only the changes made through the same StudyConfigurationManager are detected immediately. Changes made
+ * by other processes, like indexing new files or loading annotations, are only covered by the time to live.
+ */
+public class CachedVariantDBAdaptor implements VariantDBAdaptor {
+
+    private final VariantDBAdaptor dbAdaptor;
+    private final VariantQueryResultCache cache;
+    private Map<Integer, Long> timeStamps = null;
+    private long studyConfigurationManagerVersion = -1;
+
+    public CachedVariantDBAdaptor(VariantDBAdaptor dbAdaptor, VariantQueryResultCache cache) {
+        this.dbAdaptor = dbAdaptor;
+        this.cache = cache;
+    }
+
+    public VariantDBAdaptor getDBAdaptor() {
+        return dbAdaptor;
+    }
+
+    public VariantQueryResultCache getCache() {
+        return cache;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public QueryResult<Long> count(Query query) {
+        return cached(key("count", query, null), () -> dbAdaptor.count(query));
+    }
+
+    @Override
+    public QueryResult distinct(Query query, String field) {
+        return cached(key("distinct", query, null, field), () -> dbAdaptor.distinct(query, field));
+    }
+
+    @Override
+    public QueryResult getFrequency(Query query, Region region, int regionIntervalSize) {
+        return cached(key("getFrequency", query, null, region.toString(), String.valueOf(regionIntervalSize)),
+                () -> dbAdaptor.getFrequency(query, region, regionIntervalSize));
+    }
+
+    @Override
+    public QueryResult rank(Query query, String field, int numResults, boolean asc) {
+        return cached(key("rank", query, null, field, String.valueOf(numResults), String.valueOf(asc)),
+                () -> dbAdaptor.rank(query, field, numResults, asc));
+    }
+
+    @Override
+    public QueryResult groupBy(Query query, String field, QueryOptions options) {
+        return cached(key("groupBy", query, options, field), () -> dbAdaptor.groupBy(query, field, options));
+    }
+
+    @Override
+    public QueryResult groupBy(Query query, List<String> fields, QueryOptions options) {
+        return cached(key("groupBy", query, options, String.join(",", fields)),
+                () -> dbAdaptor.groupBy(query, fields, options));
+    }
+
+    private QueryResult cached(String key, Supplier<QueryResult> loader) {
+        cache.checkDataVersion(readDataVersion());
+        return cache.get(key, loader);
+    }
+
+    /**
+     * Timestamps of all the StudyConfigurations. Any change (new file indexed, stats calculated, ...) updates the timestamp.
+     * The timestamps are read from the StudyConfigurationManager cache, and only when its version changes, so most of the
+     * calls do not query the database.
+     */
+    private synchronized Map<Integer, Long> readDataVersion() {
+        StudyConfigurationManager studyConfigurationManager = dbAdaptor.getStudyConfigurationManager();
+        if (studyConfigurationManager == null) {
+            return Collections.emptyMap();
+        }
+        long version = studyConfigurationManager.getCacheVersion();
+        if (timeStamps == null || version != studyConfigurationManagerVersion) {
+            QueryOptions options = new QueryOptions(StudyConfigurationManager.READ_ONLY, true)
+                    .append(StudyConfigurationManager.CACHED, true);
+            Map<Integer, Long> map = new HashMap<>();
+            for (Integer studyId : studyConfigurationManager.getStudyIds(null)) {
+                StudyConfiguration studyConfiguration = studyConfigurationManager.getStudyConfiguration(studyId, options).first();
+                Long timeStamp = studyConfiguration == null ? null : studyConfiguration.getTimeStamp();
+                map.put(studyId, timeStamp == null ? 0L : timeStamp);
+            }
+            timeStamps = map;
+            studyConfigurationManagerVersion = version;
+        }
+        return timeStamps;
+    }
+
+    private void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /* Write methods. Invalidate the cache */
+
+    @Override
+    public QueryResult insert(List<Variant> variants, String studyName, QueryOptions options) {
+        try {
+            return dbAdaptor.insert(variants, studyName, options);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public QueryResult delete(Query query, QueryOptions options) {
+        try {
+            return dbAdaptor.delete(query, options);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public QueryResult deleteSamples(String studyName, List<String> sampleNames, QueryOptions options) {
+        try {
+            return dbAdaptor.deleteSamples(studyName, sampleNames, options);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public QueryResult deleteFile(String studyName, String fileName, QueryOptions options) {
+        try {
+            return dbAdaptor.deleteFile(studyName, fileName, options);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public QueryResult deleteStudy(String studyName, QueryOptions options) {
+        try {
+            return dbAdaptor.deleteStudy(studyName, options);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void preUpdateStats(StudyConfiguration studyConfiguration) throws IOException {
+        dbAdaptor.preUpdateStats(studyConfiguration);
+        invalidateAll();
+    }
+
+    @Override
+    public QueryResult addStats(List<VariantStatsWrapper> variantStatsWrappers, String studyName, QueryOptions queryOptions) {
+        try {
+            return dbAdaptor.addStats(variantStatsWrappers, studyName, queryOptions);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public QueryResult updateStats(List<VariantStatsWrapper> variantStatsWrappers, String studyName, QueryOptions queryOptions) {
+        try {
+            return dbAdaptor.updateStats(variantStatsWrappers, studyName, queryOptions);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public QueryResult updateStats(List<VariantStatsWrapper> variantStatsWrappers, StudyConfiguration studyConfiguration,
+                                   QueryOptions options) {
+        try {
+            return dbAdaptor.updateStats(variantStatsWrappers, studyConfiguration, options);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public QueryResult deleteStats(String studyName, String cohortName, QueryOptions options) {
+        try {
+            return dbAdaptor.deleteStats(studyName, cohortName, options);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void preUpdateAnnotations() throws IOException {
+        dbAdaptor.preUpdateAnnotations();
+        invalidateAll();
+    }
+
+    @Override
+    public QueryResult addAnnotations(List<VariantAnnotation> variantAnnotations, QueryOptions queryOptions) {
+        try {
+            return dbAdaptor.addAnnotations(variantAnnotations, queryOptions);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public QueryResult updateAnnotations(List<VariantAnnotation> variantAnnotations, QueryOptions queryOptions) {
+        try {
+            return dbAdaptor.updateAnnotations(variantAnnotations, queryOptions);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public QueryResult deleteAnnotation(String annotationId, Query query, QueryOptions queryOptions) {
+        try {
+            return dbAdaptor.deleteAnnotation(annotationId, query, queryOptions);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    /* Delegated methods */
+
+    @Override
+    public void setDataWriter(DataWriter dataWriter) {
+        dbAdaptor.setDataWriter(dataWriter);
+    }
+
+    @Override
+    public QueryResult<Variant> get(Query query, QueryOptions options) {
+        return dbAdaptor.get(query, options);
+    }
+
+    @Override
+    public List<QueryResult<Variant>> get(List<Query> queries, QueryOptions options) {
+        return dbAdaptor.get(queries, options);
+    }
+
+    @Override
+    public QueryResult<Variant> getPhased(String variant, String studyName, String sampleName, QueryOptions options, int windowsSize) {
+        return dbAdaptor.getPhased(variant, studyName, sampleName, options, windowsSize);
+    }
+
+    @Override
+    public VariantDBIterator iterator() {
+        return dbAdaptor.iterator();
+    }
+
+    @Override
+    public VariantDBIterator iterator(Query query, QueryOptions options) {
+        return dbAdaptor.iterator(query, options);
+    }
+
+    @Override
+    public void forEach(Consumer<? super Variant> action) {
+        dbAdaptor.forEach(action);
+    }
+
+    @Override
+    public void forEach(Query query, Consumer<? super Variant> action, QueryOptions options) {
+        dbAdaptor.forEach(query, action, options);
+    }
+
+    @Override
+    public VariantQueryPartitioner getQueryPartitioner() {
+        return dbAdaptor.getQueryPartitioner();
+    }
+
+    @Override
+    public VariantDBIterator iterator(VariantQueryPartition partition, QueryOptions options) {
+        return dbAdaptor.iterator(partition, options);
+    }
+
+    @Override
+    public List<Integer> getReturnedStudies(Query query, QueryOptions options) {
+        return dbAdaptor.getReturnedStudies(query, options);
+    }
+
+    @Override
+    public Map<Integer, List<Integer>> getReturnedSamples(Query query, QueryOptions options) {
+        return dbAdaptor.getReturnedSamples(query, options);
+    }
+
+    @Override
+    public VariantSourceDBAdaptor getVariantSourceDBAdaptor() {
+        return dbAdaptor.getVariantSourceDBAdaptor();
+    }
+
+    @Override
+    public StudyConfigurationManager getStudyConfigurationManager() {
+        return dbAdaptor.getStudyConfigurationManager();
+    }
+
+    @Override
+    public void setStudyConfigurationManager(StudyConfigurationManager studyConfigurationManager) {
+        dbAdaptor.setStudyConfigurationManager(studyConfigurationManager);
+    }
+
+    @Override
+    public CellBaseClient getCellBaseClient() {
+        return dbAdaptor.getCellBaseClient();
+    }
+
+    @Override
+    public VariantDBAdaptorUtils getDBAdaptorUtils() {
+        return dbAdaptor.getDBAdaptorUtils();
+    }
+
+    @Override
+    public void close() throws IOException {
+        dbAdaptor.close();
+    }
+}
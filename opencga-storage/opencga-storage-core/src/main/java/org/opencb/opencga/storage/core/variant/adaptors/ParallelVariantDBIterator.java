@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.adaptors;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Iterates over a list of {@link VariantQueryPartition} using multiple threads.
+ *
+ * Each partition is read by a single thread. In ordered mode the variants are returned in the order of the partitions,
+ * so the result is sorted as in a sequential iterator. Otherwise, the variants are returned as soon as they are read.
+ */
+public class ParallelVariantDBIterator extends VariantDBIterator {
+
+    public static final int BATCH_SIZE = 100;
+    public static final int QUEUE_CAPACITY = 10;
+
+    private static final List<Variant> END_MARKER = Collections.emptyList();
+    private static final long OFFER_TIMEOUT_MS = 100;
+    private final Logger logger = LoggerFactory.getLogger(ParallelVariantDBIterator.class);
+
+    private final List<VariantQueryPartition> partitions;
+    private final Function<VariantQueryPartition, VariantDBIterator> iteratorFactory;
+    private final boolean ordered;
+    private final ExecutorService executor;
+    private final List<BlockingQueue<List<Variant>>> queues;
+    private final AtomicInteger nextPartition = new AtomicInteger(0);
+    private final AtomicReference<Throwable> exception = new AtomicReference<>();
+    private final AtomicLong workersTimeFetching = new AtomicLong(0);
+    private final AtomicLong workersTimeConverting = new AtomicLong(0);
+
+    private volatile boolean closed = false;
+    private int currentQueue = 0;
+    private int endMarkers = 0;
+    private Iterator<Variant> currentBatch = Collections.emptyIterator();
+
+    /**
+     * Creates and starts the parallel iterator.
+     *
+     * @param partitions        Partitions to read. The query of each partition is read with a new iterator
+     * @param iteratorFactory   Creates the iterator of a partition. Must be thread safe
+     * @param numThreads        Number of threads
+     * @param ordered           Return the variants in the order of the partitions
+     */
+    public ParallelVariantDBIterator(List<VariantQueryPartition> partitions,
+                                     Function<VariantQueryPartition, VariantDBIterator> iteratorFactory,
+                                     int numThreads, boolean ordered) {
+        this.partitions = new ArrayList<>(partitions);
+        this.iteratorFactory = iteratorFactory;
+        this.ordered = ordered;
+
+        int numQueues = ordered || partitions.isEmpty() ? partitions.size() : 1;
+        queues = new ArrayList<>(numQueues);
+        for (int i = 0; i < numQueues; i++) {
+            queues.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+        }
+
+        int threads = Math.max(1, Math.min(numThreads, partitions.size()));
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "variant-partition-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            executor.submit(this::readPartitions);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Apply an action to all the variants of the partitions, using multiple threads.
+     * The action is executed in the reader threads, so it has to be thread safe.
+     *
+     * @param partitions        Partitions to read
+     * @param iteratorFactory   Creates the iterator of a partition. Must be thread safe
+     * @param action            Action to apply to each variant
+     * @param numThreads        Number of threads
+     * @throws ExecutionException   if any partition failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void forEach(List<VariantQueryPartition> partitions,
+                               Function<VariantQueryPartition, VariantDBIterator> iteratorFactory,
+                               Consumer<Variant> action, int numThreads) throws ExecutionException, InterruptedException {
+        int threads = Math.max(1, Math.min(numThreads, partitions.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(partitions.size());
+            for (VariantQueryPartition partition : partitions) {
+                futures.add(executor.submit(() -> {
+                    try (VariantDBIterator iterator = partition.filter(iteratorFactory.apply(partition))) {
+                        iterator.forEachRemaining(action);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void readPartitions() {
+        while (!closed && exception.get() == null) {
+            int i = nextPartition.getAndIncrement();
+            if (i >= partitions.size()) {
+                break;
+            }
+            VariantQueryPartition partition = partitions.get(i);
+            BlockingQueue<List<Variant>> queue = ordered ? queues.get(i) : queues.get(0);
+            try (VariantDBIterator iterator = partition.filter(iteratorFactory.apply(partition))) {
+                List<Variant> batch = new ArrayList<>(BATCH_SIZE);
+                while (!closed && iterator.hasNext()) {
+                    batch.add(iterator.next());
+                    if (batch.size() == BATCH_SIZE) {
+                        put(queue, batch);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    put(queue, batch);
+                }
+                workersTimeFetching.addAndGet(iterator.getTimeFetching());
+                workersTimeConverting.addAndGet(iterator.getTimeConverting());
+            } catch (Throwable e) {
+                logger.error("Error reading partition " + partition, e);
+                exception.compareAndSet(null, e);
+            } finally {
+                try {
+                    put(queue, END_MARKER);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void put(BlockingQueue<List<Variant>> queue, List<Variant> batch) throws InterruptedException {
+        while (!closed) {
+            if (queue.offer(batch, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!currentBatch.hasNext()) {
+            if (closed || currentQueue >= queues.size()) {
+                checkException();
+                return false;
+            }
+            List<Variant> batch = take();
+            if (batch == END_MARKER) {
+                checkException();
+                endMarkers++;
+                if (ordered || endMarkers == partitions.size()) {
+                    // In unordered mode, the only queue is finished after reading the end marker of every partition
+                    currentQueue++;
+                }
+            } else {
+                currentBatch = batch.iterator();
+            }
+        }
+        return true;
+    }
+
+    private List<Variant> take() {
+        long start = System.nanoTime();
+        try {
+            return queues.get(currentQueue).take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading variants", e);
+        } finally {
+            timeFetching += System.nanoTime() - start;
+        }
+    }
+
+    private void checkException() {
+        Throwable e = exception.get();
+        if (e != null) {
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public Variant next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentBatch.next();
+    }
+
+    /**
+     * Time spent waiting for the reader threads.
+     *
+     * @return time in nanoseconds
+     */
+    @Override
+    public long getTimeFetching() {
+        return timeFetching;
+    }
+
+    /**
+     * Time spent by all the reader threads fetching from the database.
+     *
+     * @return time in nanoseconds
+     */
+    public long getWorkersTimeFetching() {
+        return workersTimeFetching.get();
+    }
+
+    @Override
+    public long getTimeConverting() {
+        return workersTimeConverting.get();
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        executor.shutdownNow();
+        for (BlockingQueue<List<Variant>> queue : queues) {
+            queue.clear();
+        }
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.opencga.storage.core.variant.adaptors;
+
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.datastore.core.QueryResult;
+
+/**
+ * QueryResult with the {@link VariantQueryProfile} of the query that produced it.
+ */
+public class ProfiledQueryResult<T> extends QueryResult<T> {
+
+    private ObjectMap profile;
+
+    public ProfiledQueryResult() {
+    }
+
+    public ProfiledQueryResult(QueryResult<T> result, VariantQueryProfile profile) {
+        super(result.getId(), result.getDbTime(), result.getNumResults(), result.getNumTotalResults(),
+                result.getWarningMsg(), result.getErrorMsg(), result.getResult());
+        this.profile = profile.toObjectMap();
+    }
+
+    public ObjectMap getProfile() {
+        return profile;
+    }
+
+    public ProfiledQueryResult<T> setProfile(ObjectMap profile) {
+        this.profile = profile;
+        return this;
+    }
+}
@@ -31,6 +31,7 @@ import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -250,6 +251,7 @@ public interface VariantDBAdaptor extends Iterable<Variant>, AutoCloseable {
 
     /**
      * Performs a distinct operation of the given field over the returned results.
+     * Counts are not profiled, as there are no options to request it, but slow counts are written to the slow-query log.
      *
      * @param query Query to be executed in the database to filter variants
      * @return A QueryResult with the all the distinct values
@@ -275,6 +277,75 @@ public interface VariantDBAdaptor extends Iterable<Variant>, AutoCloseable {
 
     void forEach(Query query, Consumer<? super Variant> action, QueryOptions options);
 
+    /**
+     * Partitioner used to split queries in independent genomic partitions.
+     * By default, only the queried regions are split.
+     *
+     * @return VariantQueryPartitioner
+     */
+    default VariantQueryPartitioner getQueryPartitioner() {
+        return new VariantQueryPartitioner();
+    }
+
+    /**
+     * Split a query in independent genomic partitions, that can be read in parallel.
+     *
+     * @param query         Query to be executed in the database to filter variants
+     * @param options       Query modifiers. Queries with limit or skip are not split
+     * @param numPartitions Desired number of partitions
+     * @return List of partitions, sorted as the sorted {@link #iterator(Query, QueryOptions)}
+     */
+    default List<VariantQueryPartition> partition(Query query, QueryOptions options, int numPartitions) {
+        return getQueryPartitioner().partition(query, options, numPartitions);
+    }
+
+    /**
+     * Independent iterator over a partition. Each variant is returned by exactly one of the partitions.
+     *
+     * @param partition Partition to read
+     * @param options   Query modifiers
+     * @return VariantDBIterator over the variants of the partition
+     */
+    default VariantDBIterator iterator(VariantQueryPartition partition, QueryOptions options) {
+        return partition.filter(iterator(partition.getQuery(), new QueryOptions(options)));
+    }
+
+    /**
+     * Iterator reading the query in parallel, partitioned by genomic regions.
+     *
+     * @param query      Query to be executed in the database to filter variants
+     * @param options    Query modifiers
+     * @param numThreads Number of threads reading from the database
+     * @param ordered    Return the variants sorted as in {@link #iterator(Query, QueryOptions)}
+     * @return VariantDBIterator, to be closed after use
+     */
+    default VariantDBIterator parallelIterator(Query query, QueryOptions options, int numThreads, boolean ordered) {
+        List<VariantQueryPartition> partitions = partition(query, options, numThreads * VariantQueryPartitioner.PARTITIONS_PER_THREAD);
+        if (partitions.size() == 1) {
+            return iterator(partitions.get(0).getQuery(), options);
+        }
+        return new ParallelVariantDBIterator(partitions, partition -> iterator(partition.getQuery(), new QueryOptions(options)),
+                numThreads, ordered);
+    }
+
+    /**
+     * Apply an action to all the variants of the query, reading in parallel partitioned by genomic regions.
+     * The action is executed concurrently from multiple threads.
+     *
+     * @param query      Query to be executed in the database to filter variants
+     * @param options    Query modifiers
+     * @param action     Thread safe action to apply to each variant
+     * @param numThreads Number of threads
+     * @throws ExecutionException   if the action, or reading any partition, failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    default void parallelForEach(Query query, QueryOptions options, Consumer<Variant> action, int numThreads)
+            throws ExecutionException, InterruptedException {
+        List<VariantQueryPartition> partitions = partition(query, options, numThreads * VariantQueryPartitioner.PARTITIONS_PER_THREAD);
+        ParallelVariantDBIterator.forEach(partitions, partition -> iterator(partition.getQuery(), new QueryOptions(options)),
+                action, numThreads);
+    }
+
 
     /**
      * This methods calculates the number of variants at different equally-sized genome chunks. This can be renderer
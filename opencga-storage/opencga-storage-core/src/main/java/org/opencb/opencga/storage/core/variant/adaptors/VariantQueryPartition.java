@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.adaptors;
+
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Independent piece of a variant query, restricted to a genomic region.
+ *
+ * Region queries return the variants overlapping the region, so a variant crossing the boundary between two
+ * partitions would be returned by both of them. Each variant belongs only to the partition containing its start.
+ * The first partition of each queried region also keeps the variants starting before it.
+ */
+public class VariantQueryPartition {
+
+    private final Query query;
+    private final Region region;
+    private final boolean first;
+
+    /**
+     * Partition with the whole query.
+     *
+     * @param query Query to execute
+     */
+    public VariantQueryPartition(Query query) {
+        this(query, null, true);
+    }
+
+    /**
+     * Partition with a region of the query.
+     *
+     * @param query     Query to execute, already restricted to the region
+     * @param region    Region of the partition. Null for the whole query
+     * @param first     If this is the first partition of a queried region
+     */
+    public VariantQueryPartition(Query query, Region region, boolean first) {
+        this.query = query;
+        this.region = region;
+        this.first = first;
+    }
+
+    /**
+     * Check if a variant returned by the query of this partition belongs to this partition.
+     *
+     * @param variant   Variant returned by the partition query
+     * @return          If the variant has to be returned by this partition
+     */
+    public boolean contains(Variant variant) {
+        if (region == null) {
+            return true;
+        }
+        int start = variant.getStart();
+        return start <= region.getEnd() && (first || start >= region.getStart());
+    }
+
+    /**
+     * Filter the variants returned by the query of this partition.
+     *
+     * @param iterator  Iterator over the query of this partition
+     * @return          Iterator with the variants belonging to this partition
+     */
+    public VariantDBIterator filter(VariantDBIterator iterator) {
+        if (region == null) {
+            return iterator;
+        }
+        return new VariantDBIterator() {
+            private Variant next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && iterator.hasNext()) {
+                    Variant variant = iterator.next();
+                    if (contains(variant)) {
+                        next = variant;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Variant next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Variant variant = next;
+                next = null;
+                return variant;
+            }
+
+            @Override
+            public long getTimeFetching() {
+                return iterator.getTimeFetching();
+            }
+
+            @Override
+            public long getTimeConverting() {
+                return iterator.getTimeConverting();
+            }
+
+            @Override
+            public void close() throws Exception {
+                iterator.close();
+            }
+        };
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    public Region getRegion() {
+        return region;
+    }
+
+    public boolean isFirst() {
+        return first;
+    }
+
+    @Override
+    public String toString() {
+        return region == null ? "all" : region.toString();
+    }
+}
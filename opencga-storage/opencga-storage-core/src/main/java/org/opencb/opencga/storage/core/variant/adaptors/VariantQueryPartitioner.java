@@ -0,0 +1,241 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.adaptors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+
+import java.util.*;
+
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor.VariantQueryParams.*;
+
+/**
+ * Splits a variant query into independent genomic partitions.
+ *
+ * The queried regions (or chromosomes) are split into pieces of similar size. Implementations may provide the
+ * chromosomes and their extent, to split queries without regions, and split points aligned with the storage, like
+ * the boundaries of the HBase regions.
+ *
+ * Partitions are sorted as the sorted iterator of the storage. Implementations must provide the order of the
+ * chromosomes in their iterator with {@link #getChromosomeComparator()}, so the concatenation of the partitions
+ * is sorted as a sequential query.
+ *
+ * Queries by id or gene, or with limit or skip, are never split.
+ */
+public class VariantQueryPartitioner {
+
+    /**
+     * Partitions to create for each thread, to balance regions with different density of variants.
+     */
+    public static final int PARTITIONS_PER_THREAD = 4;
+
+    private static final int MIN_PARTITION_SIZE = 10000;
+
+    /**
+     * Chromosomes with variants.
+     *
+     * @return List of chromosomes, or null if unknown
+     */
+    protected List<String> getChromosomes() {
+        return null;
+    }
+
+    /**
+     * Start of the last variant in the chromosome.
+     *
+     * @param chromosome Chromosome
+     * @return Position, or null if unknown
+     */
+    protected Integer getLastStart(String chromosome) {
+        return null;
+    }
+
+    /**
+     * Positions where the storage is split, i.e. the start of the HBase regions.
+     *
+     * @param chromosome Chromosome
+     * @return Sorted list of positions, may be empty
+     */
+    protected List<Integer> getSplitPoints(String chromosome) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Order of the chromosomes in the sorted iterator of the storage.
+     * By default, numeric chromosomes first, by number, then the rest alphabetically.
+     *
+     * @return Chromosome comparator
+     */
+    protected Comparator<String> getChromosomeComparator() {
+        return VariantQueryPartitioner::compareChromosomes;
+    }
+
+    /**
+     * Split the query into partitions.
+     *
+     * @param query         Query to split
+     * @param options       Query options
+     * @param numPartitions Desired number of partitions
+     * @return List of partitions, sorted as the sorted iterator of the storage. Contains at least one partition.
+     */
+    public List<VariantQueryPartition> partition(Query query, QueryOptions options, int numPartitions) {
+        if (query == null) {
+            query = new Query();
+        }
+        if (numPartitions <= 1 || !isPartitionable(query, options)) {
+            return Collections.singletonList(new VariantQueryPartition(query));
+        }
+
+        List<Region> regions = getQueryRegions(query);
+        if (regions.isEmpty()) {
+            List<String> chromosomes = getChromosomes();
+            if (chromosomes == null || chromosomes.isEmpty()) {
+                return Collections.singletonList(new VariantQueryPartition(query));
+            }
+            for (String chromosome : chromosomes) {
+                regions.add(new Region(chromosome, 0, Integer.MAX_VALUE));
+            }
+        }
+        regions = mergeRegions(regions, getChromosomeComparator());
+
+        // Estimate the size of each region
+        long[] sizes = new long[regions.size()];
+        long totalSize = 0;
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = regions.get(i);
+            int end = region.getEnd();
+            if (end == Integer.MAX_VALUE) {
+                Integer lastStart = getLastStart(region.getChromosome());
+                end = lastStart == null ? -1 : lastStart;
+            }
+            sizes[i] = end < region.getStart() ? 0 : end - region.getStart() + 1L;
+            totalSize += sizes[i];
+        }
+        long partitionSize = Math.max(MIN_PARTITION_SIZE, totalSize / numPartitions);
+
+        List<VariantQueryPartition> partitions = new ArrayList<>();
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = regions.get(i);
+            TreeSet<Integer> cuts = new TreeSet<>();
+            for (Integer splitPoint : getSplitPoints(region.getChromosome())) {
+                if (splitPoint > region.getStart() && splitPoint <= region.getEnd()) {
+                    cuts.add(splitPoint);
+                }
+            }
+            for (long cut = region.getStart() + partitionSize; cut < region.getStart() + sizes[i]; cut += partitionSize) {
+                cuts.add((int) cut);
+            }
+            int start = region.getStart();
+            boolean first = true;
+            for (Integer cut : cuts) {
+                partitions.add(newPartition(query, new Region(region.getChromosome(), start, cut - 1), first));
+                start = cut;
+                first = false;
+            }
+            partitions.add(newPartition(query, new Region(region.getChromosome(), start, region.getEnd()), first));
+        }
+        return partitions;
+    }
+
+    /**
+     * Check if a query can be split in partitions.
+     *
+     * @param query     Query
+     * @param options   Query options
+     * @return If the query can be split
+     */
+    public static boolean isPartitionable(Query query, QueryOptions options) {
+        if (options != null && (options.getInt(QueryOptions.LIMIT, 0) > 0 || options.getInt(QueryOptions.SKIP, 0) > 0)) {
+            return false;
+        }
+        return !isNotEmpty(query, ID) && !isNotEmpty(query, GENE);
+    }
+
+    private static boolean isNotEmpty(Query query, VariantDBAdaptor.VariantQueryParams param) {
+        return query.get(param.key()) != null && StringUtils.isNotEmpty(query.getString(param.key()));
+    }
+
+    private static List<Region> getQueryRegions(Query query) {
+        List<Region> regions = new ArrayList<>();
+        if (isNotEmpty(query, REGION)) {
+            for (String region : query.getAsStringList(REGION.key())) {
+                regions.add(parseRegion(region));
+            }
+        }
+        if (isNotEmpty(query, CHROMOSOME)) {
+            for (String chromosome : query.getAsStringList(CHROMOSOME.key())) {
+                regions.add(new Region(chromosome, 0, Integer.MAX_VALUE));
+            }
+        }
+        return regions;
+    }
+
+    private static Region parseRegion(String region) {
+        if (region.contains(":")) {
+            return Region.parseRegion(region);
+        } else {
+            return new Region(region, 0, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Sort the regions by chromosome and start, and merge the overlapping ones, so each variant is returned only once.
+     */
+    static List<Region> mergeRegions(List<Region> regions, Comparator<String> chromosomeComparator) {
+        List<Region> sorted = new ArrayList<>(regions);
+        sorted.sort(Comparator.comparing(Region::getChromosome, chromosomeComparator)
+                .thenComparing(Region::getStart));
+        LinkedList<Region> merged = new LinkedList<>();
+        for (Region region : sorted) {
+            Region last = merged.peekLast();
+            if (last != null && last.getChromosome().equals(region.getChromosome())
+                    && (long) region.getStart() <= (long) last.getEnd() + 1) {
+                merged.removeLast();
+                merged.add(new Region(last.getChromosome(), last.getStart(), Math.max(last.getEnd(), region.getEnd())));
+            } else {
+                merged.add(region);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Natural order of chromosomes: numeric chromosomes first, by number, then the rest alphabetically.
+     */
+    static int compareChromosomes(String c1, String c2) {
+        boolean numeric1 = StringUtils.isNumeric(c1);
+        boolean numeric2 = StringUtils.isNumeric(c2);
+        if (numeric1 && numeric2) {
+            return c1.length() == c2.length() ? c1.compareTo(c2) : Integer.compare(c1.length(), c2.length());
+        } else if (numeric1) {
+            return -1;
+        } else if (numeric2) {
+            return 1;
+        } else {
+            return c1.compareTo(c2);
+        }
+    }
+
+    private static VariantQueryPartition newPartition(Query query, Region region, boolean first) {
+        Query partitionQuery = new Query(query);
+        partitionQuery.remove(CHROMOSOME.key());
+        partitionQuery.put(REGION.key(), region.getChromosome() + ':' + region.getStart() + '-' + region.getEnd());
+        return new VariantQueryPartition(partitionQuery, region, first);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.opencga.storage.core.variant.adaptors;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing breakdown of a variant query.
+ *
+ * Records the time spent in each phase (parsing the query, database, conversion), the number of elements scanned by the
+ * database versus returned, and the generated native query (Mongo filter, Phoenix SQL, ...). If the option {@link #EXPLAIN}
+ * is set, the database is asked for the number of scanned elements or for the query plan.
+ *
+ * The profile is returned with the result, as a {@link ProfiledQueryResult}, if the option {@link #PROFILE} is set.
+ * Methods without QueryOptions, like {@link VariantDBAdaptor#count(org.opencb.commons.datastore.core.Query)}, can not
+ * request it, so counts are never profiled. They are still written to the slow-query log.
+ * Queries slower than the threshold {@link #SLOW_QUERY_THRESHOLD} are written as a single JSON line to the logger
+ * {@link #SLOW_QUERY_LOGGER}, so they can be redirected to their own file.
+ */
+public class VariantQueryProfile {
+
+    public static final String PROFILE = "profile";                        // Return the profile of the query with the result
+    public static final String EXPLAIN = "profile.explain";                // Ask the database for the plan or the scanned elements
+    public static final String SLOW_QUERY_THRESHOLD = "query.slow.threshold";  // Milliseconds. Negative to disable the slow-query log
+    public static final long SLOW_QUERY_THRESHOLD_DEFAULT = 5000;
+    public static final String SLOW_QUERY_LOGGER = "org.opencb.opencga.storage.slowQuery";
+
+    public static final String PARSE = "parse";
+    public static final String DATABASE = "database";
+    public static final String CONVERT = "convert";
+
+    private static final Logger SLOW_QUERY_LOG = LoggerFactory.getLogger(SLOW_QUERY_LOGGER);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String method;
+    private final Query query;
+    private final long start;
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private long total = -1;
+    private String nativeQuery;
+    private String plan;
+    private long scanned = -1;
+    private long returned = -1;
+
+    @FunctionalInterface
+    public interface TimeFunction<R, E extends Exception> {
+        R call() throws E;
+    }
+
+    public VariantQueryProfile(String method, Query query) {
+        this.method = method;
+        this.query = query;
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Execute and measure one phase of the query. Repeated phases are accumulated.
+     *
+     * @param phase     Name of the phase
+     * @param function  Function to execute
+     * @param <R>       Return type
+     * @param <E>       Exception thrown by the function
+     * @return          Value returned by the function
+     * @throws E        Exception thrown by the function
+     */
+    public <R, E extends Exception> R time(String phase, TimeFunction<R, E> function) throws E {
+        long phaseStart = System.nanoTime();
+        try {
+            return function.call();
+        } finally {
+            phases.merge(phase, System.nanoTime() - phaseStart, Long::sum);
+        }
+    }
+
+    /**
+     * Add the time measured out of this profile. i.e. from a {@link VariantDBIterator}.
+     *
+     * @param phase Name of the phase
+     * @param nanos Time in nanoseconds
+     */
+    public void addTime(String phase, long nanos) {
+        phases.merge(phase, nanos, Long::sum);
+    }
+
+    /**
+     * Finish the profile and write to the slow-query log if needed.
+     *
+     * @param thresholdMillis   Slow-query threshold in milliseconds. Negative to disable
+     * @return this
+     */
+    public VariantQueryProfile stop(long thresholdMillis) {
+        total = System.nanoTime() - start;
+        if (thresholdMillis >= 0 && getTotal(TimeUnit.MILLISECONDS) >= thresholdMillis && SLOW_QUERY_LOG.isWarnEnabled()) {
+            try {
+                SLOW_QUERY_LOG.warn(OBJECT_MAPPER.writeValueAsString(toObjectMap()));
+            } catch (JsonProcessingException e) {
+                SLOW_QUERY_LOG.warn(toObjectMap().toString());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Attach the profile to the result, if requested in the options.
+     *
+     * @param result    Result of the query
+     * @param options   Query options
+     * @param <T>       Result type
+     * @return          A {@link ProfiledQueryResult} if requested, or the same result
+     */
+    public <T> QueryResult<T> attach(QueryResult<T> result, QueryOptions options) {
+        if (result != null && isProfile(options)) {
+            return new ProfiledQueryResult<>(result, this);
+        } else {
+            return result;
+        }
+    }
+
+    public static boolean isProfile(QueryOptions options) {
+        return options != null && options.getBoolean(PROFILE, false);
+    }
+
+    public static boolean isExplain(QueryOptions options) {
+        return options != null && options.getBoolean(EXPLAIN, false);
+    }
+
+    public ObjectMap toObjectMap() {
+        ObjectMap map = new ObjectMap();
+        map.put("method", method);
+        map.put("query", query == null ? null : new LinkedHashMap<>(query));
+        map.put("nativeQuery", nativeQuery);
+        if (plan != null) {
+            map.put("plan", plan);
+        }
+        map.put("totalMs", getTotal(TimeUnit.MILLISECONDS));
+        Map<String, Long> phasesMs = new LinkedHashMap<>();
+        phases.forEach((phase, nanos) -> phasesMs.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        map.put("phasesMs", phasesMs);
+        map.put("scanned", scanned);
+        map.put("returned", returned);
+        return map;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    public long getTotal(TimeUnit timeUnit) {
+        return timeUnit.convert(total < 0 ? System.nanoTime() - start : total, TimeUnit.NANOSECONDS);
+    }
+
+    public long getTime(String phase, TimeUnit timeUnit) {
+        return timeUnit.convert(phases.getOrDefault(phase, 0L), TimeUnit.NANOSECONDS);
+    }
+
+    public Map<String, Long> getPhases() {
+        return phases;
+    }
+
+    public String getNativeQuery() {
+        return nativeQuery;
+    }
+
+    public VariantQueryProfile setNativeQuery(String nativeQuery) {
+        this.nativeQuery = nativeQuery;
+        return this;
+    }
+
+    public String getPlan() {
+        return plan;
+    }
+
+    public VariantQueryProfile setPlan(String plan) {
+        this.plan = plan;
+        return this;
+    }
+
+    public long getScanned() {
+        return scanned;
+    }
+
+    public VariantQueryProfile setScanned(long scanned) {
+        this.scanned = scanned;
+        return this;
+    }
+
+    public long getReturned() {
+        return returned;
+    }
+
+    public VariantQueryProfile setReturned(long returned) {
+        this.returned = returned;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return toObjectMap().toString();
+    }
+}
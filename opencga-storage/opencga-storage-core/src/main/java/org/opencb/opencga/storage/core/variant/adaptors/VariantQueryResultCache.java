@@ -0,0 +1,293 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.opencga.storage.core.variant.adaptors;
+
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.datastore.core.QueryResult;
+import org.opencb.opencga.storage.core.runner.TaskRunnerMetrics;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of QueryResults, used by the {@link CachedVariantDBAdaptor}.
+ *
+ * Least recently used entries are evicted when the cache is full, and entries older than the time to live are
+ * discarded on read. The whole cache is invalidated when the timeStamp of any study increases.
+ *
+ * Cached results are shared with the callers. The QueryResult and its list are copied, but not the elements of the
+ * list, that must be treated as immutable.
+ *
+ * The hits, misses and evictions are exposed through JMX, and logged every {@link #LOG_INTERVAL} requests.
+ */
+public class VariantQueryResultCache implements VariantQueryResultCacheMBean {
+
+    public static final int LOG_INTERVAL = 10000;
+
+    private static final Set<String> IGNORED_OPTIONS = Collections.singleton("timeout");
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Map<String, Entry> cache;
+    private final Map<Integer, Long> dataVersion = new HashMap<>();
+    private long generation = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    protected static Logger logger = LoggerFactory.getLogger(VariantQueryResultCache.class);
+
+    private static final class Entry {
+        private final QueryResult result;
+        private final long time;
+
+        private Entry(QueryResult result, long time) {
+            this.result = result;
+            this.time = time;
+        }
+    }
+
+    public VariantQueryResultCache(int maxSize, long ttl, TimeUnit unit) {
+        this(maxSize, unit.toMillis(ttl), System::currentTimeMillis);
+    }
+
+    /**
+     * Build a query result cache from the options.
+     *
+     * @param options   Options with {@link VariantStorageManager.Options#QUERY_CACHE_SIZE}
+     *                  and {@link VariantStorageManager.Options#QUERY_CACHE_TTL}
+     * @return The cache, or null if disabled
+     */
+    public static VariantQueryResultCache build(ObjectMap options) {
+        int size = options.getInt(VariantStorageManager.Options.QUERY_CACHE_SIZE.key(),
+                VariantStorageManager.Options.QUERY_CACHE_SIZE.defaultValue());
+        if (size <= 0) {
+            return null;
+        }
+        long ttl = options.getLong(VariantStorageManager.Options.QUERY_CACHE_TTL.key(),
+                VariantStorageManager.Options.QUERY_CACHE_TTL.<Integer>defaultValue());
+        return new VariantQueryResultCache(size, ttl, TimeUnit.SECONDS);
+    }
+
+    VariantQueryResultCache(int maxSize, long ttlMillis, LongSupplier clock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive. Found " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > VariantQueryResultCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a cached result, or compute and cache it. Results with errors are not cached.
+     *
+     * @param key    Normalized key. See {@link #key}
+     * @param loader Function to compute the result on a miss
+     * @return A copy of the cached result, or the computed result. The elements of the result are shared with the cache,
+     *         and must not be modified
+     */
+    public QueryResult get(String key, Supplier<QueryResult> loader) {
+        long now = clock.getAsLong();
+        if ((hits.get() + misses.get() + 1) % LOG_INTERVAL == 0) {
+            logger.info(toString());
+        }
+        long expectedGeneration;
+        synchronized (this) {
+            expectedGeneration = generation;
+            Entry entry = cache.get(key);
+            if (entry != null) {
+                if (now - entry.time < ttlMillis) {
+                    hits.incrementAndGet();
+                    return copy(entry.result);
+                }
+                cache.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        QueryResult result = loader.get();
+        if (result != null && (result.getErrorMsg() == null || result.getErrorMsg().isEmpty())) {
+            synchronized (this) {
+                // Do not cache results that may have been read before an invalidation
+                if (expectedGeneration == generation) {
+                    cache.put(key, new Entry(copy(result), now));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Invalidate the cache if the timeStamp of any study is newer than the last one seen. Older timeStamps, read by adaptors
+     * with outdated StudyConfigurations, are ignored.
+     *
+     * @param timeStamps Current timeStamp of each study
+     */
+    public synchronized void checkDataVersion(Map<Integer, Long> timeStamps) {
+        boolean changed = false;
+        for (Map.Entry<Integer, Long> entry : timeStamps.entrySet()) {
+            Long timeStamp = dataVersion.get(entry.getKey());
+            if (timeStamp == null || timeStamp < entry.getValue()) {
+                dataVersion.put(entry.getKey(), entry.getValue());
+                changed = true;
+            }
+        }
+        if (changed) {
+            logger.debug("Data version changed to {}. Invalidate query cache", dataVersion);
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Register the cache in JMX.
+     *
+     * @param name  Name of the cache, e.g. the database name
+     * @return      this
+     */
+    public VariantQueryResultCache registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName(TaskRunnerMetrics.JMX_DOMAIN + ":type=QueryResultCache,name=" + ObjectName.quote(name)
+                    + ",id=" + System.identityHashCode(this));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Unable to register query cache " + name + " in JMX", e);
+        }
+        return this;
+    }
+
+    /**
+     * Remove all the cached results.
+     */
+    @Override
+    public synchronized void invalidateAll() {
+        cache.clear();
+        generation++;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long requests = hits.get() + misses.get();
+        return requests == 0 ? 1.0 : ((double) hits.get()) / requests;
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    @Override
+    public int getSize() {
+        return size();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "VariantQueryResultCache{"
+                + "size=" + size()
+                + ", maxSize=" + maxSize
+                + ", ttl=" + ttlMillis + "ms"
+                + ", hits=" + hits
+                + ", misses=" + misses
+                + ", evictions=" + evictions
+                + '}';
+    }
+
+    /**
+     * Build a key independent of the order of the parameters and of the type of the values.
+     *
+     * @param method  Method name
+     * @param query   Query
+     * @param options QueryOptions
+     * @param args    Other arguments of the method
+     * @return  Normalized key
+     */
+    public static String key(String method, ObjectMap query, ObjectMap options, String... args) {
+        StringBuilder sb = new StringBuilder(method);
+        sb.append(Arrays.toString(args));
+        sb.append(normalize(query));
+        sb.append(normalize(options));
+        return sb.toString();
+    }
+
+    private static Map<String, String> normalize(ObjectMap map) {
+        Map<String, String> normalized = new TreeMap<>();
+        if (map != null) {
+            for (String key : map.keySet()) {
+                if (IGNORED_OPTIONS.contains(key) || map.get(key) == null) {
+                    continue;
+                }
+                String str = String.join(",", map.getAsStringList(key));
+                if (!str.isEmpty()) {
+                    normalized.put(key, str);
+                }
+            }
+        }
+        return normalized;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static QueryResult copy(QueryResult result) {
+        return new QueryResult(result.getId(), result.getDbTime(), result.getNumResults(), result.getNumTotalResults(),
+                result.getWarningMsg(), result.getErrorMsg(),
+                result.getResult() == null ? null : new ArrayList<>(result.getResult()));
+    }
+}
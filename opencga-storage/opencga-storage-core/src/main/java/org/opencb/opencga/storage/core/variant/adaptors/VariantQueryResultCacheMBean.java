@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.opencga.storage.core.variant.adaptors;
+
+/**
+ * JMX view of a {@link VariantQueryResultCache}.
+ */
+public interface VariantQueryResultCacheMBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    double getHitRate();
+
+    int getSize();
+
+    int getMaxSize();
+
+    long getTtlMillis();
+
+    void invalidateAll();
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.annotation;
+
+/**
+ * Batch size controller for remote annotation requests.
+ *
+ * Additive increase, multiplicative decrease: while the requests are faster than the target latency, the batch size grows
+ * linearly. Slow requests shrink the batch size by a quarter, and failed requests halve it.
+ */
+public class AdaptiveBatchSize {
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int increment;
+    private final long targetLatencyMillis;
+    private int batchSize;
+
+    public AdaptiveBatchSize(int initialBatchSize, int minBatchSize, int maxBatchSize, long targetLatencyMillis) {
+        if (minBatchSize <= 0 || minBatchSize > maxBatchSize) {
+            throw new IllegalArgumentException("Invalid batch size limits [" + minBatchSize + ", " + maxBatchSize + "]");
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.increment = Math.max(1, minBatchSize);
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.batchSize = Math.min(maxBatchSize, Math.max(minBatchSize, initialBatchSize));
+    }
+
+    public synchronized int get() {
+        return batchSize;
+    }
+
+    /**
+     * Register a successful request.
+     *
+     * @param requestBatchSize  Number of variants in the request
+     * @param latencyMillis     Request latency
+     */
+    public synchronized void onSuccess(int requestBatchSize, long latencyMillis) {
+        if (latencyMillis > targetLatencyMillis) {
+            batchSize = Math.max(minBatchSize, Math.min(batchSize, requestBatchSize) * 3 / 4);
+        } else if (requestBatchSize >= batchSize) {
+            // Only grow if the request was using the whole batch size
+            batchSize = Math.min(maxBatchSize, batchSize + increment);
+        }
+    }
+
+    /**
+     * Register a failed request.
+     */
+    public synchronized void onError() {
+        batchSize = Math.max(minBatchSize, batchSize / 2);
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getTargetLatencyMillis() {
+        return targetLatencyMillis;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.annotation;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * VariantAnnotator decorator that looks for the annotations in a {@link VariantAnnotationCache} before asking
+ * the real annotator. Only the missing variants are sent to the delegated annotator, and the new annotations
+ * are stored in the cache.
+ */
+public class CachedVariantAnnotator extends VariantAnnotator {
+
+    private final VariantAnnotator variantAnnotator;
+    private final VariantAnnotationCache cache;
+
+    private final Logger logger = LoggerFactory.getLogger(CachedVariantAnnotator.class);
+
+    public CachedVariantAnnotator(VariantAnnotator variantAnnotator, VariantAnnotationCache cache) throws VariantAnnotatorException {
+        super(null, null);
+        this.variantAnnotator = variantAnnotator;
+        this.cache = cache;
+    }
+
+    @Override
+    public List<VariantAnnotation> annotate(List<Variant> variants) throws IOException {
+        VariantAnnotation[] annotations = new VariantAnnotation[variants.size()];
+        List<Variant> missingVariants = new ArrayList<>();
+        List<Integer> missingPositions = new ArrayList<>();
+        for (int i = 0; i < variants.size(); i++) {
+            annotations[i] = cache.get(variants.get(i));
+            if (annotations[i] == null) {
+                missingVariants.add(variants.get(i));
+                missingPositions.add(i);
+            }
+        }
+
+        if (!missingVariants.isEmpty()) {
+            List<VariantAnnotation> newAnnotations = variantAnnotator.annotate(missingVariants);
+            if (newAnnotations.size() == missingVariants.size()) {
+                for (int i = 0; i < missingVariants.size(); i++) {
+                    annotations[missingPositions.get(i)] = newAnnotations.get(i);
+                }
+            } else {
+                // Some variants were skipped by the annotator. Match the annotations by variant
+                Map<String, VariantAnnotation> annotationsMap = new HashMap<>();
+                for (VariantAnnotation annotation : newAnnotations) {
+                    annotationsMap.put(cache.buildKey(annotation.getChromosome(), annotation.getStart(),
+                            annotation.getReference(), annotation.getAlternate()), annotation);
+                }
+                for (int i = 0; i < missingVariants.size(); i++) {
+                    Variant variant = missingVariants.get(i);
+                    annotations[missingPositions.get(i)] = annotationsMap.get(cache.buildKey(variant.getChromosome(),
+                            variant.getStart(), variant.getReference(), variant.getAlternate()));
+                }
+            }
+            for (int i = 0; i < missingVariants.size(); i++) {
+                VariantAnnotation annotation = annotations[missingPositions.get(i)];
+                if (annotation != null) {
+                    cache.put(missingVariants.get(i), annotation);
+                }
+            }
+        }
+        logger.debug("Annotated {} variants. {} from cache, {} from {}", variants.size(), variants.size() - missingVariants.size(),
+                missingVariants.size(), variantAnnotator.getClass().getSimpleName());
+
+        // Keep the order of the input variants
+        List<VariantAnnotation> result = new ArrayList<>(variants.size());
+        for (VariantAnnotation annotation : annotations) {
+            if (annotation != null) {
+                result.add(annotation);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String getAnnotatorVersion() {
+        return variantAnnotator.getAnnotatorVersion();
+    }
+
+    @Override
+    public void close() {
+        try {
+            cache.flush();
+        } catch (IOException e) {
+            logger.warn("Unable to save the index of the variant annotation cache", e);
+        }
+        variantAnnotator.close();
+    }
+
+    public VariantAnnotator getVariantAnnotator() {
+        return variantAnnotator;
+    }
+
+    public VariantAnnotationCache getCache() {
+        return cache;
+    }
+}
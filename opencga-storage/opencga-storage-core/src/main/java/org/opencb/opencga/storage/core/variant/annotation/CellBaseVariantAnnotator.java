@@ -37,9 +37,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 //import org.opencb.cellbase.core.db.DBAdaptorFactory;
 //import org.opencb.cellbase.core.db.api.variation.VariantAnnotationDBAdaptor;
@@ -58,6 +56,8 @@ public class CellBaseVariantAnnotator extends VariantAnnotator {
 //    private DBAdaptorFactory dbAdaptorFactory = null;
     private CellBaseClient cellBaseClient = null;
     private ObjectMapper jsonObjectMapper;
+    private String annotatorVersion;
+    private boolean splitOnError = true;
 
 //    public static final String CELLBASE_VERSION = "CELLBASE.VERSION";
 //    public static final String CELLBASE_REST_URL = "CELLBASE.REST.URL";
@@ -110,6 +110,7 @@ public class CellBaseVariantAnnotator extends VariantAnnotator {
             }
 
             this.cellBaseClient = cellBaseClient;
+            this.annotatorVersion = "cellbase_" + cellbaseVersion + "_" + species + "_" + assembly;
             cellBaseClient.getObjectMapper().addMixIn(VariantAnnotation.class, VariantAnnotationMixin.class);
         } else {
             throw new UnsupportedOperationException("Unimplemented CellBase dbAdaptor connection. Use CellBaseClient instead");
@@ -176,6 +177,11 @@ public class CellBaseVariantAnnotator extends VariantAnnotator {
         }
     }
 
+    @Override
+    public String getAnnotatorVersion() {
+        return annotatorVersion == null ? super.getAnnotatorVersion() : annotatorVersion;
+    }
+
     List<Variant> filterStructuralVariants(List<Variant> variants) {
         List<Variant> nonStructuralVariants = new ArrayList<>(variants.size());
         for (Variant variant : variants) {
@@ -198,12 +204,34 @@ public class CellBaseVariantAnnotator extends VariantAnnotator {
         return nonStructuralVariants;
     }
 
+    /**
+     * Annotate the variants. If CellBase can not annotate the batch, and {@link #isSplitOnError()}, the batch is split in halves
+     * until the problematic variants are found and skipped. Otherwise, the error is thrown.
+     */
     private List<VariantAnnotation> getVariantAnnotationsREST(List<Variant> variants) throws IOException {
+        try {
+            return requestVariantAnnotationsREST(variants);
+        } catch (CellBaseQueryException e) {
+            if (!splitOnError) {
+                throw e;
+            }
+            if (variants.size() == 1) {
+                logger.error("CellBase REST error. Skipping variant. {}", variants.get(0), e);
+                return Collections.emptyList();
+            }
+            logger.warn("{} Splitting batch of {} variants", e.getMessage(), variants.size());
+            List<VariantAnnotation> variantAnnotationList = new ArrayList<>(variants.size());
+            variantAnnotationList.addAll(getVariantAnnotationsREST(variants.subList(0, variants.size() / 2)));
+            variantAnnotationList.addAll(getVariantAnnotationsREST(variants.subList(variants.size() / 2, variants.size())));
+            return variantAnnotationList;
+        }
+    }
+
+    private List<VariantAnnotation> requestVariantAnnotationsREST(List<Variant> variants) throws IOException {
 
 //        org.opencb.commons.datastore.core.QueryResponse<org.opencb.commons.datastore.core.QueryResult<VariantAnnotation>> queryResponse;
         QueryResponse<VariantAnnotation> queryResponse;
 
-        boolean queryError = false;
         try {
 //            queryResponse = cellBaseClient.nativeGet(
 //                    CellBaseClient.Category.genomic.toString(),
@@ -216,47 +244,20 @@ public class CellBaseVariantAnnotator extends VariantAnnotator {
                     CellBaseClient.SubCategory.variant,
                     variants,
                     new QueryOptions(queryOptions));
-            if (queryResponse == null) {
-                logger.warn("CellBase REST fail. Returned null. {} for variants {}", cellBaseClient.getLastQuery(),
-                        variants.stream().map(Variant::toString).collect(Collectors.joining(",")));
-
-                queryError = true;
-            }
-
         } catch (JsonProcessingException | javax.ws.rs.ProcessingException e) {
-            logger.warn("CellBase REST fail. Error parsing " + cellBaseClient.getLastQuery() + " for variants "
-                    + variants.stream().map(Variant::toString).collect(Collectors.joining(",")), e);
-            queryError = true;
-            queryResponse = null;
+            throw new CellBaseQueryException("CellBase REST fail. Error parsing " + cellBaseClient.getLastQuery() + " for "
+                    + variants.size() + " variants.", e);
         }
 
-        if (queryResponse != null && queryResponse.getResponse().size() != variants.size()) {
-            logger.warn("QueryResult size (" + queryResponse.getResponse().size() + ") != variants size (" + variants.size() + ").");
-            //throw new IOException("QueryResult size != " + variants.size() + ". " + queryResponse);
-            queryError = true;
+        if (queryResponse == null) {
+            throw new CellBaseQueryException("CellBase REST fail. Returned null. " + cellBaseClient.getLastQuery() + " for "
+                    + variants.size() + " variants.", null);
         }
-
-        if (queryError) {
-//            logger.warn("CellBase REST error. {}", cellBaseClient.getLastQuery());
-
-            if (variants.size() == 1) {
-                logger.error("CellBase REST error. Skipping variant. {}", variants.get(0));
-                return Collections.emptyList();
-            }
-
-            List<VariantAnnotation> variantAnnotationList = new LinkedList<>();
-            List<Variant> variants1 = variants.subList(0, variants.size() / 2);
-            if (!variants1.isEmpty()) {
-                variantAnnotationList.addAll(getVariantAnnotationsREST(variants1));
-            }
-            List<Variant> variants2 = variants.subList(variants.size() / 2, variants.size());
-            if (!variants2.isEmpty()) {
-                variantAnnotationList.addAll(getVariantAnnotationsREST(variants2));
-            }
-            return variantAnnotationList;
+        if (queryResponse.getResponse().size() != variants.size()) {
+            throw new CellBaseQueryException("QueryResult size (" + queryResponse.getResponse().size() + ") != variants size ("
+                    + variants.size() + ").", null);
         }
 
-
         List<QueryResult<VariantAnnotation>> queryResults = queryResponse.getResponse();
 
         List<VariantAnnotation> variantAnnotationList = new ArrayList<>(variants.size());
@@ -266,6 +267,32 @@ public class CellBaseVariantAnnotator extends VariantAnnotator {
         return variantAnnotationList;
     }
 
+    public boolean isSplitOnError() {
+        return splitOnError;
+    }
+
+    /**
+     * Split the batches that CellBase can not annotate, skipping the problematic variants. Disable it to let a caller,
+     * like the {@link PipelinedVariantAnnotator}, retry the failed requests.
+     *
+     * @param splitOnError Split the failed batches
+     * @return this
+     */
+    public CellBaseVariantAnnotator setSplitOnError(boolean splitOnError) {
+        this.splitOnError = splitOnError;
+        return this;
+    }
+
+    /**
+     * CellBase could not annotate a batch of variants. Other IOExceptions, like connection errors, are not recoverable by
+     * splitting the batch.
+     */
+    private static final class CellBaseQueryException extends IOException {
+        private CellBaseQueryException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
     private List<VariantAnnotation> getVariantAnnotationsDbAdaptor(List<Variant> genomicVariantList) throws IOException {
 //        QueryOptions queryOptions = new QueryOptions();
 //
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.annotation;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * VariantAnnotator decorator that keeps several requests to a remote annotator in flight.
+ *
+ * Each call to {@link #annotateAsync} is split into chunks, sized by an {@link AdaptiveBatchSize}, and up to
+ * maxInFlight chunks are requested at the same time. Failed requests are retried with exponential backoff, split in
+ * chunks of the reduced batch size. Once the retries are exhausted, the failed chunks are split in halves until the
+ * problematic variants are found and skipped.
+ * All the requests share a global concurrency limit, so the number of parallel requests to the remote server is
+ * bounded regardless of the number of annotation threads.
+ */
+public class PipelinedVariantAnnotator extends VariantAnnotator {
+
+    private static Semaphore globalConcurrencyLimit;
+    private static int globalConcurrencyLimitPermits;
+
+    private final VariantAnnotator variantAnnotator;
+    private final AdaptiveBatchSize batchSize;
+    private final int maxInFlight;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final int maxConcurrency;
+    private final Semaphore concurrencyLimit;
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private ScheduledExecutorService executor;
+
+    private static Logger logger = LoggerFactory.getLogger(PipelinedVariantAnnotator.class);
+
+    public PipelinedVariantAnnotator(VariantAnnotator variantAnnotator, AdaptiveBatchSize batchSize, int maxInFlight,
+                                     int maxRetries, long retryBackoffMillis, int maxConcurrency)
+            throws VariantAnnotatorException {
+        this(variantAnnotator, batchSize, maxInFlight, maxRetries, retryBackoffMillis, maxConcurrency,
+                getGlobalConcurrencyLimit(maxConcurrency));
+    }
+
+    PipelinedVariantAnnotator(VariantAnnotator variantAnnotator, AdaptiveBatchSize batchSize, int maxInFlight,
+                              int maxRetries, long retryBackoffMillis, int maxConcurrency, Semaphore concurrencyLimit)
+            throws VariantAnnotatorException {
+        super(null, null);
+        this.variantAnnotator = variantAnnotator;
+        this.batchSize = batchSize;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    /**
+     * Concurrency limit shared by all the PipelinedVariantAnnotator in this JVM. The number of permits is set by the
+     * first call, and never changes after that.
+     *
+     * @param permits Maximum number of concurrent requests
+     * @return Shared semaphore
+     */
+    static synchronized Semaphore getGlobalConcurrencyLimit(int permits) {
+        if (globalConcurrencyLimit == null) {
+            globalConcurrencyLimit = new Semaphore(permits, true);
+            globalConcurrencyLimitPermits = permits;
+        } else if (permits != globalConcurrencyLimitPermits) {
+            logger.warn("Global annotator concurrency limit already set to {}. Ignoring new value {}",
+                    globalConcurrencyLimitPermits, permits);
+        }
+        return globalConcurrencyLimit;
+    }
+
+    /**
+     * The executor is created on demand, so the annotator can be used again after {@link #close()}.
+     */
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newScheduledThreadPool(maxConcurrency, r -> {
+                Thread thread = new Thread(r, "annotator-request-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    @Override
+    public List<VariantAnnotation> annotate(List<Variant> variants) throws IOException {
+        try {
+            return annotateAsync(variants).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while annotating variants");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Annotates a list of variants without blocking the caller.
+     *
+     * @param variants Variants to annotate
+     * @return Future with the annotations, in the same order as the variants.
+     */
+    public CompletableFuture<List<VariantAnnotation>> annotateAsync(List<Variant> variants) {
+        ChunkIterator chunks = new ChunkIterator(variants);
+        CompletableFuture<?>[] lanes = new CompletableFuture<?>[maxInFlight];
+        for (int i = 0; i < maxInFlight; i++) {
+            lanes[i] = nextChunk(chunks);
+        }
+        return CompletableFuture.allOf(lanes).thenApply(v -> chunks.getResults());
+    }
+
+    /**
+     * Requests chunks one after the other until there are no more variants. The chunk size is read just before each
+     * request, so a long list of variants adapts to the server response time.
+     */
+    private CompletableFuture<Void> nextChunk(ChunkIterator chunks) {
+        int chunkId = chunks.next(batchSize.get());
+        if (chunkId < 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return request(chunks.getChunk(chunkId), 0).thenCompose(annotations -> {
+            chunks.setResult(chunkId, annotations);
+            return nextChunk(chunks);
+        });
+    }
+
+    private CompletableFuture<List<VariantAnnotation>> request(List<Variant> variants, int attempt) {
+        long delay = attempt == 0 ? 0 : retryBackoffMillis << (attempt - 1);
+        return schedule(variants, delay).handle((annotations, e) -> {
+            if (e == null) {
+                return CompletableFuture.completedFuture(annotations);
+            }
+            batchSize.onError();
+            if (attempt >= maxRetries) {
+                return split(variants, e);
+            }
+            logger.warn("Error annotating {} variants. Retry {}/{} : {}", variants.size(), attempt + 1, maxRetries, e.getMessage());
+            return retry(variants, attempt + 1);
+        }).thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<List<VariantAnnotation>> schedule(List<Variant> variants, long delay) {
+        CompletableFuture<List<VariantAnnotation>> future = new CompletableFuture<>();
+        getExecutor().schedule(() -> {
+            try {
+                future.complete(call(variants));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    /**
+     * Request again a failed chunk, split in chunks of the current batch size. The batch size was reduced by the error,
+     * so a chunk with a problematic variant is narrowed down on each retry.
+     */
+    private CompletableFuture<List<VariantAnnotation>> retry(List<Variant> variants, int attempt) {
+        int size = batchSize.get();
+        if (variants.size() <= size) {
+            return request(variants, attempt);
+        }
+        List<CompletableFuture<List<VariantAnnotation>>> futures = new ArrayList<>();
+        for (int start = 0; start < variants.size(); start += size) {
+            futures.add(request(variants.subList(start, Math.min(variants.size(), start + size)), attempt));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(v -> {
+            List<VariantAnnotation> annotations = new ArrayList<>(variants.size());
+            futures.forEach(future -> annotations.addAll(future.join()));
+            return annotations;
+        });
+    }
+
+    /**
+     * Split in halves a chunk that failed after all the retries, until the problematic variants are found and skipped.
+     */
+    private CompletableFuture<List<VariantAnnotation>> split(List<Variant> variants, Throwable e) {
+        if (variants.size() == 1) {
+            logger.error("Error annotating variant. Skipping variant. {}", variants.get(0), e);
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        logger.warn("Error annotating {} variants after {} retries. Splitting batch : {}", variants.size(), maxRetries, e.getMessage());
+        CompletableFuture<List<VariantAnnotation>> first = splitRequest(variants.subList(0, variants.size() / 2));
+        CompletableFuture<List<VariantAnnotation>> second = splitRequest(variants.subList(variants.size() / 2, variants.size()));
+        return first.thenCombine(second, (firstAnnotations, secondAnnotations) -> {
+            List<VariantAnnotation> annotations = new ArrayList<>(firstAnnotations.size() + secondAnnotations.size());
+            annotations.addAll(firstAnnotations);
+            annotations.addAll(secondAnnotations);
+            return annotations;
+        });
+    }
+
+    private CompletableFuture<List<VariantAnnotation>> splitRequest(List<Variant> variants) {
+        return schedule(variants, 0).handle((annotations, e) -> e == null
+                ? CompletableFuture.completedFuture(annotations)
+                : split(variants, e)).thenCompose(Function.identity());
+    }
+
+    private List<VariantAnnotation> call(List<Variant> variants) throws IOException {
+        try {
+            concurrencyLimit.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a free connection");
+        }
+        try {
+            long start = System.currentTimeMillis();
+            List<VariantAnnotation> annotations = variantAnnotator.annotate(variants);
+            long latency = System.currentTimeMillis() - start;
+            batchSize.onSuccess(variants.size(), latency);
+            logger.debug("Annotated {} variants in {}ms. Next batch size: {}", variants.size(), latency, batchSize.get());
+            return annotations;
+        } finally {
+            concurrencyLimit.release();
+        }
+    }
+
+    @Override
+    public String getAnnotatorVersion() {
+        return variantAnnotator.getAnnotatorVersion();
+    }
+
+    public VariantAnnotator getVariantAnnotator() {
+        return variantAnnotator;
+    }
+
+    public AdaptiveBatchSize getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        variantAnnotator.close();
+    }
+
+    /**
+     * Splits a list of variants in consecutive chunks of variable size, and gathers the results in the original order.
+     */
+    private static final class ChunkIterator {
+        private final List<Variant> variants;
+        private final List<List<Variant>> chunks = new ArrayList<>();
+        private final Map<Integer, List<VariantAnnotation>> results = new ConcurrentSkipListMap<>();
+        private int position = 0;
+
+        private ChunkIterator(List<Variant> variants) {
+            this.variants = variants;
+        }
+
+        synchronized int next(int size) {
+            if (position >= variants.size()) {
+                return -1;
+            }
+            int end = Math.min(variants.size(), position + size);
+            chunks.add(variants.subList(position, end));
+            position = end;
+            return chunks.size() - 1;
+        }
+
+        synchronized List<Variant> getChunk(int chunkId) {
+            return chunks.get(chunkId);
+        }
+
+        void setResult(int chunkId, List<VariantAnnotation> annotations) {
+            results.put(chunkId, annotations);
+        }
+
+        List<VariantAnnotation> getResults() {
+            List<VariantAnnotation> annotations = new ArrayList<>(variants.size());
+            results.values().forEach(annotations::addAll);
+            return annotations;
+        }
+    }
+}
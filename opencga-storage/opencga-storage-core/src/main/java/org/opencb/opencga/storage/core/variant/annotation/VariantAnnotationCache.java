@@ -0,0 +1,249 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.annotation;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.opencga.storage.core.variant.io.json.VariantAnnotationMixin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk backed cache of {@link VariantAnnotation}.
+ *
+ * Each annotation is stored in its own json file, named after the SHA-1 of the variant
+ * (chr:pos:ref:alt) and the annotator version. Changing the annotator version makes all the previous entries
+ * unreachable, and they will be eventually evicted.
+ *
+ * The number of entries is bounded. The least recently used entries are removed from disk when the limit is
+ * reached. The access order is kept in memory, and saved in an index file by {@link #flush()}, so opening an
+ * existing cache does not need to list the directory. Entries missing in the index, e.g. after a crash, are added
+ * to the index when they are requested.
+ */
+public class VariantAnnotationCache {
+
+    private static final String EXTENSION = ".json";
+    private static final String INDEX_FILE = "cache.index";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+    private final String annotatorVersion;
+    private final long maxEntries;
+    // Access ordered. Guarded by "this"
+    private final LinkedHashMap<String, Boolean> entries = new LinkedHashMap<>(1024, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final ObjectWriter writer;
+    private final ObjectReader reader;
+
+    private final Logger logger = LoggerFactory.getLogger(VariantAnnotationCache.class);
+
+    public VariantAnnotationCache(Path directory, String annotatorVersion, long maxEntries) throws IOException {
+        this.directory = directory;
+        this.annotatorVersion = annotatorVersion == null ? "" : annotatorVersion;
+        this.maxEntries = maxEntries;
+        ObjectMapper jsonObjectMapper = new ObjectMapper();
+        jsonObjectMapper.addMixIn(VariantAnnotation.class, VariantAnnotationMixin.class);
+        jsonObjectMapper.configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true);
+        writer = jsonObjectMapper.writerFor(VariantAnnotation.class);
+        reader = jsonObjectMapper.readerFor(VariantAnnotation.class);
+        Files.createDirectories(directory);
+        loadIndex();
+    }
+
+    private void loadIndex() throws IOException {
+        Path indexFile = directory.resolve(INDEX_FILE);
+        if (Files.exists(indexFile)) {
+            try (BufferedReader bufferedReader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+                String key;
+                while ((key = bufferedReader.readLine()) != null) {
+                    if (!key.isEmpty()) {
+                        entries.put(key, Boolean.TRUE);
+                    }
+                }
+            }
+        }
+        evict();
+        logger.info("Variant annotation cache at {} with {} entries", directory, entries.size());
+    }
+
+    /**
+     * Save the index of entries, from the least to the most recently used. The file is replaced atomically.
+     *
+     * @throws IOException if the index can not be written
+     */
+    public synchronized void flush() throws IOException {
+        Path indexFile = directory.resolve(INDEX_FILE);
+        Path tmp = Files.createTempFile(directory, INDEX_FILE, ".tmp");
+        try (BufferedWriter bufferedWriter = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (String key : entries.keySet()) {
+                bufferedWriter.write(key);
+                bufferedWriter.newLine();
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Get the cached annotation of a variant.
+     *
+     * @param variant Variant
+     * @return Cached annotation, or null if missing.
+     */
+    public VariantAnnotation get(Variant variant) {
+        return get(buildKey(variant.getChromosome(), variant.getStart(), variant.getReference(), variant.getAlternate()));
+    }
+
+    private VariantAnnotation get(String key) {
+        Path file = getPath(key);
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                if (!Files.exists(file)) {
+                    misses.incrementAndGet();
+                    return null;
+                }
+                // Not in the index. Written before a crash, or by other process
+                entries.put(key, Boolean.TRUE);
+                evict();
+            }
+        }
+        try (InputStream is = Files.newInputStream(file)) {
+            VariantAnnotation annotation = reader.readValue(is);
+            hits.incrementAndGet();
+            return annotation;
+        } catch (NoSuchFileException e) {
+            // Evicted or removed by someone else
+            synchronized (this) {
+                entries.remove(key);
+            }
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            logger.warn("Unable to read cached annotation " + file + ". Ignoring cache entry", e);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Add the annotation of a variant to the cache. The key is obtained from the variant, as in {@link #get(Variant)},
+     * as the annotator may return the alleles in a different format.
+     *
+     * @param variant    Annotated variant
+     * @param annotation Annotation to store
+     */
+    public void put(Variant variant, VariantAnnotation annotation) {
+        String key = buildKey(variant.getChromosome(), variant.getStart(), variant.getReference(), variant.getAlternate());
+        Path file = getPath(key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), key, ".tmp");
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                writer.writeValue(os, annotation);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write cached annotation " + file, e);
+        }
+        synchronized (this) {
+            entries.put(key, Boolean.TRUE);
+            evict();
+        }
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Boolean>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            String key = iterator.next().getKey();
+            iterator.remove();
+            try {
+                Files.deleteIfExists(getPath(key));
+            } catch (IOException e) {
+                logger.warn("Unable to evict cached annotation " + key, e);
+            }
+            evictions.incrementAndGet();
+        }
+    }
+
+    String buildKey(String chromosome, int start, String reference, String alternate) {
+        // Empty alleles may be represented as "-"
+        String id = annotatorVersion + '|' + chromosome + ':' + start + ':' + normalizeAllele(reference) + ':'
+                + normalizeAllele(alternate);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(id.getBytes(StandardCharsets.UTF_8));
+            char[] chars = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is required to be available in every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String normalizeAllele(String allele) {
+        return allele == null || allele.equals("-") ? "" : allele;
+    }
+
+    private Path getPath(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + EXTENSION);
+    }
+
+    public synchronized long size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public String getAnnotatorVersion() {
+        return annotatorVersion;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.annotation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Progress of an incremental annotation. Stores the annotator version used, the regions to annotate and the regions
+ * already annotated, so an interrupted annotation can be resumed. Once all the regions are annotated, the checkpoint is
+ * removed.
+ *
+ * The checkpoint is stored in the attributes of the StudyConfigurations, as a plain map, keyed by the annotated files.
+ */
+public class VariantAnnotationCheckpoint {
+
+    private String annotatorVersion;
+    private boolean overwrite;
+    private boolean finished;
+    private String query;
+    private List<String> regions = new ArrayList<>();
+    private Set<String> completedRegions = new LinkedHashSet<>();
+
+    public VariantAnnotationCheckpoint() {
+    }
+
+    public VariantAnnotationCheckpoint(String annotatorVersion, boolean overwrite) {
+        this.annotatorVersion = annotatorVersion;
+        this.overwrite = overwrite;
+    }
+
+    /**
+     * Read a checkpoint from the value stored in the attributes of a StudyConfiguration.
+     *
+     * @param value Stored value
+     * @return Stored checkpoint, or null if there is no value.
+     */
+    public static VariantAnnotationCheckpoint fromObject(Object value) {
+        if (value == null) {
+            return null;
+        }
+        return new ObjectMapper().convertValue(value, VariantAnnotationCheckpoint.class);
+    }
+
+    /**
+     * Convert the checkpoint into a map, to be stored in the attributes of a StudyConfiguration.
+     *
+     * @return Map with the checkpoint fields
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized Map<String, Object> toMap() {
+        return new ObjectMapper().convertValue(this, LinkedHashMap.class);
+    }
+
+    public synchronized boolean isCompleted(String region) {
+        return completedRegions.contains(region);
+    }
+
+    public synchronized void addCompleted(String region) {
+        completedRegions.add(region);
+    }
+
+    public String getAnnotatorVersion() {
+        return annotatorVersion;
+    }
+
+    public void setAnnotatorVersion(String annotatorVersion) {
+        this.annotatorVersion = annotatorVersion;
+    }
+
+    public boolean isOverwrite() {
+        return overwrite;
+    }
+
+    public void setOverwrite(boolean overwrite) {
+        this.overwrite = overwrite;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public void setFinished(boolean finished) {
+        this.finished = finished;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public synchronized List<String> getRegions() {
+        return regions;
+    }
+
+    public synchronized void setRegions(List<String> regions) {
+        this.regions = regions;
+    }
+
+    public synchronized Set<String> getCompletedRegions() {
+        return completedRegions;
+    }
+
+    public synchronized void setCompletedRegions(Set<String> completedRegions) {
+        this.completedRegions = completedRegions;
+    }
+}
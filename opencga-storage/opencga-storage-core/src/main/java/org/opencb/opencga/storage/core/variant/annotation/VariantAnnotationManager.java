@@ -16,6 +16,7 @@
 
 package org.opencb.opencga.storage.core.variant.annotation;
 
+import org.apache.commons.lang3.StringUtils;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.VariantAnnotation;
 import org.opencb.commons.io.DataReader;
@@ -26,7 +27,14 @@ import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.opencga.core.common.TimeUtils;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
+import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.runner.TaskRunnerMetrics;
+import org.opencb.opencga.storage.core.variant.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryPartition;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryPartitioner;
 import org.opencb.opencga.storage.core.variant.io.VariantDBReader;
 import org.opencb.opencga.storage.core.variant.io.avro.AvroDataReader;
 import org.opencb.opencga.storage.core.variant.io.avro.AvroDataWriter;
@@ -40,9 +48,12 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -67,6 +78,26 @@ public class VariantAnnotationManager {
     public static final String NUM_WRITERS = "numWriters";
     public static final String NUM_THREADS = "numThreads";
     public static final String VARIANT_ANNOTATOR_CLASSNAME = "variant.annotator.classname";
+    public static final String DIRECT_LOAD = "directLoad";
+    public static final String DIRECT_LOAD_WRITE_FILE = "directLoadWriteFile";
+    public static final String INCREMENTAL = "incremental";
+    public static final String CHECKPOINT_REGIONS = "checkpointRegions";
+    public static final int DEFAULT_CHECKPOINT_REGIONS = 200;
+    public static final String ANNOTATION_CHECKPOINT = "annotation.checkpoint";
+    public static final String ANNOTATION_VERSION = "annotation.version";
+    private static final String ALL_REGIONS = "all";
+    public static final String ANNOTATOR_CACHE_DIR = "annotator.cache.dir";
+    public static final String ANNOTATOR_CACHE_MAX_ENTRIES = "annotator.cache.maxEntries";
+    public static final long ANNOTATOR_CACHE_MAX_ENTRIES_DEFAULT = 1000000;
+    public static final String ANNOTATOR_CACHE_VERSION = "annotator.cache.version";
+    public static final String ANNOTATOR_MAX_IN_FLIGHT = "annotator.maxInFlight";
+    public static final String ANNOTATOR_MAX_CONCURRENCY = "annotator.maxConcurrency";
+    public static final int ANNOTATOR_MAX_CONCURRENCY_DEFAULT = 16;
+    public static final String ANNOTATOR_MIN_BATCH_SIZE = "annotator.minBatchSize";
+    public static final String ANNOTATOR_MAX_BATCH_SIZE = "annotator.maxBatchSize";
+    public static final String ANNOTATOR_TARGET_LATENCY = "annotator.targetLatencyMs";
+    public static final String ANNOTATOR_MAX_RETRIES = "annotator.maxRetries";
+    public static final String ANNOTATOR_RETRY_BACKOFF = "annotator.retryBackoffMs";
 
     private VariantDBAdaptor dbAdaptor;
     private VariantAnnotator variantAnnotator;
@@ -81,6 +112,208 @@ public class VariantAnnotationManager {
     }
 
     public void annotate(Query query, QueryOptions options) throws IOException {
+        if (options.getBoolean(INCREMENTAL, false)) {
+            annotateIncremental(query, options);
+        } else {
+            annotateQuery(query, options);
+        }
+    }
+
+    /**
+     * Annotates only the variants without annotation, or with an annotation from a different annotator version.
+     *
+     * The annotation is split in genomic regions, given by the {@link VariantQueryPartitioner} of the database, and the
+     * progress is stored in a {@link VariantAnnotationCheckpoint} after each region. The checkpoint is kept in the
+     * attributes of the queried StudyConfigurations, or all of them if the query has no studies, so it does not depend
+     * on the output directory. Each study keeps one checkpoint for each set of queried files, so annotating other
+     * studies or files does not discard it. An interrupted annotation is resumed from the first not completed region.
+     * Finished annotations store the annotator version. If the annotator version changes, all the variants are
+     * annotated again.
+     *
+     * @param query   Query for those variants to annotate.
+     * @param options Specific options.
+     * @throws IOException IOException thrown
+     */
+    public void annotateIncremental(Query query, QueryOptions options) throws IOException {
+        String annotatorVersion = variantAnnotator.getAnnotatorVersion();
+        String queryJson = query.toJson();
+        List<Integer> studyIds = getCheckpointStudies(query);
+        String checkpointKey = getCheckpointKey(query);
+
+        VariantAnnotationCheckpoint checkpoint = readCheckpoint(studyIds, checkpointKey);
+        if (checkpoint != null && !checkpoint.isFinished()
+                && (!annotatorVersion.equals(checkpoint.getAnnotatorVersion()) || !queryJson.equals(checkpoint.getQuery()))) {
+            logger.info("Discard unfinished annotation with annotator version {} and query {}",
+                    checkpoint.getAnnotatorVersion(), checkpoint.getQuery());
+            checkpoint.setFinished(true);
+        }
+        if (checkpoint == null || checkpoint.isFinished()) {
+            String lastVersion = readAnnotatorVersion(studyIds);
+            boolean versionChanged = lastVersion != null && !annotatorVersion.equals(lastVersion);
+            if (versionChanged) {
+                logger.info("Annotator version changed from {} to {}. Annotating all variants again", lastVersion, annotatorVersion);
+            }
+            checkpoint = new VariantAnnotationCheckpoint(annotatorVersion,
+                    options.getBoolean(OVERWRITE_ANNOTATIONS, false) || versionChanged);
+            checkpoint.setQuery(queryJson);
+            int numRegions = options.getInt(CHECKPOINT_REGIONS, DEFAULT_CHECKPOINT_REGIONS);
+            for (VariantQueryPartition partition : dbAdaptor.getQueryPartitioner().partition(query, new QueryOptions(), numRegions)) {
+                checkpoint.getRegions().add(partition.getRegion() == null
+                        ? ALL_REGIONS
+                        : partition.getQuery().getString(VariantDBAdaptor.VariantQueryParams.REGION.key()));
+            }
+            writeCheckpoint(studyIds, checkpointKey, checkpoint);
+        } else {
+            logger.info("Resume annotation. Completed {} out of {} regions",
+                    checkpoint.getCompletedRegions().size(), checkpoint.getRegions().size());
+        }
+
+        for (String region : checkpoint.getRegions()) {
+            if (checkpoint.isCompleted(region)) {
+                continue;
+            }
+            Query regionQuery = new Query(query);
+            if (!region.equals(ALL_REGIONS)) {
+                regionQuery.remove(VariantDBAdaptor.VariantQueryParams.CHROMOSOME.key());
+                regionQuery.put(VariantDBAdaptor.VariantQueryParams.REGION.key(), region);
+            }
+            if (!checkpoint.isOverwrite()) {
+                regionQuery.put(VariantDBAdaptor.VariantQueryParams.ANNOTATION_EXISTS.key(), false);
+            }
+            logger.info("Annotating region {}", region);
+            annotateQuery(regionQuery, options);
+            checkpoint.addCompleted(region);
+            writeCheckpoint(studyIds, checkpointKey, checkpoint);
+        }
+
+        writeCheckpoint(studyIds, checkpointKey, null);
+    }
+
+    /**
+     * Studies where to store the checkpoint of the query.
+     *
+     * @param query Annotation query
+     * @return Queried studies, or all the studies if the query has no studies
+     */
+    private List<Integer> getCheckpointStudies(Query query) {
+        StudyConfigurationManager studyConfigurationManager = dbAdaptor.getStudyConfigurationManager();
+        List<Integer> studyIds = new ArrayList<>();
+        if (query.containsKey(VariantDBAdaptor.VariantQueryParams.STUDIES.key())) {
+            for (String study : query.getAsStringList(VariantDBAdaptor.VariantQueryParams.STUDIES.key())) {
+                if (StringUtils.isNumeric(study)) {
+                    studyIds.add(Integer.parseInt(study));
+                } else if (!study.startsWith("!")) {
+                    StudyConfiguration studyConfiguration = studyConfigurationManager.getStudyConfiguration(study, null).first();
+                    if (studyConfiguration != null) {
+                        studyIds.add(studyConfiguration.getStudyId());
+                    }
+                }
+            }
+        }
+        return studyIds.isEmpty() ? studyConfigurationManager.getStudyIds(null) : studyIds;
+    }
+
+    /**
+     * Key of the checkpoint of the query within the checkpoints of a study.
+     *
+     * @param query Annotation query
+     * @return Queried files, or {@link #ALL_REGIONS} if the query has no files
+     */
+    private static String getCheckpointKey(Query query) {
+        List<String> files = query.containsKey(VariantDBAdaptor.VariantQueryParams.FILES.key())
+                ? query.getAsStringList(VariantDBAdaptor.VariantQueryParams.FILES.key())
+                : Collections.emptyList();
+        return files.isEmpty() ? ALL_REGIONS : String.join(",", files);
+    }
+
+    /**
+     * Read the annotation checkpoint from the StudyConfigurations.
+     *
+     * @param studyIds      Studies where the checkpoint is stored
+     * @param checkpointKey Key of the checkpoint within the checkpoints of the study
+     * @return Stored checkpoint, or null if missing
+     */
+    private VariantAnnotationCheckpoint readCheckpoint(List<Integer> studyIds, String checkpointKey) {
+        StudyConfigurationManager studyConfigurationManager = dbAdaptor.getStudyConfigurationManager();
+        for (Integer studyId : studyIds) {
+            StudyConfiguration studyConfiguration = studyConfigurationManager.getStudyConfiguration(studyId, null).first();
+            if (studyConfiguration != null && studyConfiguration.getAttributes().get(ANNOTATION_CHECKPOINT) instanceof Map) {
+                Object value = ((Map) studyConfiguration.getAttributes().get(ANNOTATION_CHECKPOINT)).get(checkpointKey);
+                if (value != null) {
+                    return VariantAnnotationCheckpoint.fromObject(value);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the version of the last finished annotation from the StudyConfigurations.
+     *
+     * @param studyIds Studies to read
+     * @return Annotator version, or null if missing
+     */
+    private String readAnnotatorVersion(List<Integer> studyIds) {
+        StudyConfigurationManager studyConfigurationManager = dbAdaptor.getStudyConfigurationManager();
+        for (Integer studyId : studyIds) {
+            StudyConfiguration studyConfiguration = studyConfigurationManager.getStudyConfiguration(studyId, null).first();
+            if (studyConfiguration != null && studyConfiguration.getAttributes().containsKey(ANNOTATION_VERSION)) {
+                return studyConfiguration.getAttributes().getString(ANNOTATION_VERSION);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Store the annotation checkpoint in the given StudyConfigurations. Other checkpoints of the studies are not modified.
+     * A null checkpoint marks the annotation as finished, removing the checkpoint and storing the annotator version.
+     *
+     * @param studyIds      Studies where to store the checkpoint
+     * @param checkpointKey Key of the checkpoint within the checkpoints of the study
+     * @param checkpoint    Checkpoint to store, or null to remove it
+     * @throws IOException if a study can not be locked
+     */
+    @SuppressWarnings("unchecked")
+    private void writeCheckpoint(List<Integer> studyIds, String checkpointKey, VariantAnnotationCheckpoint checkpoint)
+            throws IOException {
+        StudyConfigurationManager studyConfigurationManager = dbAdaptor.getStudyConfigurationManager();
+        if (studyIds.isEmpty()) {
+            logger.warn("No studies found. Unable to store the annotation checkpoint");
+        }
+        Map<String, Object> value = checkpoint == null ? null : checkpoint.toMap();
+        for (Integer studyId : studyIds) {
+            try (StudyConfigurationManager.LockCloseable ignored = studyConfigurationManager.closableLockStudy(studyId)) {
+                StudyConfiguration studyConfiguration = studyConfigurationManager.getStudyConfiguration(studyId, null).first();
+                Object stored = studyConfiguration.getAttributes().get(ANNOTATION_CHECKPOINT);
+                Map<String, Object> checkpoints = stored instanceof Map
+                        ? new LinkedHashMap<>((Map<String, Object>) stored)
+                        : new LinkedHashMap<>();
+                if (value == null) {
+                    checkpoints.remove(checkpointKey);
+                    studyConfiguration.getAttributes().put(ANNOTATION_VERSION, variantAnnotator.getAnnotatorVersion());
+                } else {
+                    checkpoints.put(checkpointKey, value);
+                }
+                if (checkpoints.isEmpty()) {
+                    studyConfiguration.getAttributes().remove(ANNOTATION_CHECKPOINT);
+                } else {
+                    studyConfiguration.getAttributes().put(ANNOTATION_CHECKPOINT, checkpoints);
+                }
+                studyConfigurationManager.updateStudyConfiguration(studyConfiguration, null);
+            } catch (StorageManagerException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private void annotateQuery(Query query, QueryOptions options) throws IOException {
+        if (options.getBoolean(DIRECT_LOAD, false)) {
+            long start = System.currentTimeMillis();
+            logger.info("Starting annotation creation and load");
+            annotateAndLoad(query, options);
+            logger.info("Finished annotation creation and load {}ms", System.currentTimeMillis() - start);
+            return;
+        }
 
         long start = System.currentTimeMillis();
         logger.info("Starting annotation creation ");
@@ -110,11 +343,117 @@ public class VariantAnnotationManager {
 
         boolean gzip = options == null || options.getBoolean("gzip", true);
         boolean avro = options == null || options.getBoolean("avro", false);
-        Path path = Paths.get(outDir != null
+        Path path = getAnnotationFilePath(outDir, fileName, gzip, avro);
+        URI fileUri = path.toUri();
+
+        int batchSize = 200;
+        int numThreads = 8;
+        if (options != null) { //Parse query options
+            batchSize = options.getInt(VariantAnnotationManager.BATCH_SIZE, batchSize);
+            numThreads = options.getInt(VariantAnnotationManager.NUM_THREADS, numThreads);
+        }
+
+        TaskRunnerMetrics metrics = new TaskRunnerMetrics("annotation " + fileName);
+        try {
+            DataReader<Variant> variantDataReader = new VariantDBReader(dbAdaptor, query, buildIteratorQueryOptions(options));
+
+            ParallelTaskRunner.Task<Variant, VariantAnnotation> annotationTask = buildAnnotationTask(query);
+
+            final DataWriter<VariantAnnotation> variantAnnotationDataWriter = buildAnnotationDataWriter(path, gzip, avro);
+
+            ParallelTaskRunner.Config config = new ParallelTaskRunner.Config(numThreads, batchSize, numThreads * 2, true, false);
+            ParallelTaskRunner<Variant, VariantAnnotation> parallelTaskRunner =
+                    new ParallelTaskRunner<>(metrics.wrapReader(variantDataReader), metrics.wrapTask(annotationTask),
+                            metrics.wrapWriter(variantAnnotationDataWriter), config);
+            metrics.start(getMetricsReportInterval(options));
+            parallelTaskRunner.run();
+        } catch (ExecutionException e) {
+            throw new IOException(e);
+        } finally {
+            metrics.stop();
+            variantAnnotator.close();
+        }
+
+        return fileUri;
+    }
+
+    /**
+     * Annotates the variants from the Variant DataBase and loads the annotations without any intermediate file.
+     *
+     * Each task annotates a batch of variants and writes it straight into the database, so the annotations are never
+     * serialized. The number of batches in flight is bounded by the ParallelTaskRunner queue capacity.
+     * If {@link #DIRECT_LOAD_WRITE_FILE} is set, the annotations are also written to a file, as in
+     * {@link #createAnnotation}.
+     *
+     * @param query   Query for those variants to annotate.
+     * @param options Specific options.
+     * @return URI of the generated file, if any.
+     * @throws IOException IOException thrown
+     */
+    public URI annotateAndLoad(Query query, QueryOptions options) throws IOException {
+
+        boolean writeFile = options.getBoolean(DIRECT_LOAD_WRITE_FILE, false);
+        boolean gzip = options.getBoolean("gzip", true);
+        boolean avro = options.getBoolean("avro", false);
+        int batchSize = options.getInt(VariantAnnotationManager.BATCH_SIZE, 200);
+        int numThreads = options.getInt(VariantAnnotationManager.NUM_THREADS, 8);
+
+        final DataWriter<VariantAnnotation> variantAnnotationDataWriter;
+        final URI fileUri;
+        if (writeFile) {
+            Path path = getAnnotationFilePath(Paths.get(options.getString(OUT_DIR, "/tmp")),
+                    options.getString(FILE_NAME, "annotation_" + TimeUtils.getTime()), gzip, avro);
+            fileUri = path.toUri();
+            variantAnnotationDataWriter = buildAnnotationDataWriter(path, gzip, avro);
+        } else {
+            fileUri = null;
+            variantAnnotationDataWriter = null;
+        }
+
+        dbAdaptor.preUpdateAnnotations();
+
+        ParallelTaskRunner.Task<Variant, VariantAnnotation> annotationTask = buildAnnotationTask(query);
+        QueryOptions updateOptions = new QueryOptions();
+        ParallelTaskRunner.Task<Variant, VariantAnnotation> annotateAndLoadTask = variantList -> {
+            List<VariantAnnotation> variantAnnotationList = annotationTask.apply(variantList);
+            dbAdaptor.updateAnnotations(variantAnnotationList, updateOptions);
+            return writeFile ? variantAnnotationList : Collections.emptyList();
+        };
+
+        TaskRunnerMetrics metrics = new TaskRunnerMetrics("annotate and load");
+        try {
+            DataReader<Variant> variantDataReader = new VariantDBReader(dbAdaptor, query, buildIteratorQueryOptions(options));
+            ParallelTaskRunner.Config config = new ParallelTaskRunner.Config(numThreads, batchSize, numThreads * 2, true, false);
+            ParallelTaskRunner<Variant, VariantAnnotation> parallelTaskRunner =
+                    new ParallelTaskRunner<>(metrics.wrapReader(variantDataReader), metrics.wrapTask(annotateAndLoadTask),
+                            metrics.wrapWriter(variantAnnotationDataWriter), config);
+            metrics.start(getMetricsReportInterval(options));
+            parallelTaskRunner.run();
+        } catch (ExecutionException e) {
+            throw new IOException(e);
+        } finally {
+            metrics.stop();
+            variantAnnotator.close();
+        }
+
+        return fileUri;
+    }
+
+    private Path getAnnotationFilePath(Path outDir, String fileName, boolean gzip, boolean avro) {
+        return Paths.get(outDir != null
                 ? outDir.toString()
                 : "/tmp", fileName + ".annot" + (avro ? ".avro" : ".json") + (gzip ? ".gz" : ""));
-        URI fileUri = path.toUri();
+    }
 
+    private DataWriter<VariantAnnotation> buildAnnotationDataWriter(Path path, boolean gzip, boolean avro) {
+        if (avro) {
+            return new AvroDataWriter<>(path, gzip, VariantAnnotation.getClassSchema());
+        } else {
+            return new VariantAnnotationJsonDataWriter(path, gzip);
+        }
+    }
+
+    private QueryOptions buildIteratorQueryOptions(QueryOptions options) {
         /** Getting iterator from OpenCGA Variant database. **/
         QueryOptions iteratorQueryOptions;
         if (options == null) {
@@ -124,14 +463,17 @@ public class VariantAnnotationManager {
         }
         List<String> include = Arrays.asList("chromosome", "start", "end", "alternate", "reference");
         iteratorQueryOptions.add("include", include);
+        return iteratorQueryOptions;
+    }
 
-        int batchSize = 200;
-        int numThreads = 8;
-        if (options != null) { //Parse query options
-            batchSize = options.getInt(VariantAnnotationManager.BATCH_SIZE, batchSize);
-            numThreads = options.getInt(VariantAnnotationManager.NUM_THREADS, numThreads);
-        }
+    private long getMetricsReportInterval(QueryOptions options) {
+        Integer defaultValue = VariantStorageManager.Options.METRICS_REPORT_INTERVAL.defaultValue();
+        return options == null
+                ? defaultValue
+                : options.getLong(VariantStorageManager.Options.METRICS_REPORT_INTERVAL.key(), defaultValue);
+    }
 
+    private ParallelTaskRunner.Task<Variant, VariantAnnotation> buildAnnotationTask(Query query) {
         final long[] totalVariantsLong = {-1};
 
         new Thread(() -> {
@@ -141,49 +483,29 @@ public class VariantAnnotationManager {
 
         final AtomicLong numAnnotations = new AtomicLong(0);
 
-        try {
-            DataReader<Variant> variantDataReader = new VariantDBReader(dbAdaptor, query, iteratorQueryOptions);
-
-            ParallelTaskRunner.Task<Variant, VariantAnnotation> annotationTask = variantList -> {
-                List<VariantAnnotation> variantAnnotationList;
-                long start = System.currentTimeMillis();
-                logger.debug("Annotating batch of {} genomic variants.", variantList.size());
-                try {
-                    variantAnnotationList = variantAnnotator.annotate(variantList);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                long numAnnotationsPrev = numAnnotations.getAndAdd(variantList.size());
-                if (numAnnotationsPrev / logBatchSize != (numAnnotationsPrev + variantList.size()) / logBatchSize) {
-                    long batchPos = (numAnnotationsPrev + variantList.size()) / logBatchSize * logBatchSize;
-                    String percent = "?";
-                    if (totalVariantsLong[0] > 0) {
-                        percent = String.format("%d, %.2f%%", totalVariantsLong[0], (((float) batchPos) / totalVariantsLong[0]) * 100);
-                    }
-                    logger.info("Annotated variants: {}/{}", batchPos, percent);
+        return variantList -> {
+            List<VariantAnnotation> variantAnnotationList;
+            long start = System.currentTimeMillis();
+            logger.debug("Annotating batch of {} genomic variants.", variantList.size());
+            try {
+                variantAnnotationList = variantAnnotator.annotate(variantList);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            long numAnnotationsPrev = numAnnotations.getAndAdd(variantList.size());
+            if (numAnnotationsPrev / logBatchSize != (numAnnotationsPrev + variantList.size()) / logBatchSize) {
+                long batchPos = (numAnnotationsPrev + variantList.size()) / logBatchSize * logBatchSize;
+                String percent = "?";
+                if (totalVariantsLong[0] > 0) {
+                    percent = String.format("%d, %.2f%%", totalVariantsLong[0], (((float) batchPos) / totalVariantsLong[0]) * 100);
                 }
-
-                logger.debug("Annotated batch of {} genomic variants. Time: {}s", variantList.size(),
-                        (System.currentTimeMillis() - start) / 1000.0);
-                return variantAnnotationList;
-            };
-
-            final DataWriter<VariantAnnotation> variantAnnotationDataWriter;
-            if (avro) {
-                variantAnnotationDataWriter = new AvroDataWriter<>(path, gzip, VariantAnnotation.getClassSchema());
-            } else {
-                variantAnnotationDataWriter = new VariantAnnotationJsonDataWriter(path, gzip);
+                logger.info("Annotated variants: {}/{}", batchPos, percent);
             }
 
-            ParallelTaskRunner.Config config = new ParallelTaskRunner.Config(numThreads, batchSize, numThreads * 2, true, false);
-            ParallelTaskRunner<Variant, VariantAnnotation> parallelTaskRunner =
-                    new ParallelTaskRunner<>(variantDataReader, annotationTask, variantAnnotationDataWriter, config);
-            parallelTaskRunner.run();
-        } catch (ExecutionException e) {
-            throw new IOException(e);
-        }
-
-        return fileUri;
+            logger.debug("Annotated batch of {} genomic variants. Time: {}s", variantList.size(),
+                    (System.currentTimeMillis() - start) / 1000.0);
+            return variantAnnotationList;
+        };
     }
 
     /**
@@ -242,6 +564,45 @@ public class VariantAnnotationManager {
 
         logger.info("Annotating with {}", annotationSource);
 
+        VariantAnnotator variantAnnotator = buildVariantAnnotator(configuration, options, annotationSource);
+
+        int maxInFlight = options.getInt(ANNOTATOR_MAX_IN_FLIGHT, 1);
+        if (maxInFlight > 1) {
+            int minBatchSize = options.getInt(ANNOTATOR_MIN_BATCH_SIZE, 10);
+            int maxBatchSize = options.getInt(ANNOTATOR_MAX_BATCH_SIZE, 500);
+            AdaptiveBatchSize batchSize = new AdaptiveBatchSize(options.getInt(BATCH_SIZE, 100), minBatchSize, maxBatchSize,
+                    options.getLong(ANNOTATOR_TARGET_LATENCY, 5000));
+            if (variantAnnotator instanceof CellBaseVariantAnnotator) {
+                // Retry the failed requests before splitting the batch
+                ((CellBaseVariantAnnotator) variantAnnotator).setSplitOnError(false);
+            }
+            variantAnnotator = new PipelinedVariantAnnotator(variantAnnotator, batchSize, maxInFlight,
+                    options.getInt(ANNOTATOR_MAX_RETRIES, 3), options.getLong(ANNOTATOR_RETRY_BACKOFF, 500),
+                    options.getInt(ANNOTATOR_MAX_CONCURRENCY, ANNOTATOR_MAX_CONCURRENCY_DEFAULT));
+            logger.info("Using up to {} requests in flight per annotation task", maxInFlight);
+        }
+
+        String cacheDir = options.getString(ANNOTATOR_CACHE_DIR);
+        if (cacheDir == null || cacheDir.isEmpty()) {
+            return variantAnnotator;
+        }
+        String cacheVersion = options.getString(ANNOTATOR_CACHE_VERSION);
+        if (cacheVersion == null || cacheVersion.isEmpty()) {
+            cacheVersion = variantAnnotator.getAnnotatorVersion();
+        }
+        long maxEntries = options.getLong(ANNOTATOR_CACHE_MAX_ENTRIES, ANNOTATOR_CACHE_MAX_ENTRIES_DEFAULT);
+        try {
+            VariantAnnotationCache cache = new VariantAnnotationCache(Paths.get(cacheDir), cacheVersion, maxEntries);
+            logger.info("Using variant annotation cache at {} with version \"{}\"", cacheDir, cacheVersion);
+            return new CachedVariantAnnotator(variantAnnotator, cache);
+        } catch (IOException e) {
+            throw new VariantAnnotatorException("Unable to open variant annotation cache at \"" + cacheDir + "\"", e);
+        }
+    }
+
+    private static VariantAnnotator buildVariantAnnotator(StorageConfiguration configuration, ObjectMap options,
+                                                          AnnotationSource annotationSource)
+            throws VariantAnnotatorException {
         switch (annotationSource) {
             case CELLBASE_DB_ADAPTOR:
                 return new CellBaseVariantAnnotator(configuration, options, false);
@@ -41,4 +41,20 @@ public abstract class VariantAnnotator {
      */
     public abstract List<VariantAnnotation> annotate(List<Variant> variants) throws IOException;
 
+    /**
+     * Identifies the source and version of the produced annotations. Annotations created with a different version
+     * are considered outdated.
+     *
+     * @return Annotator version
+     */
+    public String getAnnotatorVersion() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Releases any resource held by the annotator, like thread pools. The annotator may still be used after closing it.
+     */
+    public void close() {
+    }
+
 }
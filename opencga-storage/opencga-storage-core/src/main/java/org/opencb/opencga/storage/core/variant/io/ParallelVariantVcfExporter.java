@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.io;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.VCFEncoder;
+import htsjdk.variant.vcf.VCFHeader;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryPartition;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryPartitioner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exports a VCF using multiple threads.
+ *
+ * The query is split in genomic partitions with {@link VariantDBAdaptor#partition}. Each worker reads a partition,
+ * converts the variants to {@link VariantContext} and encodes them as VCF lines. Partitions are always read sorted,
+ * and a single writer emits the lines in the order of the partitions, so the output is the same as the sequential
+ * export of the sorted query with {@link VariantVcfExporter}. Files ending with ".gz" are written in BGZF, and a
+ * tabix index is built while writing.
+ */
+public class ParallelVariantVcfExporter {
+
+    public static final String TABIX_EXTENSION = ".tbi";
+    public static final int BATCH_SIZE = 500;
+    public static final int QUEUE_CAPACITY = 10;
+
+    private static final Batch END_MARKER = new Batch();
+    private static final long OFFER_TIMEOUT_MS = 100;
+    private final Logger logger = LoggerFactory.getLogger(ParallelVariantVcfExporter.class);
+
+    private final VariantDBAdaptor dbAdaptor;
+    private final StudyConfiguration studyConfiguration;
+    private final QueryOptions queryOptions;
+    private final int numThreads;
+
+    private final AtomicInteger failedVariants = new AtomicInteger();
+    private final AtomicReference<Throwable> exception = new AtomicReference<>();
+    private volatile boolean closed;
+
+    /**
+     * @param dbAdaptor             VariantDBAdaptor to read the variants
+     * @param studyConfiguration    Study to export
+     * @param queryOptions          Query options, as in {@link VariantVcfExporter}
+     * @param numThreads            Number of threads reading and converting variants
+     */
+    public ParallelVariantVcfExporter(VariantDBAdaptor dbAdaptor, StudyConfiguration studyConfiguration, QueryOptions queryOptions,
+                                      int numThreads) {
+        this.dbAdaptor = dbAdaptor;
+        this.studyConfiguration = studyConfiguration;
+        this.queryOptions = queryOptions == null ? new QueryOptions() : queryOptions;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Export the variants to a file. Files ending with ".gz" are written in BGZF, with a tabix index.
+     *
+     * @param query         Query to export
+     * @param outputFile    Output file
+     * @return              Number of variants not exported due to errors
+     * @throws IOException  if there is an error writing the output, or reading from the database
+     */
+    public int export(Query query, Path outputFile) throws IOException {
+        if (outputFile.toString().endsWith(".gz")) {
+            Path indexFile = outputFile.resolveSibling(outputFile.getFileName() + TABIX_EXTENSION);
+            try (BlockCompressedOutputStream bgzf = new BlockCompressedOutputStream(outputFile.toFile())) {
+                TabixIndexCreator indexCreator = export(query, bgzf, bgzf);
+                // As htsjdk, finalize the index with the position after the last block, before the EOF marker
+                bgzf.flush();
+                TabixIndex index = (TabixIndex) indexCreator.finalizeIndex(bgzf.getFilePointer());
+                index.write(indexFile.toFile());
+            }
+        } else {
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(outputFile))) {
+                export(query, outputStream, null);
+            }
+        }
+        return failedVariants.get();
+    }
+
+    /**
+     * Export the variants to a stream, in plain text.
+     *
+     * @param query         Query to export
+     * @param outputStream  Output stream. Is not closed.
+     * @return              Number of variants not exported due to errors
+     * @throws IOException  if there is an error writing the output, or reading from the database
+     */
+    public int export(Query query, OutputStream outputStream) throws IOException {
+        export(query, outputStream, null);
+        outputStream.flush();
+        return failedVariants.get();
+    }
+
+    private TabixIndexCreator export(Query query, OutputStream outputStream, BlockCompressedOutputStream bgzf) throws IOException {
+        VariantVcfExporter headerExporter = new VariantVcfExporter(studyConfiguration, null, queryOptions);
+        VCFHeader header = headerExporter.createVcfHeader();
+
+        // Write the header with htsjdk, exactly as the sequential export. The writer is not closed, to keep the stream open.
+        VariantContextWriter headerWriter = VariantVcfExporter.newVariantContextWriter(outputStream, header);
+        headerWriter.writeHeader(header);
+
+        boolean writeGenotypes = !header.getSampleNamesInOrder().isEmpty();
+        // Same header used by the VCFWriter to encode the variants
+        VCFHeader encoderHeader = writeGenotypes ? header : new VCFHeader(header.getMetaDataInSortedOrder());
+        TabixIndexCreator indexCreator = bgzf == null ? null : new TabixIndexCreator(header.getSequenceDictionary(), TabixFormat.VCF);
+
+        List<VariantQueryPartition> partitions = dbAdaptor.partition(query, queryOptions,
+                numThreads * VariantQueryPartitioner.PARTITIONS_PER_THREAD);
+        logger.info("Exporting {} partitions with {} threads", partitions.size(), numThreads);
+
+        List<BlockingQueue<Batch>> queues = new ArrayList<>(partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            queues.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+        }
+        // Each partition must be sorted, so the concatenation of all the partitions is sorted as well
+        QueryOptions iteratorOptions = new QueryOptions(queryOptions);
+        iteratorOptions.put(QueryOptions.SORT, true);
+        AtomicInteger nextPartition = new AtomicInteger();
+        int numWorkers = Math.min(numThreads, partitions.size());
+        ExecutorService executor = Executors.newFixedThreadPool(numWorkers, runnable -> {
+            Thread thread = new Thread(runnable, "vcf-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (int i = 0; i < numWorkers; i++) {
+                executor.submit(() -> convertPartitions(partitions, queues, nextPartition, iteratorOptions, encoderHeader,
+                        writeGenotypes));
+            }
+            executor.shutdown();
+
+            // Write the partitions in order
+            for (BlockingQueue<Batch> queue : queues) {
+                Batch batch = queue.take();
+                while (batch != END_MARKER) {
+                    for (int i = 0; i < batch.lines.size(); i++) {
+                        if (indexCreator != null) {
+                            indexCreator.addFeature(batch.features.get(i), bgzf.getFilePointer());
+                        }
+                        outputStream.write(batch.lines.get(i));
+                    }
+                    batch = queue.take();
+                }
+                checkException();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while exporting variants");
+        } finally {
+            closed = true;
+            executor.shutdownNow();
+        }
+
+        if (failedVariants.get() > 0) {
+            logger.warn(failedVariants + " variants were not written due to errors");
+        }
+        return indexCreator;
+    }
+
+    private void convertPartitions(List<VariantQueryPartition> partitions, List<BlockingQueue<Batch>> queues,
+                                   AtomicInteger nextPartition, QueryOptions iteratorOptions, VCFHeader encoderHeader,
+                                   boolean writeGenotypes) {
+        // Exporters and encoders are not thread safe
+        VariantVcfExporter exporter = new VariantVcfExporter(studyConfiguration, null, queryOptions);
+        exporter.createVcfHeader();
+        VCFEncoder encoder = new VCFEncoder(encoderHeader, false, false);
+
+        while (!closed && exception.get() == null) {
+            int i = nextPartition.getAndIncrement();
+            if (i >= partitions.size()) {
+                break;
+            }
+            BlockingQueue<Batch> queue = queues.get(i);
+            try (VariantDBIterator iterator = dbAdaptor.iterator(partitions.get(i), iteratorOptions)) {
+                Batch batch = new Batch();
+                while (!closed && iterator.hasNext()) {
+                    Variant variant = iterator.next();
+                    VariantContext variantContext;
+                    try {
+                        variantContext = exporter.convert(variant);
+                        if (variantContext == null) {
+                            continue;
+                        }
+                        if (!writeGenotypes) {
+                            variantContext = new VariantContextBuilder(variantContext).noGenotypes().make();
+                        }
+                        // Charset used by the htsjdk VCFWriter
+                        batch.lines.add((encoder.encode(variantContext) + '\n').getBytes(StandardCharsets.ISO_8859_1));
+                    } catch (RuntimeException e) {
+                        logger.error("Error exporting variant " + variant, e);
+                        failedVariants.incrementAndGet();
+                        continue;
+                    }
+                    batch.features.add(new SimpleFeature(variantContext.getChr(), variantContext.getStart(), variantContext.getEnd()));
+                    if (batch.lines.size() == BATCH_SIZE) {
+                        put(queue, batch);
+                        batch = new Batch();
+                    }
+                }
+                if (!batch.lines.isEmpty()) {
+                    put(queue, batch);
+                }
+            } catch (Throwable e) {
+                logger.error("Error exporting partition " + partitions.get(i), e);
+                exception.compareAndSet(null, e);
+            } finally {
+                try {
+                    put(queue, END_MARKER);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void put(BlockingQueue<Batch> queue, Batch batch) throws InterruptedException {
+        while (!closed) {
+            if (queue.offer(batch, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    private void checkException() throws IOException {
+        Throwable e = exception.get();
+        if (e != null) {
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            } else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static final class Batch {
+        private final List<byte[]> lines = new ArrayList<>(BATCH_SIZE);
+        private final List<Feature> features = new ArrayList<>(BATCH_SIZE);
+    }
+}
@@ -6,17 +6,16 @@ import org.opencb.biodata.formats.variant.vcf4.io.VariantVcfReader;
 import org.opencb.biodata.models.variant.VariantSource;
 import org.opencb.biodata.tools.variant.VariantFileUtils;
 import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
+import org.opencb.opencga.storage.core.utils.CompressionCodec;
 import org.opencb.opencga.storage.core.variant.io.avro.VariantAvroReader;
 import org.opencb.opencga.storage.core.variant.io.json.VariantJsonReader;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.zip.GZIPInputStream;
 
 /**
  * Created on 31/03/16.
@@ -48,8 +47,9 @@ public class VariantReaderUtils {
 
     protected static VariantJsonReader getVariantJsonReader(Path input, VariantSource source) throws StorageManagerException {
         VariantJsonReader variantJsonReader;
-        if (input.toString().endsWith(".json") || input.toString().endsWith(".json.gz")
-                || input.toString().endsWith(".json.snappy") || input.toString().endsWith(".json.snz")) {
+        String fileName = input.toString();
+        if (fileName.endsWith(".json") || fileName.endsWith(".json" + CompressionCodec.fromFileName(fileName).getExtension())
+                || fileName.endsWith(".json.snz")) {
             String sourceFile = input.toAbsolutePath().toString().replace("variants.json", "file.json");
             variantJsonReader = new VariantJsonReader(source, input.toAbsolutePath().toString(), sourceFile);
         } else {
@@ -112,11 +112,9 @@ public class VariantReaderUtils {
         }
 
         // If it's a sourceFile
-        if (input.toString().endsWith("file.json.gz") || input.toString().endsWith("file.json")) {
-            boolean gzip = input.toString().endsWith("file.json.gz");
-            try (InputStream inputStream = gzip
-                    ? new GZIPInputStream(new FileInputStream(input.toFile()))
-                    : new FileInputStream(input.toFile())) {
+        String fileName = input.toString();
+        if (fileName.endsWith("file.json") || fileName.endsWith("file.json" + CompressionCodec.fromFileName(fileName).getExtension())) {
+            try (InputStream inputStream = CompressionCodec.newInputStream(input)) {
                 return VariantReaderUtils.readVariantSource(inputStream);
             } catch (IOException | RuntimeException e) {
                 throw new StorageManagerException("Unable to read VariantSource", e);
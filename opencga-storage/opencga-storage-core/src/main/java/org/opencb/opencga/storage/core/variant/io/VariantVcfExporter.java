@@ -40,7 +40,6 @@ import java.util.stream.Collectors;
  */
 public class VariantVcfExporter implements DataWriter<Variant> {
 
-    private static final DecimalFormat DECIMAL_FORMAT = new DecimalFormat("#.#######");
     private final Logger logger = LoggerFactory.getLogger(VariantVcfExporter.class);
 
 
@@ -53,7 +52,9 @@ public class VariantVcfExporter implements DataWriter<Variant> {
     private final OutputStream outputStream;
     private final QueryOptions queryOptions;
 
-    private DecimalFormat df3 = new DecimalFormat("#.###");
+    // DecimalFormat is not thread safe. Parallel exports use one exporter per thread.
+    private final DecimalFormat decimalFormat = new DecimalFormat("#.#######");
+    private final DecimalFormat df3 = new DecimalFormat("#.###");
     private VariantContextWriter writer;
     private List<String> annotations;
     private int failedVariants;
@@ -139,6 +140,22 @@ public class VariantVcfExporter implements DataWriter<Variant> {
     }
 
     public boolean pre() {
+        final VCFHeader header = createVcfHeader();
+
+        // setup writer
+        writer = newVariantContextWriter(outputStream, header);
+
+        writer.writeHeader(header);
+
+        return true;
+    }
+
+    /**
+     * Builds the header of the exported VCF, and prepares the annotations to export.
+     *
+     * @return VCFHeader
+     */
+    VCFHeader createVcfHeader() {
         final VCFHeader header;
         try {
             header = getVcfHeader(studyConfiguration, queryOptions);
@@ -200,9 +217,12 @@ public class VariantVcfExporter implements DataWriter<Variant> {
                     + "Format: " + annotationString));
         }
 
+        return header;
+    }
+
+    static VariantContextWriter newVariantContextWriter(OutputStream outputStream, VCFHeader header) {
         final SAMSequenceDictionary sequenceDictionary = header.getSequenceDictionary();
 
-        // setup writer
         VariantContextWriterBuilder builder = new VariantContextWriterBuilder()
                 .setOutputStream(outputStream)
                 .setReferenceDictionary(sequenceDictionary)
@@ -210,19 +230,25 @@ public class VariantVcfExporter implements DataWriter<Variant> {
         if (header.getSampleNamesInOrder().isEmpty()) {
             builder.setOption(Options.DO_NOT_WRITE_GENOTYPES);
         }
-        writer = builder.build();
+        return builder.build();
+    }
 
-        writer.writeHeader(header);
 
-        return true;
+    /**
+     * Convert a variant using the annotations selected by {@link #createVcfHeader()}.
+     *
+     * @param variant Variant to convert
+     * @return The variant in HTSJDK format, or null if it should not be exported
+     */
+    VariantContext convert(Variant variant) {
+        return convertVariantToVariantContext(variant, studyConfiguration, annotations);
     }
 
-
     @Override
     public boolean write(List<Variant> batch) {
         for (Variant variant : batch) {
             try {
-                VariantContext variantContext = convertVariantToVariantContext(variant, studyConfiguration, annotations);
+                VariantContext variantContext = convert(variant);
                 if (variantContext != null) {
                     writer.add(variantContext);
                 }
@@ -272,7 +298,7 @@ public class VariantVcfExporter implements DataWriter<Variant> {
                     returnedSamples.add(samplesPosition.get(i));
                 }
             } else {
-                System.out.println(returnedSamples);
+                logger.debug("returned samples: {}", returnedSamples);
                 List<String> newReturnedSamples = new ArrayList<>(returnedSamples.size());
                 for (String returnedSample : returnedSamples) {
                     if (returnedSample.isEmpty()) {
@@ -609,7 +635,7 @@ public class VariantVcfExporter implements DataWriter<Variant> {
             } else {
                 cohortName = cohortName + "_";
             }
-            attributes.put(cohortName + VCFConstants.ALLELE_FREQUENCY_KEY, DECIMAL_FORMAT.format(stats.getAltAlleleFreq()));
+            attributes.put(cohortName + VCFConstants.ALLELE_FREQUENCY_KEY, decimalFormat.format(stats.getAltAlleleFreq()));
         }
     }
 
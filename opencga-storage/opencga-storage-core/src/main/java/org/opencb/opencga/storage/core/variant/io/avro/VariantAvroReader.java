@@ -5,17 +5,15 @@ import org.opencb.biodata.formats.variant.io.VariantReader;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantSource;
 import org.opencb.biodata.models.variant.avro.VariantAvro;
-import org.xerial.snappy.SnappyInputStream;
+import org.opencb.opencga.storage.core.utils.CompressionCodec;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
 
 /**
  * Created on 06/10/15.
@@ -47,11 +45,7 @@ public class VariantAvroReader implements VariantReader {
 
     @Override
     public boolean pre() {
-        try (InputStream inputStream = metadataFile.toString().endsWith("gz")
-                ? new GZIPInputStream(new FileInputStream(metadataFile))
-                : metadataFile.toString().endsWith("snappy")
-                        ? new SnappyInputStream(new FileInputStream(metadataFile))
-                        : new FileInputStream(metadataFile)) {
+        try (InputStream inputStream = CompressionCodec.newInputStream(metadataFile.toPath())) {
             ObjectMapper jsonObjectMapper = new ObjectMapper();
 
             // Read global JSON file and copy its info into the already available VariantSource object
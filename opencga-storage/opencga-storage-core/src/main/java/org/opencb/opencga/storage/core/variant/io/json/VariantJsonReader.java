@@ -26,9 +26,8 @@ import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantSource;
 import org.opencb.biodata.models.variant.stats.VariantStats;
-import org.xerial.snappy.SnappyInputStream;
+import org.opencb.opencga.storage.core.utils.CompressionCodec;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -37,7 +36,6 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
 
 /**
  * @author Cristina Yenyxe Gonzalez Garcia <cyenyxe@ebi.ac.uk>
@@ -80,23 +78,8 @@ public class VariantJsonReader implements VariantReader {
             Files.exists(this.variantsPath);
             Files.exists(this.globalPath);
 
-            String name = variantsPath.toFile().getName();
-            if (name.endsWith(".gz")) {
-                this.variantsStream = new GZIPInputStream(new FileInputStream(variantsPath.toFile()));
-            } else if (name.endsWith(".snz") || name.endsWith(".snappy")) {
-                this.variantsStream = new SnappyInputStream(new FileInputStream(variantsPath.toFile()));
-            } else {
-                this.variantsStream = new FileInputStream(variantsPath.toFile());
-            }
-
-            String globalFileName = globalPath.toFile().getName();
-            if (globalFileName.endsWith(".gz")) {
-                this.globalStream = new GZIPInputStream(new FileInputStream(globalPath.toFile()));
-            } else if (globalFileName.endsWith(".snz") || name.endsWith(".snappy")) {
-                this.globalStream = new SnappyInputStream(new FileInputStream(globalPath.toFile()));
-            } else {
-                this.globalStream = new FileInputStream(globalPath.toFile());
-            }
+            this.variantsStream = CompressionCodec.newInputStream(variantsPath);
+            this.globalStream = CompressionCodec.newInputStream(globalPath);
 
 
         } catch (IOException ex) {
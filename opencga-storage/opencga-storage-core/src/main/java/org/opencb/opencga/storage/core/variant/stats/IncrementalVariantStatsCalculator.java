@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.stats;
+
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+
+import java.util.*;
+
+/**
+ * Updates the statistics of already calculated cohorts when new samples are added to them.
+ *
+ * The genotype counts of a cohort are mergeable counters. Instead of reading all the samples of the cohort again, only the
+ * genotypes of the new samples are counted and added to the counters already stored. The allele counts, missing counts and
+ * the derived values (MAF, MGF, frequencies) are then recalculated from the merged genotype counts.
+ */
+public class IncrementalVariantStatsCalculator {
+
+    private final Map<String, Set<String>> newSamples;
+    private final VariantBitSetStatsCalculator newSamplesCalculator;
+
+    /**
+     * Creates a calculator for the given new samples.
+     *
+     * @param newSamples Cohorts to update. Key: cohort name, value: samples added to the cohort since the last calculation.
+     */
+    public IncrementalVariantStatsCalculator(Map<String, Set<String>> newSamples) {
+        this.newSamples = newSamples;
+        this.newSamplesCalculator = new VariantBitSetStatsCalculator(newSamples);
+    }
+
+    /**
+     * Updates the stats of all the cohorts for a variant.
+     *
+     * The study must contain the previously stored stats of each cohort, and at least the genotypes of the new samples.
+     *
+     * @param variant    Variant
+     * @param study      Study with the stored stats and the genotypes of the new samples
+     * @param attributes File attributes, for the non genotype related statistics
+     * @return Updated stats for each cohort, or null if any cohort does not have stored genotype counts for this variant
+     */
+    public Map<String, VariantStats> calculate(Variant variant, StudyEntry study, Map<String, String> attributes) {
+        for (String cohort : newSamples.keySet()) {
+            if (!isMergeable(study.getStats(cohort))) {
+                return null;
+            }
+        }
+        Map<String, VariantStats> newSamplesStats = newSamplesCalculator.calculate(variant, study, attributes);
+        Map<String, VariantStats> statsMap = new LinkedHashMap<>(newSamplesStats.size());
+        for (Map.Entry<String, VariantStats> entry : newSamplesStats.entrySet()) {
+            statsMap.put(entry.getKey(), merge(study.getStats(entry.getKey()), entry.getValue()));
+        }
+        return statsMap;
+    }
+
+    public Map<String, Set<String>> getNewSamples() {
+        return newSamples;
+    }
+
+    /**
+     * Adds the genotype counts of the stored stats to the stats of the new samples, and recalculates the derived values.
+     *
+     * @param stored   Stats already stored for the cohort
+     * @param newStats Stats calculated only from the new samples of the cohort. Modified and returned.
+     * @return Stats of the whole cohort
+     */
+    public static VariantStats merge(VariantStats stored, VariantStats newStats) {
+        String ref = newStats.getRefAllele();
+        String alt = newStats.getAltAllele();
+        for (Map.Entry<Genotype, Integer> entry : stored.getGenotypesCount().entrySet()) {
+            if (entry.getValue() > 0) {
+                // Stored genotypes may come without alleles. Rebuild them to match the keys of the new stats.
+                newStats.addGenotype(new Genotype(entry.getKey().toString(), ref, alt), entry.getValue(), true);
+            }
+        }
+        VariantBitSetStatsCalculator.updateDerivedValues(newStats);
+        return newStats;
+    }
+
+    /**
+     * Stats can only be merged if the genotype counts were stored. Aggregated stats do not have them.
+     *
+     * @param stats Stored stats
+     * @return If the stats can be used as base counters
+     */
+    public static boolean isMergeable(VariantStats stats) {
+        return stats != null && stats.getGenotypesCount() != null && !stats.getGenotypesCount().isEmpty();
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.stats;
+
+import org.opencb.biodata.models.feature.AllelesCode;
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.biodata.tools.variant.stats.VariantStatsCalculator;
+
+import java.util.*;
+
+/**
+ * Calculates the statistics of several cohorts at the same time using bitsets.
+ *
+ * The genotypes of each variant are read only once, building a bitset of samples for each different genotype.
+ * The cohorts are translated to bitsets of samples only when the samples position changes. The number of samples of each
+ * genotype in a cohort is the population count of the intersection of both bitsets.
+ *
+ * The values not related with the genotypes (e.g. quality or filters) are obtained once per variant from
+ * {@link VariantStatsCalculator}, and copied to the stats of each cohort.
+ */
+public class VariantBitSetStatsCalculator {
+
+    private static final String GT = "GT";
+
+    private final Map<String, Set<String>> cohorts;
+    private Map<String, Integer> samplesPosition;
+    private Map<String, long[]> cohortSamples;
+
+    public VariantBitSetStatsCalculator(Map<String, Set<String>> cohorts) {
+        this.cohorts = cohorts;
+    }
+
+    /**
+     * Calculates the stats of all the cohorts for a variant.
+     *
+     * @param variant    Variant
+     * @param study      Study to calculate stats from
+     * @param attributes File attributes, for the non genotype related statistics
+     * @return Stats for each cohort, with the same iteration order as the cohorts map
+     */
+    public Map<String, VariantStats> calculate(Variant variant, StudyEntry study, Map<String, String> attributes) {
+        Map<String, long[]> cohortSamples = getCohortSamples(study.getSamplesPosition());
+
+        // Encode the genotypes only once
+        Map<String, long[]> genotypeSamples = new HashMap<>();
+        Integer gtIdx = study.getFormatPositions().get(GT);
+        if (gtIdx != null) {
+            List<List<String>> samplesData = study.getSamplesData();
+            int numWords = numWords(samplesData.size());
+            for (int sampleIdx = 0; sampleIdx < samplesData.size(); sampleIdx++) {
+                String gt = samplesData.get(sampleIdx).get(gtIdx);
+                long[] bitSet = genotypeSamples.get(gt);
+                if (bitSet == null) {
+                    bitSet = new long[numWords];
+                    genotypeSamples.put(gt, bitSet);
+                }
+                bitSet[sampleIdx >> 6] |= 1L << sampleIdx;
+            }
+        }
+        Map<String, Genotype> genotypes = new HashMap<>(genotypeSamples.size());
+        for (String gt : genotypeSamples.keySet()) {
+            genotypes.put(gt, new Genotype(gt, variant.getReference(), variant.getAlternate()));
+        }
+
+        // Calculate the values that do not depend on the genotypes only once
+        VariantStats commonStats = new VariantStats(variant);
+        VariantStatsCalculator.calculate(study, Collections.emptySet(), attributes, null, commonStats);
+
+        Map<String, VariantStats> statsMap = new LinkedHashMap<>(cohortSamples.size());
+        for (Map.Entry<String, long[]> cohort : cohortSamples.entrySet()) {
+            VariantStats variantStats = new VariantStats(variant);
+            copyNonGenotypeValues(commonStats, variantStats);
+
+            for (Map.Entry<String, long[]> entry : genotypeSamples.entrySet()) {
+                int count = intersectionCount(entry.getValue(), cohort.getValue());
+                if (count > 0) {
+                    variantStats.addGenotype(genotypes.get(entry.getKey()), count, true);
+                }
+            }
+            updateDerivedValues(variantStats);
+            statsMap.put(cohort.getKey(), variantStats);
+        }
+        return statsMap;
+    }
+
+    public Map<String, Set<String>> getCohorts() {
+        return cohorts;
+    }
+
+    /**
+     * Copies the values that do not depend on the genotypes. The rest of values are recalculated by
+     * {@link #updateDerivedValues}.
+     *
+     * @param from Stats calculated without samples
+     * @param to   Stats of a cohort
+     */
+    static void copyNonGenotypeValues(VariantStats from, VariantStats to) {
+        to.setQuality(from.getQuality());
+        to.setNumSamples(from.getNumSamples());
+        to.setMendelianErrors(from.getMendelianErrors());
+        to.setCasesPercentDominant(from.getCasesPercentDominant());
+        to.setControlsPercentDominant(from.getControlsPercentDominant());
+        to.setCasesPercentRecessive(from.getCasesPercentRecessive());
+        to.setControlsPercentRecessive(from.getControlsPercentRecessive());
+    }
+
+    /**
+     * Recalculates the allele counts, the missing counts and all the frequencies from the genotype counts.
+     *
+     * @param variantStats Stats with the genotype counts already filled
+     */
+    static void updateDerivedValues(VariantStats variantStats) {
+        int[] allelesCount = new int[2];
+        int totalAllelesCount = 0;
+        int totalGenotypesCount = 0;
+        int missingAlleles = 0;
+        int missingGenotypes = 0;
+        for (Map.Entry<Genotype, Integer> entry : variantStats.getGenotypesCount().entrySet()) {
+            Genotype genotype = entry.getKey();
+            int count = entry.getValue();
+            int[] allelesIdx = genotype.getAllelesIdx();
+            switch (genotype.getCode()) {
+                case ALLELES_OK:
+                    for (int allele : allelesIdx) {
+                        totalAllelesCount += addAllele(allelesCount, allele, count);
+                    }
+                    totalGenotypesCount += count;
+                    break;
+                case HAPLOID:
+                    totalAllelesCount += addAllele(allelesCount, allelesIdx[0], count);
+                    break;
+                default:
+                    // Missing genotype (one or both alleles missing)
+                    missingGenotypes += count;
+                    for (int allele : allelesIdx) {
+                        if (allele < 0) {
+                            missingAlleles += count;
+                        } else {
+                            totalAllelesCount += addAllele(allelesCount, allele, count);
+                        }
+                    }
+                    break;
+            }
+        }
+        variantStats.setRefAlleleCount(allelesCount[0]);
+        variantStats.setAltAlleleCount(allelesCount[1]);
+        variantStats.setMissingAlleles(missingAlleles);
+        variantStats.setMissingGenotypes(missingGenotypes);
+
+        calculateAlleleFrequencies(totalAllelesCount, variantStats);
+        calculateGenotypeFrequencies(totalGenotypesCount, variantStats);
+    }
+
+    private static int addAllele(int[] allelesCount, int allele, int count) {
+        if (allele >= 0 && allele < allelesCount.length) {
+            allelesCount[allele] += count;
+            return count;
+        }
+        return 0;
+    }
+
+    private static void calculateAlleleFrequencies(int totalAllelesCount, VariantStats variantStats) {
+        if (totalAllelesCount == 0) {
+            // Nothing to calculate here
+            variantStats.setMaf(-1);
+            variantStats.setRefAlleleFreq(-1);
+            variantStats.setAltAlleleFreq(-1);
+            return;
+        }
+
+        float refAlleleFreq = variantStats.getRefAlleleCount() / (float) totalAllelesCount;
+        variantStats.setRefAlleleFreq(refAlleleFreq);
+        float altAlleleFreq = variantStats.getAltAlleleCount() / (float) totalAllelesCount;
+        variantStats.setAltAlleleFreq(altAlleleFreq);
+
+        if (refAlleleFreq <= altAlleleFreq) {
+            variantStats.setMaf(refAlleleFreq);
+            variantStats.setMafAllele(variantStats.getRefAllele());
+        } else {
+            variantStats.setMaf(altAlleleFreq);
+            variantStats.setMafAllele(variantStats.getAltAllele());
+        }
+    }
+
+    private static void calculateGenotypeFrequencies(int totalGenotypesCount, VariantStats variantStats) {
+        if (totalGenotypesCount == 0) {
+            // Nothing to calculate here
+            variantStats.setMgf(-1);
+            return;
+        }
+
+        Map<Genotype, Float> genotypesFreq = variantStats.getGenotypesFreq();
+        if (genotypesFreq == null) {
+            genotypesFreq = new HashMap<>();
+            variantStats.setGenotypesFreq(genotypesFreq);
+        }
+        // Set all combinations of genotypes to zero
+        String ref = variantStats.getRefAllele();
+        String alt = variantStats.getAltAllele();
+        genotypesFreq.put(new Genotype("0/0", ref, alt), 0.0f);
+        genotypesFreq.put(new Genotype("0/1", ref, alt), 0.0f);
+        genotypesFreq.put(new Genotype("1/1", ref, alt), 0.0f);
+
+        // Insert the genotypes found
+        for (Map.Entry<Genotype, Integer> gtCount : variantStats.getGenotypesCount().entrySet()) {
+            if (gtCount.getKey().getCode() == AllelesCode.ALLELES_MISSING) {
+                // Missing genotypes shouldn't affect frequencies calculation
+                continue;
+            }
+            genotypesFreq.put(gtCount.getKey(), (float) gtCount.getValue() / totalGenotypesCount);
+        }
+
+        // Traverse the genotypes to see which one has the MGF
+        float currMgf = Float.MAX_VALUE;
+        Genotype currMgfGenotype = null;
+        for (Map.Entry<Genotype, Float> gtFreq : genotypesFreq.entrySet()) {
+            float freq = gtFreq.getValue();
+            if (freq < currMgf) {
+                currMgf = freq;
+                currMgfGenotype = gtFreq.getKey();
+            }
+        }
+
+        if (currMgfGenotype != null) {
+            variantStats.setMgf(currMgf);
+            variantStats.setMgfGenotype(currMgfGenotype.toString());
+        }
+    }
+
+    /**
+     * Get the cohorts as bitsets of sample positions. Only recalculated if the samples position changes.
+     */
+    private Map<String, long[]> getCohortSamples(Map<String, Integer> samplesPosition) {
+        if (cohortSamples != null && (this.samplesPosition == samplesPosition || this.samplesPosition.equals(samplesPosition))) {
+            return cohortSamples;
+        }
+        int numWords = numWords(samplesPosition.size());
+        Map<String, long[]> cohortSamples = new LinkedHashMap<>(cohorts.size());
+        for (Map.Entry<String, Set<String>> cohort : cohorts.entrySet()) {
+            long[] bitSet = new long[numWords];
+            for (String sample : cohort.getValue()) {
+                Integer position = samplesPosition.get(sample);
+                if (position != null) {
+                    bitSet[position >> 6] |= 1L << position;
+                }
+            }
+            cohortSamples.put(cohort.getKey(), bitSet);
+        }
+        this.samplesPosition = samplesPosition;
+        this.cohortSamples = cohortSamples;
+        return cohortSamples;
+    }
+
+    private static int numWords(int numBits) {
+        return (numBits + 63) >> 6;
+    }
+
+    private static int intersectionCount(long[] a, long[] b) {
+        int count = 0;
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            count += Long.bitCount(a[i] & b[i]);
+        }
+        return count;
+    }
+}
@@ -38,13 +38,26 @@ public class VariantStatisticsCalculator {
     private boolean overwrite;
     private VariantAggregatedStatsCalculator aggregatedCalculator;
     private VariantSource.Aggregation aggregation;
+    private boolean bitSetStats;
+    private VariantBitSetStatsCalculator bitSetStatsCalculator;
 
     public VariantStatisticsCalculator() {
         this(false);
     }
 
     public VariantStatisticsCalculator(boolean overwrite) {
+        this(overwrite, true);
+    }
+
+    /**
+     * Creates a VariantStatisticsCalculator.
+     *
+     * @param overwrite    Overwrite existing stats
+     * @param bitSetStats  Use the {@link VariantBitSetStatsCalculator} to calculate the stats of all the cohorts at once.
+     */
+    public VariantStatisticsCalculator(boolean overwrite, boolean bitSetStats) {
         this.overwrite = overwrite;
+        this.bitSetStats = bitSetStats;
         skippedFiles = 0;
     }
 
@@ -133,7 +146,13 @@ public class VariantStatisticsCalculator {
             // Clear any stats from the input
             study.setStats(new HashMap<>());
 
-            if (!isAggregated(aggregation) && samples != null) {
+            if (!isAggregated(aggregation) && samples != null && bitSetStats) {
+                Map<String, String> attributes = study.getAttributes();
+                attributes = attributes == null
+                        ? Collections.emptyMap()
+                        : attributes;
+                study.setStats(getBitSetStatsCalculator(samples).calculate(variant, study, attributes));
+            } else if (!isAggregated(aggregation) && samples != null) {
                 for (Map.Entry<String, Set<String>> cohort : samples.entrySet()) {
                     if (overwrite || study.getStats(cohort.getKey()) == null) {
 
@@ -165,6 +184,13 @@ public class VariantStatisticsCalculator {
         return variantStatsWrappers;
     }
 
+    private VariantBitSetStatsCalculator getBitSetStatsCalculator(Map<String, Set<String>> samples) {
+        if (bitSetStatsCalculator == null || bitSetStatsCalculator.getCohorts() != samples) {
+            bitSetStatsCalculator = new VariantBitSetStatsCalculator(samples);
+        }
+        return bitSetStatsCalculator;
+    }
+
     @Deprecated
     public static Map<String, String> removeAttributePrefix(Map<String, String> attributes)
             throws IllegalArgumentException {
@@ -21,7 +21,13 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
 import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.stats.VariantSourceStats;
@@ -30,13 +36,16 @@ import org.opencb.biodata.tools.variant.stats.VariantAggregatedStatsCalculator;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
+import org.opencb.commons.io.DataWriter;
 import org.opencb.commons.run.ParallelTaskRunner;
 import org.opencb.opencga.core.common.ProgressLogger;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
 import org.opencb.opencga.storage.core.runner.StringDataWriter;
+import org.opencb.opencga.storage.core.runner.TaskRunnerMetrics;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.io.VariantDBReader;
+import org.opencb.opencga.storage.core.variant.io.avro.AvroDataWriter;
 import org.opencb.opencga.storage.core.variant.io.json.GenericRecordAvroJsonMixin;
 import org.opencb.opencga.storage.core.variant.io.json.VariantStatsJsonMixin;
 import org.slf4j.Logger;
@@ -44,10 +53,13 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -62,8 +74,11 @@ import static org.opencb.opencga.storage.core.variant.VariantStorageManager.Opti
 public class VariantStatisticsManager {
 
     public static final String OUTPUT_FILE_NAME = "output.file.name";
+    public static final String STATS_FORMAT_AVRO = "avro";
+    public static final String STATS_FORMAT_JSON = "json";
 
     private String VARIANT_STATS_SUFFIX = ".variants.stats.json.gz";
+    private String VARIANT_STATS_AVRO_SUFFIX = ".variants.stats.avro";
     private String SOURCE_STATS_SUFFIX = ".source.stats.json.gz";
     private final JsonFactory jsonFactory;
     private ObjectMapper jsonObjectMapper;
@@ -85,6 +100,10 @@ public class VariantStatisticsManager {
         return outputStream;
     }
 
+    private long getMetricsReportInterval(QueryOptions options) {
+        return options.getLong(Options.METRICS_REPORT_INTERVAL.key(), Options.METRICS_REPORT_INTERVAL.<Integer>defaultValue());
+    }
+
     /**
      * Gets iterator from OpenCGA Variant database.
      **/
@@ -136,6 +155,8 @@ public class VariantStatisticsManager {
         int numTasks = options.getInt(Options.LOAD_THREADS.key(), 6);
         boolean overwrite = options.getBoolean(Options.OVERWRITE_STATS.key(), false);
         boolean updateStats = options.getBoolean(Options.UPDATE_STATS.key(), false);
+        boolean bitSetStats = options.getBoolean(Options.STATS_BITSET.key(), Options.STATS_BITSET.defaultValue());
+        boolean incremental = options.getBoolean(Options.STATS_INCREMENTAL.key(), Options.STATS_INCREMENTAL.defaultValue());
         Properties tagmap = options.get(Options.AGGREGATION_MAPPING_PROPERTIES.key(), Properties.class, null);
 //            fileId = options.getString(VariantStorageManager.Options.FILE_ID.key());
 
@@ -151,7 +172,14 @@ public class VariantStatisticsManager {
             }
         }
 
-        checkAndUpdateStudyConfigurationCohorts(studyConfiguration, cohorts, cohortIds, overwrite, updateStats);
+        // Copy the calculated cohorts before updating the StudyConfiguration
+        Map<Integer, Set<Integer>> calculatedCohorts = new HashMap<>();
+        for (Integer cohortId : studyConfiguration.getCalculatedStats()) {
+            Set<Integer> sampleIds = studyConfiguration.getCohorts().get(cohortId);
+            calculatedCohorts.put(cohortId, sampleIds == null ? Collections.emptySet() : new HashSet<>(sampleIds));
+        }
+
+        checkAndUpdateStudyConfigurationCohorts(studyConfiguration, cohorts, cohortIds, overwrite, updateStats, incremental);
         if (!overwrite) {
             for (String cohortName : cohorts.keySet()) {
                 Integer cohortId = studyConfiguration.getCohortIds().get(cohortName);
@@ -163,6 +191,17 @@ public class VariantStatisticsManager {
         }
         checkStudyConfiguration(studyConfiguration);
 
+        Map<String, Set<String>> newSamples = null;
+        if (incremental) {
+            newSamples = getNewSamples(studyConfiguration, cohorts, calculatedCohorts, overwrite);
+            if (newSamples == null && !updateStats) {
+                // Stats already stored for these cohorts are not valid anymore. Calculate again from scratch
+                overwrite = true;
+            }
+        }
+        if (newSamples != null) {
+            return createIncrementalStats(variantDBAdaptor, output, cohorts, newSamples, studyConfiguration, options);
+        }
 
         VariantSourceStats variantSourceStats = new VariantSourceStats(null/*FILE_ID*/, Integer.toString(studyConfiguration.getStudyId()));
 
@@ -187,26 +226,27 @@ public class VariantStatisticsManager {
         QueryOptions readerOptions = new QueryOptions(QueryOptions.SORT, true);
         logger.info("ReaderQueryOptions: " + readerOptions.toJson());
         VariantDBReader reader = new VariantDBReader(studyConfiguration, variantDBAdaptor, readerQuery, readerOptions);
-        List<ParallelTaskRunner.Task<Variant, String>> tasks = new ArrayList<>(numTasks);
+        List<ParallelTaskRunner.Task<Variant, VariantStatsWrapper>> tasks = new ArrayList<>(numTasks);
         for (int i = 0; i < numTasks; i++) {
             tasks.add(new VariantStatsWrapperTask(overwrite, cohorts, studyConfiguration, null/*FILE_ID*/,
-                    variantSourceStats, tagmap));
+                    variantSourceStats, tagmap, bitSetStats));
         }
-        Path variantStatsPath = Paths.get(output.getPath() + VARIANT_STATS_SUFFIX);
-        logger.info("will write stats to {}", variantStatsPath);
-        StringDataWriter writer = new StringDataWriter(variantStatsPath, true);
 
         // runner
         ParallelTaskRunner.Config config = new ParallelTaskRunner.Config(numTasks, batchSize, numTasks * 2, false);
-        ParallelTaskRunner runner = new ParallelTaskRunner<>(reader, tasks, writer, config);
+        TaskRunnerMetrics metrics = new TaskRunnerMetrics("stats " + studyConfiguration.getStudyName());
+        ParallelTaskRunner runner = buildStatsRunner(reader, tasks, output, config, options, metrics);
         try {
 
             logger.info("starting stats creation for cohorts {}", cohorts.keySet());
             long start = System.currentTimeMillis();
+            metrics.start(getMetricsReportInterval(options));
             runner.run();
             logger.info("finishing stats creation, time: {}ms", System.currentTimeMillis() - start);
         } catch (ExecutionException e) {
             throw new StorageManagerException("Unable to calculate statistics.", e);
+        } finally {
+            metrics.stop();
         }
         // source stats
         Path fileSourcePath = Paths.get(output.getPath() + SOURCE_STATS_SUFFIX);
@@ -220,52 +260,295 @@ public class VariantStatisticsManager {
         return output;
     }
 
-    class VariantStatsWrapperTask implements ParallelTaskRunner.Task<Variant, String> {
+    /**
+     * Builds the runner to write the stats in the intermediate format defined by {@link Options#STATS_FORMAT}.
+     * The stats are encoded by the tasks, so the encoding runs in parallel.
+     *
+     * @param reader  Variants reader
+     * @param tasks   Tasks calculating the stats
+     * @param output  Output prefix
+     * @param config  Runner configuration
+     * @param options Options
+     * @param metrics Metrics of the runner
+     * @return ParallelTaskRunner ready to run
+     */
+    ParallelTaskRunner<Variant, ?> buildStatsRunner(VariantDBReader reader,
+                                                    List<ParallelTaskRunner.Task<Variant, VariantStatsWrapper>> tasks,
+                                                    URI output, ParallelTaskRunner.Config config, QueryOptions options,
+                                                    TaskRunnerMetrics metrics) {
+        String format = options.getString(Options.STATS_FORMAT.key(), Options.STATS_FORMAT.defaultValue());
+        if (STATS_FORMAT_AVRO.equalsIgnoreCase(format)) {
+            Path variantStatsPath = Paths.get(output.getPath() + VARIANT_STATS_AVRO_SUFFIX);
+            logger.info("will write stats to {}", variantStatsPath);
+            VariantStatsWrapperAvroConverter converter = new VariantStatsWrapperAvroConverter();
+            List<ParallelTaskRunner.Task<Variant, GenericRecord>> avroTasks = new ArrayList<>(tasks.size());
+            for (ParallelTaskRunner.Task<Variant, VariantStatsWrapper> task : tasks) {
+                avroTasks.add(metrics.wrapTask(new StatsEncoderTask<GenericRecord>(task, converter::convertToStorageType)));
+            }
+            AvroDataWriter<GenericRecord> writer = new AvroDataWriter<>(variantStatsPath, true, VariantStatsWrapperAvroConverter.SCHEMA);
+            return new ParallelTaskRunner<>(metrics.wrapReader(reader), avroTasks, metrics.wrapWriter(writer), config);
+        } else if (STATS_FORMAT_JSON.equalsIgnoreCase(format)) {
+            Path variantStatsPath = Paths.get(output.getPath() + VARIANT_STATS_SUFFIX);
+            logger.info("will write stats to {}", variantStatsPath);
+            ObjectWriter variantsWriter = jsonObjectMapper.writerFor(VariantStatsWrapper.class);
+            List<ParallelTaskRunner.Task<Variant, String>> jsonTasks = new ArrayList<>(tasks.size());
+            for (ParallelTaskRunner.Task<Variant, VariantStatsWrapper> task : tasks) {
+                jsonTasks.add(metrics.wrapTask(new StatsEncoderTask<String>(task, variantStatsWrapper -> {
+                    try {
+                        return variantsWriter.writeValueAsString(variantStatsWrapper);
+                    } catch (JsonProcessingException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })));
+            }
+            DataWriter<String> writer = new StringDataWriter(variantStatsPath, true);
+            return new ParallelTaskRunner<>(metrics.wrapReader(reader), jsonTasks, metrics.wrapWriter(writer), config);
+        } else {
+            throw new IllegalArgumentException("Unknown stats format \"" + format + "\". Expected one of "
+                    + Arrays.asList(STATS_FORMAT_AVRO, STATS_FORMAT_JSON));
+        }
+    }
+
+    /**
+     * Get the samples added to each cohort since the last time its stats were calculated.
+     *
+     * @param studyConfiguration Study configuration, with the cohorts already updated
+     * @param cohorts            Cohorts to calculate, with all their samples
+     * @param calculatedCohorts  Samples of each calculated cohort, before updating the study configuration
+     * @param overwrite          If the stats are going to be overwritten
+     * @return New samples of each cohort, or null if the stats can not be updated incrementally
+     */
+    Map<String, Set<String>> getNewSamples(StudyConfiguration studyConfiguration, Map<String, Set<String>> cohorts,
+                                           Map<Integer, Set<Integer>> calculatedCohorts, boolean overwrite) {
+        if (overwrite) {
+            logger.info("Unable to update stats incrementally if overwrite is provided. Calculate all the stats.");
+            return null;
+        }
+        if (isAggregated(studyConfiguration.getAggregation())) {
+            logger.info("Unable to update stats incrementally for aggregated studies. Calculate all the stats.");
+            return null;
+        }
+        Map<String, Set<String>> newSamples = new LinkedHashMap<>(cohorts.size());
+        boolean anyNewSample = false;
+        for (Map.Entry<String, Set<String>> entry : cohorts.entrySet()) {
+            String cohortName = entry.getKey();
+            Set<Integer> calculatedSampleIds = calculatedCohorts.get(studyConfiguration.getCohortIds().get(cohortName));
+            if (calculatedSampleIds == null) {
+                logger.info("Cohort \"{}\" was never calculated. Unable to update stats incrementally.", cohortName);
+                return null;
+            }
+            Set<String> cohortNewSamples = new HashSet<>();
+            for (String sample : entry.getValue()) {
+                if (!calculatedSampleIds.contains(studyConfiguration.getSampleIds().get(sample))) {
+                    cohortNewSamples.add(sample);
+                }
+            }
+            if (entry.getValue().size() - cohortNewSamples.size() != calculatedSampleIds.size()) {
+                logger.info("Cohort \"{}\" has lost some samples. Unable to update stats incrementally.", cohortName);
+                return null;
+            }
+            anyNewSample |= !cohortNewSamples.isEmpty();
+            newSamples.put(cohortName, cohortNewSamples);
+        }
+        if (!anyNewSample) {
+            logger.info("No new samples in cohorts {}. Nothing to update incrementally.", cohorts.keySet());
+            return null;
+        }
+        return newSamples;
+    }
+
+    /**
+     * Updates the stats of already calculated cohorts reading only the genotypes of the new samples.
+     *
+     * All the variants of the study are read, as the new samples modify the stats even where they have the default genotype.
+     * Variants without stored stats (e.g. variants from the new files) are read again with all the samples.
+     * The source stats are not written, as they would be generated only with the new samples.
+     */
+    private URI createIncrementalStats(VariantDBAdaptor variantDBAdaptor, URI output, Map<String, Set<String>> cohorts,
+                                       Map<String, Set<String>> newSamples, StudyConfiguration studyConfiguration,
+                                       QueryOptions options) throws StorageManagerException {
+        int batchSize = options.getInt(Options.LOAD_BATCH_SIZE.key(), 100);
+        int numTasks = options.getInt(Options.LOAD_THREADS.key(), 6);
+
+        Set<String> returnedSamples = new LinkedHashSet<>();
+        newSamples.values().forEach(returnedSamples::addAll);
+        Query readerQuery = new Query(VariantDBAdaptor.VariantQueryParams.STUDIES.key(), studyConfiguration.getStudyId())
+                .append(VariantDBAdaptor.VariantQueryParams.RETURNED_STUDIES.key(), studyConfiguration.getStudyId())
+                .append(VariantDBAdaptor.VariantQueryParams.RETURNED_SAMPLES.key(), new ArrayList<>(returnedSamples));
+        if (options.containsKey(VariantDBAdaptor.VariantQueryParams.REGION.key())) {
+            Object region = options.get(VariantDBAdaptor.VariantQueryParams.REGION.key());
+            readerQuery.put(VariantDBAdaptor.VariantQueryParams.REGION.key(), region);
+        }
+        logger.info("ReaderQuery: " + readerQuery.toJson());
+        QueryOptions readerOptions = new QueryOptions(QueryOptions.SORT, true)
+                .append(QueryOptions.INCLUDE, Arrays.asList("chromosome", "start", "end", "alternate", "reference", "sourceEntries",
+                        "sourceEntries.cohortStats"));
+        logger.info("ReaderQueryOptions: " + readerOptions.toJson());
+        VariantDBReader reader = new VariantDBReader(studyConfiguration, variantDBAdaptor, readerQuery, readerOptions);
+        List<ParallelTaskRunner.Task<Variant, VariantStatsWrapper>> tasks = new ArrayList<>(numTasks);
+        for (int i = 0; i < numTasks; i++) {
+            tasks.add(new IncrementalVariantStatsWrapperTask(variantDBAdaptor, cohorts, newSamples, studyConfiguration));
+        }
+
+        ParallelTaskRunner.Config config = new ParallelTaskRunner.Config(numTasks, batchSize, numTasks * 2, false);
+        TaskRunnerMetrics metrics = new TaskRunnerMetrics("incremental stats " + studyConfiguration.getStudyName());
+        ParallelTaskRunner runner = buildStatsRunner(reader, tasks, output, config, options, metrics);
+        try {
+            logger.info("starting incremental stats creation for cohorts {}. New samples: {}", cohorts.keySet(), returnedSamples);
+            long start = System.currentTimeMillis();
+            metrics.start(getMetricsReportInterval(options));
+            runner.run();
+            logger.info("finishing incremental stats creation, time: {}ms", System.currentTimeMillis() - start);
+        } catch (ExecutionException e) {
+            throw new StorageManagerException("Unable to calculate statistics.", e);
+        } finally {
+            metrics.stop();
+        }
+
+        variantDBAdaptor.getStudyConfigurationManager().updateStudyConfiguration(studyConfiguration, options);
+
+        return output;
+    }
+
+    class IncrementalVariantStatsWrapperTask implements ParallelTaskRunner.Task<Variant, VariantStatsWrapper> {
+
+        private final VariantDBAdaptor variantDBAdaptor;
+        private final StudyConfiguration studyConfiguration;
+        private final IncrementalVariantStatsCalculator incrementalCalculator;
+        private final VariantBitSetStatsCalculator calculator;
+        private int recalculatedVariants = 0;
+
+        IncrementalVariantStatsWrapperTask(VariantDBAdaptor variantDBAdaptor, Map<String, Set<String>> cohorts,
+                                           Map<String, Set<String>> newSamples, StudyConfiguration studyConfiguration) {
+            this.variantDBAdaptor = variantDBAdaptor;
+            this.studyConfiguration = studyConfiguration;
+            incrementalCalculator = new IncrementalVariantStatsCalculator(newSamples);
+            calculator = new VariantBitSetStatsCalculator(cohorts);
+        }
+
+        @Override
+        public List<VariantStatsWrapper> apply(List<Variant> variants) {
+            List<VariantStatsWrapper> variantStatsWrappers = new ArrayList<>(variants.size());
+            List<String> missingStats = new ArrayList<>();
+
+            for (Variant variant : variants) {
+                StudyEntry study = variant.getStudy(studyConfiguration.getStudyName());
+                if (study == null) {
+                    continue;
+                }
+                Map<String, VariantStats> stats = incrementalCalculator.calculate(variant, study, getAttributes(study));
+                if (stats == null) {
+                    missingStats.add(variant.toString());
+                } else {
+                    variantStatsWrappers.add(new VariantStatsWrapper(variant.getChromosome(), variant.getStart(), stats));
+                }
+            }
+
+            // Variants without stored stats need all the samples
+            if (!missingStats.isEmpty()) {
+                Query query = new Query(VariantDBAdaptor.VariantQueryParams.ID.key(), missingStats)
+                        .append(VariantDBAdaptor.VariantQueryParams.STUDIES.key(), studyConfiguration.getStudyId())
+                        .append(VariantDBAdaptor.VariantQueryParams.RETURNED_STUDIES.key(), studyConfiguration.getStudyId());
+                for (Variant variant : variantDBAdaptor.get(query, new QueryOptions()).getResult()) {
+                    StudyEntry study = variant.getStudy(studyConfiguration.getStudyName());
+                    if (study != null) {
+                        Map<String, VariantStats> stats = calculator.calculate(variant, study, getAttributes(study));
+                        variantStatsWrappers.add(new VariantStatsWrapper(variant.getChromosome(), variant.getStart(), stats));
+                        recalculatedVariants++;
+                    }
+                }
+            }
+
+            if (variants.size() != 0) {
+                logger.info("stats updated up to position {}:{}", variants.get(variants.size() - 1).getChromosome(),
+                        variants.get(variants.size() - 1).getStart());
+            } else {
+                logger.info("task with empty batch");
+            }
+            return variantStatsWrappers;
+        }
+
+        @Override
+        public void post() {
+            if (recalculatedVariants > 0) {
+                logger.info("Variants without previous stats, calculated with all the samples: " + recalculatedVariants);
+            }
+        }
+
+        private Map<String, String> getAttributes(StudyEntry study) {
+            return study.getAttributes() == null ? Collections.emptyMap() : study.getAttributes();
+        }
+    }
+
+    /**
+     * Encodes the output of a stats task into the intermediate format.
+     */
+    static class StatsEncoderTask<T> implements ParallelTaskRunner.Task<Variant, T> {
+
+        private final ParallelTaskRunner.Task<Variant, VariantStatsWrapper> task;
+        private final Function<VariantStatsWrapper, T> encoder;
+
+        StatsEncoderTask(ParallelTaskRunner.Task<Variant, VariantStatsWrapper> task, Function<VariantStatsWrapper, T> encoder) {
+            this.task = task;
+            this.encoder = encoder;
+        }
+
+        @Override
+        public void pre() {
+            task.pre();
+        }
+
+        @Override
+        public List<T> apply(List<Variant> variants) {
+            List<VariantStatsWrapper> variantStatsWrappers = task.apply(variants);
+            List<T> encoded = new ArrayList<>(variantStatsWrappers.size());
+            for (VariantStatsWrapper variantStatsWrapper : variantStatsWrappers) {
+                encoded.add(encoder.apply(variantStatsWrapper));
+            }
+            return encoded;
+        }
+
+        @Override
+        public void post() {
+            task.post();
+        }
+    }
+
+    class VariantStatsWrapperTask implements ParallelTaskRunner.Task<Variant, VariantStatsWrapper> {
 
         private boolean overwrite;
         private Map<String, Set<String>> cohorts;
         private StudyConfiguration studyConfiguration;
         //        private String fileId;
-        private ObjectMapper jsonObjectMapper;
-        private ObjectWriter variantsWriter;
         private VariantSourceStats variantSourceStats;
         private Properties tagmap;
         private VariantStatisticsCalculator variantStatisticsCalculator;
 
         VariantStatsWrapperTask(boolean overwrite, Map<String, Set<String>> cohorts,
                                        StudyConfiguration studyConfiguration, String fileId,
-                                       VariantSourceStats variantSourceStats, Properties tagmap) {
+                                       VariantSourceStats variantSourceStats, Properties tagmap, boolean bitSetStats) {
             this.overwrite = overwrite;
             this.cohorts = cohorts;
             this.studyConfiguration = studyConfiguration;
 //            this.fileId = fileId;
-            jsonObjectMapper = new ObjectMapper(new JsonFactory());
-            jsonObjectMapper.addMixIn(VariantStats.class, VariantStatsJsonMixin.class);
-            variantsWriter = jsonObjectMapper.writerFor(VariantStatsWrapper.class);
             this.variantSourceStats = variantSourceStats;
             this.tagmap = tagmap;
-            variantStatisticsCalculator = new VariantStatisticsCalculator(overwrite);
+            variantStatisticsCalculator = new VariantStatisticsCalculator(overwrite, bitSetStats);
             variantStatisticsCalculator.setAggregationType(studyConfiguration.getAggregation(), tagmap);
         }
 
         @Override
-        public List<String> apply(List<Variant> variants) {
+        public List<VariantStatsWrapper> apply(List<Variant> variants) {
 
-            List<String> strings = new ArrayList<>(variants.size());
             boolean defaultCohortAbsent = false;
 
+            long start = System.currentTimeMillis();
             List<VariantStatsWrapper> variantStatsWrappers = variantStatisticsCalculator.calculateBatch(variants,
                     studyConfiguration.getStudyName(), null/*fileId*/, cohorts);
 
-            long start = System.currentTimeMillis();
             for (VariantStatsWrapper variantStatsWrapper : variantStatsWrappers) {
-                try {
-                    strings.add(variantsWriter.writeValueAsString(variantStatsWrapper));
-                    if (variantStatsWrapper.getCohortStats().get(StudyEntry.DEFAULT_COHORT) == null) {
-                        defaultCohortAbsent = true;
-                    }
-                } catch (JsonProcessingException e) {
-                    e.printStackTrace();
+                if (variantStatsWrapper.getCohortStats().get(StudyEntry.DEFAULT_COHORT) == null) {
+                    defaultCohortAbsent = true;
                 }
             }
 
@@ -277,14 +560,15 @@ public class VariantStatisticsManager {
                     variantSourceStats.updateSampleStats(variants, null);  // TODO test
                 }
             }
-            logger.debug("another batch of {} elements calculated. time: {}ms", strings.size(), System.currentTimeMillis() - start);
+            logger.debug("another batch of {} elements calculated. time: {}ms", variantStatsWrappers.size(),
+                    System.currentTimeMillis() - start);
             if (variants.size() != 0) {
                 logger.info("stats created up to position {}:{}", variants.get(variants.size() - 1).getChromosome(),
                         variants.get(variants.size() - 1).getStart());
             } else {
                 logger.info("task with empty batch");
             }
-            return strings;
+            return variantStatsWrappers;
         }
 
         @Override
@@ -298,17 +582,26 @@ public class VariantStatisticsManager {
     public void loadStats(VariantDBAdaptor variantDBAdaptor, URI uri, StudyConfiguration studyConfiguration, QueryOptions options) throws
             IOException, StorageManagerException {
 
-        URI variantStatsUri = Paths.get(uri.getPath() + VARIANT_STATS_SUFFIX).toUri();
+        URI variantStatsUri = Paths.get(uri.getPath() + VARIANT_STATS_AVRO_SUFFIX).toUri();
+        if (!Paths.get(variantStatsUri.getPath()).toFile().exists()) {
+            variantStatsUri = Paths.get(uri.getPath() + VARIANT_STATS_SUFFIX).toUri();
+        }
         URI sourceStatsUri = Paths.get(uri.getPath() + SOURCE_STATS_SUFFIX).toUri();
 
-        boolean updateStats = options.getBoolean(Options.UPDATE_STATS.key(), false);
+        boolean updateStats = options.getBoolean(Options.UPDATE_STATS.key(), false)
+                || options.getBoolean(Options.STATS_INCREMENTAL.key(), Options.STATS_INCREMENTAL.defaultValue());
         checkAndUpdateCalculatedCohorts(studyConfiguration, variantStatsUri, updateStats);
 
         logger.info("starting stats loading from {} and {}", variantStatsUri, sourceStatsUri);
         long start = System.currentTimeMillis();
 
         loadVariantStats(variantDBAdaptor, variantStatsUri, studyConfiguration, options);
-        loadSourceStats(variantDBAdaptor, sourceStatsUri, studyConfiguration, options);
+        if (Paths.get(sourceStatsUri.getPath()).toFile().exists()) {
+            loadSourceStats(variantDBAdaptor, sourceStatsUri, studyConfiguration, options);
+        } else {
+            // Incremental stats do not read all the samples, so the source stats can not be updated
+            logger.info("Missing source stats file {}. Skip source stats loading", sourceStatsUri);
+        }
 
         logger.info("finishing stats loading, time: {}ms", System.currentTimeMillis() - start);
 
@@ -321,6 +614,11 @@ public class VariantStatisticsManager {
 
         variantDBAdaptor.preUpdateStats(studyConfiguration);
 
+        if (uri.getPath().endsWith(VARIANT_STATS_AVRO_SUFFIX)) {
+            loadVariantStatsAvro(variantDBAdaptor, uri, studyConfiguration, options);
+            return;
+        }
+
         /* Open input streams */
         Path variantInput = Paths.get(uri.getPath());
         InputStream variantInputStream;
@@ -375,6 +673,81 @@ public class VariantStatisticsManager {
 
     }
 
+    /**
+     * Loads the stats from the avro intermediate format. Avro blocks are read and decompressed by the reader, and decoded
+     * in parallel by the tasks.
+     */
+    private void loadVariantStatsAvro(VariantDBAdaptor variantDBAdaptor, URI uri, StudyConfiguration studyConfiguration,
+                                      QueryOptions options)
+            throws IOException, StorageManagerException {
+        VariantStatsWrapperAvroConverter converter = new VariantStatsWrapperAvroConverter();
+        final int[] writes = {0};
+        AtomicInteger variantsNumber = new AtomicInteger(0);
+
+        try (DataFileStream<GenericRecord> stream = new DataFileStream<>(new FileInputStream(Paths.get(uri.getPath()).toFile()),
+                new GenericDatumReader<>())) {
+            Schema schema = stream.getSchema();
+            ProgressLogger progressLogger = new ProgressLogger("Loaded stats:");
+            ParallelTaskRunner<ByteBuffer, Integer> ptr = new ParallelTaskRunner<>(
+                    size -> {
+                        List<ByteBuffer> blocks = new ArrayList<>(size);
+                        try {
+                            while (blocks.size() < size && stream.hasNext()) {
+                                // The stream may reuse the buffer for the next block
+                                ByteBuffer block = stream.nextBlock();
+                                ByteBuffer copy = ByteBuffer.allocate(block.remaining());
+                                copy.put(block);
+                                copy.flip();
+                                blocks.add(copy);
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return blocks;
+                    },
+                    blocks -> {
+                        GenericDatumReader<GenericRecord> datumReader = new GenericDatumReader<>(schema);
+                        List<VariantStatsWrapper> statsBatch = new ArrayList<>();
+                        try {
+                            for (ByteBuffer block : blocks) {
+                                BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(block.array(), 0, block.limit(), null);
+                                while (!decoder.isEnd()) {
+                                    statsBatch.add(converter.convertToDataModelType(datumReader.read(null, decoder)));
+                                }
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        if (statsBatch.isEmpty()) {
+                            return Collections.singletonList(0);
+                        }
+                        variantsNumber.addAndGet(statsBatch.size());
+                        QueryResult writeResult = variantDBAdaptor.updateStats(statsBatch, studyConfiguration, options);
+                        VariantStatsWrapper last = statsBatch.get(statsBatch.size() - 1);
+                        progressLogger.increment(statsBatch.size(), ", up to position " + last.getChromosome() + ":" + last.getPosition());
+                        return Collections.singletonList(writeResult.getNumResults());
+                    },
+                    writesList -> {
+                        writes[0] += writesList.get(0);
+                        return true;
+                    },
+                    ParallelTaskRunner.Config.builder().setAbortOnFail(true)
+                            .setBatchSize(1)
+                            .setNumTasks(options.getInt(Options.LOAD_THREADS.key(), Options.LOAD_THREADS.defaultValue())).build()
+            );
+            try {
+                ptr.run();
+            } catch (ExecutionException e) {
+                throw new StorageManagerException("Error loading stats", e);
+            }
+        }
+
+        if (writes[0] < variantsNumber.get()) {
+            logger.warn("provided statistics of {} variants, but only {} were updated", variantsNumber.get(), writes[0]);
+            logger.info("note: maybe those variants didn't had the proper study? maybe the new and the old stats were the same?");
+        }
+    }
+
     public void loadSourceStats(VariantDBAdaptor variantDBAdaptor, URI uri, StudyConfiguration studyConfiguration, QueryOptions options)
             throws IOException {
 
@@ -419,6 +792,17 @@ public class VariantStatisticsManager {
                                                           Map<String, Integer> cohortIds,
                                                           boolean overwrite, boolean updateStats)
             throws StorageManagerException {
+        return checkAndUpdateStudyConfigurationCohorts(studyConfiguration, cohorts, cohortIds, overwrite, updateStats, false);
+    }
+
+    /*
+     * Same as above. If incremental is provided, an already calculated cohort may grow, but never lose samples.
+     */
+    List<Integer> checkAndUpdateStudyConfigurationCohorts(StudyConfiguration studyConfiguration,
+                                                          Map<String, Set<String>> cohorts,
+                                                          Map<String, Integer> cohortIds,
+                                                          boolean overwrite, boolean updateStats, boolean incremental)
+            throws StorageManagerException {
         List<Integer> cohortIdList = new ArrayList<>();
 
         for (Map.Entry<String, Set<String>> entry : cohorts.entrySet()) {
@@ -497,7 +881,9 @@ public class VariantStatisticsManager {
                 }
                 if (studyConfiguration.getCohorts().get(cohortId) != null
                         && !sampleIds.equals(studyConfiguration.getCohorts().get(cohortId))) {
-                    if (!studyConfiguration.getInvalidStats().contains(cohortId)) {
+                    if (incremental && sampleIds.containsAll(studyConfiguration.getCohorts().get(cohortId))) {
+                        logger.debug("Cohort \"" + cohortName + "\" has new samples. Update stats incrementally");
+                    } else if (!studyConfiguration.getInvalidStats().contains(cohortId)) {
                         //If provided samples are different than the stored in the StudyConfiguration, and the cohort was not invalid.
                         throw new StorageManagerException("Different samples in cohort " + cohortName + ":" + cohortId + ". "
                                 + "Samples in the StudyConfiguration: " + studyConfiguration.getCohorts().get(cohortId).size() + ". "
@@ -515,6 +901,8 @@ public class VariantStatisticsManager {
                     studyConfiguration.getInvalidStats().add(cohortId);
                 } else if (updateStats) {
                     logger.debug("Cohort \"" + cohortName + "\" stats already calculated. Calculate only for missing positions");
+                } else if (incremental) {
+                    logger.debug("Cohort \"" + cohortName + "\" stats already calculated. Add only the new samples");
                 } else {
                     throw new StorageManagerException("Cohort \"" + cohortName + "\" stats already calculated");
                 }
@@ -529,6 +917,19 @@ public class VariantStatisticsManager {
 
     void checkAndUpdateCalculatedCohorts(StudyConfiguration studyConfiguration, URI uri, boolean updateStats) throws IOException {
 
+        if (uri.getPath().endsWith(VARIANT_STATS_AVRO_SUFFIX)) {
+            try (DataFileReader<GenericRecord> reader = new DataFileReader<>(Paths.get(uri.getPath()).toFile(),
+                    new GenericDatumReader<>())) {
+                if (reader.hasNext()) {
+                    VariantStatsWrapper variantStatsWrapper = new VariantStatsWrapperAvroConverter().convertToDataModelType(reader.next());
+                    checkAndUpdateCalculatedCohorts(studyConfiguration, variantStatsWrapper.getCohortStats().keySet(), updateStats);
+                } else {
+                    throw new IOException("File " + uri + " is empty");
+                }
+            }
+            return;
+        }
+
         /** Open input streams **/
         Path variantInput = Paths.get(uri.getPath());
         InputStream variantInputStream;
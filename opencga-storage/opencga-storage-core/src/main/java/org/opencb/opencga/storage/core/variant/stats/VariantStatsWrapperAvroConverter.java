@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.stats;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.avro.VariantType;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.commons.datastore.core.ComplexTypeConverter;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Converts {@link VariantStatsWrapper} from and to avro {@link GenericRecord}, to be used as intermediate binary format
+ * between the stats creation and the stats loading.
+ */
+public class VariantStatsWrapperAvroConverter implements ComplexTypeConverter<VariantStatsWrapper, GenericRecord> {
+
+    private static final String NAMESPACE = "org.opencb.opencga.storage.core.variant.stats.avro";
+
+    public static final Schema COHORT_STATS_SCHEMA = SchemaBuilder.record("CohortStats").namespace(NAMESPACE).fields()
+            .requiredString("refAllele")
+            .requiredString("altAllele")
+            .optionalString("variantType")
+            .requiredInt("refAlleleCount")
+            .requiredInt("altAlleleCount")
+            .requiredFloat("refAlleleFreq")
+            .requiredFloat("altAlleleFreq")
+            .name("genotypesCount").type().map().values().intType().noDefault()
+            .name("genotypesFreq").type().map().values().floatType().noDefault()
+            .requiredInt("missingAlleles")
+            .requiredInt("missingGenotypes")
+            .requiredFloat("maf")
+            .optionalString("mafAllele")
+            .requiredFloat("mgf")
+            .optionalString("mgfGenotype")
+            .requiredInt("mendelianErrors")
+            .requiredFloat("casesPercentDominant")
+            .requiredFloat("controlsPercentDominant")
+            .requiredFloat("casesPercentRecessive")
+            .requiredFloat("controlsPercentRecessive")
+            .requiredFloat("quality")
+            .requiredInt("numSamples")
+            .endRecord();
+
+    public static final Schema SCHEMA = SchemaBuilder.record("VariantStatsWrapper").namespace(NAMESPACE).fields()
+            .requiredString("chromosome")
+            .requiredInt("position")
+            .name("cohortStats").type().map().values(COHORT_STATS_SCHEMA).noDefault()
+            .endRecord();
+
+    @Override
+    public VariantStatsWrapper convertToDataModelType(GenericRecord record) {
+        Map<?, ?> cohortStatsRecords = (Map<?, ?>) record.get("cohortStats");
+        Map<String, VariantStats> cohortStats = new LinkedHashMap<>(cohortStatsRecords.size());
+        for (Map.Entry<?, ?> entry : cohortStatsRecords.entrySet()) {
+            cohortStats.put(entry.getKey().toString(), convertToVariantStats((GenericRecord) entry.getValue()));
+        }
+        return new VariantStatsWrapper(record.get("chromosome").toString(), (Integer) record.get("position"), cohortStats);
+    }
+
+    @Override
+    public GenericRecord convertToStorageType(VariantStatsWrapper wrapper) {
+        Map<String, GenericRecord> cohortStats = new HashMap<>(wrapper.getCohortStats().size());
+        for (Map.Entry<String, VariantStats> entry : wrapper.getCohortStats().entrySet()) {
+            cohortStats.put(entry.getKey(), convertToRecord(entry.getValue()));
+        }
+        GenericRecord record = new GenericData.Record(SCHEMA);
+        record.put("chromosome", wrapper.getChromosome());
+        record.put("position", wrapper.getPosition());
+        record.put("cohortStats", cohortStats);
+        return record;
+    }
+
+    protected VariantStats convertToVariantStats(GenericRecord record) {
+        VariantStats stats = new VariantStats();
+        String ref = record.get("refAllele").toString();
+        String alt = record.get("altAllele").toString();
+        stats.setRefAllele(ref);
+        stats.setAltAllele(alt);
+        if (record.get("variantType") != null) {
+            stats.setVariantType(VariantType.valueOf(record.get("variantType").toString()));
+        }
+        stats.setRefAlleleCount((Integer) record.get("refAlleleCount"));
+        stats.setAltAlleleCount((Integer) record.get("altAlleleCount"));
+        stats.setRefAlleleFreq((Float) record.get("refAlleleFreq"));
+        stats.setAltAlleleFreq((Float) record.get("altAlleleFreq"));
+
+        Map<?, ?> genotypesCountRecord = (Map<?, ?>) record.get("genotypesCount");
+        Map<Genotype, Integer> genotypesCount = new HashMap<>(genotypesCountRecord.size());
+        for (Map.Entry<?, ?> entry : genotypesCountRecord.entrySet()) {
+            genotypesCount.put(new Genotype(entry.getKey().toString(), ref, alt), (Integer) entry.getValue());
+        }
+        stats.setGenotypesCount(genotypesCount);
+        Map<?, ?> genotypesFreqRecord = (Map<?, ?>) record.get("genotypesFreq");
+        Map<Genotype, Float> genotypesFreq = new HashMap<>(genotypesFreqRecord.size());
+        for (Map.Entry<?, ?> entry : genotypesFreqRecord.entrySet()) {
+            genotypesFreq.put(new Genotype(entry.getKey().toString(), ref, alt), (Float) entry.getValue());
+        }
+        stats.setGenotypesFreq(genotypesFreq);
+
+        stats.setMissingAlleles((Integer) record.get("missingAlleles"));
+        stats.setMissingGenotypes((Integer) record.get("missingGenotypes"));
+        stats.setMaf((Float) record.get("maf"));
+        stats.setMafAllele(record.get("mafAllele") == null ? null : record.get("mafAllele").toString());
+        stats.setMgf((Float) record.get("mgf"));
+        stats.setMgfGenotype(record.get("mgfGenotype") == null ? null : record.get("mgfGenotype").toString());
+        stats.setMendelianErrors((Integer) record.get("mendelianErrors"));
+        stats.setCasesPercentDominant((Float) record.get("casesPercentDominant"));
+        stats.setControlsPercentDominant((Float) record.get("controlsPercentDominant"));
+        stats.setCasesPercentRecessive((Float) record.get("casesPercentRecessive"));
+        stats.setControlsPercentRecessive((Float) record.get("controlsPercentRecessive"));
+        stats.setQuality((Float) record.get("quality"));
+        stats.setNumSamples((Integer) record.get("numSamples"));
+        return stats;
+    }
+
+    protected GenericRecord convertToRecord(VariantStats stats) {
+        GenericRecord record = new GenericData.Record(COHORT_STATS_SCHEMA);
+        record.put("refAllele", stats.getRefAllele());
+        record.put("altAllele", stats.getAltAllele());
+        record.put("variantType", stats.getVariantType() == null ? null : stats.getVariantType().toString());
+        record.put("refAlleleCount", stats.getRefAlleleCount());
+        record.put("altAlleleCount", stats.getAltAlleleCount());
+        record.put("refAlleleFreq", stats.getRefAlleleFreq());
+        record.put("altAlleleFreq", stats.getAltAlleleFreq());
+
+        Map<String, Integer> genotypesCount = new HashMap<>();
+        if (stats.getGenotypesCount() != null) {
+            stats.getGenotypesCount().forEach((genotype, count) -> genotypesCount.put(genotype.toString(), count));
+        }
+        record.put("genotypesCount", genotypesCount);
+        Map<String, Float> genotypesFreq = new HashMap<>();
+        if (stats.getGenotypesFreq() != null) {
+            stats.getGenotypesFreq().forEach((genotype, freq) -> genotypesFreq.put(genotype.toString(), freq));
+        }
+        record.put("genotypesFreq", genotypesFreq);
+
+        record.put("missingAlleles", stats.getMissingAlleles());
+        record.put("missingGenotypes", stats.getMissingGenotypes());
+        record.put("maf", stats.getMaf());
+        record.put("mafAllele", stats.getMafAllele());
+        record.put("mgf", stats.getMgf());
+        record.put("mgfGenotype", stats.getMgfGenotype());
+        record.put("mendelianErrors", stats.getMendelianErrors());
+        record.put("casesPercentDominant", stats.getCasesPercentDominant());
+        record.put("controlsPercentDominant", stats.getControlsPercentDominant());
+        record.put("casesPercentRecessive", stats.getCasesPercentRecessive());
+        record.put("controlsPercentRecessive", stats.getControlsPercentRecessive());
+        record.put("quality", stats.getQuality());
+        record.put("numSamples", stats.getNumSamples());
+        return record;
+    }
+}
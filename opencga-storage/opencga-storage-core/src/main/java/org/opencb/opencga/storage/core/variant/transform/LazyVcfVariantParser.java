@@ -0,0 +1,387 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.transform;
+
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import org.opencb.biodata.formats.variant.vcf4.FullVcfCodec;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.biodata.tools.variant.converter.VariantContextToVariantConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Allocation-light VCF line to {@link Variant} parser.
+ *
+ * The fixed columns (CHROM to INFO) are decoded by htsjdk over a sites-only header, so they are converted exactly as
+ * before. The FORMAT and sample columns are tokenized directly from the line, without building a htsjdk Genotype per
+ * sample, and the repeated tokens (genotypes, depths, ...) are shared through a small string pool.
+ *
+ * Records that can not be handled by the fast path (multiallelic, symbolic, missing or non canonical values, ...)
+ * are converted with htsjdk. The first records of every FORMAT, and any record with a not yet seen genotype, are
+ * converted with both parsers and compared. If any difference is found, that FORMAT will always use htsjdk.
+ *
+ * Not thread safe. Use one instance per task.
+ */
+public class LazyVcfVariantParser {
+
+    public static final int DEFAULT_VERIFY_RECORDS = 10;
+    private static final int FIXED_COLUMNS = 9;
+    private static final Set<String> INTEGER_KEYS = new HashSet<>(Arrays.asList(
+            VCFConstants.GENOTYPE_QUALITY_KEY,
+            VCFConstants.DEPTH_KEY,
+            VCFConstants.GENOTYPE_ALLELE_DEPTHS,
+            VCFConstants.GENOTYPE_PL_KEY));
+
+    private final Logger logger = LoggerFactory.getLogger(LazyVcfVariantParser.class);
+
+    private final VCFCodec vcfCodec;
+    private final VariantContextToVariantConverter converter;
+    private final VCFCodec sitesCodec;
+    private final VariantContextToVariantConverter sitesConverter;
+    private final int numSamples;
+    private final int verifyRecords;
+
+    private final Map<String, FormatShape> shapes = new HashMap<>();
+    private final Set<String> verifiedGenotypes = new HashSet<>();
+    private final StringPool pool = new StringPool(1 << 14);
+    private final int[] tabs = new int[FIXED_COLUMNS];
+    private Map<String, Integer> samplesPosition = null;
+
+    private long fastRecords = 0;
+    private long verifiedRecords = 0;
+    private long fallbackRecords = 0;
+
+    public LazyVcfVariantParser(VCFHeader header, VCFHeaderVersion version, VariantSource source) {
+        this(header, version, source, DEFAULT_VERIFY_RECORDS);
+    }
+
+    /**
+     * Creates a parser for the given VCF file.
+     *
+     * @param header        Full VCF header, including samples
+     * @param version       VCF version
+     * @param source        Source of the variants
+     * @param verifyRecords Number of records of each FORMAT to check against htsjdk before trusting the fast path
+     */
+    public LazyVcfVariantParser(VCFHeader header, VCFHeaderVersion version, VariantSource source, int verifyRecords) {
+        this.vcfCodec = new FullVcfCodec();
+        this.vcfCodec.setVCFHeader(header, version);
+        this.converter = new VariantContextToVariantConverter(source.getStudyId(), source.getFileId(), source.getSamples());
+
+        VCFHeader sitesHeader = new VCFHeader(header.getMetaDataInInputOrder(), Collections.<String>emptyList());
+        this.sitesCodec = new FullVcfCodec();
+        this.sitesCodec.setVCFHeader(sitesHeader, version);
+        this.sitesConverter = new VariantContextToVariantConverter(source.getStudyId(), source.getFileId(),
+                Collections.<String>emptyList());
+
+        this.numSamples = header.getNGenotypeSamples();
+        this.verifyRecords = verifyRecords;
+    }
+
+    /**
+     * Converts a non header VCF line into a Variant, without normalizing.
+     *
+     * @param line VCF data line
+     * @return Converted variant
+     */
+    public Variant parse(String line) {
+        Variant variant = parseFast(line);
+        if (variant == null) {
+            fallbackRecords++;
+            variant = parseHtsjdk(line);
+        }
+        return variant;
+    }
+
+    public long getFastRecords() {
+        return fastRecords;
+    }
+
+    public long getVerifiedRecords() {
+        return verifiedRecords;
+    }
+
+    public long getFallbackRecords() {
+        return fallbackRecords;
+    }
+
+    private Variant parseHtsjdk(String line) {
+        Variant variant = converter.convert(vcfCodec.decode(line));
+        if (samplesPosition == null && !variant.getStudies().isEmpty()) {
+            samplesPosition = variant.getStudies().get(0).getSamplesPosition();
+        }
+        return variant;
+    }
+
+    /**
+     * Tries to convert the line with the fast path.
+     *
+     * @param line VCF data line
+     * @return Converted variant, or null if the record has to be converted with htsjdk
+     */
+    Variant parseFast(String line) {
+        if (numSamples == 0) {
+            return null;
+        }
+        int from = 0;
+        for (int i = 0; i < FIXED_COLUMNS; i++) {
+            int tab = line.indexOf('\t', from);
+            if (tab < 0) {
+                return null;
+            }
+            tabs[i] = tab;
+            from = tab + 1;
+        }
+        // REF and ALT must be simple, single bases sequences
+        if (!isSimpleAllele(line, tabs[2] + 1, tabs[3]) || !isSimpleAllele(line, tabs[3] + 1, tabs[4])) {
+            return null;
+        }
+        String formatKey = pool.get(line, tabs[7] + 1, tabs[8]);
+        FormatShape shape = shapes.get(formatKey);
+        if (shape == null) {
+            shape = new FormatShape(formatKey);
+            shapes.put(formatKey, shape);
+        }
+        if (shape.disabled) {
+            return null;
+        }
+
+        int numFields = shape.format.size();
+        List<List<String>> samplesData = new ArrayList<>(numSamples);
+        List<String> newGenotypes = null;
+        int start = tabs[8] + 1;
+        int length = line.length();
+        for (int sample = 0; sample < numSamples; sample++) {
+            if (start > length) {
+                return null;
+            }
+            List<String> sampleData = new ArrayList<>(numFields);
+            for (int field = 0; field < numFields; field++) {
+                int end = start;
+                while (end < length) {
+                    char c = line.charAt(end);
+                    if (c == ':' || c == '\t') {
+                        break;
+                    }
+                    end++;
+                }
+                boolean lastField = field == numFields - 1;
+                boolean endOfSample = end == length || line.charAt(end) == '\t';
+                if (lastField != endOfSample) {
+                    // Missing trailing fields or extra fields
+                    return null;
+                }
+                String value;
+                if (field == 0 && shape.hasGenotype) {
+                    if (!isSimpleGenotype(line, start, end)) {
+                        return null;
+                    }
+                    value = pool.get(line, start, end);
+                    if (!verifiedGenotypes.contains(value)) {
+                        if (newGenotypes == null) {
+                            newGenotypes = new ArrayList<>();
+                        }
+                        newGenotypes.add(value);
+                    }
+                } else {
+                    if (end == start || end == start + 1 && line.charAt(start) == '.') {
+                        // Empty or missing values are not stored by htsjdk
+                        return null;
+                    }
+                    if (shape.integerFields[field] && !isCanonicalIntegerList(line, start, end)) {
+                        return null;
+                    }
+                    value = pool.get(line, start, end);
+                }
+                sampleData.add(value);
+                start = end + 1;
+            }
+            samplesData.add(sampleData);
+        }
+        if (start <= length) {
+            // More sample columns than samples in the header
+            return null;
+        }
+
+        Variant variant = sitesConverter.convert(sitesCodec.decode(line.substring(0, tabs[7])));
+        StudyEntry studyEntry = variant.getStudies().get(0);
+        studyEntry.setFormat(shape.format);
+        studyEntry.setSamplesData(samplesData);
+
+        if (samplesPosition == null || shape.verified < verifyRecords || newGenotypes != null) {
+            Variant expected = parseHtsjdk(line);
+            studyEntry.setSamplesPosition(samplesPosition);
+            verifiedRecords++;
+            if (!expected.getImpl().equals(variant.getImpl())) {
+                logger.warn("Fast VCF parser does not match htsjdk for FORMAT '{}' in variant {}. Using htsjdk for this FORMAT",
+                        formatKey, expected);
+                shape.disabled = true;
+                return expected;
+            }
+            shape.verified++;
+            if (newGenotypes != null) {
+                verifiedGenotypes.addAll(newGenotypes);
+            }
+        } else {
+            studyEntry.setSamplesPosition(samplesPosition);
+            fastRecords++;
+        }
+        return variant;
+    }
+
+    private static boolean isSimpleAllele(String line, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            switch (line.charAt(i)) {
+                case 'A':
+                case 'C':
+                case 'G':
+                case 'T':
+                case 'N':
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Haploid or diploid genotypes of a biallelic variant. i.e. "0/1", "1|0", "./.", "1".
+     */
+    private static boolean isSimpleGenotype(String line, int start, int end) {
+        int length = end - start;
+        if (length != 1 && length != 3) {
+            return false;
+        }
+        if (!isSimpleAlleleIndex(line.charAt(start))) {
+            return false;
+        }
+        if (length == 3) {
+            char separator = line.charAt(start + 1);
+            return (separator == '/' || separator == '|') && isSimpleAlleleIndex(line.charAt(start + 2));
+        }
+        return true;
+    }
+
+    private static boolean isSimpleAlleleIndex(char c) {
+        return c == '0' || c == '1' || c == '.';
+    }
+
+    /**
+     * Comma separated integers without leading zeros, so they are written back exactly as they were read.
+     */
+    private static boolean isCanonicalIntegerList(String line, int start, int end) {
+        int i = start;
+        while (i < end) {
+            if (line.charAt(i) == '-') {
+                i++;
+            }
+            int digitsStart = i;
+            while (i < end && Character.isDigit(line.charAt(i))) {
+                i++;
+            }
+            int digits = i - digitsStart;
+            if (digits == 0 || digits > 9 || digits > 1 && line.charAt(digitsStart) == '0') {
+                return false;
+            }
+            if (i < end) {
+                if (line.charAt(i) != ',' || i == end - 1) {
+                    return false;
+                }
+                i++;
+            }
+        }
+        return true;
+    }
+
+    private static class FormatShape {
+        private final List<String> format;
+        private final boolean[] integerFields;
+        private final boolean hasGenotype;
+        private int verified = 0;
+        private boolean disabled = false;
+
+        FormatShape(String formatKey) {
+            format = Collections.unmodifiableList(Arrays.asList(formatKey.split(":")));
+            integerFields = new boolean[format.size()];
+            boolean unsupported = false;
+            for (int i = 0; i < format.size(); i++) {
+                String key = format.get(i);
+                integerFields[i] = INTEGER_KEYS.contains(key);
+                if (key.isEmpty() || key.equals(VCFConstants.GENOTYPE_FILTER_KEY)
+                        || key.equals(VCFConstants.GENOTYPE_KEY) && i != 0) {
+                    unsupported = true;
+                }
+            }
+            hasGenotype = format.get(0).equals(VCFConstants.GENOTYPE_KEY);
+            disabled = unsupported;
+        }
+    }
+
+    /**
+     * Fixed size open addressing string pool. Looks up substrings of a line without creating them.
+     */
+    static class StringPool {
+        private static final int MAX_PROBES = 8;
+        private final String[] table;
+        private final int mask;
+        private final int maxSize;
+        private int size = 0;
+
+        StringPool(int capacity) {
+            int tableSize = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+            table = new String[tableSize];
+            mask = tableSize - 1;
+            maxSize = tableSize / 4 * 3;
+        }
+
+        String get(String line, int start, int end) {
+            int length = end - start;
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + line.charAt(i);
+            }
+            int idx = (hash ^ (hash >>> 16)) & mask;
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                String candidate = table[idx];
+                if (candidate == null) {
+                    String value = line.substring(start, end);
+                    if (size < maxSize) {
+                        table[idx] = value;
+                        size++;
+                    }
+                    return value;
+                }
+                if (candidate.length() == length && candidate.regionMatches(0, line, start, length)) {
+                    return candidate;
+                }
+                idx = (idx + 1) & mask;
+            }
+            return line.substring(start, end);
+        }
+    }
+}
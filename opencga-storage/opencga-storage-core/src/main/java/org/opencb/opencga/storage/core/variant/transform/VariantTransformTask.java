@@ -44,6 +44,9 @@ public abstract class VariantTransformTask<T> implements ParallelTaskRunner.Task
     protected final VCFCodec vcfCodec;
     protected final VariantContextToVariantConverter converter;
     protected final VariantNormalizer normalizer;
+    protected LazyVcfVariantParser lazyParser = null;
+    protected final VCFHeader header;
+    protected final VCFHeaderVersion version;
     protected final Path outputFileJsonFile;
     protected final VariantGlobalStatsCalculator variantStatsTask;
     protected final AtomicLong hts_convert = new AtomicLong(0);
@@ -63,6 +66,8 @@ public abstract class VariantTransformTask<T> implements ParallelTaskRunner.Task
         this.vcfCodec = null;
         this.converter = null;
         this.normalizer = null;
+        this.header = null;
+        this.version = null;
     }
 
     public VariantTransformTask(VCFHeader header, VCFHeaderVersion version,
@@ -74,6 +79,8 @@ public abstract class VariantTransformTask<T> implements ParallelTaskRunner.Task
         this.outputFileJsonFile = outputFileJsonFile;
         this.includeSrc = includeSrc;
 
+        this.header = header;
+        this.version = version;
         this.vcfCodec = new FullVcfCodec();
         this.vcfCodec.setVCFHeader(header, version);
         this.converter = new VariantContextToVariantConverter(source.getStudyId(), source.getFileId(), source.getSamples());
@@ -130,19 +137,32 @@ public abstract class VariantTransformTask<T> implements ParallelTaskRunner.Task
 
             }
         } else {
-            List<VariantContext> variantContexts = new ArrayList<>(batch.size());
-            curr = System.currentTimeMillis();
-            for (String line : batch) {
-                if (line.startsWith("#") || line.trim().isEmpty()) {
-                    continue;
+            List<Variant> variants;
+            if (lazyParser != null) {
+                variants = new ArrayList<>(batch.size());
+                curr = System.currentTimeMillis();
+                for (String line : batch) {
+                    if (line.startsWith("#") || line.trim().isEmpty()) {
+                        continue;
+                    }
+                    variants.add(lazyParser.parse(line));
                 }
-                variantContexts.add(vcfCodec.decode(line));
-            }
-            this.hts_convert.addAndGet(System.currentTimeMillis() - curr);
+                this.avro_convert.addAndGet(System.currentTimeMillis() - curr);
+            } else {
+                List<VariantContext> variantContexts = new ArrayList<>(batch.size());
+                curr = System.currentTimeMillis();
+                for (String line : batch) {
+                    if (line.startsWith("#") || line.trim().isEmpty()) {
+                        continue;
+                    }
+                    variantContexts.add(vcfCodec.decode(line));
+                }
+                this.hts_convert.addAndGet(System.currentTimeMillis() - curr);
 
-            curr = System.currentTimeMillis();
-            List<Variant> variants = converter.apply(variantContexts);
-            this.avro_convert.addAndGet(System.currentTimeMillis() - curr);
+                curr = System.currentTimeMillis();
+                variants = converter.apply(variantContexts);
+                this.avro_convert.addAndGet(System.currentTimeMillis() - curr);
+            }
 
             curr = System.currentTimeMillis();
             List<Variant> normalizedVariants = normalizer.apply(variants);
@@ -174,6 +194,10 @@ public abstract class VariantTransformTask<T> implements ParallelTaskRunner.Task
         }
         logger.info(String.format("\nTime txt2hts: %s\nTime hts2avro: %s\nTime avro2norm: %s",
                 this.hts_convert.get(), this.avro_convert.get(), this.norm_convert.get()));
+        if (lazyParser != null) {
+            logger.info("Lazy VCF parser: {} fast records, {} verified records, {} htsjdk records",
+                    lazyParser.getFastRecords(), lazyParser.getVerifiedRecords(), lazyParser.getFallbackRecords());
+        }
     }
 
     public boolean isIncludeSrc() {
@@ -185,6 +209,25 @@ public abstract class VariantTransformTask<T> implements ParallelTaskRunner.Task
         return this;
     }
 
+    public boolean isLazyParsing() {
+        return lazyParser != null;
+    }
+
+    /**
+     * Use the {@link LazyVcfVariantParser} to convert the VCF lines. Only available for the htsjdk parser.
+     *
+     * @param lazyParsing Use the lazy parser
+     * @return this
+     */
+    public VariantTransformTask<T> setLazyParsing(boolean lazyParsing) {
+        if (lazyParsing && header != null) {
+            this.lazyParser = new LazyVcfVariantParser(header, version, source);
+        } else {
+            this.lazyParser = null;
+        }
+        return this;
+    }
+
     protected abstract List<T> encodeVariants(List<Variant> variants);
 
 }
@@ -0,0 +1,68 @@
+package org.opencb.opencga.storage.core.benchmark;
+
+import org.junit.Test;
+import org.opencb.commons.datastore.core.ObjectMap;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class BenchmarkStatsTest {
+
+    @Test
+    public void testPercentiles() {
+        BenchmarkStats stats = new BenchmarkStats();
+        for (int i = 100; i > 0; i--) {
+            stats.addLatency("count", i);
+        }
+        assertEquals(1, stats.percentile("count", 0));
+        assertEquals(50, stats.percentile("count", 50));
+        assertEquals(95, stats.percentile("count", 95));
+        assertEquals(99, stats.percentile("count", 99));
+        assertEquals(100, stats.percentile("count", 100));
+        assertEquals(-1, stats.percentile("unknown", 50));
+    }
+
+    @Test
+    public void testPercentileMillis() {
+        BenchmarkStats stats = new BenchmarkStats();
+        stats.addLatency("count", 1500000);
+        stats.addLatency("count", 250000);
+        assertEquals(0.25, stats.percentileMillis("count", 0), 0.0001);
+        assertEquals(1.5, stats.percentileMillis("count", 100), 0.0001);
+        assertEquals(-1, stats.percentileMillis("unknown", 50), 0.0001);
+        ObjectMap latencies = (ObjectMap) stats.toObjectMap().get("latencies");
+        assertEquals(1.5, ((ObjectMap) latencies.get("count")).getDouble("max"), 0.0001);
+    }
+
+    @Test
+    public void testStageThroughput() {
+        BenchmarkStats stats = new BenchmarkStats();
+        stats.addStage("load", 10000, 2 * 1024 * 1024, 2000);
+        ObjectMap load = stats.getStages().get("load");
+        assertEquals(5000.0, load.getDouble(BenchmarkStats.VARIANTS_PER_SECOND), 0.001);
+        assertEquals(1.0, load.getDouble(BenchmarkStats.MB_PER_SECOND), 0.001);
+        // Stage times are not operation latencies
+        assertEquals(-1, stats.percentile("load", 50));
+    }
+
+    @Test
+    public void testCombineOptions() {
+        Map<String, List<Object>> options = new LinkedHashMap<>();
+        options.put("load.batch.size", Arrays.asList(100, 1000));
+        options.put("load.threads", Arrays.asList(2, 4, 6));
+
+        List<ObjectMap> combinations = BenchmarkManager.combineOptions(options);
+        assertEquals(6, combinations.size());
+        assertEquals(100, combinations.get(0).getInt("load.batch.size"));
+        assertEquals(2, combinations.get(0).getInt("load.threads"));
+        assertEquals(1000, combinations.get(5).getInt("load.batch.size"));
+        assertEquals(6, combinations.get(5).getInt("load.threads"));
+
+        assertEquals(1, BenchmarkManager.combineOptions(null).size());
+    }
+
+}
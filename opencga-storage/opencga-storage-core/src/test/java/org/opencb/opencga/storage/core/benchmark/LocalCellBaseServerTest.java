@@ -0,0 +1,122 @@
+package org.opencb.opencga.storage.core.benchmark;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.opencga.storage.core.variant.io.json.VariantAnnotationMixin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalCellBaseServerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private LocalCellBaseServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private Path writeFixture() throws IOException {
+        ObjectMapper fixtureMapper = new ObjectMapper();
+        fixtureMapper.addMixIn(VariantAnnotation.class, VariantAnnotationMixin.class);
+        fixtureMapper.configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true);
+        VariantAnnotation annotation = new VariantAnnotation();
+        annotation.setChromosome("1");
+        annotation.setStart(1000);
+        annotation.setReference("A");
+        annotation.setAlternate("C");
+        annotation.setId("rs1000");
+        Path fixture = temporaryFolder.getRoot().toPath().resolve("annotation.json");
+        Files.write(fixture, Collections.singletonList(fixtureMapper.writeValueAsString(annotation)), StandardCharsets.UTF_8);
+        return fixture;
+    }
+
+    @Test
+    public void testGetAnnotation() throws Exception {
+        server = new LocalCellBaseServer(writeFixture(), 0, 0);
+        assertEquals(1, server.getNumAnnotations());
+        URI uri = server.start(0, 2);
+
+        HttpURLConnection connection = (HttpURLConnection) uri.resolve("webservices/rest/v4/hsapiens/genomic/variant/"
+                + "1:1000:A:C,2:2000:T:G/annotation").toURL().openConnection();
+        assertEquals(200, connection.getResponseCode());
+        List<Map<String, Object>> response = getResponse(connection.getInputStream());
+
+        assertEquals(2, response.size());
+        assertEquals("rs1000", getAnnotation(response.get(0)).get("id"));
+        assertEquals(2000, getAnnotation(response.get(1)).get("start"));
+        assertEquals(1, server.getNumRequests());
+        assertEquals(2, server.getNumVariants());
+    }
+
+    @Test
+    public void testPostAnnotation() throws Exception {
+        server = new LocalCellBaseServer(writeFixture(), 0, 0);
+        URI uri = server.start(0, 2);
+
+        HttpURLConnection connection = (HttpURLConnection) uri.resolve("webservices/rest/v4/hsapiens/genomic/variant/annotation")
+                .toURL().openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write("variants=1%3A1000%3AA%3AC".getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(200, connection.getResponseCode());
+        List<Map<String, Object>> response = getResponse(connection.getInputStream());
+
+        assertEquals(1, response.size());
+        assertEquals("rs1000", getAnnotation(response.get(0)).get("id"));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        server = new LocalCellBaseServer(null, 0, 1);
+        URI uri = server.start(0, 1);
+
+        HttpURLConnection connection = (HttpURLConnection) uri.resolve("webservices/rest/v4/hsapiens/genomic/variant/"
+                + "1:1000:A:C/annotation").toURL().openConnection();
+        assertEquals(500, connection.getResponseCode());
+        assertEquals(1, server.getNumErrors());
+        assertEquals(0, server.getNumVariants());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> getResponse(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, read);
+        }
+        inputStream.close();
+        return (List<Map<String, Object>>) objectMapper.readValue(outputStream.toByteArray(), Map.class).get("response");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getAnnotation(Map<String, Object> queryResult) {
+        return ((List<Map<String, Object>>) queryResult.get("result")).get(0);
+    }
+}
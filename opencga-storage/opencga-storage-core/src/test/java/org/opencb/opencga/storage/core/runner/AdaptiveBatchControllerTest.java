@@ -0,0 +1,144 @@
+package org.opencb.opencga.storage.core.runner;
+
+import org.junit.Test;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.run.ParallelTaskRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveBatchControllerTest {
+
+    private static final long MAX_HEAP = 1000000;
+    private volatile double heapUsage = 0.1;
+
+    @Test
+    public void testBatchSizeByBytes() throws Exception {
+        AdaptiveBatchController controller = new AdaptiveBatchController(10, 10000, 1000, 100000, 0.8, () -> heapUsage, () -> MAX_HEAP);
+        DataReader<Integer> reader = controller.wrapReader(newReader(), i -> 10);
+
+        assertEquals(10, reader.read(1).size());
+        // Grows smoothly until the target of 1000 bytes per batch
+        assertEquals(20, reader.read(1).size());
+        assertEquals(40, reader.read(1).size());
+        assertEquals(80, reader.read(1).size());
+        assertEquals(100, reader.read(1).size());
+        assertEquals(100, reader.read(1).size());
+    }
+
+    @Test
+    public void testWideRecords() throws Exception {
+        AdaptiveBatchController controller = new AdaptiveBatchController(100, 10000, 1000, 100000, 0.8, () -> heapUsage, () -> MAX_HEAP);
+        DataReader<Integer> reader = controller.wrapReader(newReader(), i -> 500);
+
+        assertEquals(100, reader.read(1).size());
+        assertEquals(2, reader.read(1).size());
+        assertEquals(2, reader.read(1).size());
+    }
+
+    @Test
+    public void testBatchSizeByLatency() throws Exception {
+        AdaptiveBatchController controller = new AdaptiveBatchController(100, 10000, Integer.MAX_VALUE, 50, 0.8, () -> heapUsage,
+                () -> MAX_HEAP);
+        DataReader<Integer> reader = controller.wrapReader(newReader(), i -> 1);
+        ParallelTaskRunner.Task<Integer, Integer> task = controller.wrapTask(batch -> {
+            try {
+                Thread.sleep(batch.size());
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return batch;
+        });
+
+        task.apply(reader.read(1));
+        reader.read(1);
+        // About 1ms per record, so a batch of 50 records takes 50ms
+        int batchSize = controller.getBatchSize();
+        assertTrue(String.valueOf(batchSize), batchSize <= 50);
+        assertTrue(String.valueOf(batchSize), batchSize >= 20);
+    }
+
+    @Test
+    public void testHeapPressure() throws Exception {
+        AdaptiveBatchController controller = new AdaptiveBatchController(100, 10000, 1000, 100000, 0.8, () -> heapUsage, () -> MAX_HEAP);
+        DataReader<Integer> reader = controller.wrapReader(newReader(), i -> 1);
+        ParallelTaskRunner.Task<Integer, Integer> task = controller.wrapTask(batch -> batch);
+
+        task.apply(reader.read(1));
+        assertEquals(200, controller.getBatchSize());
+
+        heapUsage = 0.85;
+        task.apply(reader.read(1));
+        assertEquals(100, controller.getBatchSize());
+        task.apply(reader.read(1));
+        assertEquals(50, controller.getBatchSize());
+
+        heapUsage = 0.1;
+        task.apply(reader.read(1));
+        assertEquals(100, controller.getBatchSize());
+    }
+
+    @Test
+    public void testThrottle() throws Exception {
+        AdaptiveBatchController controller = new AdaptiveBatchController(10, 10000, 1000, 100000, 0.8, () -> heapUsage, () -> MAX_HEAP);
+        DataReader<Integer> reader = controller.wrapReader(newReader(), i -> 1);
+        ParallelTaskRunner.Task<Integer, Integer> task = controller.wrapTask(batch -> batch);
+
+        heapUsage = 0.95;
+        // No batches in flight. Do not wait.
+        List<Integer> batch = reader.read(1);
+        assertEquals(0, controller.getThrottledMillis());
+
+        // One batch in flight. Wait until processed.
+        Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException ignore) {
+            }
+            task.apply(batch);
+            heapUsage = 0.5;
+        });
+        thread.start();
+        reader.read(1);
+        thread.join();
+        assertTrue(controller.getThrottledMillis() >= 200);
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        // 700000 bytes available below the max heap usage
+        assertEquals(16, newController(1000).getCapacity(4));
+        assertEquals(5, newController(50000).getCapacity(4));
+        assertEquals(1, newController(100000).getCapacity(4));
+        assertEquals(1, newController(Long.MAX_VALUE).getCapacity(4));
+
+        heapUsage = 0.9;
+        assertEquals(1, newController(1).getCapacity(4));
+    }
+
+    private AdaptiveBatchController newController(long targetBatchBytes) {
+        return new AdaptiveBatchController(10, 10000, targetBatchBytes, 100000, 0.8, () -> heapUsage, () -> MAX_HEAP);
+    }
+
+    private DataReader<Integer> newReader() {
+        return new DataReader<Integer>() {
+            private int next = 0;
+
+            @Override
+            public List<Integer> read() {
+                return read(1);
+            }
+
+            @Override
+            public List<Integer> read(int batchSize) {
+                List<Integer> batch = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize; i++) {
+                    batch.add(next++);
+                }
+                return batch;
+            }
+        };
+    }
+}
@@ -0,0 +1,93 @@
+package org.opencb.opencga.storage.core.runner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PipelinedInputStreamTest {
+
+    @Test(timeout = 10000)
+    public void testRead() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new PipelinedInputStream(new ByteArrayInputStream(data), 1000, 4)) {
+            byte[] buffer = new byte[777];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            assertEquals(-1, in.read());
+        }
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test(timeout = 10000)
+    public void testReaderIOException() throws Exception {
+        try (InputStream in = new PipelinedInputStream(failingStream(new IOException("Expected error")), 10, 4)) {
+            readAll(in);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Expected error", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testReaderRuntimeException() throws Exception {
+        try (InputStream in = new PipelinedInputStream(failingStream(new IllegalStateException("Expected error")), 10, 4)) {
+            readAll(in);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Expected error", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testReaderError() throws Exception {
+        try (InputStream in = new PipelinedInputStream(failingStream(new OutOfMemoryError("Expected error")), 10, 4)) {
+            readAll(in);
+            fail();
+        } catch (OutOfMemoryError e) {
+            assertEquals("Expected error", e.getMessage());
+        }
+    }
+
+    /**
+     * Stream returning some bytes, and then failing with the given exception.
+     */
+    private static InputStream failingStream(Throwable throwable) {
+        return new InputStream() {
+            private int count = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (count++ < 25) {
+                    return 'A';
+                }
+                if (throwable instanceof IOException) {
+                    throw (IOException) throwable;
+                } else if (throwable instanceof RuntimeException) {
+                    throw (RuntimeException) throwable;
+                } else {
+                    throw (Error) throwable;
+                }
+            }
+        };
+    }
+
+    private static int readAll(InputStream in) throws IOException {
+        int count = 0;
+        while (in.read() >= 0) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,83 @@
+package org.opencb.opencga.storage.core.runner;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StringDataReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private List<String> lines;
+
+    @Before
+    public void setUp() throws Exception {
+        lines = new ArrayList<>();
+        for (int i = 0; i < 200000; i++) {
+            lines.add("22\t" + (16050000 + i) + "\t.\tA\tC\t" + i + "\tPASS\tAC=" + (i % 17) + "\tGT\t0/1\t1/1\t0|0");
+        }
+    }
+
+    private Path write(Path path, OutputStream outputStream) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        return path;
+    }
+
+    private List<String> readAll(StringDataReader reader) {
+        List<String> read = new ArrayList<>(lines.size());
+        reader.open();
+        reader.pre();
+        List<String> batch;
+        do {
+            batch = reader.read(1000);
+            read.addAll(batch);
+        } while (!batch.isEmpty());
+        reader.post();
+        reader.close();
+        return read;
+    }
+
+    @Test
+    public void testBgzfParallel() throws Exception {
+        Path path = temporaryFolder.getRoot().toPath().resolve("file.vcf.gz");
+        write(path, new BlockCompressedOutputStream(path.toFile()));
+
+        assertTrue(ParallelBgzfInputStream.isBgzf(path));
+        assertEquals(lines, readAll(new StringDataReader(path, 4)));
+    }
+
+    @Test
+    public void testGzipPipelined() throws Exception {
+        Path path = temporaryFolder.getRoot().toPath().resolve("file.vcf.gz");
+        write(path, new GZIPOutputStream(new FileOutputStream(path.toFile())));
+
+        assertFalse(ParallelBgzfInputStream.isBgzf(path));
+        assertEquals(lines, readAll(new StringDataReader(path, 4)));
+    }
+
+    @Test
+    public void testGzipSingleThread() throws Exception {
+        Path path = temporaryFolder.getRoot().toPath().resolve("file.vcf.gz");
+        write(path, new BlockCompressedOutputStream(path.toFile()));
+
+        assertEquals(lines, readAll(new StringDataReader(path)));
+    }
+}
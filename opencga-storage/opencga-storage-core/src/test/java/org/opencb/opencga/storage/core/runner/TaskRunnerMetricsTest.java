@@ -0,0 +1,123 @@
+package org.opencb.opencga.storage.core.runner;
+
+import org.junit.Test;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+import org.opencb.commons.run.ParallelTaskRunner;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TaskRunnerMetricsTest {
+
+    @Test
+    public void testMetrics() throws Exception {
+        int numElements = 1000;
+        DataReader<Integer> reader = newReader(numElements);
+        List<String> written = new CopyOnWriteArrayList<>();
+        DataWriter<String> writer = new DataWriter<String>() {
+            @Override
+            public boolean write(String elem) {
+                return written.add(elem);
+            }
+
+            @Override
+            public boolean write(List<String> batch) {
+                return written.addAll(batch);
+            }
+        };
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        List<Integer> registered = new CopyOnWriteArrayList<>();
+
+        TaskRunnerMetrics metrics = new TaskRunnerMetrics("test");
+        ParallelTaskRunner.Task<Integer, String> task = batch -> {
+            registered.add(getMBeans(server).size());
+            return batch.stream().map(String::valueOf).collect(Collectors.toList());
+        };
+        ParallelTaskRunner<Integer, String> ptr = new ParallelTaskRunner<>(metrics.wrapReader(reader),
+                metrics.wrapTasks(() -> task), metrics.wrapWriter(writer), new ParallelTaskRunner.Config(4, 10, 8, false));
+
+        metrics.start(0);
+        ptr.run();
+        metrics.stop();
+
+        assertEquals(numElements, written.size());
+        assertEquals(numElements, metrics.getReadRecords());
+        assertEquals(numElements, metrics.getWrittenRecords());
+        assertEquals(numElements / 10, metrics.getBatches());
+        assertEquals(0, metrics.getReadQueueSize());
+        assertEquals(0, metrics.getWriteQueueSize());
+        assertTrue(metrics.getBatchLatencyP50Millis() <= metrics.getBatchLatencyP99Millis());
+        assertTrue(metrics.getBatchLatencyP99Millis() <= metrics.getBatchLatencyMaxMillis());
+
+        // Registered in JMX only while running
+        assertTrue(registered.stream().allMatch(i -> i == 1));
+        assertEquals(0, getMBeans(server).size());
+
+        ObjectMap map = metrics.toObjectMap();
+        assertEquals(numElements, map.getInt("readRecords"));
+        assertEquals(numElements, map.getInt("writtenRecords"));
+        assertTrue(map.containsKey("readerBlockedMillis"));
+        assertTrue(map.containsKey("writerBlockedMillis"));
+    }
+
+    @Test
+    public void testWithoutWriter() throws Exception {
+        DataReader<Integer> reader = newReader(50);
+        TaskRunnerMetrics metrics = new TaskRunnerMetrics("test");
+        ParallelTaskRunner.Task<Integer, Integer> task = batch -> batch;
+        new ParallelTaskRunner<>(metrics.wrapReader(reader), metrics.wrapTask(task), metrics.<Integer>wrapWriter(null),
+                new ParallelTaskRunner.Config(2, 10, 4, false)).run();
+
+        assertEquals(50, metrics.getReadRecords());
+        assertEquals(50, metrics.getWrittenRecords());
+        assertEquals(0, metrics.getWriteQueueSize());
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        TaskRunnerMetrics.LatencyHistogram histogram = new TaskRunnerMetrics.LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.add(i * 1000000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100000000L, histogram.getMax());
+        // Buckets have an error below 19%
+        assertEquals(50e6, histogram.getPercentile(0.5), 50e6 * 0.19);
+        assertEquals(95e6, histogram.getPercentile(0.95), 95e6 * 0.19);
+        assertEquals(100e6, histogram.getPercentile(1), 1);
+    }
+
+    private DataReader<Integer> newReader(int numElements) {
+        AtomicInteger next = new AtomicInteger();
+        return new DataReader<Integer>() {
+            @Override
+            public List<Integer> read() {
+                return read(1);
+            }
+
+            @Override
+            public List<Integer> read(int batchSize) {
+                List<Integer> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && next.get() < numElements) {
+                    batch.add(next.getAndIncrement());
+                }
+                return batch;
+            }
+        };
+    }
+
+    private Set<ObjectName> getMBeans(MBeanServer server) throws Exception {
+        return server.queryNames(new ObjectName(TaskRunnerMetrics.JMX_DOMAIN + ":type=TaskRunner,*"), null);
+    }
+}
@@ -0,0 +1,90 @@
+package org.opencb.opencga.storage.core.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.commons.utils.CompressionUtils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class CompressionCodecTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static byte[] sampleData() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("1\t").append(i).append("\t.\tA\tC\t.\tPASS\t.\tGT\t0/1\t0/0\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        byte[] data = sampleData();
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            byte[] compressed = codec.compress(data);
+            assertEquals(codec, CompressionCodec.detect(compressed));
+            assertArrayEquals(codec.toString(), data, CompressionCodec.decompress(compressed));
+        }
+    }
+
+    @Test
+    public void testReadLegacyGzipBinary() throws Exception {
+        byte[] data = sampleData();
+        byte[] compressed = CompressionUtils.compress(data);
+        assertEquals(CompressionCodec.GZIP, CompressionCodec.detect(compressed));
+        assertArrayEquals(data, CompressionCodec.decompress(compressed));
+        assertArrayEquals(data, CompressionUtils.decompress(CompressionCodec.GZIP.compress(data)));
+    }
+
+    @Test
+    public void testEmptyBinary() throws Exception {
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            assertArrayEquals(codec.toString(), new byte[0], CompressionCodec.decompress(codec.compress(new byte[0])));
+        }
+    }
+
+    @Test
+    public void testFileRoundTrip() throws Exception {
+        byte[] data = sampleData();
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            Path path = temporaryFolder.getRoot().toPath().resolve("file.json" + codec.getExtension());
+            try (OutputStream os = CompressionCodec.newOutputStream(path)) {
+                os.write(data);
+            }
+            assertEquals(codec, CompressionCodec.fromFileName(path.toString()));
+            try (InputStream is = CompressionCodec.newInputStream(path)) {
+                byte[] read = new byte[data.length];
+                int offset = 0;
+                int n;
+                while (offset < read.length && (n = is.read(read, offset, read.length - offset)) > 0) {
+                    offset += n;
+                }
+                assertEquals(codec.toString(), data.length, offset);
+                assertEquals(-1, is.read());
+                assertArrayEquals(codec.toString(), data, read);
+            }
+        }
+    }
+
+    @Test
+    public void testFromName() throws Exception {
+        assertEquals(CompressionCodec.GZIP, CompressionCodec.fromName("gZiP"));
+        assertEquals(CompressionCodec.SNAPPY, CompressionCodec.fromName("snz"));
+        assertEquals(CompressionCodec.LZ4, CompressionCodec.fromName("lz4"));
+        assertEquals(CompressionCodec.ZSTD, CompressionCodec.fromName("zstd"));
+        assertEquals(CompressionCodec.NONE, CompressionCodec.fromName(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownName() throws Exception {
+        CompressionCodec.fromName("bzip3");
+    }
+}
@@ -0,0 +1,153 @@
+package org.opencb.opencga.storage.core.variant;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.opencga.storage.core.metadata.BatchFileOperation;
+import org.opencb.opencga.storage.core.metadata.CopyOnWriteStudyConfiguration;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.*;
+
+public class StudyConfigurationCacheTest {
+
+    private StudyConfigurationCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new StudyConfigurationCache();
+    }
+
+    private static StudyConfiguration studyConfiguration(long timeStamp) {
+        StudyConfiguration studyConfiguration = new StudyConfiguration(1, "study");
+        studyConfiguration.setTimeStamp(timeStamp);
+        return studyConfiguration;
+    }
+
+    @Test
+    public void testGetByIdNameAndAlias() {
+        StudyConfiguration sc = studyConfiguration(10);
+        assertSame(sc, cache.put(sc, "alias"));
+        assertSame(sc, cache.get(1).getSnapshot());
+        assertSame(sc, cache.get("study").getSnapshot());
+        assertSame(sc, cache.get("alias").getSnapshot());
+        assertNull(cache.get(2));
+        assertNull(cache.get("other"));
+    }
+
+    @Test
+    public void testKeepNewerVersion() {
+        StudyConfiguration newer = studyConfiguration(20);
+        StudyConfiguration older = studyConfiguration(10);
+        cache.put(newer, null);
+        assertSame(newer, cache.put(older, null));
+        assertEquals(20, cache.get(1).getTimeStamp());
+
+        StudyConfiguration newest = studyConfiguration(30);
+        assertSame(newest, cache.put(newest, null));
+    }
+
+    @Test
+    public void testVersion() {
+        long version = cache.getVersion();
+        cache.put(studyConfiguration(10), null);
+        assertEquals(version + 1, cache.getVersion());
+        cache.put(studyConfiguration(10), null);
+        cache.put(studyConfiguration(5), null);
+        assertEquals(version + 1, cache.getVersion());
+        cache.put(studyConfiguration(20), null);
+        assertEquals(version + 2, cache.getVersion());
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.put(studyConfiguration(10), null);
+        assertTrue(cache.get(1).isValid());
+
+        cache.invalidate(1);
+        StudyConfigurationCache.Entry entry = cache.get(1);
+        assertFalse(entry.isValid());
+
+        cache.validate(entry);
+        assertTrue(cache.get(1).isValid());
+
+        cache.invalidateAll();
+        assertFalse(cache.get(1).isValid());
+
+        cache.clear();
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void testRenameStudy() {
+        cache.put(studyConfiguration(10), "alias");
+        StudyConfiguration renamed = studyConfiguration(20);
+        renamed.setStudyName("renamed");
+        cache.put(renamed, null);
+
+        assertSame(renamed, cache.get("renamed").getSnapshot());
+        assertNull(cache.get("study"));
+        assertNull(cache.get("alias"));
+    }
+
+    @Test
+    public void testInvalidateRemovesAliases() {
+        cache.put(studyConfiguration(10), "alias");
+        cache.invalidate(1);
+        assertNull(cache.get("alias"));
+        assertNotNull(cache.get("study"));
+
+        cache.put(studyConfiguration(10), "alias");
+        cache.invalidateAll();
+        assertNull(cache.get("alias"));
+        assertNotNull(cache.get("study"));
+    }
+
+    @Test
+    public void testCopyOnWrite() {
+        StudyConfiguration snapshot = studyConfiguration(10);
+        snapshot.getFileIds().put("file1", 1);
+        snapshot.getSamplesInFiles().put(1, new LinkedHashSet<>(Arrays.asList(1, 2)));
+        snapshot.getIndexedFiles().add(1);
+
+        StudyConfiguration studyConfiguration = new CopyOnWriteStudyConfiguration(snapshot);
+        assertEquals(snapshot.getStudyName(), studyConfiguration.getStudyName());
+
+        studyConfiguration.getFileIds().put("file2", 2);
+        studyConfiguration.getSamplesInFiles().get(1).add(3);
+        studyConfiguration.setIndexedFiles(new LinkedHashSet<>());
+
+        assertEquals(1, snapshot.getFileIds().size());
+        assertEquals(2, studyConfiguration.getFileIds().size());
+        assertEquals(2, snapshot.getSamplesInFiles().get(1).size());
+        assertEquals(3, studyConfiguration.getSamplesInFiles().get(1).size());
+        assertEquals(Collections.singleton(1), snapshot.getIndexedFiles());
+        assertTrue(studyConfiguration.getIndexedFiles().isEmpty());
+        assertNotSame(snapshot.getAttributes(), studyConfiguration.getAttributes());
+    }
+
+    @Test
+    public void testCopyBatches() {
+        StudyConfiguration snapshot = studyConfiguration(10);
+        snapshot.getBatches().add(new BatchFileOperation("load", Collections.singletonList(1), 10)
+                .addStatus(BatchFileOperation.Status.RUNNING));
+
+        for (StudyConfiguration studyConfiguration : Arrays.asList(new CopyOnWriteStudyConfiguration(snapshot), snapshot.newInstance())) {
+            BatchFileOperation operation = studyConfiguration.getBatches().get(0);
+            assertNotSame(snapshot.getBatches().get(0), operation);
+            operation.addStatus(new Date(operation.getStatus().lastKey().getTime() + 1), BatchFileOperation.Status.READY);
+            operation.setPartitionStatus("1", BatchFileOperation.Status.DONE);
+            operation.getFileIds().add(2);
+
+            assertEquals(BatchFileOperation.Status.READY, operation.currentStatus());
+            assertEquals(BatchFileOperation.Status.RUNNING, snapshot.getBatches().get(0).currentStatus());
+            assertTrue(snapshot.getBatches().get(0).getPartitions().isEmpty());
+            assertEquals(Collections.singletonList(1), snapshot.getBatches().get(0).getFileIds());
+        }
+    }
+
+}
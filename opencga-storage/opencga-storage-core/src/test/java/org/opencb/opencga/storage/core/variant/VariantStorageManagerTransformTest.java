@@ -4,8 +4,12 @@ import org.junit.Test;
 import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.opencga.storage.core.StorageETLResult;
 
+import java.nio.file.Paths;
 import java.util.Collections;
 
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
 /**
  * Created on 01/04/16
  *
@@ -26,4 +30,16 @@ public abstract class VariantStorageManagerTransformTest extends VariantStorageM
 
     }
 
+    @Test
+    public void transformAvroLz4() throws Exception {
+        // Avro does not support lz4. The file has to be named after the codec used instead
+        ObjectMap params = new ObjectMap(VariantStorageManager.Options.TRANSFORM_FORMAT.key(), "avro")
+                .append(VariantStorageManager.Options.COMPRESS_METHOD.key(), "lz4");
+        StorageETLResult etlResult = runETL(getVariantStorageManager(), smallInputUri, outputUri, params, true, true, false);
+
+        String fileName = Paths.get(etlResult.getTransformResult()).getFileName().toString();
+        assertTrue("Incorrect transform file extension " + fileName, fileName.endsWith("variants.avro.snappy"));
+        assertNotNull(getVariantStorageManager().getVariantReaderUtils().readVariantSource(etlResult.getTransformResult()));
+    }
+
 }
@@ -0,0 +1,209 @@
+package org.opencb.opencga.storage.core.variant.adaptors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.variant.StudyConfigurationManager;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor.VariantQueryParams.*;
+
+public class CachedVariantDBAdaptorTest {
+
+    private VariantDBAdaptor mockAdaptor;
+    private VariantQueryResultCache cache;
+    private CachedVariantDBAdaptor dbAdaptor;
+    private AtomicLong time;
+    private StudyConfigurationManager scm;
+    private AtomicLong studyReads;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<Integer, StudyConfiguration> studies = new HashMap<>();
+        studyReads = new AtomicLong();
+        scm = new StudyConfigurationManager(new ObjectMap()) {
+            @Override
+            protected QueryResult<StudyConfiguration> internalGetStudyConfiguration(String studyName, Long timeStamp,
+                                                                                    QueryOptions options) {
+                studyReads.incrementAndGet();
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            protected QueryResult<StudyConfiguration> internalGetStudyConfiguration(int studyId, Long timeStamp, QueryOptions options) {
+                studyReads.incrementAndGet();
+                StudyConfiguration sc = studies.get(studyId);
+                if (sc == null || sc.getTimeStamp().equals(timeStamp)) {
+                    return new QueryResult<>("", 0, 0, 0, "", "", Collections.emptyList());
+                }
+                return new QueryResult<>("", 0, 1, 1, "", "", Collections.singletonList(sc.newInstance()));
+            }
+
+            @Override
+            protected QueryResult internalUpdateStudyConfiguration(StudyConfiguration studyConfiguration, QueryOptions options) {
+                studies.put(studyConfiguration.getStudyId(), studyConfiguration.newInstance());
+                return new QueryResult();
+            }
+
+            @Override
+            public Map<String, Integer> getStudies(QueryOptions options) {
+                studyReads.incrementAndGet();
+                Map<String, Integer> map = new HashMap<>();
+                studies.forEach((id, sc) -> map.put(sc.getStudyName(), id));
+                return map;
+            }
+        };
+        scm.updateStudyConfiguration(new StudyConfiguration(1, "s1"), null);
+
+        mockAdaptor = mock(VariantDBAdaptor.class);
+        when(mockAdaptor.getStudyConfigurationManager()).thenReturn(scm);
+        when(mockAdaptor.count(any())).thenAnswer(invocation -> new QueryResult<>("count", 10, 1, 1, "", "",
+                Collections.singletonList(42L)));
+        when(mockAdaptor.groupBy(any(), anyString(), any())).thenAnswer(invocation -> new QueryResult<>("groupBy", 10, 1, 1, "", "",
+                Collections.singletonList(invocation.getArguments()[1])));
+
+        time = new AtomicLong(0);
+        cache = new VariantQueryResultCache(2, 1000, time::get);
+        dbAdaptor = new CachedVariantDBAdaptor(mockAdaptor, cache);
+    }
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        assertEquals(42L, dbAdaptor.count(new Query(CHROMOSOME.key(), "1")).first().longValue());
+        assertEquals(42L, dbAdaptor.count(new Query(CHROMOSOME.key(), "1")).first().longValue());
+        verify(mockAdaptor, times(1)).count(any());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        dbAdaptor.count(new Query(CHROMOSOME.key(), "2"));
+        verify(mockAdaptor, times(2)).count(any());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testNormalizedKey() throws Exception {
+        Query query1 = new Query(CHROMOSOME.key(), Arrays.asList("1", "2")).append(TYPE.key(), "SNV");
+        Query query2 = new Query(TYPE.key(), "SNV").append(CHROMOSOME.key(), "1,2").append(GENE.key(), null);
+        assertEquals(VariantQueryResultCache.key("count", query1, null), VariantQueryResultCache.key("count", query2, null));
+        assertEquals(VariantQueryResultCache.key("groupBy", query1, new QueryOptions("timeout", 10), "gene"),
+                VariantQueryResultCache.key("groupBy", query2, new QueryOptions(), "gene"));
+        assertNotEquals(VariantQueryResultCache.key("groupBy", query1, null, "gene"),
+                VariantQueryResultCache.key("groupBy", query1, null, "ct"));
+
+        dbAdaptor.count(query1);
+        dbAdaptor.count(query2);
+        verify(mockAdaptor, times(1)).count(any());
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        dbAdaptor.groupBy(new Query(), "gene", null);
+        time.set(999);
+        dbAdaptor.groupBy(new Query(), "gene", null);
+        verify(mockAdaptor, times(1)).groupBy(any(), anyString(), any());
+        time.set(1000);
+        dbAdaptor.groupBy(new Query(), "gene", null);
+        verify(mockAdaptor, times(2)).groupBy(any(), anyString(), any());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        dbAdaptor.groupBy(new Query(), "gene", null);
+        dbAdaptor.groupBy(new Query(), "ct", null);
+        dbAdaptor.groupBy(new Query(), "gene", null);
+        dbAdaptor.groupBy(new Query(), "biotype", null);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        // "ct" was the least recently used
+        dbAdaptor.groupBy(new Query(), "gene", null);
+        verify(mockAdaptor, times(1)).groupBy(any(), eq("gene"), any());
+        dbAdaptor.groupBy(new Query(), "ct", null);
+        verify(mockAdaptor, times(2)).groupBy(any(), eq("ct"), any());
+    }
+
+    @Test
+    public void testInvalidateOnStudyConfigurationChange() throws Exception {
+        dbAdaptor.count(new Query());
+        dbAdaptor.count(new Query());
+        verify(mockAdaptor, times(1)).count(any());
+
+        StudyConfiguration sc = scm.getStudyConfiguration(1, null).first();
+        sc.getFileIds().put("file1.vcf", 1);
+        Thread.sleep(2);
+        scm.updateStudyConfiguration(sc, null);
+
+        dbAdaptor.count(new Query());
+        verify(mockAdaptor, times(2)).count(any());
+    }
+
+    @Test
+    public void testStudyConfigurationsNotReadOnEachCall() throws Exception {
+        dbAdaptor.count(new Query());
+        long reads = studyReads.get();
+        dbAdaptor.count(new Query());
+        dbAdaptor.groupBy(new Query(), "gene", null);
+        assertEquals(reads, studyReads.get());
+    }
+
+    @Test
+    public void testIgnoreOutdatedStudyConfiguration() throws Exception {
+        long timeStamp = scm.getStudyConfiguration(1, null).first().getTimeStamp();
+        dbAdaptor.groupBy(new Query(), "gene", null);
+        cache.checkDataVersion(Collections.singletonMap(1, timeStamp - 1));
+        dbAdaptor.groupBy(new Query(), "gene", null);
+        verify(mockAdaptor, times(1)).groupBy(any(), anyString(), any());
+
+        cache.checkDataVersion(Collections.singletonMap(1, timeStamp + 1));
+        dbAdaptor.groupBy(new Query(), "gene", null);
+        verify(mockAdaptor, times(2)).groupBy(any(), anyString(), any());
+    }
+
+    @Test
+    public void testRegisterMBean() throws Exception {
+        dbAdaptor.count(new Query());
+        dbAdaptor.count(new Query());
+        cache.registerMBean("testRegisterMBean");
+        Set<ObjectName> names = ManagementFactory.getPlatformMBeanServer()
+                .queryNames(new ObjectName("org.opencb.opencga.storage:type=QueryResultCache,*"), null);
+        assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "HitCount"));
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "MissCount"));
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    @Test
+    public void testInvalidateOnWrite() throws Exception {
+        dbAdaptor.count(new Query());
+        dbAdaptor.addAnnotations(Collections.emptyList(), new QueryOptions());
+        assertEquals(0, cache.size());
+        dbAdaptor.count(new Query());
+        verify(mockAdaptor, times(2)).count(any());
+        verify(mockAdaptor).addAnnotations(any(), any());
+    }
+
+    @Test
+    public void testResultsAreCopied() throws Exception {
+        QueryResult<Long> result = dbAdaptor.count(new Query());
+        result.setResult(Collections.singletonList(0L));
+        assertEquals(42L, dbAdaptor.count(new Query()).first().longValue());
+    }
+
+    @Test
+    public void testBuildDisabled() throws Exception {
+        assertNull(VariantQueryResultCache.build(new ObjectMap()));
+        assertNotNull(VariantQueryResultCache.build(new ObjectMap("query.cache.size", 10)));
+    }
+}
@@ -148,6 +148,31 @@ public abstract class VariantDBAdaptorTest extends VariantStorageManagerTestUtil
         assertEquals(NUM_VARIANTS, numResults);
     }
 
+    @Test
+    public void testGetProfile() {
+        queryResult = dbAdaptor.get(new Query(CHROMOSOME.key(), "1"),
+                new QueryOptions(QueryOptions.LIMIT, 10).append(VariantQueryProfile.PROFILE, true));
+        assertEquals(10, queryResult.getNumResults());
+        assertThat(queryResult, instanceOf(ProfiledQueryResult.class));
+        ObjectMap profile = ((ProfiledQueryResult) queryResult).getProfile();
+        assertEquals("get", profile.getString("method"));
+        assertEquals("1", ((Map) profile.get("query")).get(CHROMOSOME.key()));
+        assertEquals(10, profile.getInt("returned"));
+        assertNotNull(profile.getString("nativeQuery"));
+        Map phasesMs = (Map) profile.get("phasesMs");
+        assertTrue(phasesMs.containsKey(VariantQueryProfile.PARSE));
+        assertTrue(phasesMs.containsKey(VariantQueryProfile.DATABASE));
+        long phasesTotal = 0;
+        for (Object phaseMs : phasesMs.values()) {
+            assertTrue(((Number) phaseMs).longValue() >= 0);
+            phasesTotal += ((Number) phaseMs).longValue();
+        }
+        assertTrue(profile.getLong("totalMs") >= phasesTotal);
+
+        queryResult = dbAdaptor.get(new Query(CHROMOSOME.key(), "1"), new QueryOptions(QueryOptions.LIMIT, 10));
+        assertThat(queryResult, not(instanceOf(ProfiledQueryResult.class)));
+    }
+
     @Test
     public void testGetAllVariants_populationFrequencyRef() {
         final PopulationFrequency defaultPopulation = new PopulationFrequency(null, null, null, null, 0F, 0F, 0F, 0F, 0F);
@@ -0,0 +1,211 @@
+package org.opencb.opencga.storage.core.variant.adaptors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor.VariantQueryParams.*;
+
+public class VariantQueryPartitionerTest {
+
+    private List<Variant> variants;
+    private VariantQueryPartitioner partitioner;
+    private Function<VariantQueryPartition, VariantDBIterator> factory;
+
+    @Before
+    public void setUp() throws Exception {
+        variants = new ArrayList<>();
+        for (String chr : Arrays.asList("1", "2", "10", "X")) {
+            for (int start = 1000; start <= 1000000; start += 997) {
+                // Some deletions crossing the partition boundaries
+                if (start % 3 == 0) {
+                    variants.add(new Variant(chr, start, "ACGTACGTACGTACGTACGT", "A"));
+                } else {
+                    variants.add(new Variant(chr, start, "A", "T"));
+                }
+            }
+        }
+        partitioner = new VariantQueryPartitioner() {
+            @Override
+            protected List<String> getChromosomes() {
+                return Arrays.asList("X", "10", "2", "1");
+            }
+
+            @Override
+            protected Integer getLastStart(String chromosome) {
+                return 1000000;
+            }
+
+            @Override
+            protected List<Integer> getSplitPoints(String chromosome) {
+                return Collections.singletonList(500000);
+            }
+        };
+        // Emulates the overlap semantics of the region filter
+        factory = partition -> {
+            List<Region> regions = partition.getQuery().getAsStringList(REGION.key())
+                    .stream().map(Region::parseRegion).collect(Collectors.toList());
+            Iterator<Variant> iterator = variants.stream().filter(v -> regions.isEmpty() || regions.stream()
+                    .anyMatch(r -> r.getChromosome().equals(v.getChromosome()) && v.getStart() <= r.getEnd() && v.getEnd() >= r.getStart()))
+                    .iterator();
+            return new VariantDBIterator() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Variant next() {
+                    return iterator.next();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        };
+    }
+
+    @Test
+    public void testPartitionAllChromosomes() throws Exception {
+        List<VariantQueryPartition> partitions = partitioner.partition(new Query(), new QueryOptions(), 16);
+        assertTrue(partitions.size() >= 16);
+        assertEquals("1", partitions.get(0).getRegion().getChromosome());
+        assertEquals("X", partitions.get(partitions.size() - 1).getRegion().getChromosome());
+        assertEquals(variants, readAll(partitions));
+    }
+
+    @Test
+    public void testPartitionRegions() throws Exception {
+        Query query = new Query(REGION.key(), "2:400000-600000,2:550000-700000,1:10000-20000");
+        List<VariantQueryPartition> partitions = partitioner.partition(query, new QueryOptions(), 4);
+        for (VariantQueryPartition partition : partitions) {
+            assertFalse(partition.getQuery().containsKey(CHROMOSOME.key()));
+        }
+        // The split point at 500000 is always used
+        assertTrue(partitions.stream().anyMatch(p -> p.getRegion().getStart() == 500000));
+
+        List<Variant> expected = variants.stream().filter(v -> v.getChromosome().equals("1") && v.getStart() <= 20000 && v.getEnd() >= 10000
+                || v.getChromosome().equals("2") && v.getStart() <= 700000 && v.getEnd() >= 400000).collect(Collectors.toList());
+        assertEquals(expected, readAll(partitions));
+    }
+
+    @Test
+    public void testNotPartitionable() throws Exception {
+        assertEquals(1, partitioner.partition(new Query(ID.key(), "rs123"), new QueryOptions(), 8).size());
+        assertEquals(1, partitioner.partition(new Query(GENE.key(), "BRCA2"), new QueryOptions(), 8).size());
+        assertEquals(1, partitioner.partition(new Query(), new QueryOptions(QueryOptions.LIMIT, 10), 8).size());
+        assertEquals(1, partitioner.partition(new Query(), new QueryOptions(), 1).size());
+        assertEquals(1, new VariantQueryPartitioner().partition(new Query(), new QueryOptions(), 8).size());
+    }
+
+    @Test
+    public void testCompareChromosomes() throws Exception {
+        List<String> chromosomes = Arrays.asList("X", "10", "MT", "2", "1", "Y");
+        chromosomes.sort(VariantQueryPartitioner::compareChromosomes);
+        assertEquals(Arrays.asList("1", "2", "10", "MT", "X", "Y"), chromosomes);
+    }
+
+    @Test
+    public void testPartitionChromosomeOrder() throws Exception {
+        // Lexicographic order, as the Phoenix sorted queries
+        VariantQueryPartitioner lexicographic = new VariantQueryPartitioner() {
+            @Override
+            protected List<String> getChromosomes() {
+                return Arrays.asList("X", "10", "2", "1");
+            }
+
+            @Override
+            protected Integer getLastStart(String chromosome) {
+                return 1000000;
+            }
+
+            @Override
+            protected Comparator<String> getChromosomeComparator() {
+                return Comparator.naturalOrder();
+            }
+        };
+        List<VariantQueryPartition> partitions = lexicographic.partition(new Query(), new QueryOptions(), 16);
+        assertEquals(Arrays.asList("1", "10", "2", "X"), partitions.stream().map(p -> p.getRegion().getChromosome())
+                .distinct().collect(Collectors.toList()));
+
+        List<Variant> expected = new ArrayList<>(variants);
+        expected.sort(Comparator.comparing(Variant::getChromosome).thenComparing(Variant::getStart));
+        assertEquals(expected, readAll(partitions));
+    }
+
+    @Test
+    public void testParallelIteratorOrdered() throws Exception {
+        List<VariantQueryPartition> partitions = partitioner.partition(new Query(), new QueryOptions(), 32);
+        List<Variant> result = new ArrayList<>();
+        try (VariantDBIterator iterator = new ParallelVariantDBIterator(partitions, factory, 4, true)) {
+            iterator.forEachRemaining(result::add);
+        }
+        assertEquals(variants, result);
+    }
+
+    @Test
+    public void testParallelIteratorUnordered() throws Exception {
+        List<VariantQueryPartition> partitions = partitioner.partition(new Query(), new QueryOptions(), 32);
+        Set<String> result = new HashSet<>();
+        int count = 0;
+        try (VariantDBIterator iterator = new ParallelVariantDBIterator(partitions, factory, 4, false)) {
+            while (iterator.hasNext()) {
+                result.add(iterator.next().toString());
+                count++;
+            }
+        }
+        assertEquals(variants.size(), count);
+        assertEquals(variants.stream().map(Variant::toString).collect(Collectors.toSet()), result);
+    }
+
+    @Test
+    public void testParallelIteratorCloseEarly() throws Exception {
+        List<VariantQueryPartition> partitions = partitioner.partition(new Query(), new QueryOptions(), 32);
+        try (VariantDBIterator iterator = new ParallelVariantDBIterator(partitions, factory, 4, true)) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(variants.get(i), iterator.next());
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParallelIteratorError() throws Exception {
+        List<VariantQueryPartition> partitions = partitioner.partition(new Query(), new QueryOptions(), 8);
+        try (VariantDBIterator iterator = new ParallelVariantDBIterator(partitions, partition -> {
+            if (partition.getRegion().getChromosome().equals("10")) {
+                throw new IllegalStateException("Expected error");
+            }
+            return factory.apply(partition);
+        }, 4, true)) {
+            iterator.forEachRemaining(variant -> { });
+        }
+    }
+
+    @Test
+    public void testParallelForEach() throws Exception {
+        List<VariantQueryPartition> partitions = partitioner.partition(new Query(), new QueryOptions(), 32);
+        Collection<Variant> result = new ConcurrentLinkedQueue<>();
+        ParallelVariantDBIterator.forEach(partitions, factory, result::add, 4);
+        assertEquals(variants.size(), result.size());
+    }
+
+    private List<Variant> readAll(List<VariantQueryPartition> partitions) throws Exception {
+        List<Variant> result = new ArrayList<>();
+        for (VariantQueryPartition partition : partitions) {
+            try (VariantDBIterator iterator = partition.filter(factory.apply(partition))) {
+                iterator.forEachRemaining(result::add);
+            }
+        }
+        return result;
+    }
+}
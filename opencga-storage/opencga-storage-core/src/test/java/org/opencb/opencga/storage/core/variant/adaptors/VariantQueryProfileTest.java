@@ -0,0 +1,65 @@
+package org.opencb.opencga.storage.core.variant.adaptors;
+
+import org.junit.Test;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class VariantQueryProfileTest {
+
+    @Test
+    public void testPhases() throws Exception {
+        VariantQueryProfile profile = new VariantQueryProfile("get", new Query("chromosome", "1"));
+        assertEquals("a", profile.time(VariantQueryProfile.PARSE, () -> "a"));
+        profile.time(VariantQueryProfile.DATABASE, () -> {
+            Thread.sleep(10);
+            return null;
+        });
+        profile.addTime(VariantQueryProfile.DATABASE, TimeUnit.MILLISECONDS.toNanos(5));
+        profile.setNativeQuery("{chromosome: '1'}").setReturned(3).stop(-1);
+
+        assertTrue(profile.getTime(VariantQueryProfile.DATABASE, TimeUnit.MILLISECONDS) >= 15);
+        assertTrue(profile.getTotal(TimeUnit.MILLISECONDS) >= 10);
+        assertEquals(0, profile.getTime(VariantQueryProfile.CONVERT, TimeUnit.NANOSECONDS));
+
+        ObjectMap map = profile.toObjectMap();
+        assertEquals("{chromosome: '1'}", map.getString("nativeQuery"));
+        assertEquals(3, map.getInt("returned"));
+        assertEquals(-1, map.getInt("scanned"));
+        assertEquals(2, ((Map) map.get("phasesMs")).size());
+    }
+
+    @Test
+    public void testPhaseException() throws Exception {
+        VariantQueryProfile profile = new VariantQueryProfile("count", new Query());
+        try {
+            profile.time(VariantQueryProfile.DATABASE, () -> {
+                throw new IllegalStateException();
+            });
+            fail();
+        } catch (IllegalStateException ignore) {
+            // Expected
+        }
+        assertTrue(profile.getPhases().containsKey(VariantQueryProfile.DATABASE));
+    }
+
+    @Test
+    public void testAttach() throws Exception {
+        VariantQueryProfile profile = new VariantQueryProfile("get", new Query()).stop(0);
+        QueryResult<String> result = new QueryResult<>("id", 1, 1, 1, "", "", Collections.singletonList("a"));
+
+        assertSame(result, profile.attach(result, new QueryOptions()));
+        assertSame(result, profile.attach(result, null));
+        QueryResult<String> profiled = profile.attach(result, new QueryOptions(VariantQueryProfile.PROFILE, true));
+        assertTrue(profiled instanceof ProfiledQueryResult);
+        assertEquals(result.getResult(), profiled.getResult());
+        assertEquals("get", ((ProfiledQueryResult) profiled).getProfile().getString("method"));
+    }
+}
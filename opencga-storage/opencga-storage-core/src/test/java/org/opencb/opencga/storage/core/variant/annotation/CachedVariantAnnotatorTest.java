@@ -0,0 +1,143 @@
+package org.opencb.opencga.storage.core.variant.annotation;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CachedVariantAnnotatorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path cacheDir;
+    private List<Variant> annotated;
+    private VariantAnnotator delegate;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = temporaryFolder.newFolder("cache").toPath();
+        annotated = new ArrayList<>();
+        delegate = new VariantAnnotator(null, null) {
+            @Override
+            public List<VariantAnnotation> annotate(List<Variant> variants) throws IOException {
+                annotated.addAll(variants);
+                return variants.stream().map(CachedVariantAnnotatorTest::annotation).collect(Collectors.toList());
+            }
+        };
+    }
+
+    private static VariantAnnotation annotation(Variant variant) {
+        VariantAnnotation annotation = new VariantAnnotation();
+        annotation.setChromosome(variant.getChromosome());
+        annotation.setStart(variant.getStart());
+        annotation.setReference(variant.getReference());
+        annotation.setAlternate(variant.getAlternate());
+        annotation.setId("rs" + variant.getStart());
+        return annotation;
+    }
+
+    @Test
+    public void testAnnotateOnlyMissing() throws Exception {
+        CachedVariantAnnotator annotator = new CachedVariantAnnotator(delegate, new VariantAnnotationCache(cacheDir, "v1", 100));
+
+        assertEquals(2, annotator.annotate(Arrays.asList(new Variant("1:100:A:C"), new Variant("1:200:A:T"))).size());
+        assertEquals(2, annotated.size());
+
+        annotated.clear();
+        List<VariantAnnotation> annotations = annotator.annotate(Arrays.asList(new Variant("1:100:A:C"), new Variant("1:300:G:T")));
+        assertEquals(2, annotations.size());
+        assertEquals(Arrays.asList(new Variant("1:300:G:T")), annotated);
+        assertEquals("rs100", annotations.get(0).getId());
+        assertEquals(1, annotator.getCache().getHits());
+    }
+
+    @Test
+    public void testKeepOrder() throws Exception {
+        CachedVariantAnnotator annotator = new CachedVariantAnnotator(delegate, new VariantAnnotationCache(cacheDir, "v1", 100));
+        annotator.annotate(Arrays.asList(new Variant("1:200:A:T"), new Variant("1:400:A:T")));
+
+        List<Variant> variants = Arrays.asList(new Variant("1:100:A:C"), new Variant("1:200:A:T"), new Variant("1:300:G:T"),
+                new Variant("1:400:A:T"));
+        List<VariantAnnotation> annotations = annotator.annotate(variants);
+        assertEquals(variants.size(), annotations.size());
+        for (int i = 0; i < variants.size(); i++) {
+            assertEquals(variants.get(i).getStart(), annotations.get(i).getStart());
+        }
+        assertEquals(2, annotator.getCache().getHits());
+    }
+
+    @Test
+    public void testIndels() throws Exception {
+        Variant insertion = new Variant("1", 100, 100, "", "AC");
+        Variant deletion = new Variant("1", 200, 201, "AC", "");
+        VariantAnnotator normalizingDelegate = new VariantAnnotator(null, null) {
+            @Override
+            public List<VariantAnnotation> annotate(List<Variant> variants) throws IOException {
+                annotated.addAll(variants);
+                return variants.stream().map(variant -> {
+                    VariantAnnotation annotation = annotation(variant);
+                    // Empty alleles returned as "-"
+                    annotation.setReference(variant.getReference().isEmpty() ? "-" : variant.getReference());
+                    annotation.setAlternate(variant.getAlternate().isEmpty() ? "-" : variant.getAlternate());
+                    return annotation;
+                }).collect(Collectors.toList());
+            }
+        };
+        CachedVariantAnnotator annotator = new CachedVariantAnnotator(normalizingDelegate,
+                new VariantAnnotationCache(cacheDir, "v1", 100));
+
+        annotator.annotate(Arrays.asList(insertion, deletion));
+        annotated.clear();
+        assertEquals(2, annotator.annotate(Arrays.asList(insertion, deletion)).size());
+        assertEquals(0, annotated.size());
+        assertEquals(2, annotator.getCache().getHits());
+    }
+
+    @Test
+    public void testPersistentAndVersioned() throws Exception {
+        VariantAnnotationCache cache = new VariantAnnotationCache(cacheDir, "v1", 100);
+        cache.put(new Variant("1:100:A:C"), annotation(new Variant("1:100:A:C")));
+
+        cache.put(new Variant("1:200:A:C"), annotation(new Variant("1:200:A:C")));
+        cache.flush();
+        // Not in the index
+        cache.put(new Variant("1:300:A:C"), annotation(new Variant("1:300:A:C")));
+
+        VariantAnnotationCache reopened = new VariantAnnotationCache(cacheDir, "v1", 100);
+        assertEquals(2, reopened.size());
+        assertNotNull(reopened.get(new Variant("1:100:A:C")));
+        assertNotNull(reopened.get(new Variant("1:300:A:C")));
+        assertEquals(3, reopened.size());
+
+        assertNull(new VariantAnnotationCache(cacheDir, "v2", 100).get(new Variant("1:100:A:C")));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        VariantAnnotationCache cache = new VariantAnnotationCache(cacheDir, "v1", 2);
+        cache.put(new Variant("1:100:A:C"), annotation(new Variant("1:100:A:C")));
+        cache.put(new Variant("1:200:A:C"), annotation(new Variant("1:200:A:C")));
+        assertNotNull(cache.get(new Variant("1:100:A:C")));
+        cache.put(new Variant("1:300:A:C"), annotation(new Variant("1:300:A:C")));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(new Variant("1:200:A:C")));
+        assertNotNull(cache.get(new Variant("1:100:A:C")));
+        assertNotNull(cache.get(new Variant("1:300:A:C")));
+    }
+}
@@ -0,0 +1,198 @@
+package org.opencb.opencga.storage.core.variant.annotation;
+
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PipelinedVariantAnnotatorTest {
+
+    private static List<Variant> variants(int num) {
+        List<Variant> variants = new ArrayList<>(num);
+        for (int i = 1; i <= num; i++) {
+            variants.add(new Variant("1:" + i + ":A:C"));
+        }
+        return variants;
+    }
+
+    private static class StubAnnotator extends VariantAnnotator {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private final int failEvery;
+        private final int failStart;
+
+        StubAnnotator(int failEvery) throws VariantAnnotatorException {
+            this(failEvery, -1);
+        }
+
+        StubAnnotator(int failEvery, int failStart) throws VariantAnnotatorException {
+            super(null, null);
+            this.failEvery = failEvery;
+            this.failStart = failStart;
+        }
+
+        @Override
+        public List<VariantAnnotation> annotate(List<Variant> variants) throws IOException {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                if (failEvery > 0 && calls.incrementAndGet() % failEvery == 0) {
+                    throw new IOException("Simulated error");
+                }
+                if (variants.stream().anyMatch(variant -> variant.getStart() == failStart)) {
+                    throw new IOException("Simulated error at " + failStart);
+                }
+                Thread.sleep(5);
+                return variants.stream().map(variant -> {
+                    VariantAnnotation annotation = new VariantAnnotation();
+                    annotation.setChromosome(variant.getChromosome());
+                    annotation.setStart(variant.getStart());
+                    annotation.setReference(variant.getReference());
+                    annotation.setAlternate(variant.getAlternate());
+                    return annotation;
+                }).collect(Collectors.toList());
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void testAnnotateInOrder() throws Exception {
+        StubAnnotator stub = new StubAnnotator(0);
+        PipelinedVariantAnnotator annotator = new PipelinedVariantAnnotator(stub,
+                new AdaptiveBatchSize(10, 5, 50, 10000), 4, 0, 0, 3, new Semaphore(3));
+
+        List<Variant> variants = variants(200);
+        List<VariantAnnotation> annotations = annotator.annotate(variants);
+        annotator.close();
+
+        assertEquals(variants.size(), annotations.size());
+        for (int i = 0; i < variants.size(); i++) {
+            assertEquals(variants.get(i).getStart(), annotations.get(i).getStart());
+        }
+        assertTrue(stub.maxInFlight.get() <= 3);
+        assertTrue(annotator.getBatchSize().get() > 10);
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        StubAnnotator stub = new StubAnnotator(3);
+        PipelinedVariantAnnotator annotator = new PipelinedVariantAnnotator(stub,
+                new AdaptiveBatchSize(10, 5, 50, 10000), 1, 2, 1, 2, new Semaphore(2));
+
+        List<VariantAnnotation> annotations = annotator.annotate(variants(100));
+        annotator.close();
+        assertEquals(100, annotations.size());
+        assertTrue(stub.calls.get() > 3);
+    }
+
+    @Test
+    public void testSkipAfterRetries() throws Exception {
+        StubAnnotator stub = new StubAnnotator(1);
+        PipelinedVariantAnnotator annotator = new PipelinedVariantAnnotator(stub,
+                new AdaptiveBatchSize(10, 5, 50, 10000), 2, 2, 1, 2, new Semaphore(2));
+        try {
+            assertEquals(0, annotator.annotate(variants(20)).size());
+        } finally {
+            annotator.close();
+        }
+        assertEquals(5, annotator.getBatchSize().get());
+    }
+
+    @Test
+    public void testSkipProblematicVariant() throws Exception {
+        StubAnnotator stub = new StubAnnotator(0, 42);
+        PipelinedVariantAnnotator annotator = new PipelinedVariantAnnotator(stub,
+                new AdaptiveBatchSize(10, 5, 50, 10000), 2, 1, 1, 2, new Semaphore(2));
+        List<VariantAnnotation> annotations = annotator.annotate(variants(100));
+        annotator.close();
+
+        assertEquals(99, annotations.size());
+        int expectedStart = 1;
+        for (VariantAnnotation annotation : annotations) {
+            if (expectedStart == 42) {
+                expectedStart++;
+            }
+            assertEquals(expectedStart++, annotation.getStart().intValue());
+        }
+    }
+
+    @Test
+    public void testReuseAfterClose() throws Exception {
+        StubAnnotator stub = new StubAnnotator(0);
+        PipelinedVariantAnnotator annotator = new PipelinedVariantAnnotator(stub,
+                new AdaptiveBatchSize(10, 5, 50, 10000), 2, 0, 0, 2, new Semaphore(2));
+        assertEquals(50, annotator.annotate(variants(50)).size());
+        annotator.close();
+        assertEquals(50, annotator.annotate(variants(50)).size());
+        annotator.close();
+    }
+
+    @Test
+    public void testGlobalConcurrencyLimit() {
+        Semaphore semaphore = PipelinedVariantAnnotator.getGlobalConcurrencyLimit(4);
+        int permits = semaphore.availablePermits();
+        assertSame(semaphore, PipelinedVariantAnnotator.getGlobalConcurrencyLimit(permits + 4));
+        assertEquals(permits, semaphore.availablePermits());
+        assertSame(semaphore, PipelinedVariantAnnotator.getGlobalConcurrencyLimit(1));
+        assertEquals(permits, semaphore.availablePermits());
+    }
+
+    @Test
+    public void testConcurrencyLimitAcrossThreads() throws Exception {
+        StubAnnotator stub = new StubAnnotator(0);
+        PipelinedVariantAnnotator annotator = new PipelinedVariantAnnotator(stub,
+                new AdaptiveBatchSize(10, 5, 50, 10000), 4, 0, 0, 2, new Semaphore(2));
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger annotated = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    annotated.addAndGet(annotator.annotate(variants(100)).size());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        annotator.close();
+
+        assertEquals(300, annotated.get());
+        assertTrue(stub.maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void testAdaptiveBatchSize() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(100, 10, 200, 1000);
+        batchSize.onSuccess(100, 10);
+        assertEquals(110, batchSize.get());
+        batchSize.onSuccess(50, 10);
+        assertEquals(110, batchSize.get());
+        batchSize.onSuccess(110, 2000);
+        assertEquals(82, batchSize.get());
+        batchSize.onError();
+        assertEquals(41, batchSize.get());
+        for (int i = 0; i < 10; i++) {
+            batchSize.onError();
+        }
+        assertEquals(10, batchSize.get());
+    }
+}
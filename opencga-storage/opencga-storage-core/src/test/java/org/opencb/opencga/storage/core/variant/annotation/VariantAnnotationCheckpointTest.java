@@ -0,0 +1,36 @@
+package org.opencb.opencga.storage.core.variant.annotation;
+
+import org.junit.Test;
+import org.opencb.commons.datastore.core.ObjectMap;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class VariantAnnotationCheckpointTest {
+
+    @Test
+    public void testReadWrite() throws Exception {
+        assertNull(VariantAnnotationCheckpoint.fromObject(null));
+
+        VariantAnnotationCheckpoint checkpoint = new VariantAnnotationCheckpoint("cellbase_v4_hsapiens_GRCh37", true);
+        checkpoint.setRegions(Arrays.asList("1:0-1000000", "1:1000001-2147483647", "2:0-2147483647"));
+        checkpoint.addCompleted("1:0-1000000");
+        checkpoint.addCompleted("1:1000001-2147483647");
+
+        // Stored as a plain map in the StudyConfiguration attributes
+        ObjectMap attributes = new ObjectMap(VariantAnnotationManager.ANNOTATION_CHECKPOINT, checkpoint.toMap());
+        VariantAnnotationCheckpoint read = VariantAnnotationCheckpoint.fromObject(
+                attributes.get(VariantAnnotationManager.ANNOTATION_CHECKPOINT));
+        assertEquals("cellbase_v4_hsapiens_GRCh37", read.getAnnotatorVersion());
+        assertTrue(read.isOverwrite());
+        assertFalse(read.isFinished());
+        assertEquals(checkpoint.getRegions(), read.getRegions());
+        assertTrue(read.isCompleted("1:0-1000000"));
+        assertTrue(read.isCompleted("1:1000001-2147483647"));
+        assertFalse(read.isCompleted("2:0-2147483647"));
+
+        read.setFinished(true);
+        assertTrue(VariantAnnotationCheckpoint.fromObject(read.toMap()).isFinished());
+    }
+}
@@ -17,6 +17,7 @@
 package org.opencb.opencga.storage.core.variant.io;
 
 
+import htsjdk.samtools.util.BlockCompressedOutputStream;
 import org.junit.*;
 import org.opencb.biodata.formats.variant.io.VariantReader;
 import org.opencb.biodata.formats.variant.vcf4.io.VariantVcfReader;
@@ -35,18 +36,18 @@ import org.opencb.opencga.storage.core.StorageETLResult;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.variant.VariantStorageManager;
 import org.opencb.opencga.storage.core.variant.VariantStorageManagerTestUtils;
-import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.opencb.opencga.storage.core.variant.adaptors.*;
 
 import java.io.*;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.*;
 
 /**
  * Created by jmmut on 2015-07-15.
@@ -71,6 +72,7 @@ public abstract class VariantExporterTest extends VariantStorageManagerTestUtils
     protected QueryOptions options;
     protected QueryResult<Variant> queryResult;
     protected static StudyConfiguration studyConfiguration;
+    protected static StudyConfiguration multiChromosomeStudyConfiguration;
 
     @BeforeClass
     public static void beforeClass() throws IOException {
@@ -158,6 +160,65 @@ public abstract class VariantExporterTest extends VariantStorageManagerTestUtils
         variantVcfReader.close();
     }
 
+    @Test
+    public void testVcfHtsParallelExport() throws Exception {
+        Query query = new Query(VariantDBAdaptor.VariantQueryParams.STUDIES.key(), STUDY_NAME)
+                .append(VariantDBAdaptor.VariantQueryParams.REGION.key(), "22");
+        QueryOptions queryOptions = new QueryOptions();
+        int numThreads = 4;
+
+        Path parallelVcf = getTmpRootDir().resolve("hts_parallel_" + EXPORTED_FILE_NAME);
+        int failedVariants = new ParallelVariantVcfExporter(dbAdaptor, studyConfiguration, queryOptions, numThreads)
+                .export(query, parallelVcf);
+        assertEquals(0, failedVariants);
+        assertTrue(parallelVcf.resolveSibling(parallelVcf.getFileName() + ParallelVariantVcfExporter.TABIX_EXTENSION).toFile().exists());
+
+        // Sequential export of the whole query, using the htsjdk BGZF writer
+        Path sequentialVcf = getTmpRootDir().resolve("hts_sequential_" + EXPORTED_FILE_NAME);
+        try (VariantDBIterator iterator = dbAdaptor.iterator(query, new QueryOptions(queryOptions).append(QueryOptions.SORT, true))) {
+            failedVariants = VariantVcfExporter.htsExport(iterator, studyConfiguration,
+                    new BlockCompressedOutputStream(sequentialVcf.toFile()), queryOptions);
+        }
+        assertEquals(0, failedVariants);
+
+        assertArrayEquals(Files.readAllBytes(sequentialVcf), Files.readAllBytes(parallelVcf));
+    }
+
+    @Test
+    public void testVcfHtsParallelExportMultiChromosome() throws Exception {
+        // The partitions must be sorted as the sorted iterator of the storage, that may not follow the natural chromosome order
+        if (multiChromosomeStudyConfiguration == null) {
+            multiChromosomeStudyConfiguration = new StudyConfiguration(STUDY_ID + 1, "multi_chromosome");
+            runDefaultETL(smallInputUri, getVariantStorageManager(), multiChromosomeStudyConfiguration,
+                    new ObjectMap(VariantStorageManager.Options.ANNOTATE.key(), false)
+                            .append(VariantStorageManager.Options.FILE_ID.key(), VCF_TEST_FILE_NAMES.length)
+                            .append(VariantStorageManager.Options.CALCULATE_STATS.key(), false));
+        }
+        Query query = new Query(VariantDBAdaptor.VariantQueryParams.STUDIES.key(), multiChromosomeStudyConfiguration.getStudyName());
+        QueryOptions queryOptions = new QueryOptions();
+
+        Path parallelVcf = getTmpRootDir().resolve("hts_parallel_multi_chr_" + EXPORTED_FILE_NAME);
+        int failedVariants = new ParallelVariantVcfExporter(dbAdaptor, multiChromosomeStudyConfiguration, queryOptions, 4)
+                .export(query, parallelVcf);
+        assertEquals(0, failedVariants);
+
+        Path sequentialVcf = getTmpRootDir().resolve("hts_sequential_multi_chr_" + EXPORTED_FILE_NAME);
+        try (VariantDBIterator iterator = dbAdaptor.iterator(query, new QueryOptions(queryOptions).append(QueryOptions.SORT, true))) {
+            failedVariants = VariantVcfExporter.htsExport(iterator, multiChromosomeStudyConfiguration,
+                    new BlockCompressedOutputStream(sequentialVcf.toFile()), queryOptions);
+        }
+        assertEquals(0, failedVariants);
+
+        Set<String> chromosomes = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(
+                sequentialVcf.toFile()))))) {
+            reader.lines().filter(line -> !line.startsWith("#")).forEach(line -> chromosomes.add(line.substring(0, line.indexOf('\t'))));
+        }
+        assertTrue(chromosomes.size() > 1);
+
+        assertArrayEquals(Files.readAllBytes(sequentialVcf), Files.readAllBytes(parallelVcf));
+    }
+
     @Ignore
     @Test
     public void testVcfExport() throws Exception {
@@ -0,0 +1,110 @@
+package org.opencb.opencga.storage.core.variant.stats;
+
+import org.junit.Test;
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.commons.datastore.core.ObjectMap;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class IncrementalVariantStatsCalculatorTest {
+
+    private static final String STUDY = "1";
+    private static final String[] GENOTYPES = {"0/0", "0/0", "0/0", "0/1", "1/0", "1/1", "0|1", "./.", "0/.", "0", "1"};
+    private static final int OLD_SAMPLES = 100;
+    private static final int NUM_SAMPLES = 150;
+
+    @SuppressWarnings("unchecked")
+    private static Variant createVariant(Random random, int position) {
+        Variant variant = new Variant("1", position, position, "A", "C");
+        StudyEntry studyEntry = new StudyEntry("1", STUDY);
+        for (int s = 0; s < NUM_SAMPLES; s++) {
+            String gt = GENOTYPES[random.nextInt(GENOTYPES.length)];
+            studyEntry.addSampleData("S" + s, ((Map) new ObjectMap("GT", gt)));
+        }
+        variant.addStudyEntry(studyEntry);
+        return variant;
+    }
+
+    private static Map<String, Set<String>> createCohorts(int fromSample, int toSample) {
+        Map<String, Set<String>> cohorts = new LinkedHashMap<>();
+        cohorts.put(StudyEntry.DEFAULT_COHORT, new HashSet<>());
+        cohorts.put("ODD", new HashSet<>());
+        for (int s = fromSample; s < toSample; s++) {
+            cohorts.get(StudyEntry.DEFAULT_COHORT).add("S" + s);
+            if (s % 2 == 1) {
+                cohorts.get("ODD").add("S" + s);
+            }
+        }
+        return cohorts;
+    }
+
+    /**
+     * Keep only the values stored in the database, as the genotypes are read back without alleles.
+     */
+    private static VariantStats toStoredStats(VariantStats stats) {
+        VariantStats stored = new VariantStats();
+        for (Map.Entry<Genotype, Integer> entry : stats.getGenotypesCount().entrySet()) {
+            stored.addGenotype(new Genotype(entry.getKey().toString()), entry.getValue(), false);
+        }
+        stored.setMissingAlleles(stats.getMissingAlleles());
+        stored.setMissingGenotypes(stats.getMissingGenotypes());
+        return stored;
+    }
+
+    private static Map<String, Integer> toStringMap(Map<Genotype, ? extends Number> map) {
+        Map<String, Integer> stringMap = new HashMap<>();
+        map.forEach((genotype, value) -> stringMap.put(genotype.toString(), value.intValue()));
+        return stringMap;
+    }
+
+    @Test
+    public void testSameStatsAsFullCalculation() throws Exception {
+        Map<String, Set<String>> allCohorts = createCohorts(0, NUM_SAMPLES);
+        VariantBitSetStatsCalculator fullCalculator = new VariantBitSetStatsCalculator(allCohorts);
+        VariantBitSetStatsCalculator oldCalculator = new VariantBitSetStatsCalculator(createCohorts(0, OLD_SAMPLES));
+        IncrementalVariantStatsCalculator incrementalCalculator
+                = new IncrementalVariantStatsCalculator(createCohorts(OLD_SAMPLES, NUM_SAMPLES));
+
+        Random random = new Random(1);
+        for (int v = 0; v < 100; v++) {
+            Variant variant = createVariant(random, 1000 + v);
+            StudyEntry study = variant.getStudy(STUDY);
+            Map<String, VariantStats> expected = fullCalculator.calculate(variant, study, Collections.emptyMap());
+
+            for (Map.Entry<String, VariantStats> entry : oldCalculator.calculate(variant, study, Collections.emptyMap()).entrySet()) {
+                study.setStats(entry.getKey(), toStoredStats(entry.getValue()));
+            }
+            Map<String, VariantStats> actual = incrementalCalculator.calculate(variant, study, Collections.emptyMap());
+
+            assertEquals(expected.keySet(), actual.keySet());
+            for (String cohort : allCohorts.keySet()) {
+                VariantStats expectedStats = expected.get(cohort);
+                VariantStats actualStats = actual.get(cohort);
+                assertEquals(toStringMap(expectedStats.getGenotypesCount()), toStringMap(actualStats.getGenotypesCount()));
+                assertEquals(expectedStats.getRefAlleleCount(), actualStats.getRefAlleleCount());
+                assertEquals(expectedStats.getAltAlleleCount(), actualStats.getAltAlleleCount());
+                assertEquals(expectedStats.getMissingAlleles(), actualStats.getMissingAlleles());
+                assertEquals(expectedStats.getMissingGenotypes(), actualStats.getMissingGenotypes());
+                assertEquals(expectedStats.getMaf(), actualStats.getMaf(), 0.0001);
+                assertEquals(expectedStats.getMafAllele(), actualStats.getMafAllele());
+                assertEquals(expectedStats.getMgf(), actualStats.getMgf(), 0.0001);
+                assertEquals(expectedStats.getMgfGenotype(), actualStats.getMgfGenotype());
+            }
+        }
+    }
+
+    @Test
+    public void testMissingStoredStats() throws Exception {
+        IncrementalVariantStatsCalculator incrementalCalculator
+                = new IncrementalVariantStatsCalculator(createCohorts(OLD_SAMPLES, NUM_SAMPLES));
+        Variant variant = createVariant(new Random(1), 1000);
+
+        assertNull(incrementalCalculator.calculate(variant, variant.getStudy(STUDY), Collections.emptyMap()));
+    }
+}
@@ -0,0 +1,75 @@
+package org.opencb.opencga.storage.core.variant.stats;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.opencga.storage.core.variant.io.json.VariantStatsJsonMixin;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class VariantBitSetStatsCalculatorTest {
+
+    private static final String STUDY = "1";
+    private static final String[] GENOTYPES = {"0/0", "0/0", "0/0", "0/1", "1/0", "1/1", "0|1", "1|0", "./.", "0/.", "0", "1", "."};
+
+    @SuppressWarnings("unchecked")
+    private static List<Variant> createVariants(int numVariants, int numSamples) {
+        Random random = new Random(1);
+        List<Variant> variants = new ArrayList<>(numVariants);
+        for (int v = 0; v < numVariants; v++) {
+            Variant variant = new Variant("1", 1000 + v, 1000 + v, "A", "C");
+            StudyEntry studyEntry = new StudyEntry("1", STUDY);
+            for (int s = 0; s < numSamples; s++) {
+                String gt = GENOTYPES[random.nextInt(GENOTYPES.length)];
+                studyEntry.addSampleData("S" + s, ((Map) new ObjectMap("GT", gt).append("DP", "10")));
+            }
+            studyEntry.setAttributes(new HashMap<>(Collections.singletonMap("QUAL", "50")));
+            variant.addStudyEntry(studyEntry);
+            variants.add(variant);
+        }
+        return variants;
+    }
+
+    private static Map<String, Set<String>> createCohorts(int numSamples) {
+        Map<String, Set<String>> cohorts = new LinkedHashMap<>();
+        Set<String> all = new HashSet<>();
+        for (int s = 0; s < numSamples; s++) {
+            all.add("S" + s);
+            cohorts.computeIfAbsent("C" + (s % 3), key -> new HashSet<>()).add("S" + s);
+        }
+        cohorts.put(StudyEntry.DEFAULT_COHORT, all);
+        cohorts.put("EMPTY", Collections.emptySet());
+        return cohorts;
+    }
+
+    @Test
+    public void testSameStatsAsVariantStatsCalculator() throws Exception {
+        int numSamples = 150;
+        Map<String, Set<String>> cohorts = createCohorts(numSamples);
+
+        List<VariantStatsWrapper> expected = new VariantStatisticsCalculator(true, false)
+                .calculateBatch(createVariants(100, numSamples), STUDY, null, cohorts);
+        List<VariantStatsWrapper> actual = new VariantStatisticsCalculator(true, true)
+                .calculateBatch(createVariants(100, numSamples), STUDY, null, cohorts);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.addMixIn(VariantStats.class, VariantStatsJsonMixin.class);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getCohortStats().keySet(), actual.get(i).getCohortStats().keySet());
+            for (String cohort : cohorts.keySet()) {
+                VariantStats expectedStats = expected.get(i).getCohortStats().get(cohort);
+                VariantStats actualStats = actual.get(i).getCohortStats().get(cohort);
+                assertEquals(expectedStats.getGenotypesCount(), actualStats.getGenotypesCount());
+                assertEquals(expectedStats.getGenotypesFreq(), actualStats.getGenotypesFreq());
+                assertEquals(cohort, objectMapper.readTree(objectMapper.writeValueAsString(expectedStats)),
+                        objectMapper.readTree(objectMapper.writeValueAsString(actualStats)));
+            }
+        }
+    }
+}
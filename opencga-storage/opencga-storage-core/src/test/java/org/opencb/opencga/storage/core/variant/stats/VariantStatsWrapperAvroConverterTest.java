@@ -0,0 +1,72 @@
+package org.opencb.opencga.storage.core.variant.stats;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.opencga.storage.core.variant.io.json.VariantStatsJsonMixin;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VariantStatsWrapperAvroConverterTest {
+
+    private static final String[] GENOTYPES = {"0/0", "0/1", "1/1", "./.", "0|1"};
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        Random random = new Random(1);
+        Map<String, Set<String>> cohorts = new LinkedHashMap<>();
+        cohorts.put(StudyEntry.DEFAULT_COHORT, new HashSet<>());
+        cohorts.put("EVEN", new HashSet<>());
+        List<Variant> variants = new ArrayList<>();
+        for (int v = 0; v < 20; v++) {
+            Variant variant = new Variant("1", 1000 + v, 1000 + v, "A", "T");
+            StudyEntry studyEntry = new StudyEntry("1", "1");
+            for (int s = 0; s < 30; s++) {
+                studyEntry.addSampleData("S" + s, ((Map) new ObjectMap("GT", GENOTYPES[random.nextInt(GENOTYPES.length)])));
+                cohorts.get(StudyEntry.DEFAULT_COHORT).add("S" + s);
+                if (s % 2 == 0) {
+                    cohorts.get("EVEN").add("S" + s);
+                }
+            }
+            variant.addStudyEntry(studyEntry);
+            variants.add(variant);
+        }
+        List<VariantStatsWrapper> wrappers = new VariantStatisticsCalculator(true).calculateBatch(variants, "1", null, cohorts);
+
+        VariantStatsWrapperAvroConverter converter = new VariantStatsWrapperAvroConverter();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(outputStream, null);
+        GenericDatumWriter<GenericRecord> datumWriter = new GenericDatumWriter<>(VariantStatsWrapperAvroConverter.SCHEMA);
+        for (VariantStatsWrapper wrapper : wrappers) {
+            datumWriter.write(converter.convertToStorageType(wrapper), encoder);
+        }
+        encoder.flush();
+
+        GenericDatumReader<GenericRecord> datumReader = new GenericDatumReader<>(VariantStatsWrapperAvroConverter.SCHEMA);
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(outputStream.toByteArray(), null);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.addMixIn(VariantStats.class, VariantStatsJsonMixin.class);
+        for (VariantStatsWrapper expected : wrappers) {
+            VariantStatsWrapper actual = converter.convertToDataModelType(datumReader.read(null, decoder));
+            assertEquals(objectMapper.readTree(objectMapper.writeValueAsString(expected)),
+                    objectMapper.readTree(objectMapper.writeValueAsString(actual)));
+        }
+        assertTrue(decoder.isEnd());
+    }
+}
@@ -0,0 +1,99 @@
+package org.opencb.opencga.storage.core.variant.transform;
+
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.formats.variant.vcf4.FullVcfCodec;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.biodata.tools.variant.converter.VariantContextToVariantConverter;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LazyVcfVariantParserTest {
+
+    private static final List<String> SAMPLES = Arrays.asList("S1", "S2", "S3");
+
+    private VCFHeader header;
+    private VariantSource source;
+    private FullVcfCodec codec;
+    private VariantContextToVariantConverter converter;
+
+    @Before
+    public void setUp() throws Exception {
+        codec = new FullVcfCodec();
+        byte[] buf = ("##fileformat=VCFv4.1\n"
+                + "##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n"
+                + "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n"
+                + "##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n"
+                + "##FORMAT=<ID=AD,Number=R,Type=Integer,Description=\"Allele depths\">\n"
+                + "##FORMAT=<ID=XX,Number=1,Type=String,Description=\"Custom\">\n"
+                + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\tS3\n").getBytes();
+        LineIterator lineIterator = codec.makeSourceFromStream(new ByteArrayInputStream(buf));
+        header = (VCFHeader) codec.readActualHeader(lineIterator);
+        source = new VariantSource("file.vcf", "f1", "s1", "study");
+        Map<String, Integer> samplesPosition = new LinkedHashMap<>();
+        for (String sample : SAMPLES) {
+            samplesPosition.put(sample, samplesPosition.size());
+        }
+        source.setSamplesPosition(samplesPosition);
+        converter = new VariantContextToVariantConverter(source.getStudyId(), source.getFileId(), SAMPLES);
+    }
+
+    @Test
+    public void testSameAsHtsjdk() throws Exception {
+        List<String> lines = Arrays.asList(
+                "1\t100\trs1\tA\tC\t30\tPASS\tDP=10\tGT\t0/1\t0/0\t1/1",
+                "1\t200\t.\tAT\tA\t.\tPASS\t.\tGT\t0/0\t0/1\t./.",
+                "1\t300\t.\tG\tT\t.\tPASS\t.\tGT:DP:AD\t0|1:12:5,7\t0/0:3:3,0\t1/1:20:0,20",
+                "1\t400\t.\tG\tT,C\t.\tPASS\t.\tGT\t0/1\t0/2\t1/2",
+                "1\t500\t.\tG\t<DEL>\t.\tPASS\t.\tGT\t0/1\t0/0\t0/0",
+                "1\t600\t.\tG\tT\t.\tPASS\t.\tGT:DP:AD\t0/1:.:5,7\t0/0:3\t1/1:020:0,20",
+                "1\t700\t.\tG\tT\t.\tPASS\t.\tGT:XX\t0/1:a\t0/0:b\t1:c",
+                "1\t800\t.\tC\tG\t.\tPASS\t.\tGT\t0/1\t0/0\t1/1",
+                "1\t900\t.\tC\tG\t.\tPASS\t.\tGT\t0/0\t0/1\t0/1");
+
+        LazyVcfVariantParser parser = new LazyVcfVariantParser(header, VCFHeaderVersion.VCF4_1, source, 0);
+        for (String line : lines) {
+            Variant expected = converter.convert(codec.decode(line));
+            Variant variant = parser.parse(line);
+            assertEquals(line, expected.getImpl(), variant.getImpl());
+            assertEquals(expected.getStudies().get(0).getSamplesPosition(), variant.getStudies().get(0).getSamplesPosition());
+        }
+        assertEquals(lines.size(), parser.getFastRecords() + parser.getVerifiedRecords() + parser.getFallbackRecords());
+        // Multiallelic, symbolic and non canonical values go through htsjdk
+        assertEquals(3, parser.getFallbackRecords());
+        // Already verified genotypes are not checked again
+        assertTrue(parser.getFastRecords() > 0);
+    }
+
+    @Test
+    public void testRejectFast() throws Exception {
+        LazyVcfVariantParser parser = new LazyVcfVariantParser(header, VCFHeaderVersion.VCF4_1, source);
+        assertNull(parser.parseFast("1\t100\t.\tA\tC\t.\tPASS\t.\tGT\t0/1\t0/0"));
+        assertNull(parser.parseFast("1\t100\t.\tA\tC\t.\tPASS\t.\tGT\t0/1\t0/0\t0/0\t0/0"));
+        assertNull(parser.parseFast("1\t100\t.\tA\tC\t.\tPASS\t.\tDP:GT\t1:0/1\t1:0/0\t1:0/0"));
+        assertNull(parser.parseFast("1\t100\t.\tA\tC\t.\tPASS\t.\tGT\t0/1/1\t0/0\t0/0"));
+        assertNull(parser.parseFast("1\t100\t.\tA\t.\t.\tPASS\t.\tGT\t0/0\t0/0\t0/0"));
+    }
+
+    @Test
+    public void testStringPool() throws Exception {
+        LazyVcfVariantParser.StringPool pool = new LazyVcfVariantParser.StringPool(16);
+        String a = pool.get("x\t0/1\t", 2, 5);
+        String b = pool.get("0/1:3", 0, 3);
+        assertEquals("0/1", a);
+        assertSame(a, b);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(String.valueOf(i), pool.get("a" + i + "b", 1, String.valueOf(i).length() + 1));
+        }
+    }
+}
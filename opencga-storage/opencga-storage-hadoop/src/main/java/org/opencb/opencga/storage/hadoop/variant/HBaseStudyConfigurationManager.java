@@ -60,14 +60,22 @@ public class HBaseStudyConfigurationManager extends StudyConfigurationManager {
     @Override
     protected QueryResult<StudyConfiguration> internalGetStudyConfiguration(int studyId, Long timeStamp, QueryOptions options) {
         logger.info("Get StudyConfiguration " + studyId + " from DB " + tableName);
-        return internalGetStudyConfiguration(getStudies(options).inverse().get(studyId), timeStamp, options);
+        // Avoid reading the studies summary if the study name is already known
+        String studyName = getCachedStudyName(studyId);
+        if (studyName == null) {
+            studyName = getStudies(options).inverse().get(studyId);
+        }
+        return internalGetStudyConfiguration(studyName, timeStamp, options);
     }
 
     @Override
     public long lockStudy(int studyId, long lockDuration, long timeout) throws InterruptedException, TimeoutException {
         try {
             VariantTableDriver.createVariantTableIfNeeded(genomeHelper, tableName, getConnection());
-            return lock.lock(Bytes.toBytes(studyId + "_LOCK"), lockDuration, timeout);
+            long lockToken = lock.lock(Bytes.toBytes(studyId + "_LOCK"), lockDuration, timeout);
+            // Someone else may have modified the study before releasing the lock
+            invalidateCache(studyId);
+            return lockToken;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
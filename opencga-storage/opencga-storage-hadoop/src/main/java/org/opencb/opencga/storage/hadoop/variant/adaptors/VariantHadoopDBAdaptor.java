@@ -1,5 +1,6 @@
 package org.opencb.opencga.storage.hadoop.variant.adaptors;
 
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
@@ -8,6 +9,8 @@ import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.*;
 import org.apache.hadoop.hbase.filter.*;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.schema.types.PUnsignedInt;
+import org.apache.phoenix.schema.types.PVarchar;
 import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.protobuf.VcfMeta;
@@ -23,6 +26,8 @@ import org.opencb.opencga.storage.core.variant.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptorUtils;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryPartitioner;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryProfile;
 import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
 import org.opencb.opencga.storage.hadoop.auth.HBaseCredentials;
 import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
@@ -205,9 +210,13 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
     @Override
     public QueryResult<Variant> get(Query query, QueryOptions options) {
 
+        VariantQueryProfile profile = new VariantQueryProfile("get", query);
         List<Variant> variants = new LinkedList<>();
-        VariantDBIterator iterator = iterator(query, options);
+        VariantDBIterator iterator = iterator(query, options, profile);
         iterator.forEachRemaining(variants::add);
+        profile.addTime(VariantQueryProfile.DATABASE, iterator.getTimeFetching());
+        profile.addTime(VariantQueryProfile.CONVERT, iterator.getTimeConverting());
+        profile.setReturned(variants.size());
         long numTotalResults;
 
         if (options == null) {
@@ -225,7 +234,9 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
             }
         }
 
-        return new QueryResult<>("getVariants", ((int) iterator.getTimeFetching()), variants.size(), numTotalResults, "", "", variants);
+        profile.stop(getSlowQueryThreshold());
+        return profile.attach(new QueryResult<>("getVariants", ((int) iterator.getTimeFetching()), variants.size(), numTotalResults,
+                "", "", variants), options);
     }
 
     @Override
@@ -248,13 +259,19 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
             query = new Query();
         }
         long startTime = System.currentTimeMillis();
-        String sql = queryParser.parse(query, new QueryOptions(VariantSqlQueryParser.COUNT, true));
+        VariantQueryProfile profile = new VariantQueryProfile("count", query);
+        final Query finalQuery = query;
+        String sql = profile.time(VariantQueryProfile.PARSE,
+                () -> queryParser.parse(finalQuery, new QueryOptions(VariantSqlQueryParser.COUNT, true)));
         logger.info(sql);
         try {
             Statement statement = getJdbcConnection().createStatement();
-            ResultSet resultSet = statement.executeQuery(sql);
-            resultSet.next();
-            long count = resultSet.getLong(1);
+            long count = profile.time(VariantQueryProfile.DATABASE, () -> {
+                ResultSet resultSet = statement.executeQuery(sql);
+                resultSet.next();
+                return resultSet.getLong(1);
+            });
+            profile.setNativeQuery(sql).setReturned(1).stop(getSlowQueryThreshold());
             return new QueryResult<>("count", ((int) (System.currentTimeMillis() - startTime)),
                     1, 1, "", "", Collections.singletonList(count));
         } catch (SQLException e) {
@@ -262,6 +279,30 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
         }
     }
 
+    private long getSlowQueryThreshold() {
+        return configuration.getLong(VariantQueryProfile.SLOW_QUERY_THRESHOLD, VariantQueryProfile.SLOW_QUERY_THRESHOLD_DEFAULT);
+    }
+
+    /**
+     * Query plan generated by Phoenix.
+     *
+     * @param sql   SQL query
+     * @return  Query plan, one step per line
+     */
+    private String explain(String sql) {
+        try (Statement statement = getJdbcConnection().createStatement();
+             ResultSet resultSet = statement.executeQuery("EXPLAIN " + sql)) {
+            StringBuilder sb = new StringBuilder();
+            while (resultSet.next()) {
+                sb.append(resultSet.getString(1)).append('\n');
+            }
+            return sb.toString();
+        } catch (SQLException e) {
+            logger.warn("Unable to explain query " + sql, e);
+            return null;
+        }
+    }
+
     @Override
     public QueryResult distinct(Query query, String field) {
         // TODO Auto-generated method stub
@@ -275,6 +316,10 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
 
     @Override
     public VariantDBIterator iterator(Query query, QueryOptions options) {
+        return iterator(query, options, null);
+    }
+
+    private VariantDBIterator iterator(Query query, QueryOptions options, VariantQueryProfile profile) {
 
         if (options == null) {
             options = new QueryOptions();
@@ -344,7 +389,11 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
             }
         } else {
             logger.debug("Table name = " + variantTable);
-            String sql = queryParser.parse(query, options);
+            final Query finalQuery = query;
+            final QueryOptions finalOptions = options;
+            String sql = profile == null
+                    ? queryParser.parse(query, options)
+                    : profile.time(VariantQueryProfile.PARSE, () -> queryParser.parse(finalQuery, finalOptions));
             logger.info(sql);
 
 //            try (Statement statement = phoenixCon.createStatement()) {
@@ -357,7 +406,16 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
             logger.debug("Creating {} iterator", VariantHBaseResultSetIterator.class);
             try {
                 Statement statement = getJdbcConnection().createStatement();
-                ResultSet resultSet = statement.executeQuery(sql);
+                ResultSet resultSet;
+                if (profile == null) {
+                    resultSet = statement.executeQuery(sql);
+                } else {
+                    resultSet = profile.time(VariantQueryProfile.DATABASE, () -> statement.executeQuery(sql));
+                    profile.setNativeQuery(sql);
+                    if (VariantQueryProfile.isExplain(options)) {
+                        profile.setPlan(explain(sql));
+                    }
+                }
                 List<String> returnedSamples = getDBAdaptorUtils().getReturnedSamples(query);
                 return new VariantHBaseResultSetIterator(resultSet, genomeHelper, getStudyConfigurationManager(), options, returnedSamples);
             } catch (SQLException e) {
@@ -502,6 +560,43 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
         return this.genomeHelper.getHBaseManager().getConnection();
     }
 
+    /**
+     * Partitions the queried regions at the boundaries of the regions of the variants table, so each partition is
+     * served by a single region server. Queries without region are not split.
+     *
+     * @return VariantQueryPartitioner
+     */
+    @Override
+    public VariantQueryPartitioner getQueryPartitioner() {
+        Map<String, List<Integer>> splitPoints = new HashMap<>();
+        try (RegionLocator regionLocator = getConnection().getRegionLocator(TableName.valueOf(variantTable))) {
+            for (byte[] startKey : regionLocator.getStartKeys()) {
+                int chrPosSeparator = ArrayUtils.indexOf(startKey, (byte) 0);
+                if (chrPosSeparator <= 0 || startKey.length < chrPosSeparator + 1 + PUnsignedInt.INSTANCE.getByteSize()) {
+                    continue;
+                }
+                String chromosome = (String) PVarchar.INSTANCE.toObject(startKey, 0, chrPosSeparator, PVarchar.INSTANCE);
+                Integer position = (Integer) PUnsignedInt.INSTANCE.toObject(startKey, chrPosSeparator + 1,
+                        PUnsignedInt.INSTANCE.getByteSize(), PUnsignedInt.INSTANCE);
+                splitPoints.computeIfAbsent(chromosome, key -> new ArrayList<>()).add(position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new VariantQueryPartitioner() {
+            @Override
+            protected List<Integer> getSplitPoints(String chromosome) {
+                return splitPoints.getOrDefault(chromosome, Collections.emptyList());
+            }
+
+            @Override
+            protected Comparator<String> getChromosomeComparator() {
+                // Sorted queries use "ORDER BY CHROMOSOME", that compares the VARCHAR lexicographically
+                return Comparator.naturalOrder();
+            }
+        };
+    }
+
 
     public <T> void addNotNull(Collection<T> collection, T value) {
         if (value != null) {
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.hadoop.variant.io;
+
+import com.google.common.collect.BiMap;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.Score;
+import org.opencb.biodata.models.variant.avro.SequenceOntologyTerm;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryPartition;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryPartitioner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor.VariantQueryParams.RETURNED_SAMPLES;
+
+/**
+ * Exports variants, genotypes, stats and a selection of annotation fields to Parquet files.
+ *
+ * Each variant is written as a flat row, with one column for the genotype of each sample, and one column for each
+ * statistic of each cohort. The columns are selected from the {@link QueryOptions#INCLUDE} and
+ * {@link QueryOptions#EXCLUDE} fields used by the {@link VariantDBAdaptor}: "ids", "studies", "studies.samplesData",
+ * "stats" and "annotation".
+ *
+ * The query is split with {@link VariantDBAdaptor#partition} and each partition is written to a separate file, so the
+ * row groups never span more than one genomic region. Partitions are written in parallel.
+ */
+public class VariantParquetExporter {
+
+    public static final String COMPRESSION = "parquet.compression";
+    public static final String COMPRESSION_DEFAULT = CompressionCodecName.SNAPPY.name();
+    public static final String ROW_GROUP_SIZE = "parquet.rowGroupSize";
+    public static final int ROW_GROUP_SIZE_DEFAULT = ParquetWriter.DEFAULT_BLOCK_SIZE;
+    public static final String EXTENSION = ".parquet";
+
+    /** Schema property with the original names of the samples, in the same order as the genotype columns. */
+    public static final String SAMPLES_PROPERTY = "opencga.samples";
+    public static final String STUDY_PROPERTY = "opencga.study";
+
+    static final String GENOTYPE_PREFIX = "gt_";
+    static final String STATS_PREFIX = "stats_";
+    static final String ANNOTATION_PREFIX = "annot_";
+
+    private final Logger logger = LoggerFactory.getLogger(VariantParquetExporter.class);
+
+    private final VariantDBAdaptor dbAdaptor;
+    private final StudyConfiguration studyConfiguration;
+    private final QueryOptions options;
+    private final Configuration conf;
+
+    private final boolean includeIds;
+    private final boolean includeSamples;
+    private final boolean includeStats;
+    private final boolean includeAnnotation;
+    private final List<String> samples;
+    private final List<String> cohorts;
+    private final Schema schema;
+
+    /**
+     * @param dbAdaptor             VariantDBAdaptor to read the variants
+     * @param studyConfiguration    Study to export
+     * @param query                 Query. Only {@link VariantDBAdaptor.VariantQueryParams#RETURNED_SAMPLES} is used to build the schema
+     * @throws VariantQueryException if any of the returned samples is not in the study
+     * @param options               Query options, with the fields to include or exclude, and the parquet configuration
+     * @param conf                  Hadoop configuration
+     */
+    public VariantParquetExporter(VariantDBAdaptor dbAdaptor, StudyConfiguration studyConfiguration, Query query, QueryOptions options,
+                                  Configuration conf) {
+        this.dbAdaptor = dbAdaptor;
+        this.studyConfiguration = studyConfiguration;
+        this.options = options == null ? new QueryOptions() : options;
+        this.conf = conf;
+
+        List<String> include = this.options.getAsStringList(QueryOptions.INCLUDE);
+        List<String> exclude = this.options.getAsStringList(QueryOptions.EXCLUDE);
+        includeIds = isIncluded(include, exclude, "ids");
+        includeSamples = isIncluded(include, exclude, "studies", "sourceEntries")
+                && !exclude.contains("studies.samplesData") && !exclude.contains("sourceEntries.samplesData");
+        includeStats = isIncluded(include, exclude, "stats", "studies.stats", "sourceEntries.cohortStats");
+        includeAnnotation = isIncluded(include, exclude, "annotation");
+
+        samples = includeSamples ? getReturnedSamples(studyConfiguration, query) : Collections.emptyList();
+        cohorts = includeStats ? new ArrayList<>(studyConfiguration.getCohortIds().keySet()) : Collections.emptyList();
+        schema = buildSchema();
+    }
+
+    /**
+     * Export the query to a directory, with one file per partition.
+     *
+     * @param query         Query to export
+     * @param outdir        Output directory
+     * @param numThreads    Number of partitions to write in parallel
+     * @return              Written files, sorted by genomic position
+     * @throws IOException  if there is an error writing or reading the variants
+     */
+    public List<Path> export(Query query, Path outdir, int numThreads) throws IOException {
+        Files.createDirectories(outdir);
+        List<VariantQueryPartition> partitions = dbAdaptor.partition(query, options,
+                numThreads * VariantQueryPartitioner.PARTITIONS_PER_THREAD);
+        logger.info("Exporting {} partitions to {} with {} threads", partitions.size(), outdir, numThreads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, partitions.size())));
+        try {
+            List<Future<Path>> futures = new ArrayList<>(partitions.size());
+            for (int i = 0; i < partitions.size(); i++) {
+                VariantQueryPartition partition = partitions.get(i);
+                Path file = outdir.resolve(getFileName(i, partition));
+                futures.add(executor.submit(() -> {
+                    try (VariantDBIterator iterator = dbAdaptor.iterator(partition, options)) {
+                        return write(iterator, file) > 0 ? file : null;
+                    }
+                }));
+            }
+            List<Path> files = new ArrayList<>(partitions.size());
+            for (Future<Path> future : futures) {
+                Path file = future.get();
+                if (file != null) {
+                    files.add(file);
+                }
+            }
+            return files;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else {
+                throw new IOException(e.getCause());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Write the variants to a Parquet file. The file is not created if there are no variants.
+     *
+     * @param iterator  Variants to write
+     * @param file      Output file
+     * @return          Number of written variants
+     * @throws IOException if there is an error writing the file
+     */
+    public long write(Iterator<Variant> iterator, Path file) throws IOException {
+        if (!iterator.hasNext()) {
+            return 0;
+        }
+        long count = 0;
+        try (ParquetWriter<GenericRecord> writer = AvroParquetWriter.<GenericRecord>builder(new org.apache.hadoop.fs.Path(file.toUri()))
+                .withSchema(schema)
+                .withConf(conf)
+                .withCompressionCodec(CompressionCodecName.fromConf(options.getString(COMPRESSION, COMPRESSION_DEFAULT)))
+                .withRowGroupSize(options.getInt(ROW_GROUP_SIZE, ROW_GROUP_SIZE_DEFAULT))
+                .build()) {
+            while (iterator.hasNext()) {
+                writer.write(convert(iterator.next()));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    GenericRecord convert(Variant variant) {
+        GenericData.Record record = new GenericData.Record(schema);
+        record.put("chromosome", variant.getChromosome());
+        record.put("start", variant.getStart());
+        record.put("end", variant.getEnd());
+        record.put("reference", variant.getReference());
+        record.put("alternate", variant.getAlternate());
+        record.put("type", variant.getType().name());
+        if (includeIds) {
+            record.put("ids", variant.getIds() == null ? Collections.emptyList() : variant.getIds());
+        }
+
+        StudyEntry study = variant.getStudy(studyConfiguration.getStudyName());
+        if (study != null) {
+            Map<String, Integer> samplesPosition = study.getSamplesPosition();
+            for (int i = 0; i < samples.size(); i++) {
+                if (samplesPosition.containsKey(samples.get(i))) {
+                    record.put(GENOTYPE_PREFIX + i, study.getSampleData(samples.get(i), "GT"));
+                }
+            }
+            for (int i = 0; i < cohorts.size(); i++) {
+                VariantStats stats = study.getStats(cohorts.get(i));
+                if (stats != null) {
+                    String prefix = STATS_PREFIX + i + '_';
+                    record.put(prefix + "af", stats.getAltAlleleFreq());
+                    record.put(prefix + "maf", stats.getMaf());
+                    record.put(prefix + "mgf", stats.getMgf());
+                    record.put(prefix + "missing_alleles", stats.getMissingAlleles());
+                    record.put(prefix + "missing_genotypes", stats.getMissingGenotypes());
+                }
+            }
+        }
+
+        if (includeAnnotation && variant.getAnnotation() != null) {
+            convertAnnotation(variant.getAnnotation(), record);
+        } else if (includeAnnotation) {
+            record.put(ANNOTATION_PREFIX + "genes", Collections.emptyList());
+            record.put(ANNOTATION_PREFIX + "biotypes", Collections.emptyList());
+            record.put(ANNOTATION_PREFIX + "consequence_types", Collections.emptyList());
+        }
+        return record;
+    }
+
+    private void convertAnnotation(VariantAnnotation annotation, GenericData.Record record) {
+        Set<String> genes = new LinkedHashSet<>();
+        Set<String> biotypes = new LinkedHashSet<>();
+        Set<String> consequenceTypes = new LinkedHashSet<>();
+        Double sift = null;
+        Double polyphen = null;
+        if (annotation.getConsequenceTypes() != null) {
+            for (ConsequenceType consequenceType : annotation.getConsequenceTypes()) {
+                addNotEmpty(genes, consequenceType.getGeneName());
+                addNotEmpty(biotypes, consequenceType.getBiotype());
+                if (consequenceType.getSequenceOntologyTerms() != null) {
+                    for (SequenceOntologyTerm term : consequenceType.getSequenceOntologyTerms()) {
+                        addNotEmpty(consequenceTypes, term.getName());
+                    }
+                }
+                if (consequenceType.getProteinVariantAnnotation() != null
+                        && consequenceType.getProteinVariantAnnotation().getSubstitutionScores() != null) {
+                    for (Score score : consequenceType.getProteinVariantAnnotation().getSubstitutionScores()) {
+                        // Keep the most damaging scores: lowest sift and highest polyphen
+                        if ("sift".equalsIgnoreCase(score.getSource())) {
+                            sift = sift == null ? score.getScore() : Math.min(sift, score.getScore());
+                        } else if ("polyphen".equalsIgnoreCase(score.getSource())) {
+                            polyphen = polyphen == null ? score.getScore() : Math.max(polyphen, score.getScore());
+                        }
+                    }
+                }
+            }
+        }
+        record.put(ANNOTATION_PREFIX + "genes", new ArrayList<>(genes));
+        record.put(ANNOTATION_PREFIX + "biotypes", new ArrayList<>(biotypes));
+        record.put(ANNOTATION_PREFIX + "consequence_types", new ArrayList<>(consequenceTypes));
+        record.put(ANNOTATION_PREFIX + "sift", sift);
+        record.put(ANNOTATION_PREFIX + "polyphen", polyphen);
+        putScores(annotation.getConservation(), record, "phastCons", "phylop", "gerp");
+        putScores(annotation.getFunctionalScore(), record, "cadd_raw", "cadd_scaled");
+    }
+
+    private static void putScores(List<Score> scores, GenericData.Record record, String... sources) {
+        if (scores == null) {
+            return;
+        }
+        for (Score score : scores) {
+            for (String source : sources) {
+                if (source.equalsIgnoreCase(score.getSource())) {
+                    record.put(ANNOTATION_PREFIX + source, score.getScore());
+                }
+            }
+        }
+    }
+
+    private static void addNotEmpty(Collection<String> collection, String value) {
+        if (StringUtils.isNotEmpty(value)) {
+            collection.add(value);
+        }
+    }
+
+    private Schema buildSchema() {
+        SchemaBuilder.FieldAssembler<Schema> fields = SchemaBuilder.record("Variant")
+                .namespace(VariantParquetExporter.class.getPackage().getName())
+                .prop(STUDY_PROPERTY, studyConfiguration.getStudyName())
+                .prop(SAMPLES_PROPERTY, String.join(",", samples))
+                .fields()
+                .requiredString("chromosome")
+                .requiredInt("start")
+                .requiredInt("end")
+                .requiredString("reference")
+                .requiredString("alternate")
+                .requiredString("type");
+        if (includeIds) {
+            fields = fields.name("ids").type().array().items().stringType().noDefault();
+        }
+        // Column names have to be valid avro names. The original names are kept in the docs.
+        for (int i = 0; i < samples.size(); i++) {
+            fields = fields.name(GENOTYPE_PREFIX + i).doc(samples.get(i)).type().optional().stringType();
+        }
+        for (int i = 0; i < cohorts.size(); i++) {
+            String prefix = STATS_PREFIX + i + '_';
+            String cohort = cohorts.get(i);
+            fields = fields.name(prefix + "af").doc(cohort).type().optional().floatType()
+                    .name(prefix + "maf").doc(cohort).type().optional().floatType()
+                    .name(prefix + "mgf").doc(cohort).type().optional().floatType()
+                    .name(prefix + "missing_alleles").doc(cohort).type().optional().intType()
+                    .name(prefix + "missing_genotypes").doc(cohort).type().optional().intType();
+        }
+        if (includeAnnotation) {
+            fields = fields.name(ANNOTATION_PREFIX + "genes").type().array().items().stringType().noDefault()
+                    .name(ANNOTATION_PREFIX + "biotypes").type().array().items().stringType().noDefault()
+                    .name(ANNOTATION_PREFIX + "consequence_types").type().array().items().stringType().noDefault()
+                    .optionalDouble(ANNOTATION_PREFIX + "sift")
+                    .optionalDouble(ANNOTATION_PREFIX + "polyphen")
+                    .optionalDouble(ANNOTATION_PREFIX + "phastCons")
+                    .optionalDouble(ANNOTATION_PREFIX + "phylop")
+                    .optionalDouble(ANNOTATION_PREFIX + "gerp")
+                    .optionalDouble(ANNOTATION_PREFIX + "cadd_raw")
+                    .optionalDouble(ANNOTATION_PREFIX + "cadd_scaled");
+        }
+        return fields.endRecord();
+    }
+
+    private static boolean isIncluded(List<String> include, List<String> exclude, String... keys) {
+        for (String key : keys) {
+            if (exclude.contains(key)) {
+                return false;
+            }
+        }
+        if (include.isEmpty()) {
+            return true;
+        }
+        for (String key : keys) {
+            if (include.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> getReturnedSamples(StudyConfiguration studyConfiguration, Query query) {
+        List<String> returnedSamples = query == null ? Collections.emptyList() : query.getAsStringList(RETURNED_SAMPLES.key());
+        if (returnedSamples.isEmpty()) {
+            BiMap<Integer, String> samplesPosition = StudyConfiguration.getIndexedSamplesPosition(studyConfiguration).inverse();
+            returnedSamples = new ArrayList<>(samplesPosition.size());
+            for (int i = 0; i < samplesPosition.size(); i++) {
+                returnedSamples.add(samplesPosition.get(i));
+            }
+        } else {
+            List<String> sampleNames = new ArrayList<>(returnedSamples.size());
+            for (String sample : returnedSamples) {
+                String sampleName;
+                if (StringUtils.isNumeric(sample)) {
+                    sampleName = studyConfiguration.getSampleIds().inverse().get(Integer.parseInt(sample));
+                } else {
+                    sampleName = studyConfiguration.getSampleIds().containsKey(sample) ? sample : null;
+                }
+                if (sampleName == null) {
+                    throw VariantQueryException.sampleNotFound(sample, studyConfiguration.getStudyName());
+                }
+                sampleNames.add(sampleName);
+            }
+            returnedSamples = sampleNames;
+        }
+        return returnedSamples;
+    }
+
+    private static String getFileName(int i, VariantQueryPartition partition) {
+        String name = String.format("part-%05d", i);
+        if (partition.getRegion() != null) {
+            name += '.' + partition.getRegion().getChromosome() + '_' + partition.getRegion().getStart()
+                    + '-' + partition.getRegion().getEnd();
+        }
+        return name + EXTENSION;
+    }
+}
@@ -0,0 +1,107 @@
+package org.opencb.opencga.storage.hadoop.variant.io;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExternalResource;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager.Options;
+import org.opencb.opencga.storage.core.variant.VariantStorageManagerTestUtils;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
+import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageManager;
+import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageManagerTestUtils;
+import org.opencb.opencga.storage.hadoop.variant.adaptors.VariantHadoopDBAdaptor;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Export the variants loaded in HBase to Parquet, and read them back.
+ */
+public class VariantParquetExporterHadoopTest extends VariantStorageManagerTestUtils implements HadoopVariantStorageManagerTestUtils {
+
+    private static boolean loaded = false;
+
+    @ClassRule
+    public static ExternalResource externalResource = new HadoopExternalResource();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private VariantHadoopDBAdaptor dbAdaptor;
+    private StudyConfiguration studyConfiguration;
+
+    @Before
+    public void before() throws Exception {
+        HadoopVariantStorageManager variantStorageManager = getVariantStorageManager();
+        if (!loaded) {
+            clearDB(variantStorageManager.getVariantTableName(DB_NAME));
+            clearDB(variantStorageManager.getArchiveTableName(STUDY_ID));
+            URI inputUri = VariantStorageManagerTestUtils.getResourceUri("sample1.genome.vcf");
+            VariantStorageManagerTestUtils.runDefaultETL(inputUri, variantStorageManager, newStudyConfiguration(),
+                    new ObjectMap(Options.TRANSFORM_FORMAT.key(), "avro")
+                            .append(Options.ANNOTATE.key(), false)
+                            .append(Options.CALCULATE_STATS.key(), false)
+                            .append(HadoopVariantStorageManager.HADOOP_LOAD_DIRECT, false));
+            loaded = true;
+        }
+        dbAdaptor = variantStorageManager.getDBAdaptor(DB_NAME);
+        studyConfiguration = dbAdaptor.getStudyConfigurationManager().getStudyConfiguration(STUDY_ID, null).first();
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        Query query = new Query(VariantDBAdaptor.VariantQueryParams.STUDIES.key(), STUDY_ID);
+        QueryOptions options = new QueryOptions(QueryOptions.EXCLUDE, "annotation");
+        VariantParquetExporter exporter = new VariantParquetExporter(dbAdaptor, studyConfiguration, query, options,
+                new Configuration());
+        Path outdir = temporaryFolder.getRoot().toPath().resolve("parquet");
+        List<Path> files = exporter.export(query, outdir, 4);
+        assertFalse(files.isEmpty());
+
+        Map<String, Variant> expected = new LinkedHashMap<>();
+        try (VariantDBIterator iterator = dbAdaptor.iterator(query, options)) {
+            iterator.forEachRemaining(variant -> expected.put(variant.toString(), variant));
+        }
+        List<String> samples = Arrays.asList(exporter.getSchema().getProp(VariantParquetExporter.SAMPLES_PROPERTY).split(","));
+        assertEquals(StudyConfiguration.getIndexedSamples(studyConfiguration).keySet(), new HashSet<>(samples));
+
+        List<String> exported = new ArrayList<>(expected.size());
+        for (Path file : files) {
+            try (ParquetReader<GenericRecord> reader = AvroParquetReader.<GenericRecord>builder(
+                    new org.apache.hadoop.fs.Path(file.toUri())).build()) {
+                for (GenericRecord record = reader.read(); record != null; record = reader.read()) {
+                    String id = new Variant(record.get("chromosome").toString(), (Integer) record.get("start"),
+                            (Integer) record.get("end"), record.get("reference").toString(),
+                            record.get("alternate").toString()).toString();
+                    exported.add(id);
+                    Variant variant = expected.get(id);
+                    assertNotNull(id, variant);
+                    StudyEntry study = variant.getStudy(studyConfiguration.getStudyName());
+                    for (int i = 0; i < samples.size(); i++) {
+                        Object gt = record.get(VariantParquetExporter.GENOTYPE_PREFIX + i);
+                        assertEquals(id, study.getSampleData(samples.get(i), "GT"), gt == null ? null : gt.toString());
+                    }
+                }
+            }
+        }
+        // Each variant is exported exactly once
+        assertEquals(expected.size(), exported.size());
+        assertEquals(expected.keySet(), new HashSet<>(exported));
+    }
+}
@@ -0,0 +1,148 @@
+package org.opencb.opencga.storage.hadoop.variant.io;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor.VariantQueryParams.RETURNED_SAMPLES;
+
+public class VariantParquetExporterTest {
+
+    private static final String STUDY = "s1";
+    private static final List<String> SAMPLES = Arrays.asList("NA-001", "NA.002", "NA 003");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private StudyConfiguration studyConfiguration;
+    private Query query;
+    private List<Variant> variants;
+
+    @Before
+    public void setUp() throws Exception {
+        studyConfiguration = new StudyConfiguration(1, STUDY);
+        for (int i = 0; i < SAMPLES.size(); i++) {
+            studyConfiguration.getSampleIds().put(SAMPLES.get(i), i + 1);
+        }
+        studyConfiguration.getCohortIds().put(StudyEntry.DEFAULT_COHORT, 1);
+        query = new Query(RETURNED_SAMPLES.key(), SAMPLES);
+
+        variants = new ArrayList<>();
+        for (int position = 1000; position < 2000; position += 10) {
+            variants.add(createVariant(position));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Variant createVariant(int position) {
+        Variant variant = new Variant("1", position, position, "A", "C");
+        variant.setIds(Collections.singletonList("rs" + position));
+        StudyEntry studyEntry = new StudyEntry("1", STUDY);
+        studyEntry.addSampleData(SAMPLES.get(0), ((Map) new ObjectMap("GT", "0/1")));
+        studyEntry.addSampleData(SAMPLES.get(1), ((Map) new ObjectMap("GT", "1/1")));
+        // Third sample missing
+        VariantStats stats = new VariantStats();
+        stats.setMaf(position / 10000f);
+        stats.setMissingGenotypes(1);
+        studyEntry.setStats(StudyEntry.DEFAULT_COHORT, stats);
+        variant.addStudyEntry(studyEntry);
+        return variant;
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        VariantParquetExporter exporter = new VariantParquetExporter(null, studyConfiguration, query, new QueryOptions(),
+                new Configuration());
+        Path file = temporaryFolder.getRoot().toPath().resolve("variants" + VariantParquetExporter.EXTENSION);
+        assertEquals(variants.size(), exporter.write(variants.iterator(), file));
+
+        Schema schema = exporter.getSchema();
+        assertEquals(String.join(",", SAMPLES), schema.getProp(VariantParquetExporter.SAMPLES_PROPERTY));
+        for (int i = 0; i < SAMPLES.size(); i++) {
+            assertEquals(SAMPLES.get(i), schema.getField(VariantParquetExporter.GENOTYPE_PREFIX + i).doc());
+        }
+
+        int i = 0;
+        try (ParquetReader<GenericRecord> reader = AvroParquetReader.<GenericRecord>builder(
+                new org.apache.hadoop.fs.Path(file.toUri())).build()) {
+            for (GenericRecord record = reader.read(); record != null; record = reader.read()) {
+                Variant variant = variants.get(i++);
+                assertEquals(variant.getChromosome(), record.get("chromosome").toString());
+                assertEquals(variant.getStart(), record.get("start"));
+                assertEquals(variant.getType().name(), record.get("type").toString());
+                assertEquals("rs" + variant.getStart(), ((List) record.get("ids")).get(0).toString());
+                assertEquals("0/1", record.get(VariantParquetExporter.GENOTYPE_PREFIX + 0).toString());
+                assertEquals("1/1", record.get(VariantParquetExporter.GENOTYPE_PREFIX + 1).toString());
+                assertNull(record.get(VariantParquetExporter.GENOTYPE_PREFIX + 2));
+                assertEquals(variant.getStart() / 10000f, (Float) record.get(VariantParquetExporter.STATS_PREFIX + "0_maf"), 0.00001);
+                assertEquals(1, record.get(VariantParquetExporter.STATS_PREFIX + "0_missing_genotypes"));
+                assertTrue(((List) record.get(VariantParquetExporter.ANNOTATION_PREFIX + "genes")).isEmpty());
+            }
+        }
+        assertEquals(variants.size(), i);
+    }
+
+    @Test
+    public void testEmptyIterator() throws Exception {
+        VariantParquetExporter exporter = new VariantParquetExporter(null, studyConfiguration, query, new QueryOptions(),
+                new Configuration());
+        Path file = temporaryFolder.getRoot().toPath().resolve("empty" + VariantParquetExporter.EXTENSION);
+        assertEquals(0, exporter.write(Collections.emptyIterator(), file));
+        assertFalse(file.toFile().exists());
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        Schema schema = new VariantParquetExporter(null, studyConfiguration, query,
+                new QueryOptions(QueryOptions.EXCLUDE, "annotation,studies.samplesData"), new Configuration()).getSchema();
+        assertNotNull(schema.getField("ids"));
+        assertNotNull(schema.getField(VariantParquetExporter.STATS_PREFIX + "0_maf"));
+        assertNull(schema.getField(VariantParquetExporter.GENOTYPE_PREFIX + 0));
+        assertNull(schema.getField(VariantParquetExporter.ANNOTATION_PREFIX + "genes"));
+
+        schema = new VariantParquetExporter(null, studyConfiguration, query,
+                new QueryOptions(QueryOptions.INCLUDE, "annotation"), new Configuration()).getSchema();
+        assertNull(schema.getField("ids"));
+        assertNull(schema.getField(VariantParquetExporter.STATS_PREFIX + "0_maf"));
+        assertNull(schema.getField(VariantParquetExporter.GENOTYPE_PREFIX + 0));
+        assertNotNull(schema.getField(VariantParquetExporter.ANNOTATION_PREFIX + "genes"));
+        assertNotNull(schema.getField("chromosome"));
+    }
+
+    @Test
+    public void testReturnedSamplesById() throws Exception {
+        Schema schema = new VariantParquetExporter(null, studyConfiguration, new Query(RETURNED_SAMPLES.key(), "3,1"),
+                new QueryOptions(), new Configuration()).getSchema();
+        assertEquals(SAMPLES.get(2) + "," + SAMPLES.get(0), schema.getProp(VariantParquetExporter.SAMPLES_PROPERTY));
+    }
+
+    @Test(expected = VariantQueryException.class)
+    public void testUnknownSampleId() throws Exception {
+        new VariantParquetExporter(null, studyConfiguration, new Query(RETURNED_SAMPLES.key(), "1,42"), new QueryOptions(),
+                new Configuration());
+    }
+
+    @Test(expected = VariantQueryException.class)
+    public void testUnknownSampleName() throws Exception {
+        new VariantParquetExporter(null, studyConfiguration, new Query(RETURNED_SAMPLES.key(), "NA-001,unknown"),
+                new QueryOptions(), new Configuration());
+    }
+}
@@ -105,7 +105,10 @@ public class MongoDBStudyConfigurationManager extends StudyConfigurationManager
             // With UPSERT=true, this command should never throw DuplicatedKeyException.
             // See https://jira.mongodb.org/browse/SERVER-14322
         }
-        return mongoLock.lock(studyId, lockDuration, timeout);
+        long lock = mongoLock.lock(studyId, lockDuration, timeout);
+        // Someone else may have modified the study before releasing the lock
+        invalidateCache(studyId);
+        return lock;
     }
 
     @Override
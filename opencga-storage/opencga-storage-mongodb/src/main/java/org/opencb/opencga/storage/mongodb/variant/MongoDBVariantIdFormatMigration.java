@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.mongodb.variant;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.mongodb.MongoDBCollection;
+import org.opencb.commons.datastore.mongodb.MongoDataStore;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.VariantStorageIdFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageManager.MongoDBVariantOptions.STORAGE_ID_FORMAT;
+import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter.*;
+
+/**
+ * Offline migration of a variants collection to a different {@link VariantStorageIdFormat}.
+ *
+ * Copies all the variants into a new collection, rebuilding the _id and the chunk ids, creates the indexes and registers
+ * the id format of the new collection in the metadata collection. The source collection is not modified.
+ * Nothing should write into the source collection while migrating.
+ */
+public class MongoDBVariantIdFormatMigration {
+
+    private final MongoDataStore db;
+    private final MongoDBCollection metadataCollection;
+    private final int batchSize;
+
+    private final Logger logger = LoggerFactory.getLogger(MongoDBVariantIdFormatMigration.class);
+
+    public MongoDBVariantIdFormatMigration(MongoDataStore db, String metadataCollectionName, int batchSize) {
+        this.db = db;
+        this.metadataCollection = db.getCollection(metadataCollectionName);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Copy the variants from the source collection into the target collection using the given id format.
+     *
+     * @param sourceCollectionName  Variants collection to migrate
+     * @param targetCollectionName  New variants collection. Must be empty
+     * @param idFormat              Id format of the new collection
+     * @return                      Number of migrated variants
+     */
+    public long migrate(String sourceCollectionName, String targetCollectionName, VariantStorageIdFormat idFormat) {
+        if (sourceCollectionName.equals(targetCollectionName)) {
+            throw new IllegalArgumentException("Unable to migrate variants collection '" + sourceCollectionName + "' into itself");
+        }
+        MongoDBCollection source = db.getCollection(sourceCollectionName);
+        MongoDBCollection target = db.getCollection(targetCollectionName);
+        if (target.count().first() != 0) {
+            throw new IllegalStateException("Unable to migrate variants into collection '" + targetCollectionName + "'. "
+                    + "Collection is not empty");
+        }
+
+        logger.info("Migrating variants from '{}' to '{}' with {} ids", sourceCollectionName, targetCollectionName, idFormat);
+        long start = System.currentTimeMillis();
+        DocumentToVariantConverter converter = new DocumentToVariantConverter().setIdFormat(idFormat);
+        List<Document> batch = new ArrayList<>(batchSize);
+        long numVariants = 0;
+        try (MongoCursor<Document> iterator = source.nativeQuery().find(new Document(), new QueryOptions()).iterator()) {
+            while (iterator.hasNext()) {
+                batch.add(convert(iterator.next(), converter));
+                if (batch.size() >= batchSize) {
+                    numVariants += insert(target, batch);
+                    logger.debug("Migrated {} variants", numVariants);
+                }
+            }
+        }
+        numVariants += insert(target, batch);
+
+        VariantMongoDBAdaptor.createIndexes(new QueryOptions(STORAGE_ID_FORMAT.key(), idFormat.name()), target);
+        metadataCollection.update(new Document("_id", targetCollectionName),
+                Updates.set(VariantMongoDBAdaptor.ID_FORMAT_FIELD, idFormat.name()), new QueryOptions(MongoDBCollection.UPSERT, true));
+        logger.info("Migrated {} variants in {}s", numVariants, (System.currentTimeMillis() - start) / 1000.0);
+        return numVariants;
+    }
+
+    /**
+     * Rebuild the _id and the chunk ids of a variant document. Binary ids have no chunk ids.
+     *
+     * @param document  Variant document. Modified in place
+     * @param converter Converter with the target id format
+     * @return          The same document
+     */
+    protected Document convert(Document document, DocumentToVariantConverter converter) {
+        String chromosome = document.getString(CHROMOSOME_FIELD);
+        int start = document.getInteger(START_FIELD);
+        document.put("_id", converter.buildStorageId(chromosome, start,
+                document.getString(REFERENCE_FIELD), document.getString(ALTERNATE_FIELD)));
+        Document at = document.get(AT_FIELD, Document.class);
+        if (at != null) {
+            if (converter.getIdFormat() == VariantStorageIdFormat.BINARY) {
+                at.remove(CHUNK_IDS_FIELD);
+            } else {
+                at.put(CHUNK_IDS_FIELD, Arrays.asList(
+                        converter.buildChunkId(chromosome, start, VariantMongoDBWriter.CHUNK_SIZE_SMALL),
+                        converter.buildChunkId(chromosome, start, VariantMongoDBWriter.CHUNK_SIZE_BIG)));
+            }
+        }
+        return document;
+    }
+
+    private int insert(MongoDBCollection target, List<Document> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int size = batch.size();
+        target.insert(batch, new QueryOptions());
+        batch.clear();
+        return size;
+    }
+}
@@ -4,6 +4,7 @@ import com.google.common.collect.BiMap;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
 import org.bson.Document;
+import org.bson.types.Binary;
 import org.opencb.biodata.formats.variant.io.VariantReader;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantSource;
@@ -13,18 +14,24 @@ import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.mongodb.MongoDBCollection;
+import org.opencb.commons.io.DataReader;
 import org.opencb.commons.run.ParallelTaskRunner;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.exceptions.StorageManagerException;
 import org.opencb.opencga.storage.core.metadata.BatchFileOperation;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.runner.AdaptiveBatchController;
+import org.opencb.opencga.storage.core.runner.TaskRunnerMetrics;
+import org.opencb.opencga.storage.core.utils.CompressionCodec;
 import org.opencb.opencga.storage.core.variant.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.VariantStorageETL;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantSourceDBAdaptor;
 import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToSamplesConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.VariantStorageIdFormat;
 import org.opencb.opencga.storage.mongodb.variant.exceptions.MongoVariantStorageManagerException;
+import org.opencb.opencga.storage.mongodb.variant.load.MongoDBVariantDirectMergeReader;
 import org.opencb.opencga.storage.mongodb.variant.load.MongoDBVariantMerger;
 import org.opencb.opencga.storage.mongodb.variant.load.MongoDBVariantStageLoader;
 import org.opencb.opencga.storage.mongodb.variant.load.MongoDBVariantStageReader;
@@ -35,7 +42,13 @@ import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
 import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageManager.MongoDBVariantOptions.*;
 import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageManager.Options;
@@ -49,6 +62,7 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
 
     private final VariantMongoDBAdaptor dbAdaptor;
     private final ObjectMap loadStats = new ObjectMap();
+    private static final String ALL_PARTITIONS = "all";
 
     public MongoDBVariantStorageETL(StorageConfiguration configuration, String storageEngineId,
                                     VariantMongoDBAdaptor dbAdaptor) {
@@ -139,7 +153,11 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
         options.put(MERGE.key(), doMerge);
         options.put(STAGE.key(), doStage);
 
-        securePreStage(fileId, studyConfiguration);
+        if (isStageSkipped()) {
+            logger.info("File {} will be merged directly, without being staged", fileId);
+        } else {
+            securePreStage(fileId, studyConfiguration);
+        }
 //        QueryResult<Long> countResult = dbAdaptor.count(new Query(VariantDBAdaptor.VariantQueryParams.STUDIES.key(), studyConfiguration
 //                .getStudyId())
 //                .append(VariantDBAdaptor.VariantQueryParams.FILES.key(), fileId));
@@ -166,6 +184,14 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
         boolean doMerge = options.getBoolean(MERGE.key(), false);
         boolean doStage = options.getBoolean(STAGE.key(), false);
 
+        if (isStageSkipped()) {
+            // Nothing to load. The transformed file will be read again by mergeDirect
+            logger.info("Skip stage. File {} will be merged directly from {}", options.getInt(Options.FILE_ID.key()), inputUri);
+            loadStats.append(MERGE.key(), false);
+            loadStats.append(MERGE_DIRECT.key(), true);
+            return inputUri;
+        }
+
         //Create a new VariantSource. This object will be
         // filled at the VariantJsonReader in the pre()
         VariantSource source = readVariantSource(inputUri, null);
@@ -211,19 +237,35 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
             logger.info("Multi thread stage load... [{} readerThreads, {} writerThreads]", numReaders, numWriters);
 
             ParallelTaskRunner<Variant, Variant> ptr;
+            CompressionCodec stageCodec = CompressionCodec.fromName(
+                    options.getString(STAGE_COMPRESS_METHOD.key(), STAGE_COMPRESS_METHOD.defaultValue()));
+            logger.info("Stage binaries compressed with {}", stageCodec);
             MongoDBVariantStageLoader stageLoader =
                     new MongoDBVariantStageLoader(stageCollection, studyConfiguration.getStudyId(), fileId, numRecords,
-                            options.getBoolean(STAGE_RESUME.key()));
+                            options.getBoolean(STAGE_RESUME.key()), stageCodec);
 
+            ParallelTaskRunner.Task<Variant, Variant> stageTask = batch -> {
+                remapIdsTask.apply(batch);
+                stageLoader.insert(batch);
+                return batch;
+            };
+            DataReader<Variant> stageReader = variantReader;
+            int stageCapacity = capacity;
+            AdaptiveBatchController adaptiveBatch = AdaptiveBatchController.build(options, batchSize);
+            if (adaptiveBatch != null) {
+                stageReader = adaptiveBatch.wrapReader(variantReader, VariantStorageETL::estimateVariantSize);
+                stageTask = adaptiveBatch.wrapTask(stageTask);
+                if (!options.containsKey("blockingQueueCapacity")) {
+                    stageCapacity = adaptiveBatch.getCapacity(loadThreads);
+                }
+                logger.info("Adaptive batch size. Queue capacity: {}, {}", stageCapacity, adaptiveBatch);
+            }
+            TaskRunnerMetrics metrics = new TaskRunnerMetrics("stage " + fileId);
             ptr = new ParallelTaskRunner<>(
-                    variantReader,
-                    batch -> {
-                        remapIdsTask.apply(batch);
-                        stageLoader.insert(batch);
-                        return batch;
-                    },
+                    metrics.wrapReader(stageReader),
+                    metrics.wrapTask(stageTask),
                     null,
-                    new ParallelTaskRunner.Config(loadThreads, batchSize, capacity, false)
+                    new ParallelTaskRunner.Config(loadThreads, batchSize, stageCapacity, false)
             );
 
             Thread hook = new Thread(() -> {
@@ -236,6 +278,7 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
                 }
             });
             Runtime.getRuntime().addShutdownHook(hook);
+            metrics.start(getMetricsReportInterval());
             try {
                 ptr.run();
                 stageSuccess(source);
@@ -245,6 +288,10 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
                 throw new StorageManagerException("Error while executing LoadVariants in ParallelTaskRunner", e);
             } finally {
                 Runtime.getRuntime().removeShutdownHook(hook);
+                loadStats.append("stageMetrics", metrics.stop().toObjectMap());
+                if (adaptiveBatch != null) {
+                    loadStats.append("stageAdaptiveBatch", adaptiveBatch.toObjectMap());
+                }
             }
 
             long skippedVariants = stageLoader.getWriteResult().getSkippedVariants();
@@ -360,6 +407,44 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
         return operation;
     }
 
+    /**
+     * The file is only registered in the study, to be merged later with {@link #mergeDirect(List, List)}.
+     *
+     * @return  If the stage step has to be skipped
+     */
+    private boolean isStageSkipped() {
+        return options.getBoolean(MERGE_DIRECT.key(), false)
+                && options.getBoolean(STAGE.key(), false)
+                && !options.getBoolean(MERGE.key(), false);
+    }
+
+    /**
+     * Check if the next files can be merged directly from the transformed files, without using the stage collection.
+     * Only the initial load of a study can skip the stage. Merging new files with already indexed variants requires
+     * the index of variants kept in the stage collection.
+     *
+     * - There are no indexed files in the study.
+     * - There are no staged files waiting to be merged.
+     *
+     * @return  If the files can be merged directly
+     * @throws StorageManagerException  If there is a problem reading the StudyConfiguration
+     */
+    public boolean canMergeDirect() throws StorageManagerException {
+        StudyConfiguration studyConfiguration = getStudyConfiguration(true);
+        if (studyConfiguration == null) {
+            return true;
+        }
+        if (!studyConfiguration.getIndexedFiles().isEmpty()) {
+            return false;
+        }
+        for (BatchFileOperation operation : studyConfiguration.getBatches()) {
+            if (operation.getOperationName().equals(STAGE.key()) && operation.currentStatus() == BatchFileOperation.Status.READY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void stageError() throws StorageManagerException {
         int fileId = options.getInt(Options.FILE_ID.key());
         setStatus(BatchFileOperation.Status.ERROR, STAGE.key(), Collections.singletonList(fileId));
@@ -375,29 +460,42 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
     }
 
     private void setStatus(BatchFileOperation.Status status, String operationName, List<Integer> files) throws StorageManagerException {
+        updateOperation(operationName, files, operation -> operation.addStatus(Calendar.getInstance().getTime(), status));
+    }
+
+    private void setPartitionStatus(BatchFileOperation.Status status, String operationName, List<Integer> files, String partition)
+            throws StorageManagerException {
+        updateOperation(operationName, files, operation -> operation.setPartitionStatus(partition, status));
+    }
+
+    private void updateOperation(String operationName, List<Integer> files, Consumer<BatchFileOperation> update)
+            throws StorageManagerException {
         int studyId = getStudyId();
         long lock = dbAdaptor.getStudyConfigurationManager().lockStudy(studyId);
         try {
             StudyConfiguration studyConfiguration = getStudyConfiguration(true);
-            List<BatchFileOperation> batches = studyConfiguration.getBatches();
-            BatchFileOperation operation = null;
-            for (int i = batches.size() - 1; i >= 0; i--) {
-                operation = batches.get(i);
-                if (operation.getOperationName().equals(operationName) && operation.getFileIds().equals(files)) {
-                    operation.addStatus(Calendar.getInstance().getTime(), status);
-                    break;
-                }
-                operation = null;
-            }
+            BatchFileOperation operation = getOperation(studyConfiguration, operationName, files);
             if (operation == null) {
                 throw new IllegalStateException("Batch operation " + operationName + " for files " + files + " not found!");
             }
+            update.accept(operation);
             dbAdaptor.getStudyConfigurationManager().updateStudyConfiguration(studyConfiguration, null);
         } finally {
             dbAdaptor.getStudyConfigurationManager().unLockStudy(studyId, lock);
         }
     }
 
+    private static BatchFileOperation getOperation(StudyConfiguration studyConfiguration, String operationName, List<Integer> files) {
+        List<BatchFileOperation> batches = studyConfiguration.getBatches();
+        for (int i = batches.size() - 1; i >= 0; i--) {
+            BatchFileOperation operation = batches.get(i);
+            if (operation.getOperationName().equals(operationName) && operation.getFileIds().equals(files)) {
+                return operation;
+            }
+        }
+        return null;
+    }
+
     /**
      * Merge staged files into Variant collection.
      *
@@ -419,7 +517,12 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
      * Merge staged files into Variant collection.
      *
      * 1- Find if the files are in different chromosomes.
-     * 2- If splitted, call once per chromosome. Else, call only once.
+     * 2- If splitted, call once per chromosome. Else, call only once, or once per chromosome if
+     *    {@link MongoDBVariantStorageManager.MongoDBVariantOptions#MERGE_PARALLEL_PARTITIONS} is greater than 1.
+     *
+     * Up to {@link MongoDBVariantStorageManager.MongoDBVariantOptions#MERGE_PARALLEL_PARTITIONS} chromosomes are merged
+     * concurrently, each one with its own stage reader and merger. The status of each chromosome is stored in the
+     * {@link BatchFileOperation}, so a resumed merge skips the chromosomes already merged.
      *
      * @see MongoDBVariantMerger
      *
@@ -446,6 +549,8 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
 
         // List of chromosomes to be loaded
         Set<String> chromosomesToLoad = new HashSet<>();
+        // List of chromosomes covered by the files to be loaded, if they are not splitted by chromosome
+        Set<String> wholeGenomeChromosomes = new HashSet<>();
         // List of all the indexed files that cover each chromosome
         ListMultimap<String, Integer> chromosomeInLoadedFiles = LinkedListMultimap.create();
         // List of all the indexed files that cover each chromosome
@@ -462,6 +567,7 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
                     chromosomesToLoad.addAll(variantSource.getStats().getChromosomeCounts().keySet());
                 } else {
                     wholeGenomeFiles = true;
+                    wholeGenomeChromosomes.addAll(variantSource.getStats().getChromosomeCounts().keySet());
                 }
             }
             // If the file is indexed, add to the map of chromosome->fileId
@@ -496,19 +602,28 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
                     throw new StorageManagerException(message);
                 }
 
-                if (chromosomesToLoad.isEmpty()) {
-                    writeResult = mergeByChromosome(fileIds, batchSize, loadThreads, capacity, stageCollection,
-                            studyConfiguration, null, studyConfiguration.getIndexedFiles());
-                } else {
-                    writeResult = new MongoDBVariantWriteResult();
+                int parallelPartitions = options.getInt(MERGE_PARALLEL_PARTITIONS.key(), MERGE_PARALLEL_PARTITIONS.defaultValue());
+                Map<String, Callable<MongoDBVariantWriteResult>> partitions = new TreeMap<>();
+                if (!chromosomesToLoad.isEmpty()) {
                     for (String chromosome : chromosomesToLoad) {
                         List<Integer> filesToLoad = chromosomeInFilesToLoad.get(chromosome);
                         Set<Integer> indexedFiles = new HashSet<>(chromosomeInLoadedFiles.get(chromosome));
-                        MongoDBVariantWriteResult aux = mergeByChromosome(filesToLoad, batchSize, loadThreads, capacity, stageCollection,
-                                studyConfiguration, chromosome, indexedFiles);
-                        writeResult.merge(aux);
+                        partitions.put(chromosome, () -> mergeByChromosome(filesToLoad, batchSize, loadThreads, capacity,
+                                stageCollection, studyConfiguration, chromosome, indexedFiles));
+                    }
+                } else if (parallelPartitions > 1 && !wholeGenomeChromosomes.isEmpty()) {
+                    // Include the chromosomes only in the indexed files, to fill the gaps of the new samples
+                    Set<String> chromosomes = new HashSet<>(wholeGenomeChromosomes);
+                    chromosomes.addAll(chromosomeInLoadedFiles.keySet());
+                    for (String chromosome : chromosomes) {
+                        partitions.put(chromosome, () -> mergeByChromosome(fileIds, batchSize, loadThreads, capacity,
+                                stageCollection, studyConfiguration, chromosome, studyConfiguration.getIndexedFiles()));
                     }
+                } else {
+                    partitions.put(ALL_PARTITIONS, () -> mergeByChromosome(fileIds, batchSize, loadThreads, capacity,
+                            stageCollection, studyConfiguration, null, studyConfiguration.getIndexedFiles()));
                 }
+                writeResult = mergePartitions(fileIds, studyConfiguration, partitions, parallelPartitions);
             } catch (Exception e) {
                 setStatus(BatchFileOperation.Status.ERROR, MERGE.key(), fileIds);
                 throw e;
@@ -539,6 +654,125 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
         return writeResult;
     }
 
+    /**
+     * Merge a batch of transformed files directly into the Variant collection, without loading them into the Stage collection.
+     *
+     * The files are read at the same time, merging them by genomic position with a {@link MongoDBVariantDirectMergeReader}.
+     * The merged documents are the same that the {@link MongoDBVariantStageReader} would return after staging the files, and
+     * are merged with the {@link MongoDBVariantMerger}. Only the index of variants of the study, without the staged variants, is
+     * written into the Stage collection, as it would be after cleaning the staged files. Following batches can be staged and
+     * merged as usual.
+     *
+     * Only for the initial load of a study. See {@link #canMergeDirect()}
+     *
+     * @param fileIds   FileIDs of the files to be merged. Must be registered with {@link #preLoad(URI, URI)}
+     * @param inputs    Transformed files, sorted by genomic position
+     * @return          Write Result with times and count
+     * @throws StorageManagerException  If the files can not be merged directly, or there is a problem executing the
+     *                                  {@link ParallelTaskRunner}
+     */
+    public MongoDBVariantWriteResult mergeDirect(List<Integer> fileIds, List<URI> inputs) throws StorageManagerException {
+        int batchSize = options.getInt(Options.LOAD_BATCH_SIZE.key(), Options.LOAD_BATCH_SIZE.defaultValue());
+        int loadThreads = options.getInt(Options.LOAD_THREADS.key(), Options.LOAD_THREADS.defaultValue());
+        int capacity = options.getInt("blockingQueueCapacity", loadThreads * 2);
+        MongoDBCollection stageCollection = dbAdaptor.getDB().getCollection(
+                options.getString(COLLECTION_STAGE.key(), COLLECTION_STAGE.defaultValue()));
+
+        long start = System.currentTimeMillis();
+        StudyConfiguration studyConfiguration = preMerge(fileIds);
+        int studyId = studyConfiguration.getStudyId();
+        if (!studyConfiguration.getIndexedFiles().isEmpty()) {
+            throw new StorageManagerException("Unable to merge files " + fileIds + " directly. "
+                    + "Study " + studyConfiguration.getStudyName() + " already has indexed files");
+        }
+
+        Map<Integer, VariantReader> readers = new LinkedHashMap<>();
+        Map<Integer, Set<String>> chromosomes = new HashMap<>();
+        List<VariantSource> sources = new ArrayList<>(fileIds.size());
+        long numRecords = 0;
+        for (int i = 0; i < fileIds.size(); i++) {
+            Integer fileId = fileIds.get(i);
+            VariantSource source = readVariantSource(inputs.get(i), null);
+            source.setFileId(fileId.toString());
+            source.setStudyId(Integer.toString(studyId));
+            readers.put(fileId, VariantReaderUtils.getVariantReader(Paths.get(inputs.get(i).getPath()), source));
+            chromosomes.put(fileId, new HashSet<>(source.getStats().getChromosomeCounts().keySet()));
+            numRecords += source.getStats().getNumRecords();
+            sources.add(source);
+        }
+        MongoDBVariantDirectMergeReader reader = new MongoDBVariantDirectMergeReader(studyId, readers, chromosomes);
+
+        final MongoDBVariantWriteResult writeResult;
+        if (options.getBoolean(MERGE_SKIP.key())) {
+            // It was already merged, but still some work is needed. Exit to do postLoad step
+            writeResult = new MongoDBVariantWriteResult();
+        } else {
+            Thread hook = new Thread(() -> {
+                try {
+                    logger.error("Merge shutdown hook!");
+                    setStatus(BatchFileOperation.Status.ERROR, MERGE.key(), fileIds);
+                } catch (StorageManagerException e) {
+                    e.printStackTrace();
+                    throw new RuntimeException(e);
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(hook);
+            try {
+                boolean resume = options.getBoolean(MERGE_RESUME.key(), false);
+                MongoDBVariantMerger variantWriter = new MongoDBVariantMerger(dbAdaptor, studyConfiguration, fileIds,
+                        dbAdaptor.getVariantsCollection(), numRecords, Collections.emptySet(), resume);
+                ParallelTaskRunner.Task<Document, MongoDBVariantWriteResult> mergeTask =
+                        new ParallelTaskRunner.Task<Document, MongoDBVariantWriteResult>() {
+                            @Override
+                            public void pre() {
+                                variantWriter.pre();
+                            }
+
+                            @Override
+                            public List<MongoDBVariantWriteResult> apply(List<Document> batch) {
+                                MongoDBVariantStageLoader.registerMergedVariants(stageCollection, studyId, batch);
+                                return variantWriter.apply(batch);
+                            }
+
+                            @Override
+                            public void post() {
+                                variantWriter.post();
+                            }
+                        };
+                logger.info("Merging files {} directly from {}", fileIds, inputs);
+                writeResult = mergePartitions(fileIds, studyConfiguration, Collections.singletonMap(ALL_PARTITIONS,
+                        () -> runMerge(fileIds, ALL_PARTITIONS, reader, variantWriter, mergeTask, batchSize, loadThreads, capacity,
+                                MongoDBVariantStorageETL::estimateStageDocumentSize)), 1);
+            } catch (Exception e) {
+                setStatus(BatchFileOperation.Status.ERROR, MERGE.key(), fileIds);
+                throw e;
+            } finally {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            }
+            setStatus(BatchFileOperation.Status.DONE, MERGE.key(), fileIds);
+        }
+
+        // Save the VariantSources only after merging, so the files are not taken as staged if the merge fails.
+        for (VariantSource source : sources) {
+            dbAdaptor.getVariantSourceDBAdaptor().updateVariantSource(source);
+        }
+
+        writeResult.setSkippedVariants(reader.getSkippedVariants());
+
+        logger.info("Write result: {}", writeResult.toString());
+        logger.info("Write result: {}", writeResult.toTSV());
+        logger.info("Write result: {}", writeResult.toJson());
+        options.put("writeResult", writeResult);
+        loadStats.append(MERGE.key(), true);
+        loadStats.append(MERGE_DIRECT.key(), true);
+        loadStats.append("mergeWriteResult", writeResult);
+
+        long end = System.currentTimeMillis();
+        logger.info("end - start = " + (end - start) / 1000.0 + "s");
+        logger.info("Variants merged!");
+        return writeResult;
+    }
+
     private StudyConfiguration preMerge(List<Integer> fileIds) throws StorageManagerException {
         int studyId = getStudyId();
         StudyConfiguration studyConfiguration;
@@ -552,6 +786,10 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
                 }
             }
 
+            // The first merge fixes the id format of the variants collection
+            dbAdaptor.initStorageIdFormat(VariantStorageIdFormat.parse(
+                    options.getString(STORAGE_ID_FORMAT.key(), STORAGE_ID_FORMAT.defaultValue())));
+
             boolean loadMergeResume = options.getBoolean(MERGE_RESUME.key());
 
             List<BatchFileOperation> batches = studyConfiguration.getBatches();
@@ -608,6 +846,73 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
         return studyConfiguration;
     }
 
+    /**
+     * Merge independent partitions of the genome, up to parallelPartitions at the same time.
+     *
+     * @param fileIds               FileIDs of the files to be merged
+     * @param studyConfiguration    StudyConfiguration, with the merge BatchFileOperation
+     * @param partitions            Merge task for each partition
+     * @param parallelPartitions    Max number of partitions merged concurrently
+     * @return                      Write Result of all the partitions
+     * @throws StorageManagerException  If any partition fails. The other partitions are interrupted
+     */
+    private MongoDBVariantWriteResult mergePartitions(List<Integer> fileIds, StudyConfiguration studyConfiguration,
+                                                      Map<String, Callable<MongoDBVariantWriteResult>> partitions,
+                                                      int parallelPartitions)
+            throws StorageManagerException {
+        BatchFileOperation operation = getOperation(studyConfiguration, MERGE.key(), fileIds);
+        boolean resume = options.getBoolean(MERGE_RESUME.key(), false);
+
+        int numThreads = Math.max(1, Math.min(parallelPartitions, partitions.size()));
+        if (numThreads > 1) {
+            logger.info("Merging {} partitions, {} at the same time: {}", partitions.size(), numThreads, partitions.keySet());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "merge-partition");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, Future<MongoDBVariantWriteResult>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, Callable<MongoDBVariantWriteResult>> entry : partitions.entrySet()) {
+            String partition = entry.getKey();
+            if (resume && operation != null && operation.getPartitionStatus(partition) == BatchFileOperation.Status.DONE) {
+                logger.info("Skip partition {}. Already merged", partition);
+                continue;
+            }
+            futures.put(partition, executor.submit(() -> {
+                setPartitionStatus(BatchFileOperation.Status.RUNNING, MERGE.key(), fileIds, partition);
+                try {
+                    MongoDBVariantWriteResult result = entry.getValue().call();
+                    setPartitionStatus(BatchFileOperation.Status.DONE, MERGE.key(), fileIds, partition);
+                    return result;
+                } catch (Exception e) {
+                    setPartitionStatus(BatchFileOperation.Status.ERROR, MERGE.key(), fileIds, partition);
+                    throw e;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        MongoDBVariantWriteResult writeResult = new MongoDBVariantWriteResult();
+        try {
+            for (Map.Entry<String, Future<MongoDBVariantWriteResult>> entry : futures.entrySet()) {
+                writeResult.merge(entry.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new StorageManagerException("Interrupted while merging files " + fileIds, e);
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            if (e.getCause() instanceof StorageManagerException) {
+                throw (StorageManagerException) e.getCause();
+            } else {
+                throw new StorageManagerException("Error merging files " + fileIds, e.getCause());
+            }
+        }
+        return writeResult;
+    }
+
     private MongoDBVariantWriteResult mergeByChromosome(
             List<Integer> fileIds, int batchSize, int loadThreads, int capacity, MongoDBCollection stageCollection,
             StudyConfiguration studyConfiguration, String chromosomeToLoad, Set<Integer> indexedFiles)
@@ -619,26 +924,78 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
         MongoDBVariantMerger variantWriter = new MongoDBVariantMerger(dbAdaptor, studyConfiguration, fileIds,
                 dbAdaptor.getVariantsCollection(), reader.countNumVariants(), reader.countAproxNumVariants(), indexedFiles, resume);
 
+        if (chromosomeToLoad != null) {
+            logger.info("Merging files {} in chromosome: {}. Other indexed files in chromosome {}: {}",
+                    fileIds, chromosomeToLoad, chromosomeToLoad, indexedFiles);
+        } else {
+            logger.info("Merging files " + fileIds);
+        }
+        String chromosomeName = chromosomeToLoad == null ? ALL_PARTITIONS : chromosomeToLoad;
+        return runMerge(fileIds, chromosomeName, reader, variantWriter, variantWriter, batchSize, loadThreads, capacity,
+                MongoDBVariantStorageETL::estimateStageDocumentSize);
+    }
+
+    /**
+     * Run the merge of one partition in a {@link ParallelTaskRunner}.
+     *
+     * @param fileIds           FileIDs of the files to be merged
+     * @param partition         Partition to merge
+     * @param reader            Reader of stage-like documents
+     * @param variantWriter     Merger
+     * @param mergeTask         Task to execute with each batch. The merger, or a task calling to the merger
+     * @param batchSize         Batch size
+     * @param loadThreads       Number of load threads
+     * @param capacity          Capacity of the intermedial queue
+     * @param documentSize      Estimated size of each document, for the adaptive batch size
+     * @return                  Write Result of the partition
+     * @throws StorageManagerException  If there is a problem executing the {@link ParallelTaskRunner}
+     */
+    private MongoDBVariantWriteResult runMerge(List<Integer> fileIds, String partition, DataReader<Document> reader,
+                                               MongoDBVariantMerger variantWriter,
+                                               ParallelTaskRunner.Task<Document, MongoDBVariantWriteResult> mergeTask,
+                                               int batchSize, int loadThreads, int capacity, ToLongFunction<Document> documentSize)
+            throws StorageManagerException {
+        int mergeWriters = options.getInt(MERGE_WRITERS.key(), MERGE_WRITERS.defaultValue());
+        int maxInFlight = options.getInt(MERGE_WRITERS_MAX_IN_FLIGHT.key(), MERGE_WRITERS_MAX_IN_FLIGHT.defaultValue());
+        variantWriter.setAsyncWriters(mergeWriters, maxInFlight > 0 ? maxInFlight : mergeWriters * 2)
+                .setDupKeyRetries(options.getInt(MERGE_DUP_KEY_RETRIES.key(), MERGE_DUP_KEY_RETRIES.defaultValue()));
+
+        DataReader<Document> mergeReader = reader;
+        int mergeCapacity = capacity;
+        AdaptiveBatchController adaptiveBatch = AdaptiveBatchController.build(options, batchSize);
+        if (adaptiveBatch != null) {
+            mergeReader = adaptiveBatch.wrapReader(reader, documentSize);
+            mergeTask = adaptiveBatch.wrapTask(mergeTask);
+            if (!options.containsKey("blockingQueueCapacity")) {
+                mergeCapacity = adaptiveBatch.getCapacity(loadThreads);
+            }
+            logger.info("Adaptive batch size. Queue capacity: {}, {}", mergeCapacity, adaptiveBatch);
+        }
+        TaskRunnerMetrics metrics = new TaskRunnerMetrics("merge " + fileIds + " chr " + partition);
         ParallelTaskRunner<Document, MongoDBVariantWriteResult> ptrMerge;
         try {
-            ptrMerge = new ParallelTaskRunner<>(reader, variantWriter, null,
-                    new ParallelTaskRunner.Config(loadThreads, batchSize, capacity, false));
+            ptrMerge = new ParallelTaskRunner<>(metrics.wrapReader(mergeReader), metrics.wrapTask(mergeTask), null,
+                    new ParallelTaskRunner.Config(loadThreads, batchSize, mergeCapacity, false));
         } catch (RuntimeException e) {
             e.printStackTrace();
             throw new StorageManagerException("Error while creating ParallelTaskRunner", e);
         }
 
         try {
-            if (chromosomeToLoad != null) {
-                logger.info("Merging files {} in chromosome: {}. Other indexed files in chromosome {}: {}",
-                        fileIds, chromosomeToLoad, chromosomeToLoad, indexedFiles);
-            } else {
-                logger.info("Merging files " + fileIds);
-            }
+            metrics.start(getMetricsReportInterval());
             ptrMerge.run();
         } catch (ExecutionException e) {
             e.printStackTrace();
             throw new StorageManagerException("Error while executing LoadVariants in ParallelTaskRunner", e);
+        } finally {
+            synchronized (loadStats) {
+                ObjectMap mergeMetrics = (ObjectMap) loadStats.computeIfAbsent("mergeMetrics", key -> new ObjectMap());
+                mergeMetrics.put(partition, metrics.stop().toObjectMap());
+                if (adaptiveBatch != null) {
+                    ObjectMap mergeAdaptiveBatch = (ObjectMap) loadStats.computeIfAbsent("mergeAdaptiveBatch", key -> new ObjectMap());
+                    mergeAdaptiveBatch.put(partition, adaptiveBatch.toObjectMap());
+                }
+            }
         }
         return variantWriter.getResult();
     }
@@ -670,6 +1027,33 @@ public class MongoDBVariantStorageETL extends VariantStorageETL {
         super.securePostLoad(fileIds, studyConfiguration);
     }
 
+    /**
+     * Estimated in-memory bytes of a document from the stage collection. The staged variants are stored as compressed
+     * avro binaries, several times smaller than the variants decoded by the merger.
+     *
+     * @param document  Stage document
+     * @return          Estimated bytes
+     */
+    private static long estimateStageDocumentSize(Document document) {
+        long size = 256;
+        for (Object value : document.values()) {
+            if (value instanceof Document) {
+                size += estimateStageDocumentSize((Document) value);
+            } else if (value instanceof List) {
+                for (Object element : (List<?>) value) {
+                    if (element instanceof Binary) {
+                        size += 8L * ((Binary) element).length();
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    private long getMetricsReportInterval() {
+        return options.getLong(Options.METRICS_REPORT_INTERVAL.key(), Options.METRICS_REPORT_INTERVAL.<Integer>defaultValue());
+    }
+
     @Override
     public ObjectMap getLoadStats() {
         return loadStats;
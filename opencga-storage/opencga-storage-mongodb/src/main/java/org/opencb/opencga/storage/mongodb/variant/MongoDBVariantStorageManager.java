@@ -31,6 +31,7 @@ import org.opencb.opencga.storage.core.variant.FileStudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.VariantStorageManager;
 import org.opencb.opencga.storage.mongodb.utils.MongoCredentials;
+import org.opencb.opencga.storage.mongodb.variant.converters.VariantStorageIdFormat;
 
 import java.net.URI;
 import java.net.UnknownHostException;
@@ -56,14 +57,22 @@ public class MongoDBVariantStorageManager extends VariantStorageManager {
         COLLECTION_FILES("collection.files", "files"),
         COLLECTION_STUDIES("collection.studies",  "studies"),
         COLLECTION_STAGE("collection.stage",  "stage"),
+        COLLECTION_METADATA("collection.metadata",  "metadata"),
         BULK_SIZE("bulkSize",  100),
         DEFAULT_GENOTYPE("defaultGenotype", Arrays.asList("0/0", "0|0")),
         ALREADY_LOADED_VARIANTS("alreadyLoadedVariants", 0),
         STAGE("stage", false),
         STAGE_RESUME("stage.resume", false),
+        STAGE_COMPRESS_METHOD("stage.compress.method", "gzip"), // Codec for the stage binaries. Detected when reading
         MERGE("merge", false),
         MERGE_SKIP("merge.skip", false), // Internal use only
-        MERGE_RESUME("merge.resume", false);
+        MERGE_RESUME("merge.resume", false),
+        MERGE_DIRECT("merge.direct", false), // Merge the sorted transformed files without the stage collection. Only for initial loads
+        MERGE_PARALLEL_PARTITIONS("merge.parallel.partitions", 1), // Max chromosomes merged concurrently, each with "load.threads"
+        MERGE_WRITERS("merge.writers", 0), // Threads writing the merged variants asynchronously. 0 to write from the merge threads
+        MERGE_WRITERS_MAX_IN_FLIGHT("merge.writers.maxInFlight", 0), // Max batches pending to be written. Default, 2 per writer
+        MERGE_DUP_KEY_RETRIES("merge.dupKey.retries", 3), // Retries of upserts failing by a duplicated key due to concurrent upserts
+        STORAGE_ID_FORMAT("storage.id.format", "string"); // Format of the variant ids, "string" or "binary". Fixed by the first load
 
         private final String key;
         private final Object value;
@@ -124,6 +133,27 @@ public class MongoDBVariantStorageManager extends VariantStorageManager {
         return getDBAdaptor(null);
     }
 
+    /**
+     * Copy the variants collection into a new collection with a different id format. Offline operation.
+     * The configured variants collection is not modified. Use the new collection setting "collection.variants".
+     *
+     * @param dbName            Database name
+     * @param targetCollection  New variants collection. Must be empty
+     * @param idFormat          Id format of the new collection
+     * @return                  Number of migrated variants
+     * @throws StorageManagerException if the database is not available
+     */
+    public long migrateStorageIdFormat(String dbName, String targetCollection, VariantStorageIdFormat idFormat)
+            throws StorageManagerException {
+        ObjectMap options = configuration.getStorageEngine(STORAGE_ENGINE_ID).getVariant().getOptions();
+        VariantMongoDBAdaptor dbAdaptor = getDBAdaptor(dbName);
+        MongoDBVariantIdFormatMigration migration = new MongoDBVariantIdFormatMigration(dbAdaptor.getDB(),
+                options.getString(COLLECTION_METADATA.key(), COLLECTION_METADATA.defaultValue()),
+                options.getInt(BULK_SIZE.key(), BULK_SIZE.defaultValue()));
+        return migration.migrate(options.getString(COLLECTION_VARIANTS.key(), COLLECTION_VARIANTS.defaultValue()),
+                targetCollection, idFormat);
+    }
+
     @Override
     public List<StorageETLResult> index(List<URI> inputFiles, URI outdirUri, boolean doExtract, boolean doTransform, boolean doLoad)
             throws StorageManagerException {
@@ -140,6 +170,11 @@ public class MongoDBVariantStorageManager extends VariantStorageManager {
                 StorageETLResult storageETLResult = new StorageETLResult(inputFile);
                 MongoDBVariantStorageETL storageETL = newStorageETL(doLoad);
                 storageETL.getOptions().append(VariantStorageManager.Options.ISOLATE_FILE_FROM_STUDY_CONFIGURATION.key(), true);
+                if (getOptions().getBoolean(MERGE_DIRECT.key(), MERGE_DIRECT.defaultValue())
+                        && !getOptions().containsKey(Options.TRANSFORM_SORTED.key())) {
+                    // Direct merge requires sorted files
+                    storageETL.getOptions().put(Options.TRANSFORM_SORTED.key(), true);
+                }
                 storageETLMap.put(inputFile, storageETL);
                 resultsMap.put(inputFile, storageETLResult);
                 results.add(storageETLResult);
@@ -170,7 +205,10 @@ public class MongoDBVariantStorageManager extends VariantStorageManager {
 
             if (doLoad) {
                 int batchLoad = getOptions().getInt(Options.MERGE_BATCH_SIZE.key(), Options.MERGE_BATCH_SIZE.defaultValue());
+                boolean mergeDirect = doStage && doMerge && getOptions().getBoolean(MERGE_DIRECT.key(), MERGE_DIRECT.defaultValue());
+                boolean directBatch = false;
                 List<Integer> fileIds = new ArrayList<>(batchLoad);
+                List<URI> inputs = new ArrayList<>(batchLoad);
                 Iterator<Map.Entry<URI, MongoDBVariantStorageETL>> iterator = storageETLMap.entrySet().iterator();
                 while (iterator.hasNext()) {
                     Map.Entry<URI, MongoDBVariantStorageETL> entry = iterator.next();
@@ -180,21 +218,35 @@ public class MongoDBVariantStorageManager extends VariantStorageManager {
 
 
                     if (doStage) {
+                        if (mergeDirect && fileIds.isEmpty()) {
+                            // All the files from the batch are staged, or all of them are merged directly
+                            directBatch = storageETL.canMergeDirect();
+                            if (!directBatch) {
+                                logger.info("Unable to merge files directly into a study with indexed or staged files. Use stage.");
+                            }
+                        }
                         storageETL.getOptions().put(STAGE.key(), true);
                         storageETL.getOptions().put(MERGE.key(), false);
+                        storageETL.getOptions().put(MERGE_DIRECT.key(), directBatch);
                         loadFile(storageETL, etlResult, results, input, outdirUri);
                     }
 
                     if (doMerge) {
                         fileIds.add(storageETL.getOptions().getInt(Options.FILE_ID.key()));
+                        inputs.add(input);
                         if (fileIds.size() == batchLoad || !iterator.hasNext()) {
                             long millis = System.currentTimeMillis();
                             try {
                                 storageETL.getOptions().put(MERGE.key(), true);
                                 storageETL.getOptions().put(Options.FILE_ID.key(), new ArrayList<>(fileIds));
-                                storageETL.merge(fileIds);
+                                if (directBatch) {
+                                    storageETL.mergeDirect(fileIds, inputs);
+                                } else {
+                                    storageETL.merge(fileIds);
+                                }
                                 storageETL.postLoad(input, outdirUri);
                                 fileIds.clear();
+                                inputs.clear();
                             } catch (Exception e) {
                                 etlResult.setLoadError(e);
                                 throw new StorageETLException("Exception executing merge.", e, results);
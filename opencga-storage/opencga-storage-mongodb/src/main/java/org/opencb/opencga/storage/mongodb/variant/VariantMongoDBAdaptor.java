@@ -23,6 +23,7 @@ import com.mongodb.*;
 import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.UpdateResult;
 import htsjdk.variant.vcf.VCFConstants;
 import org.apache.commons.lang3.time.StopWatch;
@@ -68,6 +69,7 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -78,7 +80,9 @@ import java.util.stream.Collectors;
 import static org.opencb.commons.datastore.mongodb.MongoDBCollection.MULTI;
 import static org.opencb.commons.datastore.mongodb.MongoDBCollection.UPSERT;
 import static org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptorUtils.*;
+import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageManager.MongoDBVariantOptions.COLLECTION_METADATA;
 import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageManager.MongoDBVariantOptions.DEFAULT_GENOTYPE;
+import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageManager.MongoDBVariantOptions.STORAGE_ID_FORMAT;
 
 /**
  * @author Ignacio Medina <igmecas@gmail.com>
@@ -89,12 +93,16 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 
     public static final String DEFAULT_TIMEOUT = "dbadaptor.default_timeout";
     public static final String MAX_TIMEOUT = "dbadaptor.max_timeout";
+    public static final String ID_FORMAT_FIELD = "idFormat";
     private final CellBaseClient cellBaseClient;
     private boolean closeConnection;
     private final MongoDataStoreManager mongoManager;
     private final MongoDataStore db;
     private final String collectionName;
     private final MongoDBCollection variantsCollection;
+    private final MongoDBCollection metadataCollection;
+    private final VariantBinaryIdConverter binaryIdConverter = new VariantBinaryIdConverter();
+    private volatile VariantStorageIdFormat storageIdFormat;
     private final VariantSourceMongoDBAdaptor variantSourceMongoDBAdaptor;
     private final StorageEngineConfiguration storageEngineConfiguration;
     private final Pattern writeResultErrorPattern = Pattern.compile("^.*dup key: \\{ : \"([^\"]*)\" \\}$");
@@ -137,6 +145,8 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         this.configuration = storageEngineConfiguration == null || this.storageEngineConfiguration.getVariant().getOptions() == null
                 ? new ObjectMap()
                 : this.storageEngineConfiguration.getVariant().getOptions();
+        metadataCollection = db.getCollection(configuration.getString(COLLECTION_METADATA.key(), COLLECTION_METADATA.defaultValue()));
+        storageIdFormat = readStorageIdFormat();
         this.utils = new VariantDBAdaptorUtils(this);
         cellBaseClient = new CellBaseClient(toClientConfiguration(cellbaseConfiguration));
     }
@@ -149,6 +159,63 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         return db;
     }
 
+    /**
+     * Format of the ids of the variants collection, stored in the metadata collection by the first load.
+     * Read once when creating the adaptor, and refreshed by {@link #initStorageIdFormat}.
+     *
+     * @return Id format of the variants collection
+     */
+    public VariantStorageIdFormat getStorageIdFormat() {
+        return storageIdFormat;
+    }
+
+    /**
+     * Collections without metadata were loaded with the {@link VariantStorageIdFormat#STRING} format.
+     */
+    private VariantStorageIdFormat readStorageIdFormat() {
+        Document metadata = metadataCollection.find(new Document("_id", collectionName), null).first();
+        if (metadata == null) {
+            return VariantStorageIdFormat.STRING;
+        }
+        return VariantStorageIdFormat.parse(metadata.getString(ID_FORMAT_FIELD));
+    }
+
+    /**
+     * Fix the format of the ids of the variants collection, if it was not fixed before.
+     * The requested format is only used if the variants collection is empty. Otherwise, the format can not be changed.
+     *
+     * @param idFormat  Requested id format
+     * @return          Id format of the variants collection. May be different to the requested one.
+     */
+    public VariantStorageIdFormat initStorageIdFormat(VariantStorageIdFormat idFormat) {
+        Document query = new Document("_id", collectionName);
+        Document metadata = metadataCollection.find(query, null).first();
+        if (metadata == null) {
+            // Collections with variants and without metadata were loaded before the binary format
+            VariantStorageIdFormat newIdFormat = variantsCollection.count().first() == 0 ? idFormat : VariantStorageIdFormat.STRING;
+            try {
+                metadataCollection.update(query, Updates.setOnInsert(ID_FORMAT_FIELD, newIdFormat.name()),
+                        new QueryOptions(UPSERT, true));
+            } catch (MongoWriteException e) {
+                // Duplicated key exception
+                if (e.getError().getCode() != 11000) {
+                    throw e;
+                }
+            } catch (DuplicateKeyException ignore) {
+                // Someone else fixed the format concurrently.
+                // With UPSERT=true, this command should never throw DuplicatedKeyException.
+                // See https://jira.mongodb.org/browse/SERVER-14322
+            }
+            metadata = metadataCollection.find(query, null).first();
+        }
+        storageIdFormat = VariantStorageIdFormat.parse(metadata.getString(ID_FORMAT_FIELD));
+        if (storageIdFormat != idFormat) {
+            logger.warn("Variants collection '{}' already uses the {} id format. Ignore requested id format {}",
+                    collectionName, storageIdFormat, idFormat);
+        }
+        return storageIdFormat;
+    }
+
     protected MongoCredentials getCredentials() {
         return credentials;
     }
@@ -176,7 +243,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 //        String defaultGenotype = options.getString(MongoDBVariantStorageManager.DEFAULT_GENOTYPE, "0|0");
 
         DocumentToVariantConverter variantConverter = new DocumentToVariantConverter(null, includeStats ? new
-                DocumentToVariantStatsConverter(studyConfigurationManager) : null);
+                DocumentToVariantStatsConverter(studyConfigurationManager) : null).setIdFormat(getStorageIdFormat());
 //        DBObjectToStudyVariantEntryConverter sourceEntryConverter = new DBObjectToStudyVariantEntryConverter(includeSrc,
 //                includeGenotypes ? new DBObjectToSamplesConverter(studyConfiguration) : null);
         DocumentToStudyVariantEntryConverter sourceEntryConverter =
@@ -241,12 +308,15 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         if (options == null) {
             options = new QueryOptions();
         }
+        final QueryOptions finalOptions = options;
+        VariantQueryProfile profile = new VariantQueryProfile("get", query);
 
 //        parseQueryOptions(options, qb);
-        Document mongoQuery = parseQuery(query);
+        Document mongoQuery = profile.time(VariantQueryProfile.PARSE, () -> parseQuery(query));
 //        DBObject projection = parseProjectionQueryOptions(options);
-        Document projection = createProjection(query, options);
-        logger.debug("Query to be executed: '{}'", mongoQuery.toJson(new JsonWriterSettings(JsonMode.SHELL, false)));
+        Document projection = profile.time(VariantQueryProfile.PARSE, () -> createProjection(query, finalOptions));
+        String nativeQuery = mongoQuery.toJson(new JsonWriterSettings(JsonMode.SHELL, false));
+        logger.debug("Query to be executed: '{}'", nativeQuery);
 //        logger.info("Query to be executed: '{}'", mongoQuery.toJson(new JsonWriterSettings(JsonMode.SHELL, true)));
         options.putIfAbsent(QueryOptions.SKIP_COUNT, true);
 
@@ -269,10 +339,30 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 //                System.err.println("mongodb.explain = " + explain);
 //            }
 //        }
-        QueryResult<Variant> queryResult = variantsCollection.find(mongoQuery, projection, getDocumentToVariantConverter(query, options),
-                options);
+        // Fetch and convert in separated steps to measure them independently
+        QueryResult<Document> documents = profile.time(VariantQueryProfile.DATABASE,
+                () -> variantsCollection.find(mongoQuery, projection, finalOptions));
+        DocumentToVariantConverter converter = getDocumentToVariantConverter(query, options);
+        List<Variant> variants = profile.time(VariantQueryProfile.CONVERT, () -> {
+            List<Variant> list = new ArrayList<>(documents.getResult().size());
+            for (Document document : documents.getResult()) {
+                list.add(converter.convertToDataModelType(document));
+            }
+            return list;
+        });
+        QueryResult<Variant> queryResult = new QueryResult<>(documents.getId(), documents.getDbTime(), variants.size(),
+                documents.getNumTotalResults(), documents.getWarningMsg(), documents.getErrorMsg(), variants);
+
+        profile.setNativeQuery(nativeQuery).setReturned(variants.size());
+        if (VariantQueryProfile.isExplain(options)) {
+            profile.setScanned(explainScanned(new Document("find", collectionName)
+                    .append("filter", mongoQuery)
+                    .append("skip", options.getInt(QueryOptions.SKIP, 0))
+                    .append("limit", options.getInt(QueryOptions.LIMIT, 0))));
+        }
+        profile.stop(getSlowQueryThreshold());
         // set query Id?
-        return queryResult;
+        return profile.attach(queryResult, options);
     }
 
     @Override
@@ -340,9 +430,39 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 
     @Override
     public QueryResult<Long> count(Query query) {
-        Document mongoQuery = parseQuery(query);
+        VariantQueryProfile profile = new VariantQueryProfile("count", query);
+        Document mongoQuery = profile.time(VariantQueryProfile.PARSE, () -> parseQuery(query));
         logger.debug("Query to be executed: '{}'", mongoQuery);
-        return variantsCollection.count(mongoQuery);
+        QueryResult<Long> queryResult = profile.time(VariantQueryProfile.DATABASE, () -> variantsCollection.count(mongoQuery));
+        long slowQueryThreshold = getSlowQueryThreshold();
+        if (slowQueryThreshold >= 0 && profile.getTotal(TimeUnit.MILLISECONDS) >= slowQueryThreshold) {
+            profile.setNativeQuery(mongoQuery.toJson(new JsonWriterSettings(JsonMode.SHELL, false)));
+        }
+        profile.setReturned(1).stop(slowQueryThreshold);
+        return queryResult;
+    }
+
+    private long getSlowQueryThreshold() {
+        return configuration.getLong(VariantQueryProfile.SLOW_QUERY_THRESHOLD, VariantQueryProfile.SLOW_QUERY_THRESHOLD_DEFAULT);
+    }
+
+    /**
+     * Number of documents examined by the database to execute the command. Runs the command again with explain.
+     *
+     * @param command   Command to explain, i.e. find or count
+     * @return  Number of documents examined, or -1 if unknown
+     */
+    private long explainScanned(Document command) {
+        try {
+            Document explain = db.getDb().runCommand(new Document("explain", command).append("verbosity", "executionStats"));
+            Object executionStats = explain.get("executionStats");
+            if (executionStats instanceof Document) {
+                return ((Number) ((Document) executionStats).get("totalDocsExamined")).longValue();
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Unable to explain command " + command.toJson(), e);
+        }
+        return -1;
     }
 
     @Override
@@ -420,6 +540,50 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         }
     }
 
+    /**
+     * Partitions the queries by chunks of the {chr, start, end} index. Queries without region are split by chromosome,
+     * using the start of the last variant of each chromosome to estimate its size.
+     *
+     * @return VariantQueryPartitioner
+     */
+    @Override
+    public VariantQueryPartitioner getQueryPartitioner() {
+        return new VariantQueryPartitioner() {
+            @Override
+            protected List<String> getChromosomes() {
+                List<String> chromosomes = new ArrayList<>();
+                for (Object chromosome : variantsCollection.distinct(DocumentToVariantConverter.CHROMOSOME_FIELD, new Document())
+                        .getResult()) {
+                    chromosomes.add(String.valueOf(chromosome));
+                }
+                return chromosomes;
+            }
+
+            @Override
+            protected Integer getLastStart(String chromosome) {
+                Document last = variantsCollection.nativeQuery()
+                        .find(new Document(DocumentToVariantConverter.CHROMOSOME_FIELD, chromosome),
+                                new Document(DocumentToVariantConverter.START_FIELD, 1), new QueryOptions())
+                        .sort(new Document(DocumentToVariantConverter.CHROMOSOME_FIELD, -1)
+                                .append(DocumentToVariantConverter.START_FIELD, -1))
+                        .limit(1)
+                        .first();
+                return last == null ? null : last.getInteger(DocumentToVariantConverter.START_FIELD);
+            }
+
+            @Override
+            protected Comparator<String> getChromosomeComparator() {
+                // Sorted queries are sorted by _id
+                if (getStorageIdFormat() == VariantStorageIdFormat.BINARY) {
+                    // Chromosomes sharing the same hashed code are mixed in the sorted iterator, and can not be sorted
+                    return Comparator.<String>comparingInt(binaryIdConverter::getChromosomeCode).thenComparing(Comparator.naturalOrder());
+                } else {
+                    return VariantStringIdComplexTypeConverter.CHROMOSOME_COMPARATOR;
+                }
+            }
+        };
+    }
+
 
     @Override
     public QueryResult getFrequency(Query query, Region region, int regionIntervalSize) {
@@ -676,7 +840,9 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         DocumentToVariantStatsConverter statsConverter = new DocumentToVariantStatsConverter(studyConfigurationManager);
 //        VariantSource variantSource = queryOptions.get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
         DocumentToVariantConverter variantConverter = getDocumentToVariantConverter(new Query(), options);
-        boolean overwrite = options.getBoolean(VariantStorageManager.Options.OVERWRITE_STATS.key(), false);
+        // Incremental stats replace the stored stats of the cohort with the merged ones
+        boolean overwrite = options.getBoolean(VariantStorageManager.Options.OVERWRITE_STATS.key(), false)
+                || options.getBoolean(VariantStorageManager.Options.STATS_INCREMENTAL.key(), false);
         //TODO: Use the StudyConfiguration to change names to ids
 
         // TODO make unset of 'st' if already present?
@@ -700,7 +866,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
             // )
 
             if (!cohorts.isEmpty()) {
-                String id = variantConverter.buildStorageId(wrapper.getChromosome(), wrapper.getPosition(),
+                Object id = variantConverter.buildStorageId(wrapper.getChromosome(), wrapper.getPosition(),
                         variantStats.getRefAllele(), variantStats.getAltAllele());
 
 
@@ -780,7 +946,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         long start = System.nanoTime();
         DocumentToVariantConverter variantConverter = getDocumentToVariantConverter(new Query(), queryOptions);
         for (VariantAnnotation variantAnnotation : variantAnnotations) {
-            String id = variantConverter.buildStorageId(variantAnnotation.getChromosome(), variantAnnotation.getStart(),
+            Object id = variantConverter.buildStorageId(variantAnnotation.getChromosome(), variantAnnotation.getStart(),
                     variantAnnotation.getReference(), variantAnnotation.getAlternate());
             Document find = new Document("_id", id);
             DocumentToVariantAnnotationConverter converter = new DocumentToVariantAnnotationConverter();
@@ -845,8 +1011,12 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
                     if (id.contains(":")) {
                         try {
                             Variant variant = new Variant(id);
-                            String mongoId = MongoDBVariantStageLoader.STRING_ID_CONVERTER.buildId(variant);
-                            addQueryStringFilter("_id", mongoId, builder, QueryOperation.OR);
+                            if (getStorageIdFormat() == VariantStorageIdFormat.BINARY) {
+                                builder.or(new BasicDBObject("_id", binaryIdConverter.buildId(variant)));
+                            } else {
+                                String mongoId = MongoDBVariantStageLoader.STRING_ID_CONVERTER.buildId(variant);
+                                addQueryStringFilter("_id", mongoId, builder, QueryOperation.OR);
+                            }
                         } catch (IllegalArgumentException ignore) {
                             logger.info("Wrong variant " + id);
                         }
@@ -1497,7 +1667,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         List<Bson> queries = new ArrayList<>(data.size());
         List<Bson> updates = new ArrayList<>(data.size());
         // Use a multiset instead of a normal set, to keep tracking of duplicated variants
-        Multiset<String> nonInsertedVariants = HashMultiset.create();
+        Multiset<Object> nonInsertedVariants = HashMultiset.create();
         String fileIdStr = Integer.toString(fileId);
 
 //        List<String> extraFields = studyConfiguration.getAttributes().getAsStringList(VariantStorageManager.Options.EXTRA_GENOTYPE_FIELDS
@@ -1529,7 +1699,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
                 writeResult.setSkippedVariants(writeResult.getSkippedVariants() + 1);
                 continue;
             }
-            String id = variantConverter.buildStorageId(variant);
+            Object id = variantConverter.buildStorageId(variant);
             for (StudyEntry studyEntry : variant.getStudies()) {
                 if (studyEntry.getFiles().size() == 0 || !studyEntry.getFiles().get(0).getFileId().equals(fileIdStr)) {
                     continue;
@@ -1582,7 +1752,10 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
                 for (BulkWriteError writeError : e.getWriteErrors()) {
                     if (writeError.getCode() == 11000) { //Dup Key error code
                         Matcher matcher = writeResultErrorPattern.matcher(writeError.getMessage());
-                        if (matcher.find()) {
+                        if (variantConverter.getIdFormat() == VariantStorageIdFormat.BINARY) {
+                            // Binary ids are not readable from the error message
+                            nonInsertedVariants.add(((Document) queries.get(writeError.getIndex())).get("_id"));
+                        } else if (matcher.find()) {
                             String id = matcher.group(1);
                             nonInsertedVariants.add(id);
                         } else {
@@ -1605,7 +1778,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 
         for (Variant variant : data) {
             variant.setAnnotation(null);
-            String id = variantConverter.buildStorageId(variant);
+            Object id = variantConverter.buildStorageId(variant);
 
             if (nonInsertedVariants != null && !nonInsertedVariants.contains(id)) {
                 continue;   //Already inserted variant
@@ -1805,7 +1978,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
                 ? utils.getStudyIds(query.getAsList(VariantQueryParams.RETURNED_STUDIES.key()), options)
                 : null;
         return new DocumentToVariantConverter(studyEntryConverter,
-                new DocumentToVariantStatsConverter(studyConfigurationManager), returnedStudies);
+                new DocumentToVariantStatsConverter(studyConfigurationManager), returnedStudies).setIdFormat(getStorageIdFormat());
     }
 
     @Deprecated
@@ -2245,8 +2418,16 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
     }
 
     private QueryBuilder getRegionFilter(Region region, QueryBuilder builder) {
-        List<String> chunkIds = getChunkIds(region);
-        builder.and(DocumentToVariantConverter.AT_FIELD + '.' + DocumentToVariantConverter.CHUNK_IDS_FIELD).in(chunkIds);
+        if (getStorageIdFormat() == VariantStorageIdFormat.BINARY) {
+            builder.and("_id")
+                    .greaterThanEquals(binaryIdConverter.buildLowerBound(region.getChromosome(), getChunkStartPosition(region)))
+                    .lessThan(binaryIdConverter.buildLowerBound(region.getChromosome(), region.getEnd() + 1L));
+            // Different chromosomes may share the same code
+            builder.and(DocumentToVariantConverter.CHROMOSOME_FIELD).is(region.getChromosome());
+        } else {
+            List<String> chunkIds = getChunkIds(region);
+            builder.and(DocumentToVariantConverter.AT_FIELD + '.' + DocumentToVariantConverter.CHUNK_IDS_FIELD).in(chunkIds);
+        }
         builder.and(DocumentToVariantConverter.END_FIELD).greaterThanEquals(region.getStart());
         builder.and(DocumentToVariantConverter.START_FIELD).lessThanEquals(region.getEnd());
         return builder;
@@ -2257,7 +2438,22 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
             DBObject[] objects = new DBObject[regions.size()];
             int i = 0;
             for (Region region : regions) {
-                if (region.getEnd() - region.getStart() < 1000000) {
+                if (getStorageIdFormat() == VariantStorageIdFormat.BINARY) {
+                    // Range over the _id, starting in the first chunk of the region, as the chunk ids filter
+                    long startPosition = region.getEnd() - region.getStart() < 1000000 ? getChunkStartPosition(region) : 0;
+                    DBObject regionObject = new BasicDBObject("_id",
+                            new Document("$gte", binaryIdConverter.buildLowerBound(region.getChromosome(), startPosition))
+                                    .append("$lt", binaryIdConverter.buildLowerBound(region.getChromosome(), region.getEnd() + 1L)));
+                    // Different chromosomes may share the same code
+                    regionObject.put(DocumentToVariantConverter.CHROMOSOME_FIELD, region.getChromosome());
+                    if (region.getEnd() != Integer.MAX_VALUE) {
+                        regionObject.put(DocumentToVariantConverter.START_FIELD, new Document("$lte", region.getEnd()));
+                    }
+                    if (region.getStart() != 0) {
+                        regionObject.put(DocumentToVariantConverter.END_FIELD, new Document("$gte", region.getStart()));
+                    }
+                    objects[i] = regionObject;
+                } else if (region.getEnd() - region.getStart() < 1000000) {
                     List<String> chunkIds = getChunkIds(region);
                     DBObject regionObject = new BasicDBObject(DocumentToVariantConverter.AT_FIELD + '.' + DocumentToVariantConverter
                             .CHUNK_IDS_FIELD,
@@ -2318,13 +2514,15 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
     }
 
     void createIndexes(QueryOptions options) {
-        createIndexes(options, variantsCollection);
+        QueryOptions indexOptions = new QueryOptions(options);
+        indexOptions.put(STORAGE_ID_FORMAT.key(), getStorageIdFormat().name());
+        createIndexes(indexOptions, variantsCollection);
     }
 
     /**
      * Create missing indexes on the given VariantsCollection.
      *
-     * - ChunkID
+     * - ChunkID : Only for {@link VariantStorageIdFormat#STRING} ids
      * - Chromosome + start + end
      * - IDs
      * - StudyId + FileId
@@ -2342,7 +2540,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
      * - TranscriptAnnotationFlags : SPARSE
      *
      *
-     * @param options               Unused Options.
+     * @param options               Options. Reads the {@link MongoDBVariantStorageManager.MongoDBVariantOptions#STORAGE_ID_FORMAT}
      * @param variantsCollection    MongoDBCollection
      */
     public static void createIndexes(QueryOptions options, MongoDBCollection variantsCollection) {
@@ -2352,8 +2550,11 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 
         // Variant indices
         ////////////////
-        variantsCollection.createIndex(new Document(DocumentToVariantConverter.AT_FIELD + '.'
-                + DocumentToVariantConverter.CHUNK_IDS_FIELD, 1), onBackground);
+        VariantStorageIdFormat idFormat = VariantStorageIdFormat.parse(options.getString(STORAGE_ID_FORMAT.key()));
+        if (idFormat == VariantStorageIdFormat.STRING) {
+            variantsCollection.createIndex(new Document(DocumentToVariantConverter.AT_FIELD + '.'
+                    + DocumentToVariantConverter.CHUNK_IDS_FIELD, 1), onBackground);
+        }
         variantsCollection.createIndex(new Document(DocumentToVariantConverter.CHROMOSOME_FIELD, 1)
                 .append(DocumentToVariantConverter.START_FIELD, 1)
                 .append(DocumentToVariantConverter.END_FIELD, 1), onBackground);
@@ -2498,9 +2699,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
     private List<String> getChunkIds(Region region) {
         List<String> chunkIds = new LinkedList<>();
 
-        int chunkSize = (region.getEnd() - region.getStart() > VariantMongoDBWriter.CHUNK_SIZE_BIG)
-                ? VariantMongoDBWriter.CHUNK_SIZE_BIG
-                : VariantMongoDBWriter.CHUNK_SIZE_SMALL;
+        int chunkSize = getChunkSize(region);
         int ks = chunkSize / 1000;
         int chunkStart = region.getStart() / chunkSize;
         int chunkEnd = region.getEnd() / chunkSize;
@@ -2512,6 +2711,17 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         return chunkIds;
     }
 
+    private int getChunkSize(Region region) {
+        return (region.getEnd() - region.getStart() > VariantMongoDBWriter.CHUNK_SIZE_BIG)
+                ? VariantMongoDBWriter.CHUNK_SIZE_BIG
+                : VariantMongoDBWriter.CHUNK_SIZE_SMALL;
+    }
+
+    private int getChunkStartPosition(Region region) {
+        int chunkSize = getChunkSize(region);
+        return region.getStart() / chunkSize * chunkSize;
+    }
+
     private int getChunkId(int position, int chunksize) {
         return position / chunksize;
     }
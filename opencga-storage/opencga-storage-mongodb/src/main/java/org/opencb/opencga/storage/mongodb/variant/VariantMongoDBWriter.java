@@ -212,7 +212,7 @@ public class VariantMongoDBWriter extends VariantDBWriter {
         // Do not create the VariantConverter with the sourceEntryConverter.
         // The variantSourceEntry conversion will be done on demand to create a proper mongoDB update query.
         // variantConverter = new DBObjectToVariantConverter(sourceEntryConverter);
-        variantConverter = new DocumentToVariantConverter(null, statsConverter);
+        variantConverter = new DocumentToVariantConverter(null, statsConverter).setIdFormat(dbAdaptor.getStorageIdFormat());
     }
 
 
@@ -24,8 +24,8 @@ import org.bson.types.Binary;
 import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.commons.datastore.core.ComplexTypeConverter;
 import org.opencb.commons.datastore.core.QueryResult;
-import org.opencb.commons.utils.CompressionUtils;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.utils.CompressionCodec;
 import org.opencb.opencga.storage.core.variant.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.VariantStorageManager.Options;
 import org.opencb.opencga.storage.mongodb.variant.protobuf.VariantMongoDBProto;
@@ -34,7 +34,6 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.zip.DataFormatException;
 
@@ -52,6 +51,8 @@ public class DocumentToSamplesConverter /*implements ComplexTypeConverter<Varian
     private final Map<Integer, BiMap<String, Integer>> __studySamplesId; //Inverse map from "sampleIds". Do not use directly, can be null
     // . Use "getIndexedIdSamplesMap()"
     private final Map<Integer, LinkedHashMap<String, Integer>> __returnedSamplesPosition;
+    // Position of the returned samples in each file, by study. Do not use directly. Use "getReturnedSamplesInFile()"
+    private final Map<Integer, Map<Integer, FileSamplesPosition>> __returnedSamplesInFile;
     private final Map<Integer, Set<String>> studyDefaultGenotypeSet;
     private LinkedHashSet<String> returnedSamples;
     private StudyConfigurationManager studyConfigurationManager;
@@ -108,6 +109,7 @@ public class DocumentToSamplesConverter /*implements ComplexTypeConverter<Varian
         studyConfigurations = new HashMap<>();
         __studySamplesId = new HashMap<>();
         __returnedSamplesPosition = new HashMap<>();
+        __returnedSamplesInFile = new HashMap<>();
         studyDefaultGenotypeSet = new HashMap<>();
         returnedSamples = new LinkedHashSet<>();
         studyConfigurationManager = null;
@@ -290,81 +292,34 @@ public class DocumentToSamplesConverter /*implements ComplexTypeConverter<Varian
             }
 
             for (Integer fid : studyConfiguration.getIndexedFiles()) {
+                FileSamplesPosition fileSamples = getReturnedSamplesInFile(studyConfiguration, fid, samplesPositionToReturn);
+                if (fileSamples.size() == 0) {
+                    // None of the returned samples is in this file. Do not decode any field.
+                    continue;
+                }
+                int extraFieldPosition;
+                if (excludeGenotypes) {
+                    extraFieldPosition = 0; //There are no GT
+                } else {
+                    extraFieldPosition = 1; //Skip GT
+                }
                 if (files.containsKey(fid)) {
                     Document sampleDatas = (Document) files.get(fid).get(DocumentToStudyVariantEntryConverter.SAMPLE_DATA_FIELD);
-
-                    int extraFieldPosition;
-                    if (excludeGenotypes) {
-                        extraFieldPosition = 0; //There are no GT
-                    } else {
-                        extraFieldPosition = 1; //Skip GT
-                    }
                     for (String extraField : extraFields) {
-                        extraField = extraField.toLowerCase();
-                        byte[] byteArray = sampleDatas == null || !sampleDatas.containsKey(extraField)
-                                ? null
-                                : sampleDatas.get(extraField, Binary.class).getData();
-
-                        VariantMongoDBProto.OtherFields otherFields = null;
-                        if (compressExtraParams && byteArray != null) {
-                            try {
-                                byteArray = CompressionUtils.decompress(byteArray);
-                            } catch (IOException e) {
-                                throw new UncheckedIOException(e);
-                            } catch (DataFormatException ignore) {
-                                //It was not actually compressed, so it failed decompressing
-                            }
-                        }
-                        try {
-                            if (byteArray != null) {
-                                otherFields = VariantMongoDBProto.OtherFields.parseFrom(byteArray);
-                            }
-                        } catch (InvalidProtocolBufferException e) {
-                            throw new UncheckedIOException(e);
+                        VariantMongoDBProto.OtherFields otherFields = parseOtherFields(sampleDatas, extraField.toLowerCase(),
+                                compressExtraParams);
+                        // Only decode the values of the returned samples
+                        for (int i = 0; i < fileSamples.size(); i++) {
+                            samplesData.get(fileSamples.returnedPositions[i])
+                                    .set(extraFieldPosition, getOtherFieldValue(otherFields, fileSamples.filePositions[i]));
                         }
-                        Supplier<String> supplier;
-                        if (otherFields == null) {
-                            supplier = () -> UNKNOWN_FIELD;
-                        } else if (otherFields.getIntValuesCount() > 0) {
-                            final Iterator<Integer> iterator = otherFields.getIntValuesList().iterator();
-                            supplier = () -> iterator.hasNext() ? INTEGER_COMPLEX_TYPE_CONVERTER.convertToDataModelType(iterator.next())
-                                    : UNKNOWN_FIELD;
-                        } else if (otherFields.getFloatValuesCount() > 0) {
-                            final Iterator<Integer> iterator = otherFields.getFloatValuesList().iterator();
-                            supplier = () -> iterator.hasNext() ? FLOAT_COMPLEX_TYPE_CONVERTER.convertToDataModelType(iterator.next())
-                                    : UNKNOWN_FIELD;
-                        } else {
-                            final Iterator<String> iterator = otherFields.getStringValuesList().iterator();
-                            supplier = () -> iterator.hasNext() ? iterator.next() : UNKNOWN_FIELD;
-                        }
-                        for (Integer sampleId : studyConfiguration.getSamplesInFiles().get(fid)) {
-                            String sampleName = studyConfiguration.getSampleIds().inverse().get(sampleId);
-                            Integer samplePosition = samplesPositionToReturn.get(sampleName);
-                            if (samplePosition == null) {
-                                // The sample on this position is not returned. Skip this value.
-                                supplier.get();
-                            } else {
-                                samplesData.get(samplePosition).set(extraFieldPosition, supplier.get());
-                            }
-                        }
-
                         extraFieldPosition++;
                     }
                 } else {
-                    int extraFieldPosition;
-                    if (excludeGenotypes) {
-                        extraFieldPosition = 0; //There are no GT
-                    } else {
-                        extraFieldPosition = 1; //Skip GT
-                    }
                     for (int i = 0; i < extraFields.size(); i++) {
-                        for (Integer sampleId : studyConfiguration.getSamplesInFiles().get(fid)) {
-                            String sampleName = studyConfiguration.getSampleIds().inverse().get(sampleId);
-                            Integer samplePosition = samplesPositionToReturn.get(sampleName);
-                            if (samplePosition != null) {
-                                if (samplesData.get(samplePosition).get(extraFieldPosition) == null) {
-                                    samplesData.get(samplePosition).set(extraFieldPosition, UNKNOWN_FIELD);
-                                }
+                        for (int samplePosition : fileSamples.returnedPositions) {
+                            if (samplesData.get(samplePosition).get(extraFieldPosition) == null) {
+                                samplesData.get(samplePosition).set(extraFieldPosition, UNKNOWN_FIELD);
                             }
                         }
                         extraFieldPosition++;
@@ -392,6 +347,53 @@ public class DocumentToSamplesConverter /*implements ComplexTypeConverter<Varian
         return samplesData;
     }
 
+    /**
+     * Read the values of an extra field from a file. The field is only decompressed if some returned sample is in the file.
+     *
+     * @param sampleDatas         Sample data from the file
+     * @param extraField          Extra field, lower case
+     * @param compressExtraParams If the extra fields may be compressed
+     * @return                    Values of the extra field for all the samples in the file, or null if missing
+     */
+    private VariantMongoDBProto.OtherFields parseOtherFields(Document sampleDatas, String extraField, boolean compressExtraParams) {
+        byte[] byteArray = sampleDatas == null || !sampleDatas.containsKey(extraField)
+                ? null
+                : sampleDatas.get(extraField, Binary.class).getData();
+        if (byteArray == null) {
+            return null;
+        }
+        if (compressExtraParams) {
+            try {
+                byteArray = CompressionCodec.decompress(byteArray);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (DataFormatException ignore) {
+                //It was not actually compressed, so it failed decompressing
+            }
+        }
+        try {
+            return VariantMongoDBProto.OtherFields.parseFrom(byteArray);
+        } catch (InvalidProtocolBufferException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String getOtherFieldValue(VariantMongoDBProto.OtherFields otherFields, int position) {
+        if (otherFields == null) {
+            return UNKNOWN_FIELD;
+        } else if (otherFields.getIntValuesCount() > 0) {
+            return position < otherFields.getIntValuesCount()
+                    ? INTEGER_COMPLEX_TYPE_CONVERTER.convertToDataModelType(otherFields.getIntValues(position))
+                    : UNKNOWN_FIELD;
+        } else if (otherFields.getFloatValuesCount() > 0) {
+            return position < otherFields.getFloatValuesCount()
+                    ? FLOAT_COMPLEX_TYPE_CONVERTER.convertToDataModelType(otherFields.getFloatValues(position))
+                    : UNKNOWN_FIELD;
+        } else {
+            return position < otherFields.getStringValuesCount() ? otherFields.getStringValues(position) : UNKNOWN_FIELD;
+        }
+    }
+
     private void fillStudyEntryFields(StudyEntry study, LinkedHashMap<String, Integer> samplesPositionToReturn, List<String> extraFields,
                 List<List<String>> samplesData, boolean excludeGenotypes) {
         if (study != null) {
@@ -431,6 +433,9 @@ public class DocumentToSamplesConverter /*implements ComplexTypeConverter<Varian
         boolean compressExtraParams = studyConfiguration.getAttributes()
                 .getBoolean(Options.EXTRA_GENOTYPE_FIELDS_COMPRESS.key(),
                         Options.EXTRA_GENOTYPE_FIELDS_COMPRESS.defaultValue());
+        CompressionCodec compressionCodec = CompressionCodec.fromName(studyConfiguration.getAttributes()
+                .getString(Options.EXTRA_GENOTYPE_FIELDS_COMPRESS_METHOD.key(),
+                        Options.EXTRA_GENOTYPE_FIELDS_COMPRESS_METHOD.defaultValue()));
 
         Set<String> defaultGenotype = studyDefaultGenotypeSet.get(studyId).stream().collect(Collectors.toSet());
 
@@ -550,7 +555,7 @@ public class DocumentToSamplesConverter /*implements ComplexTypeConverter<Varian
                 if (compressExtraParams) {
                     if (byteArray.length > 50) {
                         try {
-                            byteArray = CompressionUtils.compress(byteArray);
+                            byteArray = compressionCodec.compress(byteArray);
                         } catch (IOException e) {
                             throw new UncheckedIOException(e);
                         }
@@ -589,11 +594,13 @@ public class DocumentToSamplesConverter /*implements ComplexTypeConverter<Varian
         this.returnedSamples = new LinkedHashSet<>(returnedSamples);
         __studySamplesId.clear();
         __returnedSamplesPosition.clear();
+        __returnedSamplesInFile.clear();
     }
 
     public void addStudyConfiguration(StudyConfiguration studyConfiguration) {
         this.studyConfigurations.put(studyConfiguration.getStudyId(), studyConfiguration);
         this.__studySamplesId.put(studyConfiguration.getStudyId(), null);
+        this.__returnedSamplesInFile.remove(studyConfiguration.getStudyId());
 
         Set defGenotypeSet = studyConfiguration.getAttributes().get(DEFAULT_GENOTYPE.key(), Set.class);
         if (defGenotypeSet == null) {
@@ -651,6 +658,34 @@ public class DocumentToSamplesConverter /*implements ComplexTypeConverter<Varian
         return __returnedSamplesPosition.get(studyConfiguration.getStudyId());
     }
 
+    /**
+     * Lazy usage of the position of the returned samples in a file. Reused by all the documents from the same study.
+     **/
+    private FileSamplesPosition getReturnedSamplesInFile(StudyConfiguration studyConfiguration, Integer fileId,
+                                                         LinkedHashMap<String, Integer> samplesPositionToReturn) {
+        Map<Integer, FileSamplesPosition> filesMap = __returnedSamplesInFile.computeIfAbsent(studyConfiguration.getStudyId(),
+                studyId -> new HashMap<>());
+        FileSamplesPosition fileSamples = filesMap.get(fileId);
+        if (fileSamples == null) {
+            Set<Integer> samplesInFile = studyConfiguration.getSamplesInFiles().get(fileId);
+            BiMap<Integer, String> sampleNames = studyConfiguration.getSampleIds().inverse();
+            List<int[]> positions = new ArrayList<>();
+            int filePosition = 0;
+            if (samplesInFile != null) {
+                for (Integer sampleId : samplesInFile) {
+                    Integer samplePosition = samplesPositionToReturn.get(sampleNames.get(sampleId));
+                    if (samplePosition != null) {
+                        positions.add(new int[]{filePosition, samplePosition});
+                    }
+                    filePosition++;
+                }
+            }
+            fileSamples = new FileSamplesPosition(positions);
+            filesMap.put(fileId, fileSamples);
+        }
+        return fileSamples;
+    }
+
     public static LinkedHashMap<String, Integer> getReturnedSamplesPosition(
             StudyConfiguration studyConfiguration,
             LinkedHashSet<String> returnedSamples) {
@@ -679,4 +714,25 @@ public class DocumentToSamplesConverter /*implements ComplexTypeConverter<Varian
             return format;
         }
     }
+
+    /**
+     * Returned samples from a file. For each sample, the position in the file and the position in the returned samples data.
+     */
+    private static final class FileSamplesPosition {
+        private final int[] filePositions;
+        private final int[] returnedPositions;
+
+        FileSamplesPosition(List<int[]> positions) {
+            filePositions = new int[positions.size()];
+            returnedPositions = new int[positions.size()];
+            for (int i = 0; i < positions.size(); i++) {
+                filePositions[i] = positions.get(i)[0];
+                returnedPositions[i] = positions.get(i)[1];
+            }
+        }
+
+        int size() {
+            return filePositions.length;
+        }
+    }
 }
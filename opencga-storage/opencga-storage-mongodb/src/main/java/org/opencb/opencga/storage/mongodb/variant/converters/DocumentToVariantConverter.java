@@ -99,6 +99,8 @@ public class DocumentToVariantConverter implements ComplexTypeConverter<Variant,
     private DocumentToVariantAnnotationConverter variantAnnotationConverter;
     private DocumentToVariantStatsConverter statsConverter;
     private final VariantStringIdComplexTypeConverter idConverter = new VariantStringIdComplexTypeConverter();
+    private final VariantBinaryIdConverter binaryIdConverter = new VariantBinaryIdConverter();
+    private VariantStorageIdFormat idFormat = VariantStorageIdFormat.STRING;
 
     // Add default variant ID if it is missing. Use CHR:POS:REF:ALT
     private boolean addDefaultId;
@@ -243,14 +245,13 @@ public class DocumentToVariantConverter implements ComplexTypeConverter<Variant,
         mongoVariant.append(AT_FIELD, at);
 
         // Two different chunk sizes are calculated for different resolution levels: 1k and 10k
-        List<String> chunkIds = new LinkedList<>();
-        String chunkSmall = variant.getChromosome() + "_" + variant.getStart() / VariantMongoDBWriter.CHUNK_SIZE_SMALL + "_"
-                + VariantMongoDBWriter.CHUNK_SIZE_SMALL / 1000 + "k";
-        String chunkBig = variant.getChromosome() + "_" + variant.getStart() / VariantMongoDBWriter.CHUNK_SIZE_BIG + "_"
-                + VariantMongoDBWriter.CHUNK_SIZE_BIG / 1000 + "k";
-        chunkIds.add(chunkSmall);
-        chunkIds.add(chunkBig);
-        at.append(CHUNK_IDS_FIELD, chunkIds);
+        // Binary ids are sorted by position, so regions are queried with a range over the _id, without chunk ids
+        if (idFormat != VariantStorageIdFormat.BINARY) {
+            List<String> chunkIds = new LinkedList<>();
+            chunkIds.add(buildChunkId(variant.getChromosome(), variant.getStart(), VariantMongoDBWriter.CHUNK_SIZE_SMALL));
+            chunkIds.add(buildChunkId(variant.getChromosome(), variant.getStart(), VariantMongoDBWriter.CHUNK_SIZE_BIG));
+            at.append(CHUNK_IDS_FIELD, chunkIds);
+        }
 
         // Transform HGVS: Map of lists -> List of map entries
         List<Document> hgvs = new LinkedList<>();
@@ -288,12 +289,23 @@ public class DocumentToVariantConverter implements ComplexTypeConverter<Variant,
         return mongoVariant;
     }
 
-    public String buildStorageId(Variant v) {
-        return idConverter.buildId(v);
-//        return buildStorageId(v.getChromosome(), v.getStart(), v.getReference(), v.getAlternate());
+    public Object buildStorageId(Variant v) {
+        return buildStorageId(v.getChromosome(), v.getStart(), v.getReference(), v.getAlternate());
     }
 
-    public String buildStorageId(String chromosome, int start, String reference, String alternate) {
+    /**
+     * Build the _id of the variant, depending on the {@link VariantStorageIdFormat}.
+     *
+     * @param chromosome    Chromosome
+     * @param start         Start
+     * @param reference     Reference allele
+     * @param alternate     Alternate allele
+     * @return              String id, or Binary id
+     */
+    public Object buildStorageId(String chromosome, int start, String reference, String alternate) {
+        if (idFormat == VariantStorageIdFormat.BINARY) {
+            return binaryIdConverter.buildId(chromosome, start, reference, alternate);
+        }
         return idConverter.buildId(chromosome, start, reference, alternate);
 //
 //        StringBuilder builder = new StringBuilder(chromosome);
@@ -321,6 +333,19 @@ public class DocumentToVariantConverter implements ComplexTypeConverter<Variant,
 //        return builder.toString();
     }
 
+    public String buildChunkId(String chromosome, int start, int chunkSize) {
+        return chromosome + "_" + start / chunkSize + "_" + chunkSize / 1000 + "k";
+    }
+
+    public VariantStorageIdFormat getIdFormat() {
+        return idFormat;
+    }
+
+    public DocumentToVariantConverter setIdFormat(VariantStorageIdFormat idFormat) {
+        this.idFormat = idFormat;
+        return this;
+    }
+
     public static String toShortFieldName(String longFieldName) {
         if (FIELDS_MAP.containsKey(longFieldName)) {
             return FIELDS_MAP.get(longFieldName);
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.mongodb.variant.converters;
+
+import org.apache.commons.lang.StringUtils;
+import org.bson.types.Binary;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Creates a fixed width, sorted binary key for MongoDB.
+ *
+ * Format:
+ * [CHR (2 bytes)][POS (4 bytes)][HASH (8 bytes)]
+ *
+ * Where CHR is the numeric value for numeric chromosomes, followed by X, Y and MT. Any other chromosome
+ * takes a hash of the name, so different chromosomes may share the same code.
+ * Where POS is the start of the variant, big endian.
+ * Where HASH is a 64 bit hash of the chromosome, reference and alternate.
+ *
+ * The "chr" prefix is removed from the chromosome name before building the CHR and the HASH.
+ *
+ * MongoDB compares BinData of the same length and subtype byte by byte, so all the variants from a chromosome
+ * are sorted by position, and can be queried with a range over the _id.
+ *
+ * Collections with binary ids do not have chunk ids. Region queries use a range over the _id instead.
+ */
+public class VariantBinaryIdConverter {
+
+    public static final int ID_LENGTH = 14;
+
+    private static final int MAX_NUMERIC_CHROMOSOME = 0x3FFF;
+    private static final int CHROMOSOME_X = 0x4001;
+    private static final int CHROMOSOME_Y = 0x4002;
+    private static final int CHROMOSOME_MT = 0x4003;
+    private static final int HASHED_CHROMOSOME = 0x8000;
+    private static final long MAX_POSITION = 0xFFFFFFFFL;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public Binary buildId(Variant variant) {
+        return buildId(variant.getChromosome(), variant.getStart(), variant.getReference(), variant.getAlternate());
+    }
+
+    public Binary buildId(String chromosome, int start, String reference, String alternate) {
+        String chr = normalizeChromosome(chromosome);
+        ByteBuffer buffer = ByteBuffer.allocate(ID_LENGTH);
+        buffer.putShort((short) getNormalizedChromosomeCode(chr));
+        buffer.putInt(start);
+        buffer.putLong(hash(chr, reference, alternate));
+        return new Binary(buffer.array());
+    }
+
+    /**
+     * Smallest possible id of a variant from the chromosome starting at the given position.
+     * Any variant starting at the position, or after it, will have a greater or equal id.
+     *
+     * @param chromosome    Chromosome
+     * @param position      Start position
+     * @return              Binary id
+     */
+    public Binary buildLowerBound(String chromosome, long position) {
+        ByteBuffer buffer = ByteBuffer.allocate(ID_LENGTH);
+        buffer.putShort((short) getChromosomeCode(chromosome));
+        buffer.putInt((int) Math.min(Math.max(position, 0), MAX_POSITION));
+        return new Binary(buffer.array());
+    }
+
+    public int getChromosomeCode(String chromosome) {
+        return getNormalizedChromosomeCode(normalizeChromosome(chromosome));
+    }
+
+    /**
+     * Remove the "chr" prefix, so "chr1" and "1" get the same id.
+     */
+    private static String normalizeChromosome(String chromosome) {
+        return chromosome.startsWith("chr") ? chromosome.substring(3) : chromosome;
+    }
+
+    private int getNormalizedChromosomeCode(String chr) {
+        if (!chr.isEmpty() && chr.length() <= 4 && StringUtils.isNumeric(chr)) {
+            int code = Integer.parseInt(chr);
+            if (code <= MAX_NUMERIC_CHROMOSOME) {
+                return code;
+            }
+        }
+        switch (chr) {
+            case "X":
+                return CHROMOSOME_X;
+            case "Y":
+                return CHROMOSOME_Y;
+            case "M":
+            case "MT":
+                return CHROMOSOME_MT;
+            default:
+                return HASHED_CHROMOSOME | (chr.hashCode() & 0x7FFF);
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the normalized chromosome and the alleles.
+     * Empty alleles "-" are hashed as "", as in the {@link VariantStringIdComplexTypeConverter}.
+     */
+    private long hash(String chromosome, String reference, String alternate) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, chromosome);
+        hash = (hash ^ ':') * FNV_PRIME;
+        hash = hash(hash, reference.equals("-") ? "" : reference);
+        hash = (hash ^ ':') * FNV_PRIME;
+        hash = hash(hash, alternate.equals("-") ? "" : alternate);
+        return hash;
+    }
+
+    private long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.mongodb.variant.converters;
+
+/**
+ * Format of the _id of the variants collection.
+ */
+public enum VariantStorageIdFormat {
+    /**
+     * Readable ids "CHR:POS:REF:ALT" and chunk ids "CHR_CHUNK_SIZEk". See {@link VariantStringIdComplexTypeConverter}.
+     */
+    STRING,
+    /**
+     * Fixed width binary ids, without chunk ids. See {@link VariantBinaryIdConverter}.
+     */
+    BINARY;
+
+    public static VariantStorageIdFormat parse(String value) {
+        if (value == null || value.isEmpty()) {
+            return STRING;
+        }
+        return valueOf(value.toUpperCase());
+    }
+}
@@ -6,6 +6,8 @@ import org.opencb.biodata.models.variant.Variant;
 import org.opencb.commons.datastore.core.ComplexTypeConverter;
 import org.opencb.commons.utils.CryptoUtils;
 
+import java.util.Comparator;
+
 /**
  * Creates a sorted key for MongoDB.
  *
@@ -29,6 +31,12 @@ public class VariantStringIdComplexTypeConverter implements ComplexTypeConverter
     public static final String REF_FIELD = "ref";
     public static final String ALT_FIELD = "alt";
 
+    /**
+     * Order of the chromosomes in the sorted ids.
+     */
+    public static final Comparator<String> CHROMOSOME_COMPARATOR =
+            Comparator.comparing(chromosome -> appendChromosome(chromosome, new StringBuilder()).append(SEPARATOR_CHAR).toString());
+
     public Variant convertToDataModelType(String object) {
         String[] split = object.split(SEPARATOR, -1);
         return new Variant(split[0].trim(), Integer.parseInt(split[1].trim()), split[2], split[3]);
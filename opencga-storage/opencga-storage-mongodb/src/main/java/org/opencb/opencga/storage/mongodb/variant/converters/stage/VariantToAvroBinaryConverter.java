@@ -11,7 +11,7 @@ import org.bson.types.Binary;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.VariantAvro;
 import org.opencb.commons.datastore.core.ComplexTypeConverter;
-import org.opencb.commons.utils.CompressionUtils;
+import org.opencb.opencga.storage.core.utils.CompressionCodec;
 
 import java.io.*;
 import java.util.zip.DataFormatException;
@@ -25,13 +25,27 @@ public class VariantToAvroBinaryConverter implements ComplexTypeConverter<Varian
 
     private SpecificDatumWriter<VariantAvro> writer = new SpecificDatumWriter<>(VariantAvro.getClassSchema());
     private SpecificDatumReader<VariantAvro> reader = new SpecificDatumReader<>(VariantAvro.getClassSchema());
+    private final CompressionCodec compressionCodec;
+
+    public VariantToAvroBinaryConverter() {
+        this(CompressionCodec.GZIP);
+    }
+
+    /**
+     * Converter writing binaries compressed with the given codec. Any codec can be read, as it is detected from the binary.
+     *
+     * @param compressionCodec Codec used to compress the new binaries
+     */
+    public VariantToAvroBinaryConverter(CompressionCodec compressionCodec) {
+        this.compressionCodec = compressionCodec;
+    }
 
     @Override
     public Variant convertToDataModelType(Binary object) {
         BinaryDecoder decoder = null;
         try {
             byte[] data = object.getData();
-            data = CompressionUtils.decompress(data);
+            data = CompressionCodec.decompress(data);
             InputStream is = new ByteArrayInputStream(data);
 //                is = new GZIPInputStream(is);
             decoder = DecoderFactory.get().directBinaryDecoder(is, decoder);
@@ -59,7 +73,7 @@ public class VariantToAvroBinaryConverter implements ComplexTypeConverter<Varian
             outputStream.flush();
             outputStream.close();
             byte[] data = byteArrayOutputStream.toByteArray();
-            data = CompressionUtils.compress(data);
+            data = compressionCodec.compress(data);
             return new Binary(data);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
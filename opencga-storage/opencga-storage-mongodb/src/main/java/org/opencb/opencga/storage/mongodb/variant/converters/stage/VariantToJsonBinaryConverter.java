@@ -5,7 +5,7 @@ import org.bson.types.Binary;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.VariantAvro;
 import org.opencb.commons.datastore.core.ComplexTypeConverter;
-import org.opencb.commons.utils.CompressionUtils;
+import org.opencb.opencga.storage.core.utils.CompressionCodec;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -19,13 +19,27 @@ import java.util.zip.DataFormatException;
 public class VariantToJsonBinaryConverter implements ComplexTypeConverter<Variant, Binary> {
 
     private ObjectMapper mapper = new ObjectMapper();
+    private final CompressionCodec compressionCodec;
+
+    public VariantToJsonBinaryConverter() {
+        this(CompressionCodec.GZIP);
+    }
+
+    /**
+     * Converter writing binaries compressed with the given codec. Any codec can be read, as it is detected from the binary.
+     *
+     * @param compressionCodec Codec used to compress the new binaries
+     */
+    public VariantToJsonBinaryConverter(CompressionCodec compressionCodec) {
+        this.compressionCodec = compressionCodec;
+    }
 
     @Override
     public Variant convertToDataModelType(Binary object) {
         try {
             byte[] data = object.getData();
             try {
-                data = CompressionUtils.decompress(data);
+                data = CompressionCodec.decompress(data);
             } catch (DataFormatException e) {
                 throw new RuntimeException(e);
             }
@@ -39,7 +53,7 @@ public class VariantToJsonBinaryConverter implements ComplexTypeConverter<Varian
     public Binary convertToStorageType(Variant variant) {
         byte[] data = variant.toJson().getBytes();
         try {
-            data = CompressionUtils.compress(data);
+            data = compressionCodec.compress(data);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.mongodb.variant.load;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.opencb.biodata.formats.variant.io.VariantReader;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantType;
+import org.opencb.commons.datastore.core.ComplexTypeConverter;
+import org.opencb.commons.io.DataReader;
+import org.opencb.opencga.storage.core.utils.CompressionCodec;
+import org.opencb.opencga.storage.mongodb.variant.converters.stage.VariantToAvroBinaryConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.opencb.opencga.storage.mongodb.variant.load.MongoDBVariantStageLoader.STRING_ID_CONVERTER;
+
+/**
+ * DataReader merging a set of sorted variant files by genomic position.
+ * Produces the same documents that the {@link MongoDBVariantStageReader} would read from the stage collection
+ * after loading all the files, without writing them into the stage collection.
+ *
+ * { _id: "1: 1000:A:C", ref: "A", alt: "C", end: 1000, "<studyId>" : { "<fileId>" : [ BinData(), ... ] } }
+ *
+ * Each file must be sorted by start within each chromosome, and all the variants from the same chromosome
+ * must be together. Chromosomes can be in any order, as long as it is the same for all the files. The chromosomes
+ * of each file are read from the file stats, to know which files are going to be merged in each chromosome.
+ */
+public class MongoDBVariantDirectMergeReader implements DataReader<Document> {
+
+    private static final int FILE_BATCH_SIZE = 100;
+
+    private final String studyIdStr;
+    private final List<FileStream> streams;
+    private final PriorityQueue<FileStream> queue = new PriorityQueue<>(Comparator.comparing(FileStream::headId));
+    private final ComplexTypeConverter<Variant, Binary> variantConverter = new VariantToAvroBinaryConverter(CompressionCodec.NONE);
+    private Document next = null;   // Pending variant
+    private String chromosome = null;
+    private long numVariants = 0;
+
+    private final Logger logger = LoggerFactory.getLogger(MongoDBVariantDirectMergeReader.class);
+
+    /**
+     * Merge reader for a set of files from the same study.
+     *
+     * @param studyId       Study of the files
+     * @param readers       Variant reader for each file
+     * @param chromosomes   Chromosomes of each file. If empty, the file could contain any chromosome
+     */
+    public MongoDBVariantDirectMergeReader(int studyId, Map<Integer, VariantReader> readers, Map<Integer, Set<String>> chromosomes) {
+        this.studyIdStr = Integer.toString(studyId);
+        this.streams = new ArrayList<>(readers.size());
+        for (Map.Entry<Integer, VariantReader> entry : readers.entrySet()) {
+            Set<String> fileChromosomes = chromosomes.get(entry.getKey());
+            streams.add(new FileStream(entry.getKey(), entry.getValue(),
+                    fileChromosomes == null ? Collections.emptySet() : fileChromosomes));
+        }
+    }
+
+    @Override
+    public boolean open() {
+        for (FileStream stream : streams) {
+            stream.reader.open();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean pre() {
+        for (FileStream stream : streams) {
+            stream.reader.pre();
+        }
+        return true;
+    }
+
+    @Override
+    public List<Document> read(int b) {
+        List<Document> list = new ArrayList<>(b);
+
+        // If there were some pending variant, add to the list.
+        Document last = next;
+        if (next != null) {
+            list.add(next);
+            next = null;
+        }
+        while (list.size() < b) {
+            Document document = nextDocument();
+            if (document == null) {
+                break;
+            }
+            last = document;
+            list.add(document);
+        }
+
+        if (last != null && list.size() >= b) {
+            // Do not split overlapping variants in different batches. See MongoDBVariantStageReader
+            Variant lastVar = STRING_ID_CONVERTER.convertToDataModelType(last);
+            int start = lastVar.getStart();
+            int end = lastVar.getEnd();
+            String chr = lastVar.getChromosome();
+            while ((next = nextDocument()) != null) {
+                Variant nextVar = STRING_ID_CONVERTER.convertToDataModelType(next);
+                if (nextVar.overlapWith(chr, start, end, true)) {
+                    list.add(next);
+                    logger.debug("Add overlapping variant last: {}, next: {}", lastVar, nextVar);
+                    lastVar = nextVar;
+                    start = Math.min(start, nextVar.getStart());
+                    end = Math.max(end, nextVar.getEnd());
+                    next = null;
+                } else {
+                    break;
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Merge the next variant from all the files.
+     *
+     * @return Stage-like document, or null if there are no more variants.
+     */
+    private Document nextDocument() {
+        if (queue.isEmpty() && !nextChromosome()) {
+            return null;
+        }
+        FileStream stream = queue.poll();
+        String id = stream.headId();
+        Variant variant = stream.head().variant;
+        Document study = new Document();
+        stream.moveTo(id, study);
+        while (!queue.isEmpty() && queue.peek().headId().equals(id)) {
+            queue.poll().moveTo(id, study);
+        }
+        numVariants++;
+        return STRING_ID_CONVERTER.convertToStorageType(variant).append(studyIdStr, study);
+    }
+
+    /**
+     * Select the next chromosome to merge. A chromosome can be merged only if all the files that
+     * contain that chromosome are pointing to it.
+     *
+     * @return If there is any chromosome left
+     */
+    private boolean nextChromosome() {
+        List<FileStream> active = streams.stream().filter(stream -> stream.head() != null).collect(Collectors.toList());
+        if (active.isEmpty()) {
+            return false;
+        }
+        for (FileStream candidate : active) {
+            String candidateChromosome = candidate.head().variant.getChromosome();
+            if (active.stream().allMatch(stream -> stream.head().variant.getChromosome().equals(candidateChromosome)
+                    || !stream.mayContain(candidateChromosome))) {
+                chromosome = candidateChromosome;
+                for (FileStream stream : active) {
+                    if (stream.head().variant.getChromosome().equals(chromosome)) {
+                        queue.add(stream);
+                    }
+                }
+                logger.debug("Merging chromosome {} from {} files", chromosome, queue.size());
+                return true;
+            }
+        }
+        Map<Integer, String> current = new LinkedHashMap<>();
+        active.forEach(stream -> current.put(stream.fileId, stream.head().variant.getChromosome()));
+        throw new IllegalStateException("Unable to merge files directly. Files are not sorted with the same chromosome order. "
+                + "Current chromosome per file: " + current);
+    }
+
+    @Override
+    public boolean post() {
+        for (FileStream stream : streams) {
+            stream.reader.post();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        for (FileStream stream : streams) {
+            stream.reader.close();
+        }
+        return true;
+    }
+
+    public long getNumVariants() {
+        return numVariants;
+    }
+
+    public long getSkippedVariants() {
+        long skippedVariants = 0;
+        for (FileStream stream : streams) {
+            skippedVariants += stream.skippedVariants;
+        }
+        return skippedVariants;
+    }
+
+    private static class StagedVariant {
+        private final Variant variant;
+        private final String id;
+
+        StagedVariant(Variant variant) {
+            this.variant = variant;
+            this.id = STRING_ID_CONVERTER.buildId(variant);
+        }
+    }
+
+    /**
+     * Sorted stream of variants from one file. Variants starting at the same position are sorted by id,
+     * so the variants with the same id are always consecutive.
+     */
+    private final class FileStream {
+        private final int fileId;
+        private final String fileIdStr;
+        private final VariantReader reader;
+        private final Set<String> chromosomes;
+        private final Set<String> finishedChromosomes = new HashSet<>();
+        private final LinkedList<Variant> buffer = new LinkedList<>();
+        private final LinkedList<StagedVariant> position = new LinkedList<>();
+        private boolean exhausted = false;
+        private long skippedVariants = 0;
+        private String lastChromosome = null;
+        private int lastStart = 0;
+
+        FileStream(int fileId, VariantReader reader, Set<String> chromosomes) {
+            this.fileId = fileId;
+            this.fileIdStr = Integer.toString(fileId);
+            this.reader = reader;
+            this.chromosomes = chromosomes;
+        }
+
+        StagedVariant head() {
+            if (position.isEmpty()) {
+                fillPosition();
+            }
+            return position.peekFirst();
+        }
+
+        String headId() {
+            return head().id;
+        }
+
+        boolean mayContain(String chr) {
+            return !finishedChromosomes.contains(chr) && (chromosomes.isEmpty() || chromosomes.contains(chr));
+        }
+
+        /**
+         * Move all the variants with the given id to the study document. Requeue the stream if there are more
+         * variants from the current chromosome.
+         */
+        void moveTo(String id, Document study) {
+            List<Binary> binaries = new ArrayList<>(1);
+            while (head() != null && head().id.equals(id)) {
+                binaries.add(variantConverter.convertToStorageType(position.removeFirst().variant));
+            }
+            study.append(fileIdStr, binaries);
+            if (head() != null && head().variant.getChromosome().equals(chromosome)) {
+                queue.add(this);
+            }
+        }
+
+        /**
+         * Read all the variants starting in the next position.
+         */
+        private void fillPosition() {
+            Variant first = nextVariant();
+            if (first == null) {
+                return;
+            }
+            if (lastChromosome == null || !lastChromosome.equals(first.getChromosome())) {
+                if (lastChromosome != null) {
+                    finishedChromosomes.add(lastChromosome);
+                }
+                if (finishedChromosomes.contains(first.getChromosome())) {
+                    throw new IllegalStateException("Unable to merge file " + fileId + " directly. Variants from chromosome "
+                            + first.getChromosome() + " are not together");
+                }
+            } else if (first.getStart() < lastStart) {
+                throw new IllegalStateException("Unable to merge file " + fileId + " directly. File not sorted. Variant "
+                        + first + " found after position " + lastChromosome + ":" + lastStart);
+            }
+            lastChromosome = first.getChromosome();
+            lastStart = first.getStart();
+
+            position.add(new StagedVariant(first));
+            Variant variant = peekVariant();
+            while (variant != null && variant.getChromosome().equals(first.getChromosome()) && variant.getStart() == first.getStart()) {
+                position.add(new StagedVariant(nextVariant()));
+                variant = peekVariant();
+            }
+            position.sort(Comparator.comparing(stagedVariant -> stagedVariant.id));
+        }
+
+        private Variant peekVariant() {
+            fillBuffer();
+            return buffer.peekFirst();
+        }
+
+        private Variant nextVariant() {
+            fillBuffer();
+            return buffer.pollFirst();
+        }
+
+        private void fillBuffer() {
+            while (buffer.isEmpty() && !exhausted) {
+                List<Variant> variants = reader.read(FILE_BATCH_SIZE);
+                if (variants == null || variants.isEmpty()) {
+                    exhausted = true;
+                    return;
+                }
+                for (Variant variant : variants) {
+                    // Same variants skipped by the MongoDBVariantStageLoader
+                    if (variant.getType().equals(VariantType.NO_VARIATION) || variant.getType().equals(VariantType.SYMBOLIC)) {
+                        skippedVariants++;
+                        continue;
+                    }
+                    variant.getStudies().forEach(studyEntry -> {
+                        studyEntry.setStudyId(studyIdStr);
+                        studyEntry.getFiles().forEach(fileEntry -> fileEntry.setFileId(fileIdStr));
+                    });
+                    buffer.add(variant);
+                }
+            }
+        }
+    }
+
+}
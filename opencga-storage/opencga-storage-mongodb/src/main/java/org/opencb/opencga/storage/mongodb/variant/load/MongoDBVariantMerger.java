@@ -27,19 +27,25 @@ import org.opencb.opencga.storage.mongodb.variant.VariantMongoDBAdaptor;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToSamplesConverter;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToStudyVariantEntryConverter;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.VariantStorageIdFormat;
 import org.opencb.opencga.storage.mongodb.variant.converters.VariantStringIdComplexTypeConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.stream.Collectors;
 
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Updates.*;
+import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageManager.MongoDBVariantOptions.STORAGE_ID_FORMAT;
 import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToSamplesConverter.UNKNOWN_GENOTYPE;
 import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToStudyVariantEntryConverter.*;
 import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter.IDS_FIELD;
@@ -233,6 +239,23 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
             .append(MongoDBCollection.REPLACE, true);
     private static final QueryOptions UPSERT = new QueryOptions(MongoDBCollection.UPSERT, true);
 
+    /** Times to retry the upserts that failed with a duplicated key, due to concurrent upserts of the same variant. */
+    private int dupKeyRetries = 1;
+
+    // Asynchronous writers. Null to write from the merge threads.
+    private ExecutorService writers;
+    /** Bounds the number of batches pending to be written. */
+    private Semaphore inFlight;
+    private int maxInFlight;
+    private final AtomicReference<RuntimeException> writeError = new AtomicReference<>();
+    /** Write results of each writer thread. Merged on {@link #getResult()}. */
+    private final List<MongoDBVariantWriteResult> writerResults = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadLocal<MongoDBVariantWriteResult> writerResult = ThreadLocal.withInitial(() -> {
+        MongoDBVariantWriteResult writeResult = new MongoDBVariantWriteResult();
+        writerResults.add(writeResult);
+        return writeResult;
+    });
+
     /**
      * Private class for grouping mongodb operations.
      * Allows thread-safe operations.
@@ -242,7 +265,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
 
         // Document may exist, study does not exist
         private class NewStudy {
-            private List<String> ids = new LinkedList<>();
+            private List<Object> ids = new LinkedList<>();
             private List<Bson> queries = new LinkedList<>();
             private List<Bson> updates = new LinkedList<>();
             // Used if the document does not exist
@@ -252,7 +275,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
 
         // Document and study exist
         private class ExistingStudy {
-            private List<String> ids = new LinkedList<>();
+            private List<Object> ids = new LinkedList<>();
             private List<Bson> queries = new LinkedList<>();
             private List<Bson> updates = new LinkedList<>();
         }
@@ -290,6 +313,9 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
         DocumentToSamplesConverter samplesConverter = new DocumentToSamplesConverter(this.studyConfiguration);
         studyConverter = new DocumentToStudyVariantEntryConverter(false, samplesConverter);
         variantConverter = new DocumentToVariantConverter(studyConverter, null);
+        if (dbAdaptor instanceof VariantMongoDBAdaptor) {
+            variantConverter.setIdFormat(((VariantMongoDBAdaptor) dbAdaptor).getStorageIdFormat());
+        }
         result = new MongoDBVariantWriteResult();
         samplesPositionMap = new HashMap<>();
 
@@ -315,8 +341,55 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
         loggingBatchSize = DEFAULT_LOGING_BATCH_SIZE;
     }
 
+    /**
+     * Write the merged variants from a dedicated pool of writers, so the merge threads do not wait for the round trips
+     * to the database. The number of batches pending to be written is bounded, so the merge threads are blocked if the
+     * writers can not keep up.
+     *
+     * @param numWriters    Number of writer threads. 0 to write from the merge threads
+     * @param maxInFlight   Max number of batches pending to be written, including those being written. At least one per writer
+     * @return              this
+     */
+    public MongoDBVariantMerger setAsyncWriters(int numWriters, int maxInFlight) {
+        if (numWriters > 0) {
+            AtomicInteger threadId = new AtomicInteger();
+            writers = Executors.newFixedThreadPool(numWriters, r -> {
+                Thread thread = new Thread(r, "merge-writer-" + threadId.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.maxInFlight = Math.max(numWriters, maxInFlight);
+            inFlight = new Semaphore(this.maxInFlight);
+        }
+        return this;
+    }
+
+    public MongoDBVariantMerger setDupKeyRetries(int dupKeyRetries) {
+        this.dupKeyRetries = dupKeyRetries;
+        return this;
+    }
+
+    /**
+     * Accumulated write result, including the results of the asynchronous writers.
+     *
+     * @return MongoDBVariantWriteResult
+     */
     public MongoDBVariantWriteResult getResult() {
-        return result;
+        if (writers == null) {
+            return result;
+        }
+        MongoDBVariantWriteResult total = new MongoDBVariantWriteResult();
+        synchronized (result) {
+            total.merge(result);
+        }
+        synchronized (writerResults) {
+            for (MongoDBVariantWriteResult writeResult : writerResults) {
+                synchronized (writeResult) {
+                    total.merge(writeResult);
+                }
+            }
+        }
+        return total;
     }
 
     @Override
@@ -335,9 +408,19 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
 
     @Override
     public void post() {
-        VariantMongoDBAdaptor.createIndexes(new QueryOptions(), collection);
+        if (writers != null) {
+            awaitWriters();
+            writers.shutdown();
+        }
+        VariantMongoDBAdaptor.createIndexes(new QueryOptions(STORAGE_ID_FORMAT.key(), variantConverter.getIdFormat().name()), collection);
     }
 
+    /**
+     * Merge a batch of documents from the stage collection into the variants collection.
+     *
+     * @param variants  Documents from the stage collection, sorted
+     * @return          Write result of the batch. With asynchronous writers, it is filled once the batch is written
+     */
     public MongoDBVariantWriteResult load(List<Document> variants) {
 
         // Set of operations to be executed in the Database
@@ -395,7 +478,78 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
         }
 
         // Execute MongoDB Operations
-        return executeMongoDBOperations(mongoDBOps);
+        if (writers == null) {
+            MongoDBVariantWriteResult writeResult = executeMongoDBOperations(mongoDBOps);
+            synchronized (result) {
+                result.merge(writeResult);
+            }
+            return writeResult;
+        } else {
+            return submitMongoDBOperations(mongoDBOps);
+        }
+    }
+
+    /**
+     * Hand the operations to the asynchronous writers. Blocks while there are too many batches pending to be written.
+     *
+     * @param mongoDBOps MongoDB operations to execute
+     * @return Write result of the batch, filled by the writer once the batch is written
+     */
+    private MongoDBVariantWriteResult submitMongoDBOperations(MongoDBOperations mongoDBOps) {
+        checkWriteError();
+        MongoDBVariantWriteResult batchResult = new MongoDBVariantWriteResult();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        try {
+            writers.execute(() -> {
+                try {
+                    if (writeError.get() == null) {
+                        MongoDBVariantWriteResult writeResult = executeMongoDBOperations(mongoDBOps);
+                        synchronized (batchResult) {
+                            batchResult.merge(writeResult);
+                        }
+                        MongoDBVariantWriteResult threadResult = writerResult.get();
+                        synchronized (threadResult) {
+                            threadResult.merge(writeResult);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Error writing merged variants", e);
+                    writeError.compareAndSet(null, e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+        return batchResult;
+    }
+
+    /**
+     * Wait until all the pending batches are written.
+     */
+    private void awaitWriters() {
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        checkWriteError();
+    }
+
+    private void checkWriteError() {
+        RuntimeException e = writeError.get();
+        if (e != null) {
+            throw new RuntimeException("Error writing merged variants", e);
+        }
     }
 
     public Integer getEnd(Variant variant) {
@@ -891,7 +1045,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
                     studyDocument.append(ALTERNATES_FIELD, secondaryAlternates);
                 }
 
-                final String id;
+                final Object id;
                 List<Bson> updates = new ArrayList<>();
                 updates.add(push(STUDIES_FIELD, studyDocument));
                 if (newVariant) {
@@ -908,7 +1062,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
                         }
                     }
                     mongoDBOps.newStudy.variants.add(variantDocument);
-                    id = variantDocument.getString("_id");
+                    id = variantDocument.get("_id");
                 } else {
                     id = variantConverter.buildStorageId(emptyVar);
                 }
@@ -917,7 +1071,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
                 mongoDBOps.newStudy.updates.add(combine(updates));
             }
         } else {
-            String id = variantConverter.buildStorageId(emptyVar);
+            Object id = variantConverter.buildStorageId(emptyVar);
             List<Bson> mergeUpdates = new LinkedList<>();
             mergeUpdates.add(addEachToSet(IDS_FIELD, ids));
 
@@ -964,7 +1118,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
      * Execute the set of mongoDB operations.
      *
      * @param mongoDBOps MongoDB operations to execute
-     * @return           MongoDBVariantWriteResult
+     * @return           MongoDBVariantWriteResult of this operations. Not merged into the accumulated result
      */
     protected MongoDBVariantWriteResult executeMongoDBOperations(MongoDBOperations mongoDBOps) {
         long newVariantsTime = -System.nanoTime();
@@ -973,7 +1127,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
         long existingVariants = -System.nanoTime();
         long newVariants = 0;
         if (!mongoDBOps.newStudy.queries.isEmpty()) {
-            newVariants = executeMongoDBOperationsNewStudy(mongoDBOps, true);
+            newVariants = executeMongoDBOperationsNewStudy(mongoDBOps, dupKeyRetries);
         }
         existingVariants += System.nanoTime();
         long fillGapsVariants = -System.nanoTime();
@@ -992,16 +1146,13 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
                 updatesNewStudyExistingVariant + updatesWithDataExistingStudy, mongoDBOps.missingVariants,
                 mongoDBOps.overlappedVariants, mongoDBOps.skipped, mongoDBOps.nonInserted, newVariantsTime, existingVariants,
                 fillGapsVariants);
-        synchronized (result) {
-            result.merge(writeResult);
-        }
 
         int processedVariants = mongoDBOps.newStudy.queries.size() + mongoDBOps.existingStudy.queries.size();
         logProgress(processedVariants);
         return writeResult;
     }
 
-    private int executeMongoDBOperationsNewStudy(MongoDBOperations mongoDBOps, boolean retry) {
+    private int executeMongoDBOperationsNewStudy(MongoDBOperations mongoDBOps, int retries) {
         int newVariants = 0;
         try {
             if (resume) {
@@ -1044,13 +1195,19 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
         } catch (MongoBulkWriteException e) {
             // Add upserted documents
             newVariants += e.getWriteResult().getUpserts().size();
-            Set<String> duplicatedNonInsertedId = new HashSet<>();
+            Set<Object> duplicatedNonInsertedId = new HashSet<>();
             for (BulkWriteError writeError : e.getWriteErrors()) {
                 if (!ErrorCategory.fromErrorCode(writeError.getCode()).equals(ErrorCategory.DUPLICATE_KEY)) {
                     throw e;
                 } else {
                     Matcher matcher = DUP_KEY_WRITE_RESULT_ERROR_PATTERN.matcher(writeError.getMessage());
-                    if (matcher.find()) {
+                    if (variantConverter.getIdFormat() == VariantStorageIdFormat.BINARY) {
+                        // Binary ids are not readable from the error message
+                        Object id = mongoDBOps.newStudy.ids.get(writeError.getIndex());
+                        duplicatedNonInsertedId.add(id);
+                        logger.warn("Catch error : {}",  writeError.toString());
+                        logger.warn("DupKey exception inserting '{}'. Retry!", id);
+                    } else if (matcher.find()) {
                         String id = matcher.group(1);
                         duplicatedNonInsertedId.add(id);
                         logger.warn("Catch error : {}",  writeError.toString());
@@ -1062,17 +1219,17 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
                     }
                 }
             }
-            if (retry) {
-                // Retry once!
+            if (retries > 0) {
+                // Retry!
                 // With UPSERT=true, this command should never throw DuplicatedKeyException.
                 // See https://jira.mongodb.org/browse/SERVER-14322
                 // Remove inserted variants
-                logger.warn("Retry! " + e);
-                Iterator<String> iteratorId = mongoDBOps.newStudy.ids.iterator();
+                logger.warn("Retry! Remaining retries: " + (retries - 1) + ". " + e);
+                Iterator<Object> iteratorId = mongoDBOps.newStudy.ids.iterator();
                 Iterator<?> iteratorQuery = mongoDBOps.newStudy.queries.iterator();
                 Iterator<?> iteratorUpdate = mongoDBOps.newStudy.updates.iterator();
                 while (iteratorId.hasNext()) {
-                    String id = iteratorId.next();
+                    Object id = iteratorId.next();
                     iteratorQuery.next();
                     iteratorUpdate.next();
                     if (!duplicatedNonInsertedId.contains(id)) {
@@ -1081,7 +1238,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
                         iteratorUpdate.remove();
                     }
                 }
-                newVariants += executeMongoDBOperationsNewStudy(mongoDBOps, false);
+                newVariants += executeMongoDBOperationsNewStudy(mongoDBOps, retries - 1);
             } else {
                 throw e;
             }
@@ -1182,7 +1339,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
 //        throw new RuntimeException(sb.toString());
 //    }
 
-    protected void onUpdateError(String updateName, QueryResult<BulkWriteResult> update, List<Bson> queries, List<String> queryIds) {
+    protected void onUpdateError(String updateName, QueryResult<BulkWriteResult> update, List<Bson> queries, List<Object> queryIds) {
         logger.error("(Updated " + updateName + " variants = " + queries.size() + " ) != "
                 + "(ModifiedCount = " + update.first().getModifiedCount() + "). MatchedCount:" + update.first().getMatchedCount());
         logger.info("QueryIDs: {}", queryIds);
@@ -1192,13 +1349,13 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
         for (QueryResult<Document> r : queryResults) {
             logger.info("result: ", r);
             if (!r.getResult().isEmpty()) {
-                String id = r.first().get("_id", String.class);
+                Object id = r.first().get("_id");
                 boolean remove = queryIds.remove(id);
                 logger.info("remove({}): {}", id, remove);
             }
         }
         StringBuilder sb = new StringBuilder("Missing Variant for update : ");
-        for (String id : queryIds) {
+        for (Object id : queryIds) {
             logger.error("Missing Variant " + id);
             sb.append(id).append(", ");
         }
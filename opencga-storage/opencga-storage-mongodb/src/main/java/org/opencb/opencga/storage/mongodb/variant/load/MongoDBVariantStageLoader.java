@@ -15,6 +15,7 @@ import org.opencb.commons.datastore.core.ComplexTypeConverter;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.mongodb.MongoDBCollection;
 import org.opencb.commons.io.DataWriter;
+import org.opencb.opencga.storage.core.utils.CompressionCodec;
 import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantWriteResult;
 import org.opencb.opencga.storage.mongodb.variant.converters.VariantStringIdComplexTypeConverter;
 import org.opencb.opencga.storage.mongodb.variant.converters.stage.VariantToAvroBinaryConverter;
@@ -61,8 +62,18 @@ public class MongoDBVariantStageLoader implements DataWriter<Variant> {
 
     public static final VariantStringIdComplexTypeConverter STRING_ID_CONVERTER = new VariantStringIdComplexTypeConverter();
 
+    private final ComplexTypeConverter<Variant, Binary> variantConverter;
+
     public MongoDBVariantStageLoader(MongoDBCollection collection, int studyId, int fileId, int numTotalVariants, boolean resumeStageLoad) {
+        this(collection, studyId, fileId, numTotalVariants, resumeStageLoad, CompressionCodec.GZIP);
+    }
+
+    public MongoDBVariantStageLoader(MongoDBCollection collection, int studyId, int fileId, int numTotalVariants, boolean resumeStageLoad,
+                                     CompressionCodec compressionCodec) {
         this.collection = collection;
+        this.variantConverter = compressionCodec == CompressionCodec.GZIP
+                ? VARIANT_CONVERTER_DEFAULT
+                : new VariantToAvroBinaryConverter(compressionCodec);
         this.studyId = studyId;
         this.fileId = fileId;
         this.numTotalVariants = numTotalVariants;
@@ -95,7 +106,7 @@ public class MongoDBVariantStageLoader implements DataWriter<Variant> {
                 skippedVariants[0]++;
                 return;
             }
-            Binary binary = VARIANT_CONVERTER_DEFAULT.convertToStorageType(variant);
+            Binary binary = variantConverter.convertToStorageType(variant);
             Document id = STRING_ID_CONVERTER.convertToStorageType(variant);
 
             ids.put(id, binary);
@@ -269,6 +280,59 @@ public class MongoDBVariantStageLoader implements DataWriter<Variant> {
         return modifiedCount;
     }
 
+    /**
+     * Register in the stage collection the variants merged without being staged.
+     * The stage collection is left as if the files were staged, merged and cleaned with
+     * {@link #cleanStageCollection(MongoDBCollection, int, List, Collection)}, so the next files
+     * can be merged with the already indexed variants.
+     *
+     * {
+     *     <studyId> : {
+     *         <fileId> : null,
+     *         new : false
+     *     }
+     * }
+     *
+     * @param stageCollection   Stage collection
+     * @param studyId           Study of the documents
+     * @param documents         Documents read with the {@link MongoDBVariantDirectMergeReader}
+     * @return                  Number of inserted or modified documents
+     */
+    public static long registerMergedVariants(MongoDBCollection stageCollection, int studyId, List<Document> documents) {
+        String studyIdStr = Integer.toString(studyId);
+        List<Bson> queries = new ArrayList<>(documents.size());
+        List<Bson> updates = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            Document study = document.get(studyIdStr, Document.class);
+            if (study == null) {
+                continue;
+            }
+            // Variants duplicated in all the files are not merged.
+            boolean duplicated = true;
+            List<Bson> studyUpdates = new ArrayList<>(study.size() + 4);
+            for (Map.Entry<String, Object> entry : study.entrySet()) {
+                if (entry.getValue() instanceof List && ((List<?>) entry.getValue()).size() == 1) {
+                    duplicated = false;
+                }
+                studyUpdates.add(set(studyIdStr + "." + entry.getKey(), null));
+            }
+            if (duplicated) {
+                continue;
+            }
+            studyUpdates.add(set(studyIdStr + "." + NEW_STUDY_FIELD, false));
+            studyUpdates.add(setOnInsert(END_FIELD, document.get(END_FIELD)));
+            studyUpdates.add(setOnInsert(REF_FIELD, document.get(REF_FIELD)));
+            studyUpdates.add(setOnInsert(ALT_FIELD, document.get(ALT_FIELD)));
+            queries.add(eq("_id", document.getString("_id")));
+            updates.add(combine(studyUpdates));
+        }
+        if (queries.isEmpty()) {
+            return 0;
+        }
+        BulkWriteResult result = stageCollection.update(queries, updates, QUERY_OPTIONS).first();
+        return result.getUpserts().size() + result.getModifiedCount();
+    }
+
 
     public MongoDBVariantWriteResult getWriteResult() {
         return writeResult;
@@ -19,8 +19,10 @@ package org.opencb.opencga.storage.mongodb.variant;
 import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Sorts;
 import org.bson.Document;
+import org.bson.types.Binary;
 import org.junit.Test;
 import org.opencb.biodata.formats.io.FileFormatException;
+import org.opencb.biodata.models.variant.Variant;
 import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
@@ -38,6 +40,7 @@ import org.opencb.opencga.storage.core.variant.VariantStorageManagerTestUtils;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageManager.MongoDBVariantOptions;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.VariantStorageIdFormat;
 import org.opencb.opencga.storage.mongodb.variant.exceptions.MongoVariantStorageManagerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -198,6 +201,183 @@ public class MongoVariantStorageManagerTest extends VariantStorageManagerTest im
         assertTrue(count > 0);
     }
 
+    @Test
+    public void mergeParallelPartitionsTest() throws Exception {
+        StudyConfiguration studyConfiguration = createStudyConfiguration();
+
+        runDefaultETL(smallInputUri, variantStorageManager, studyConfiguration, new ObjectMap()
+                .append(MongoDBVariantOptions.STAGE.key(), true)
+                .append(MongoDBVariantOptions.MERGE.key(), true)
+                .append(MongoDBVariantOptions.MERGE_PARALLEL_PARTITIONS.key(), 4)
+                .append(VariantStorageManager.Options.ANNOTATE.key(), false)
+                .append(VariantStorageManager.Options.CALCULATE_STATS.key(), false));
+
+        VariantMongoDBAdaptor dbAdaptor = variantStorageManager.getDBAdaptor(DB_NAME);
+        studyConfiguration.copy(dbAdaptor.getStudyConfigurationManager()
+                .getStudyConfiguration(studyConfiguration.getStudyId(), new QueryOptions()).first());
+        BatchFileOperation merge = studyConfiguration.getBatches().get(studyConfiguration.getBatches().size() - 1);
+        assertEquals(MongoDBVariantOptions.MERGE.key(), merge.getOperationName());
+        assertTrue(merge.getPartitions().size() > 1);
+        for (Map.Entry<String, BatchFileOperation.Status> entry : merge.getPartitions().entrySet()) {
+            assertEquals(entry.getKey(), BatchFileOperation.Status.DONE, entry.getValue());
+        }
+
+        Long count = dbAdaptor.count(null).first();
+        assertTrue(count > 0);
+        checkLoadedVariants();
+    }
+
+    @Test
+    public void mergeParallelPartitionsMultipleFilesTest() throws Exception {
+        StudyConfiguration studyConfiguration = createStudyConfiguration();
+        // The second file does not cover the chromosomes of the first one, but the new sample must be merged in all of them
+        List<URI> files = Arrays.asList(smallInputUri,
+                getResourceUri("platinum/1K.end.platinum-genomes-vcf-NA12877_S1.genome.vcf.gz"));
+        ObjectMap options = new ObjectMap()
+                .append(VariantStorageManager.Options.STUDY_ID.key(), studyConfiguration.getStudyId())
+                .append(VariantStorageManager.Options.STUDY_NAME.key(), studyConfiguration.getStudyName())
+                .append(VariantStorageManager.Options.DB_NAME.key(), DB_NAME)
+                .append(VariantStorageManager.Options.FILE_ID.key(), null)
+                .append(VariantStorageManager.Options.ANNOTATE.key(), false)
+                .append(VariantStorageManager.Options.CALCULATE_STATS.key(), false);
+
+        MongoDBVariantStorageManager sequentialStorageManager = getVariantStorageManager("_sequential");
+        sequentialStorageManager.getOptions().putAll(options);
+        MongoDBVariantStorageManager parallelStorageManager = getVariantStorageManager("_parallel");
+        parallelStorageManager.getOptions().putAll(options);
+        parallelStorageManager.getOptions().put(MongoDBVariantOptions.MERGE_PARALLEL_PARTITIONS.key(), 4);
+        for (URI file : files) {
+            sequentialStorageManager.index(Collections.singletonList(file), outputUri, true, true, true);
+            parallelStorageManager.index(Collections.singletonList(file), outputUri, true, true, true);
+        }
+
+        StudyConfiguration parallelStudyConfiguration = parallelStorageManager.getDBAdaptor(DB_NAME).getStudyConfigurationManager()
+                .getStudyConfiguration(studyConfiguration.getStudyId(), null).first();
+        assertEquals(2, parallelStudyConfiguration.getIndexedFiles().size());
+        BatchFileOperation merge = parallelStudyConfiguration.getBatches().get(parallelStudyConfiguration.getBatches().size() - 1);
+        assertEquals(MongoDBVariantOptions.MERGE.key(), merge.getOperationName());
+        assertTrue(merge.getPartitions().containsKey("22"));
+
+        MongoDataStore mongoDataStore = getMongoDataStoreManager(DB_NAME).get(DB_NAME);
+        MongoDBCollection sequentialVariants = mongoDataStore.getCollection(
+                MongoDBVariantOptions.COLLECTION_VARIANTS.defaultValue() + "_sequential");
+        MongoDBCollection parallelVariants = mongoDataStore.getCollection(
+                MongoDBVariantOptions.COLLECTION_VARIANTS.defaultValue() + "_parallel");
+        assertTrue(compareCollections(sequentialVariants, parallelVariants) > 0);
+    }
+
+    @Test
+    public void mergeDirectTest() throws Exception {
+        StudyConfiguration studyConfiguration = createStudyConfiguration();
+        List<URI> files = new ArrayList<>();
+        for (String batch : Arrays.asList("1-500", "501-1000", "1001-1500", "1501-2000", "2001-2504")) {
+            files.add(getResourceUri("1000g_batches/" + batch + ".filtered.10k.chr22.phase3_shapeit2_mvncall_integrated_v5.20130502.genotypes.vcf.gz"));
+        }
+        ObjectMap options = new ObjectMap()
+                .append(VariantStorageManager.Options.STUDY_ID.key(), studyConfiguration.getStudyId())
+                .append(VariantStorageManager.Options.STUDY_NAME.key(), studyConfiguration.getStudyName())
+                .append(VariantStorageManager.Options.DB_NAME.key(), DB_NAME)
+                .append(VariantStorageManager.Options.FILE_ID.key(), null)
+                .append(VariantStorageManager.Options.MERGE_BATCH_SIZE.key(), 3)
+                .append(VariantStorageManager.Options.ANNOTATE.key(), false)
+                .append(VariantStorageManager.Options.CALCULATE_STATS.key(), false);
+
+        // First batch merged directly. Second batch staged, and merged with the variants from the first batch
+        MongoDBVariantStorageManager directStorageManager = getVariantStorageManager("_direct");
+        directStorageManager.getOptions().putAll(options);
+        directStorageManager.getOptions().put(MongoDBVariantOptions.MERGE_DIRECT.key(), true);
+        directStorageManager.index(files, outputUri, true, true, true);
+
+        MongoDBVariantStorageManager stageStorageManager = getVariantStorageManager("_stage");
+        stageStorageManager.getOptions().putAll(options);
+        stageStorageManager.index(files, outputUri, true, true, true);
+
+        StudyConfiguration directStudyConfiguration = directStorageManager.getDBAdaptor(DB_NAME).getStudyConfigurationManager()
+                .getStudyConfiguration(studyConfiguration.getStudyId(), null).first();
+        assertEquals(5, directStudyConfiguration.getIndexedFiles().size());
+        long stagedFiles = directStudyConfiguration.getBatches().stream()
+                .filter(operation -> operation.getOperationName().equals(MongoDBVariantOptions.STAGE.key()))
+                .count();
+        assertEquals(2, stagedFiles);
+
+        MongoDataStore mongoDataStore = getMongoDataStoreManager(DB_NAME).get(DB_NAME);
+        MongoDBCollection stageVariants = mongoDataStore.getCollection(MongoDBVariantOptions.COLLECTION_VARIANTS.defaultValue() + "_stage");
+        MongoDBCollection directVariants = mongoDataStore.getCollection(MongoDBVariantOptions.COLLECTION_VARIANTS.defaultValue() + "_direct");
+        assertTrue(compareCollections(stageVariants, directVariants) > 0);
+
+        // Same index of variants in the stage collection, without staged variants
+        String studyId = Integer.toString(studyConfiguration.getStudyId());
+        Document studyFilter = new Document(studyId, new Document("$exists", true));
+        MongoDBCollection stageStage = mongoDataStore.getCollection(MongoDBVariantOptions.COLLECTION_STAGE.defaultValue() + "_stage");
+        MongoDBCollection directStage = mongoDataStore.getCollection(MongoDBVariantOptions.COLLECTION_STAGE.defaultValue() + "_direct");
+        assertEquals(stageStage.nativeQuery().count(studyFilter), directStage.nativeQuery().count(studyFilter));
+        for (Document document : directStage.nativeQuery().find(studyFilter, new QueryOptions())) {
+            Document study = document.get(studyId, Document.class);
+            assertEquals(false, study.get("new"));
+            for (Object value : study.values()) {
+                assertFalse(value instanceof List);
+            }
+        }
+    }
+
+    @Test
+    public void binaryIdFormatTest() throws Exception {
+        StudyConfiguration studyConfiguration = createStudyConfiguration();
+        ObjectMap options = new ObjectMap()
+                .append(VariantStorageManager.Options.STUDY_ID.key(), studyConfiguration.getStudyId())
+                .append(VariantStorageManager.Options.STUDY_NAME.key(), studyConfiguration.getStudyName())
+                .append(VariantStorageManager.Options.DB_NAME.key(), DB_NAME)
+                .append(VariantStorageManager.Options.ANNOTATE.key(), false)
+                .append(VariantStorageManager.Options.CALCULATE_STATS.key(), false);
+
+        MongoDBVariantStorageManager binaryStorageManager = getVariantStorageManager("_binary");
+        binaryStorageManager.getOptions().putAll(options);
+        binaryStorageManager.getOptions().put(MongoDBVariantOptions.STORAGE_ID_FORMAT.key(), "binary");
+        binaryStorageManager.index(Collections.singletonList(smallInputUri), outputUri, true, true, true);
+
+        MongoDBVariantStorageManager stringStorageManager = getVariantStorageManager("_string");
+        stringStorageManager.getOptions().putAll(options);
+        stringStorageManager.index(Collections.singletonList(smallInputUri), outputUri, true, true, true);
+
+        VariantMongoDBAdaptor binaryDBAdaptor = binaryStorageManager.getDBAdaptor(DB_NAME);
+        VariantMongoDBAdaptor stringDBAdaptor = stringStorageManager.getDBAdaptor(DB_NAME);
+        assertEquals(VariantStorageIdFormat.BINARY, binaryDBAdaptor.getStorageIdFormat());
+        assertEquals(VariantStorageIdFormat.STRING, stringDBAdaptor.getStorageIdFormat());
+        for (Document document : binaryDBAdaptor.getVariantsCollection().nativeQuery().find(new Document(), new QueryOptions())) {
+            assertThat(document.get("_id"), instanceOf(Binary.class));
+            // Regions are queried by _id. No chunk ids
+            assertNull(document.get(DocumentToVariantConverter.AT_FIELD, Document.class).get(DocumentToVariantConverter.CHUNK_IDS_FIELD));
+        }
+
+        // Same variants from the range predicates over the _id
+        for (String region : Arrays.asList("22", "22:16050000-16110000", "22:16054454-16054454", "22:16000000-18000000",
+                "22:1-100000000", "22:16080000-16090000,22:16100000-16110000", "1")) {
+            Query query = new Query(VariantDBAdaptor.VariantQueryParams.REGION.key(), region);
+            assertEquals(region, getSortedVariants(stringDBAdaptor, query), getSortedVariants(binaryDBAdaptor, query));
+        }
+        Variant variant = stringDBAdaptor.get(new Query(), new QueryOptions(QueryOptions.LIMIT, 1)).first();
+        Query query = new Query(VariantDBAdaptor.VariantQueryParams.ID.key(), variant.toString());
+        assertEquals(Collections.singletonList(variant.toString()), getSortedVariants(binaryDBAdaptor, query));
+
+        // The id format can not be changed once there are variants
+        assertEquals(VariantStorageIdFormat.STRING, stringDBAdaptor.initStorageIdFormat(VariantStorageIdFormat.BINARY));
+
+        // Offline migration produces the same variants collection
+        String migratedCollection = MongoDBVariantOptions.COLLECTION_VARIANTS.defaultValue() + "_migrated";
+        long migrated = stringStorageManager.migrateStorageIdFormat(DB_NAME, migratedCollection, VariantStorageIdFormat.BINARY);
+        assertEquals(stringDBAdaptor.getVariantsCollection().count().first().longValue(), migrated);
+        VariantMongoDBAdaptor migratedDBAdaptor = getVariantStorageManager("_migrated").getDBAdaptor(DB_NAME);
+        assertEquals(VariantStorageIdFormat.BINARY, migratedDBAdaptor.getStorageIdFormat());
+        assertEquals(migrated, compareCollections(binaryDBAdaptor.getVariantsCollection(), migratedDBAdaptor.getVariantsCollection()));
+    }
+
+    private List<String> getSortedVariants(VariantMongoDBAdaptor dbAdaptor, Query query) {
+        return dbAdaptor.get(query, new QueryOptions()).getResult().stream()
+                .map(Variant::toString)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
     @Test
     public void loadStageConcurrent() throws Exception {
         StudyConfiguration studyConfiguration = createStudyConfiguration();
@@ -77,6 +77,7 @@ public class VariantMongoDBWriterTest implements MongoVariantStorageManagerTestU
     private LinkedHashSet<Integer> file1SampleIds;
     private LinkedHashSet<Integer> file2SampleIds;
     private LinkedHashSet<Integer> file3SampleIds;
+    private int mergeWriters = 0;
 
     @Before
     public void setUp() throws Exception {
@@ -188,6 +189,12 @@ public class VariantMongoDBWriterTest implements MongoVariantStorageManagerTestU
 
     }
 
+    @Test
+    public void testInsertMultiFilesAsyncWriters() throws StorageManagerException {
+        mergeWriters = 2;
+        testInsertMultiFiles();
+    }
+
     @Test
     public void testInsertMultiFilesMultiMerge() throws StorageManagerException {
         List<Variant> allVariants;
@@ -485,18 +492,22 @@ public class VariantMongoDBWriterTest implements MongoVariantStorageManagerTestU
         MongoDBVariantStageReader reader = new MongoDBVariantStageReader(stage, studyConfiguration.getStudyId(), chromosomes);
         MongoDBVariantMerger dbMerger = new MongoDBVariantMerger(dbAdaptor, studyConfiguration, fileIds,
                 variantsCollection, reader.countAproxNumVariants(), studyConfiguration.getIndexedFiles(), false);
+        dbMerger.setAsyncWriters(mergeWriters, 1);
 
         reader.open();
         reader.pre();
 
         List<Document> batch = reader.read(100);
         while (batch != null && !batch.isEmpty()) {
-            dbMerger.apply(batch);
+            assertEquals(1, dbMerger.apply(batch).size());
             batch = reader.read(100);
         }
 
         reader.post();
         reader.close();
+        if (mergeWriters > 0) {
+            dbMerger.post();
+        }
 
         MongoDBVariantStageLoader.cleanStageCollection(stage, studyConfiguration.getStudyId(), fileIds);
         studyConfiguration.getIndexedFiles().addAll(fileIds);
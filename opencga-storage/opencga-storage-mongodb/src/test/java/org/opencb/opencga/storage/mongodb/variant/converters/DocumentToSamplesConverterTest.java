@@ -1,7 +1,15 @@
 package org.opencb.opencga.storage.mongodb.variant.converters;
 
+import org.bson.Document;
+import org.bson.types.Binary;
 import org.junit.Test;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageManager;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToSamplesConverter;
+import org.opencb.opencga.storage.mongodb.variant.protobuf.VariantMongoDBProto;
+
+import java.util.*;
 
 import static org.junit.Assert.*;
 
@@ -52,6 +60,52 @@ public class DocumentToSamplesConverterTest {
 
     }
 
+    @Test
+    public void testReturnedSamplesFromOneFile() throws Exception {
+        StudyConfiguration studyConfiguration = new StudyConfiguration(1, "study");
+        Map<String, Integer> sampleIds = new HashMap<>();
+        sampleIds.put("S1", 1);
+        sampleIds.put("S2", 2);
+        sampleIds.put("S3", 3);
+        sampleIds.put("S4", 4);
+        studyConfiguration.setSampleIds(sampleIds);
+        studyConfiguration.getIndexedFiles().addAll(Arrays.asList(10, 20));
+        studyConfiguration.getSamplesInFiles().put(10, new LinkedHashSet<>(Arrays.asList(1, 2)));
+        studyConfiguration.getSamplesInFiles().put(20, new LinkedHashSet<>(Arrays.asList(3, 4)));
+        studyConfiguration.getAttributes().put(MongoDBVariantStorageManager.MongoDBVariantOptions.DEFAULT_GENOTYPE.key(),
+                Collections.singleton("0/0"));
+        studyConfiguration.getAttributes().put(VariantStorageManager.Options.EXTRA_GENOTYPE_FIELDS.key(), Collections.singletonList("DP"));
+        studyConfiguration.getAttributes().put(VariantStorageManager.Options.EXTRA_GENOTYPE_FIELDS_COMPRESS.key(), false);
+
+        byte[] dp = VariantMongoDBProto.OtherFields.newBuilder()
+                .addIntValues(DocumentToSamplesConverter.INTEGER_COMPLEX_TYPE_CONVERTER.convertToStorageType("10"))
+                .addIntValues(DocumentToSamplesConverter.INTEGER_COMPLEX_TYPE_CONVERTER.convertToStorageType("20"))
+                .build().toByteArray();
+        Document study = new Document(DocumentToStudyVariantEntryConverter.GENOTYPES_FIELD, new Document("0/1", Arrays.asList(2, 3)))
+                .append(DocumentToStudyVariantEntryConverter.FILES_FIELD, Arrays.asList(
+                        new Document(DocumentToStudyVariantEntryConverter.FILEID_FIELD, 10)
+                                .append(DocumentToStudyVariantEntryConverter.SAMPLE_DATA_FIELD, new Document("dp", new Binary(dp))),
+                        // Not a valid value. Must not be decoded, as none of its samples is returned
+                        new Document(DocumentToStudyVariantEntryConverter.FILEID_FIELD, 20)
+                                .append(DocumentToStudyVariantEntryConverter.SAMPLE_DATA_FIELD,
+                                        new Document("dp", new Binary(new byte[]{(byte) 0xFF})))));
+
+        DocumentToSamplesConverter converter = new DocumentToSamplesConverter(studyConfiguration);
+        converter.setReturnedSamples(Arrays.asList("S2", "S1"));
+        List<List<String>> samplesData = converter.convertToDataModelType(study, 1);
+        LinkedHashMap<String, Integer> samplesPosition = DocumentToSamplesConverter.getReturnedSamplesPosition(studyConfiguration,
+                new LinkedHashSet<>(Arrays.asList("S2", "S1")));
+
+        assertEquals(2, samplesData.size());
+        assertEquals(Arrays.asList("0/0", "10"), samplesData.get(samplesPosition.get("S1")));
+        assertEquals(Arrays.asList("0/1", "20"), samplesData.get(samplesPosition.get("S2")));
+
+        // Same converter, different returned samples
+        converter.setReturnedSamples(Collections.singletonList("S2"));
+        samplesData = converter.convertToDataModelType(study, 1);
+        assertEquals(Collections.singletonList(Arrays.asList("0/1", "20")), samplesData);
+    }
+
     public void testInteger(String dataModelType) {
         assertEquals(dataModelType, DocumentToSamplesConverter.INTEGER_COMPLEX_TYPE_CONVERTER.convertToDataModelType(DocumentToSamplesConverter.INTEGER_COMPLEX_TYPE_CONVERTER.convertToStorageType(dataModelType)));
     }
@@ -0,0 +1,68 @@
+package org.opencb.opencga.storage.mongodb.variant.converters;
+
+import com.google.common.primitives.UnsignedBytes;
+import org.bson.types.Binary;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class VariantBinaryIdConverterTest {
+
+    private final VariantBinaryIdConverter converter = new VariantBinaryIdConverter();
+
+    @Test
+    public void testFixedWidth() {
+        assertEquals(VariantBinaryIdConverter.ID_LENGTH, converter.buildId(new Variant("1", 1000, 1000, "A", "C")).length());
+        String alt = "ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGT";
+        assertEquals(VariantBinaryIdConverter.ID_LENGTH, converter.buildId(new Variant("1", 1000, 1002, "TAG", alt)).length());
+        assertEquals(VariantBinaryIdConverter.ID_LENGTH, converter.buildId("GL000192.1", 1000, "", "CA").length());
+    }
+
+    @Test
+    public void testSortedIds() {
+        List<Binary> ids = Arrays.asList(
+                converter.buildId("1", 10, "A", "C"),
+                converter.buildId("1", 1000, "A", "C"),
+                converter.buildId("1", 100000, "A", "C"),
+                converter.buildId("2", 10, "A", "C"),
+                converter.buildId("10", 10, "A", "C"),
+                converter.buildId("22", 100000000, "A", "C"),
+                converter.buildId("X", 10, "A", "C"),
+                converter.buildId("Y", 10, "A", "C"),
+                converter.buildId("MT", 10, "A", "C"));
+        for (int i = 1; i < ids.size(); i++) {
+            assertTrue(compare(ids.get(i - 1), ids.get(i)) < 0);
+        }
+    }
+
+    @Test
+    public void testAlleles() {
+        assertEquals(converter.buildId("1", 1000, "A", "C"), converter.buildId("1", 1000, "A", "C"));
+        assertEquals(converter.buildId("1", 1000, "-", "CA"), converter.buildId("1", 1000, "", "CA"));
+        assertNotEquals(converter.buildId("1", 1000, "A", "C"), converter.buildId("1", 1000, "A", "G"));
+        assertNotEquals(converter.buildId("1", 1000, "AC", ""), converter.buildId("1", 1000, "A", "C"));
+        assertEquals(converter.getChromosomeCode("1"), converter.getChromosomeCode("chr1"));
+        assertEquals(converter.buildId("1", 1000, "A", "C"), converter.buildId("chr1", 1000, "A", "C"));
+        assertEquals(converter.buildLowerBound("1", 1000), converter.buildLowerBound("chr1", 1000));
+        assertEquals(converter.getChromosomeCode("M"), converter.getChromosomeCode("MT"));
+    }
+
+    @Test
+    public void testLowerBound() {
+        Binary id = converter.buildId("1", 1000, "A", "C");
+        assertTrue(compare(converter.buildLowerBound("1", 1000), id) <= 0);
+        assertTrue(compare(id, converter.buildLowerBound("1", 1001)) < 0);
+        assertTrue(compare(converter.buildLowerBound("1", 0), id) < 0);
+        assertTrue(compare(id, converter.buildLowerBound("1", Integer.MAX_VALUE + 1L)) < 0);
+        assertTrue(compare(converter.buildId("1", Integer.MAX_VALUE, "A", "C"), converter.buildLowerBound("1", Integer.MAX_VALUE + 1L)) < 0);
+        assertTrue(compare(converter.buildLowerBound("1", Integer.MAX_VALUE + 1L), converter.buildLowerBound("2", 0)) < 0);
+    }
+
+    private int compare(Binary a, Binary b) {
+        return UnsignedBytes.lexicographicalComparator().compare(a.getData(), b.getData());
+    }
+}
@@ -145,7 +145,7 @@ public class VariantGrpcService extends GenericGrpcService implements VariantSer
         // Creating the VariantDBAdaptor to the parsed storageEngine and database
         long start = System.currentTimeMillis();
         VariantStorageManager variantStorageManager = storageManagerFactory.getVariantStorageManager(storageEngine);
-        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(database);
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getCachedDBAdaptor(database);
         logger.debug("Connection to {}:{} in {}ms", storageEngine, database, System.currentTimeMillis() - start);
 
         return variantDBAdaptor;
@@ -73,7 +73,7 @@ public class VariantRestWebService extends GenericRestWebService {
 
         public static QueryResult getVariants(String storageEngine, String dbName, boolean histogram, int interval, QueryOptions options)
                 throws StorageManagerException, ClassNotFoundException, IllegalAccessException, InstantiationException {
-            VariantDBAdaptor dbAdaptor = StorageManagerFactory.get().getVariantStorageManager(storageEngine).getDBAdaptor(dbName);
+            VariantDBAdaptor dbAdaptor = StorageManagerFactory.get().getVariantStorageManager(storageEngine).getCachedDBAdaptor(dbName);
 
             Query query = new Query();
             for (VariantQueryParams acceptedValue : VariantQueryParams.values()) {